@@ -0,0 +1,342 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.www.CarteObjectEntry;
+import org.pentaho.di.www.CarteSingleton;
+
+/**
+ * Bounds the transformations and jobs the executions register in the Carte transformation and job maps.
+ * <p>
+ * Each registered run holds its whole {@link Trans} or {@link Job}, with its rowsets and log, until it is removed from
+ * Carte. Finished runs are removed once they have been finished for longer than {@link #getTtl()}, and the oldest
+ * finished runs are removed as soon as more than {@link #getMaxEntries()} runs are registered. Running transformations
+ * and jobs are never removed. A compact {@link Summary} of each removed run is kept, up to
+ * {@link #getMaxSummaries()} of them.
+ */
+public class CarteRegistryRetention {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  public static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis( 24 );
+
+  public static final int DEFAULT_MAX_SUMMARIES = 1000;
+
+  private static final long SWEEP_PERIOD = TimeUnit.MINUTES.toMillis( 1 );
+
+  private static final CarteRegistryRetention instance = new CarteRegistryRetention();
+
+  // in registration order, the oldest first
+  private final Map<String, Registration> registrations = new LinkedHashMap<>();
+
+  private final Deque<Summary> summaries = new ArrayDeque<>();
+
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  private long ttl = DEFAULT_TTL;
+
+  private int maxSummaries = DEFAULT_MAX_SUMMARIES;
+
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  private ScheduledExecutorService sweeper;
+
+  // package-local for test reasons
+  CarteRegistryRetention() {
+  }
+
+  public static CarteRegistryRetention getInstance() {
+    return instance;
+  }
+
+  /**
+   * Registers a transformation in the Carte transformation map. It has to be added to the map by the caller.
+   *
+   * @param name          the name it was added under
+   * @param carteObjectId the id it was added under
+   * @param trans         the transformation
+   */
+  public void register( String name, String carteObjectId, Trans trans ) {
+    register( new Registration( new CarteObjectEntry( name, carteObjectId ), trans, null ) );
+  }
+
+  /**
+   * Registers a job in the Carte job map. It has to be added to the map by the caller.
+   *
+   * @param name          the name it was added under
+   * @param carteObjectId the id it was added under
+   * @param job           the job
+   */
+  public void register( String name, String carteObjectId, Job job ) {
+    register( new Registration( new CarteObjectEntry( name, carteObjectId ), null, job ) );
+  }
+
+  private void register( Registration registration ) {
+    synchronized ( registrations ) {
+      registrations.put( registration.entry.getId(), registration );
+    }
+    startSweeper();
+    evict();
+  }
+
+  /**
+   * Removes from Carte the finished runs that expired or exceed the maximum number of entries.
+   */
+  public void evict() {
+    List<Registration> evicted = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    synchronized ( registrations ) {
+      int excess = registrations.size() - maxEntries;
+      Iterator<Registration> iterator = registrations.values().iterator();
+      while ( iterator.hasNext() ) {
+        Registration registration = iterator.next();
+        if ( !registration.isFinished() ) {
+          continue;
+        }
+        boolean expired = ttl > 0 && now - registration.getFinishedTime( now ) > ttl;
+        if ( expired || ( maxEntries > 0 && excess > 0 ) ) {
+          iterator.remove();
+          evicted.add( registration );
+          excess--;
+        }
+      }
+    }
+
+    for ( Registration registration : evicted ) {
+      remove( registration );
+    }
+  }
+
+  private void remove( Registration registration ) {
+    Summary summary = registration.summarize();
+    if ( registration.trans != null ) {
+      CarteSingleton.getInstance().getTransformationMap().removeTransformation( registration.entry );
+      KettleLogStore.discardLines( registration.trans.getLogChannelId(), true );
+    } else {
+      CarteSingleton.getInstance().getJobMap().removeJob( registration.entry );
+      KettleLogStore.discardLines( registration.job.getLogChannelId(), true );
+    }
+    evictionCount.incrementAndGet();
+
+    synchronized ( summaries ) {
+      if ( maxSummaries > 0 ) {
+        summaries.addLast( summary );
+      }
+      while ( summaries.size() > Math.max( maxSummaries, 0 ) ) {
+        summaries.removeFirst();
+      }
+    }
+  }
+
+  /**
+   * @return the summaries of the runs removed from Carte, the most recent last
+   */
+  public List<Summary> getSummaries() {
+    synchronized ( summaries ) {
+      return new ArrayList<>( summaries );
+    }
+  }
+
+  /**
+   * @return the number of runs currently registered, running or finished
+   */
+  public int size() {
+    synchronized ( registrations ) {
+      return registrations.size();
+    }
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets the number of runs above which the oldest finished runs are removed. A value of zero or less removes the
+   * limit.
+   *
+   * @param maxEntries the maximum number of runs
+   */
+  public void setMaxEntries( int maxEntries ) {
+    this.maxEntries = maxEntries;
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  /**
+   * Sets how long a finished run stays registered. A value of zero or less keeps it until it exceeds the maximum
+   * number of runs.
+   *
+   * @param ttl the time to live, in milliseconds
+   */
+  public void setTtl( long ttl ) {
+    this.ttl = ttl;
+  }
+
+  public int getMaxSummaries() {
+    return maxSummaries;
+  }
+
+  public void setMaxSummaries( int maxSummaries ) {
+    this.maxSummaries = maxSummaries;
+  }
+
+  private synchronized void startSweeper() {
+    if ( sweeper == null ) {
+      sweeper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "CarteRegistryRetention-sweeper" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      } );
+      sweeper.scheduleWithFixedDelay( this::evict, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  private static class Registration {
+    private final CarteObjectEntry entry;
+    private final Trans trans;
+    private final Job job;
+    // when the run was first seen finished, if it has no end date
+    private long finishedTime;
+
+    Registration( CarteObjectEntry entry, Trans trans, Job job ) {
+      this.entry = entry;
+      this.trans = trans;
+      this.job = job;
+    }
+
+    boolean isFinished() {
+      return trans != null ? trans.isFinishedOrStopped() : job.isFinished();
+    }
+
+    long getFinishedTime( long now ) {
+      Date endDate = trans != null ? trans.getExecutionEndDate() : job.getExecutionEndDate();
+      if ( endDate != null ) {
+        return endDate.getTime();
+      }
+      if ( finishedTime == 0 ) {
+        finishedTime = now;
+      }
+      return finishedTime;
+    }
+
+    Summary summarize() {
+      if ( trans != null ) {
+        return new Summary( entry, Summary.TRANSFORMATION, trans.getStatus(), trans.getExecutionStartDate(),
+          trans.getExecutionEndDate(), trans.getResult() );
+      }
+      return new Summary( entry, Summary.JOB, job.getStatus(), job.getExecutionStartDate(),
+        job.getExecutionEndDate(), job.getResult() );
+    }
+  }
+
+  /**
+   * What is left of a run removed from Carte
+   */
+  public static class Summary {
+
+    public static final String TRANSFORMATION = "transformation"; //$NON-NLS-1$
+
+    public static final String JOB = "job"; //$NON-NLS-1$
+
+    private final String name;
+    private final String carteObjectId;
+    private final String type;
+    private final String status;
+    private final Date startDate;
+    private final Date endDate;
+    private final long linesRead;
+    private final long linesWritten;
+    private final long linesRejected;
+    private final long errors;
+
+    Summary( CarteObjectEntry entry, String type, String status, Date startDate, Date endDate, Result result ) {
+      this.name = entry.getName();
+      this.carteObjectId = entry.getId();
+      this.type = type;
+      this.status = status;
+      this.startDate = startDate;
+      this.endDate = endDate;
+      this.linesRead = result != null ? result.getNrLinesRead() : 0;
+      this.linesWritten = result != null ? result.getNrLinesWritten() : 0;
+      this.linesRejected = result != null ? result.getNrLinesRejected() : 0;
+      this.errors = result != null ? result.getNrErrors() : 0;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getCarteObjectId() {
+      return carteObjectId;
+    }
+
+    /**
+     * @return {@link #TRANSFORMATION} or {@link #JOB}
+     */
+    public String getType() {
+      return type;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public Date getStartDate() {
+      return startDate;
+    }
+
+    public Date getEndDate() {
+      return endDate;
+    }
+
+    public long getLinesRead() {
+      return linesRead;
+    }
+
+    public long getLinesWritten() {
+      return linesWritten;
+    }
+
+    public long getLinesRejected() {
+      return linesRejected;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.cluster.SlaveServer;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.cluster.TransSplitter;
+import org.pentaho.di.trans.step.StepMeta;
+
+/**
+ * Runs a transformation on the slave servers of its cluster schemas, the way a job runs a clustered transformation:
+ * the transformation is split in a master and slave transformations, posted, prepared and started on their servers,
+ * then monitored until all of them are done.
+ */
+public class ClusteredTransExecution {
+
+  private static final Log log = LogFactory.getLog( ClusteredTransExecution.class );
+
+  private final TransMeta transMeta;
+
+  private final TransExecutionConfiguration executionConfiguration;
+
+  private final LogChannelInterface logChannel;
+
+  private volatile TransSplitter transSplitter;
+
+  private volatile Result result;
+
+  private volatile boolean stopped;
+
+  private long startTime;
+
+  private long endTime;
+
+  /**
+   * @param transMeta              the populated transformation
+   * @param executionConfiguration the configuration of the execution, sent to the servers
+   */
+  public ClusteredTransExecution( TransMeta transMeta, TransExecutionConfiguration executionConfiguration ) {
+    this.transMeta = transMeta;
+    this.executionConfiguration = executionConfiguration;
+    this.logChannel = new LogChannel( transMeta );
+  }
+
+  /**
+   * @param transMeta the transformation
+   * @return <code>true</code> if at least one step of the transformation runs on a cluster
+   */
+  public static boolean isClustered( TransMeta transMeta ) {
+    for ( StepMeta stepMeta : transMeta.getSteps() ) {
+      if ( stepMeta.isClustered() ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Splits the transformation and starts its pieces on their servers.
+   *
+   * @throws KettleException if the transformation could not be split or a piece could not be started
+   */
+  public void start() throws KettleException {
+    executionConfiguration.setExecutingLocally( false );
+    executionConfiguration.setExecutingRemotely( false );
+    executionConfiguration.setExecutingClustered( true );
+    executionConfiguration.setClusterPosting( true );
+    executionConfiguration.setClusterPreparing( true );
+    executionConfiguration.setClusterStarting( true );
+    executionConfiguration.setClusterShowingTransformation( false );
+
+    startTime = System.currentTimeMillis();
+    transSplitter = Trans.executeClustered( transMeta, executionConfiguration );
+  }
+
+  /**
+   * Waits until the master and all the slave transformations are finished, then collects their result and removes them
+   * from their servers.
+   *
+   * @return the result of the whole transformation
+   */
+  public Result waitUntilFinished() {
+    try {
+      long errors = Trans.monitorClusteredTransformation( logChannel, transSplitter, null );
+      Result clusteredResult = Trans.getClusteredTransformationResult( logChannel, transSplitter, null,
+        executionConfiguration.isLogRemoteExecutionLocally() );
+      if ( clusteredResult.getNrErrors() < errors ) {
+        clusteredResult.setNrErrors( errors );
+      }
+      clusteredResult.setResult( clusteredResult.getNrErrors() == 0 && !stopped );
+      result = clusteredResult;
+    } finally {
+      endTime = System.currentTimeMillis();
+      try {
+        Trans.cleanupCluster( logChannel, transSplitter );
+      } catch ( Exception e ) {
+        log.warn( e.getMessage(), e );
+      }
+    }
+
+    if ( log.isDebugEnabled() ) {
+      long millis = Math.max( endTime - startTime, 1 );
+      log.debug( "Clustered transformation " + transMeta.getName() + " finished in " + millis + " ms, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + result.getNrLinesWritten() * 1000 / millis + " rows written per second" ); //$NON-NLS-1$
+    }
+    return result;
+  }
+
+  /**
+   * Stops the master and the slave transformations on their servers
+   */
+  public void stop() {
+    stopped = true;
+    TransSplitter splitter = transSplitter;
+    if ( splitter == null ) {
+      return;
+    }
+
+    Map<TransMeta, String> carteObjectMap = splitter.getCarteObjectMap();
+    TransMeta master = splitter.getMaster();
+    if ( master != null && master.nrSteps() > 0 ) {
+      try {
+        stop( splitter.getMasterServer(), master, carteObjectMap );
+      } catch ( KettleException e ) {
+        log.warn( e.getMessage(), e );
+      }
+    }
+    SlaveServer[] slaveServers = splitter.getSlaveTargets();
+    TransMeta[] slaves = splitter.getSlaves();
+    for ( int i = 0; i < slaveServers.length && i < slaves.length; i++ ) {
+      stop( slaveServers[ i ], slaves[ i ], carteObjectMap );
+    }
+  }
+
+  private static void stop( SlaveServer slaveServer, TransMeta piece, Map<TransMeta, String> carteObjectMap ) {
+    try {
+      slaveServer.stopTransformation( piece.getName(), carteObjectMap.get( piece ) );
+    } catch ( Exception e ) {
+      log.warn( "Could not stop " + piece.getName() + " on " + slaveServer.getName(), e ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+
+  /**
+   * @return the result of the whole transformation, or <code>null</code> if it is not finished
+   */
+  public Result getResult() {
+    return result;
+  }
+
+  /**
+   * @return the status of the whole transformation, in the terms of {@link Trans#getStatus()}
+   */
+  public String getStatus() {
+    if ( result == null ) {
+      return transSplitter != null ? Trans.STRING_RUNNING : Trans.STRING_WAITING;
+    } else if ( stopped ) {
+      return Trans.STRING_STOPPED;
+    }
+    return result.getNrErrors() > 0 ? Trans.STRING_FINISHED_WITH_ERRORS : Trans.STRING_FINISHED;
+  }
+
+  /**
+   * @return the number of errors of the whole transformation, 0 if it is not finished
+   */
+  public long getErrors() {
+    return result != null ? result.getNrErrors() : 0;
+  }
+
+  public String getLogChannelId() {
+    return logChannel.getLogChannelId();
+  }
+}
@@ -0,0 +1,440 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Result set holding the rows captured from a step column by column, in primitive arrays, instead of one
+ * <code>Object[]</code> of boxed values per row as {@link MemoryResultSet} does. It still is a
+ * <code>MemoryResultSet</code>, so that it can be handed as is to the callers expecting one, but rows cannot be added
+ * to it as boxed values.
+ * <p>
+ * Integers and numbers are kept in <code>long[]</code> and <code>double[]</code>, dates as epoch milliseconds, booleans
+ * as bits and strings as codes into a dictionary of their distinct values, as long as there are few enough of them.
+ * Nulls are kept in a bitmap per column. The columns grow in chunks of {@link #CHUNK_SIZE} rows, so appending never
+ * copies the rows already captured. The values are boxed again when they are read, with the same types as the ones of
+ * the rows captured by a <code>MemoryResultSet</code>.
+ * <p>
+ * The rows are appended by a single thread, the one of the step, and read once the transformation is finished.
+ */
+public class ColumnarResultSet extends MemoryResultSet {
+
+  public static final int CHUNK_SIZE = 1 << 12;
+
+  /**
+   * The number of distinct values above which the strings of a column are no longer dictionary-encoded
+   */
+  public static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  private static final int CHUNK_SHIFT = 12;
+
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private Column[] columns;
+
+  private int rowCount;
+
+  private int rowIterator;
+
+  /**
+   * @param metaData the names of the columns
+   */
+  public ColumnarResultSet( IPentahoMetaData metaData ) {
+    super( metaData );
+  }
+
+  private ColumnarResultSet( ColumnarResultSet rows ) {
+    super( rows.getMetaData() );
+    this.columns = rows.columns;
+    this.rowCount = rows.rowCount;
+  }
+
+  /**
+   * Appends a row written by a step, converting its values to the same types as the rows of a
+   * <code>MemoryResultSet</code> captured from a step.
+   *
+   * @param rowMeta the metadata of the row
+   * @param row     the row
+   * @throws KettleValueException if a value cannot be converted
+   */
+  public void addRow( RowMetaInterface rowMeta, Object[] row ) throws KettleValueException {
+    if ( columns == null ) {
+      columns = new Column[ getColumnCount() ];
+      for ( int columnNo = 0; columnNo < columns.length; columnNo++ ) {
+        columns[ columnNo ] = newColumn( rowMeta.getValueMeta( columnNo ).getType() );
+      }
+    }
+    for ( int columnNo = 0; columnNo < columns.length; columnNo++ ) {
+      columns[ columnNo ].append( rowCount, rowMeta, row, columnNo );
+    }
+    rowCount++;
+  }
+
+  /**
+   * Not supported, the rows are captured with {@link #addRow(RowMetaInterface, Object[])}.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public int addRow( Object[] row ) {
+    throw new UnsupportedOperationException();
+  }
+
+  private static Column newColumn( int type ) {
+    switch ( type ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return new LongColumn();
+      case ValueMetaInterface.TYPE_NUMBER:
+        return new DoubleColumn();
+      case ValueMetaInterface.TYPE_DATE:
+        return new DateColumn();
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return new BooleanColumn();
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return new BigNumberColumn();
+      default:
+        return new StringColumn();
+    }
+  }
+
+  @Override
+  public boolean isScrollable() {
+    return true;
+  }
+
+  @Override
+  public Object getValueAt( int row, int column ) {
+    if ( row < 0 || row >= rowCount ) {
+      return null;
+    }
+    return columns[ column ].get( row );
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return getMetaData().getColumnCount();
+  }
+
+  @Override
+  public Object[] next() {
+    if ( rowIterator >= rowCount ) {
+      return null;
+    }
+    return getDataRow( rowIterator++ );
+  }
+
+  @Override
+  public void beforeFirst() {
+    rowIterator = 0;
+  }
+
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  @Override
+  public void closeConnection() {
+    // nothing to close
+  }
+
+  @Override
+  public void dispose() {
+    columns = null;
+    rowCount = 0;
+    rowIterator = 0;
+  }
+
+  /**
+   * Returns a result set sharing the captured rows with this one, with its own position. Rows must no longer be
+   * appended to this one.
+   */
+  @Override
+  public IPentahoResultSet memoryCopy() {
+    return new ColumnarResultSet( this );
+  }
+
+  @Override
+  public Object[] getDataColumn( int column ) {
+    Object[] values = new Object[ rowCount ];
+    for ( int row = 0; row < rowCount; row++ ) {
+      values[ row ] = columns[ column ].get( row );
+    }
+    return values;
+  }
+
+  @Override
+  public Object[] getDataRow( int row ) {
+    if ( row < 0 || row >= rowCount ) {
+      return null;
+    }
+    Object[] values = new Object[ columns.length ];
+    for ( int column = 0; column < columns.length; column++ ) {
+      values[ column ] = columns[ column ].get( row );
+    }
+    return values;
+  }
+
+  /**
+   * The values of a column, in chunks, with a bitmap of its nulls
+   */
+  private abstract static class Column {
+    private long[][] nulls = new long[ 16 ][];
+
+    abstract void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException;
+
+    abstract Object getValue( int row );
+
+    Object get( int row ) {
+      return isNull( row ) ? null : getValue( row );
+    }
+
+    boolean isNull( int row ) {
+      int chunkNo = row >>> CHUNK_SHIFT;
+      long[] chunk = chunkNo < nulls.length ? nulls[ chunkNo ] : null;
+      return chunk != null && ( chunk[ ( row & CHUNK_MASK ) >>> 6 ] & ( 1L << row ) ) != 0;
+    }
+
+    void setNull( int row ) {
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= nulls.length ) {
+        nulls = Arrays.copyOf( nulls, nulls.length * 2 );
+      }
+      if ( nulls[ chunkNo ] == null ) {
+        nulls[ chunkNo ] = new long[ CHUNK_SIZE / 64 ];
+      }
+      nulls[ chunkNo ][ ( row & CHUNK_MASK ) >>> 6 ] |= 1L << row;
+    }
+  }
+
+  private static class LongColumn extends Column {
+    private long[][] chunks = new long[ 16 ][];
+
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      Long value = rowMeta.getInteger( data, index );
+      if ( value == null ) {
+        setNull( row );
+      } else {
+        set( row, value );
+      }
+    }
+
+    void set( int row, long value ) {
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= chunks.length ) {
+        chunks = Arrays.copyOf( chunks, chunks.length * 2 );
+      }
+      if ( chunks[ chunkNo ] == null ) {
+        chunks[ chunkNo ] = new long[ CHUNK_SIZE ];
+      }
+      chunks[ chunkNo ][ row & CHUNK_MASK ] = value;
+    }
+
+    long getLong( int row ) {
+      return chunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ];
+    }
+
+    @Override
+    Object getValue( int row ) {
+      return getLong( row );
+    }
+  }
+
+  private static class DateColumn extends LongColumn {
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      Date value = rowMeta.getDate( data, index );
+      if ( value == null ) {
+        setNull( row );
+      } else {
+        set( row, value.getTime() );
+      }
+    }
+
+    @Override
+    Object getValue( int row ) {
+      return new Date( getLong( row ) );
+    }
+  }
+
+  private static class DoubleColumn extends Column {
+    private double[][] chunks = new double[ 16 ][];
+
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      Double value = rowMeta.getNumber( data, index );
+      if ( value == null ) {
+        setNull( row );
+        return;
+      }
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= chunks.length ) {
+        chunks = Arrays.copyOf( chunks, chunks.length * 2 );
+      }
+      if ( chunks[ chunkNo ] == null ) {
+        chunks[ chunkNo ] = new double[ CHUNK_SIZE ];
+      }
+      chunks[ chunkNo ][ row & CHUNK_MASK ] = value;
+    }
+
+    @Override
+    Object getValue( int row ) {
+      return chunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ];
+    }
+  }
+
+  private static class BooleanColumn extends Column {
+    private long[][] chunks = new long[ 16 ][];
+
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      Boolean value = rowMeta.getBoolean( data, index );
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= chunks.length ) {
+        chunks = Arrays.copyOf( chunks, chunks.length * 2 );
+      }
+      if ( chunks[ chunkNo ] == null ) {
+        chunks[ chunkNo ] = new long[ CHUNK_SIZE / 64 ];
+      }
+      if ( value == null ) {
+        setNull( row );
+      } else if ( value ) {
+        chunks[ chunkNo ][ ( row & CHUNK_MASK ) >>> 6 ] |= 1L << row;
+      }
+    }
+
+    @Override
+    Object getValue( int row ) {
+      return ( chunks[ row >>> CHUNK_SHIFT ][ ( row & CHUNK_MASK ) >>> 6 ] & ( 1L << row ) ) != 0;
+    }
+  }
+
+  private static class BigNumberColumn extends Column {
+    private Object[][] chunks = new Object[ 16 ][];
+
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= chunks.length ) {
+        chunks = Arrays.copyOf( chunks, chunks.length * 2 );
+      }
+      if ( chunks[ chunkNo ] == null ) {
+        chunks[ chunkNo ] = new Object[ CHUNK_SIZE ];
+      }
+      chunks[ chunkNo ][ row & CHUNK_MASK ] = rowMeta.getBigNumber( data, index );
+    }
+
+    @Override
+    Object getValue( int row ) {
+      return chunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ];
+    }
+  }
+
+  /**
+   * Dictionary-encoded strings, until there are too many distinct values
+   */
+  private static class StringColumn extends Column {
+    private Map<String, Integer> codes = new HashMap<>();
+    private List<String> dictionary = new ArrayList<>();
+    private int[][] codeChunks = new int[ 16 ][];
+    // once the dictionary is abandoned
+    private String[][] valueChunks;
+
+    @Override
+    void append( int row, RowMetaInterface rowMeta, Object[] data, int index ) throws KettleValueException {
+      String value = rowMeta.getString( data, index );
+      if ( value == null ) {
+        setNull( row );
+        return;
+      }
+      if ( valueChunks != null ) {
+        setValue( row, value );
+        return;
+      }
+
+      Integer code = codes.get( value );
+      if ( code == null ) {
+        if ( dictionary.size() >= MAX_DICTIONARY_SIZE ) {
+          abandonDictionary( row );
+          setValue( row, value );
+          return;
+        }
+        code = dictionary.size();
+        dictionary.add( value );
+        codes.put( value, code );
+      }
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= codeChunks.length ) {
+        codeChunks = Arrays.copyOf( codeChunks, codeChunks.length * 2 );
+      }
+      if ( codeChunks[ chunkNo ] == null ) {
+        codeChunks[ chunkNo ] = new int[ CHUNK_SIZE ];
+      }
+      codeChunks[ chunkNo ][ row & CHUNK_MASK ] = code;
+    }
+
+    /**
+     * Stores the values of the rows already appended as they are, as most of them are distinct
+     */
+    private void abandonDictionary( int rowCount ) {
+      valueChunks = new String[ codeChunks.length ][];
+      for ( int row = 0; row < rowCount; row++ ) {
+        if ( !isNull( row ) ) {
+          setValue( row, dictionary.get( codeChunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ] ) );
+        }
+      }
+      codes = null;
+      dictionary = null;
+      codeChunks = null;
+    }
+
+    private void setValue( int row, String value ) {
+      int chunkNo = row >>> CHUNK_SHIFT;
+      if ( chunkNo >= valueChunks.length ) {
+        valueChunks = Arrays.copyOf( valueChunks, valueChunks.length * 2 );
+      }
+      if ( valueChunks[ chunkNo ] == null ) {
+        valueChunks[ chunkNo ] = new String[ CHUNK_SIZE ];
+      }
+      valueChunks[ chunkNo ][ row & CHUNK_MASK ] = value;
+    }
+
+    @Override
+    Object getValue( int row ) {
+      if ( valueChunks != null ) {
+        return valueChunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ];
+      }
+      return dictionary.get( codeChunks[ row >>> CHUNK_SHIFT ][ row & CHUNK_MASK ] );
+    }
+  }
+}
@@ -0,0 +1,337 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+
+/**
+ * Server-wide cache of the {@link TransMeta} and {@link JobMeta} loaded for the executions, keyed by the repository
+ * file id and its version (or last modified date when the repository is not versioned).
+ * <p>
+ * The cached metas are never handed out: every lookup returns a private clone, so concurrent executions of the same
+ * file never share mutable metadata. Saving a file through the {@code IUnifiedRepository} gives it a new version, so
+ * the stale entry is replaced on the next lookup. This version check is the only invalidation there is: the plugin is
+ * not told about file changes, and an entry of a deleted file is simply never hit again. The cache is bounded and
+ * evicts the least recently used entry.
+ */
+public class EngineMetaCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 100;
+
+  private static final Log log = LogFactory.getLog( EngineMetaCache.class );
+
+  private static final EngineMetaCache instance = new EngineMetaCache();
+
+  private final Map<Serializable, CacheEntry> entries = new LinkedHashMap<Serializable, CacheEntry>( 16, 0.75f, true );
+
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  // package-local for test reasons
+  EngineMetaCache() {
+  }
+
+  public static EngineMetaCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns a private copy of the cached transformation for the given file, ready to be executed with the given
+   * repository and parent variable space.
+   *
+   * @param file       the repository file of the transformation
+   * @param repository the repository used by this execution
+   * @param parent     the parent variable space of this execution
+   * @return a copy of the cached transformation, or <code>null</code> if it is not cached
+   */
+  public TransMeta getTransMeta( RepositoryFile file, Repository repository, VariableSpace parent ) {
+    return get( file, TransMeta.class, repository, parent );
+  }
+
+  /**
+   * Returns a private copy of the cached job for the given file, ready to be executed with the given repository and
+   * parent variable space.
+   *
+   * @param file       the repository file of the job
+   * @param repository the repository used by this execution
+   * @param parent     the parent variable space of this execution
+   * @return a copy of the cached job, or <code>null</code> if it is not cached
+   */
+  public JobMeta getJobMeta( RepositoryFile file, Repository repository, VariableSpace parent ) {
+    return get( file, JobMeta.class, repository, parent );
+  }
+
+  /**
+   * Caches a snapshot of the given meta for the given file. The meta itself is not retained, so the caller may go on
+   * using (and changing) it.
+   *
+   * @param file the repository file the meta was loaded from
+   * @param meta the freshly loaded meta
+   */
+  public void put( RepositoryFile file, AbstractMeta meta ) {
+    String version = getVersion( file );
+    if ( version == null || meta == null || !isEnabled() ) {
+      return;
+    }
+
+    AbstractMeta snapshot = snapshotOf( meta );
+    if ( snapshot == null ) {
+      return;
+    }
+
+    synchronized ( entries ) {
+      entries.put( file.getId(), new CacheEntry( version, snapshot ) );
+      evictEldestEntries();
+    }
+  }
+
+  /**
+   * Tells whether the current version of the given file is cached.
+   *
+   * @param file the repository file
+   * @return <code>true</code> if a lookup of the file would hit the cache
+   */
+  public boolean contains( RepositoryFile file ) {
+    return getEntry( file ) != null;
+  }
+
+  /**
+   * Returns the thread footprint computed for the cached version of the given file, see {@link TransThreadFootprint}.
+   *
+   * @param file the repository file
+   * @return the number of threads, or 0 if it is not known for the current version of the file
+   */
+  public int getThreadFootprint( RepositoryFile file ) {
+    CacheEntry entry = getEntry( file );
+    return entry != null ? entry.threadFootprint : 0;
+  }
+
+  /**
+   * Keeps the thread footprint of the given file along with its meta, if the same version of the file is cached. It
+   * is dropped with the meta once the file is saved again.
+   *
+   * @param file            the repository file
+   * @param threadFootprint the number of threads
+   */
+  public void putThreadFootprint( RepositoryFile file, int threadFootprint ) {
+    CacheEntry entry = getEntry( file );
+    if ( entry != null ) {
+      entry.threadFootprint = threadFootprint;
+    }
+  }
+
+  private CacheEntry getEntry( RepositoryFile file ) {
+    String version = getVersion( file );
+    if ( version == null ) {
+      return null;
+    }
+    synchronized ( entries ) {
+      CacheEntry entry = entries.get( file.getId() );
+      return entry != null && version.equals( entry.version ) ? entry : null;
+    }
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxEntries > 0;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets the maximum number of cached metas. A value of zero or less disables the cache.
+   *
+   * @param maxEntries the maximum number of cached metas
+   */
+  public void setMaxEntries( int maxEntries ) {
+    synchronized ( entries ) {
+      this.maxEntries = maxEntries;
+      evictEldestEntries();
+    }
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  private <T extends AbstractMeta> T get( RepositoryFile file, Class<T> metaType, Repository repository,
+                                          VariableSpace parent ) {
+    String version = getVersion( file );
+    if ( version == null || !isEnabled() ) {
+      return null;
+    }
+
+    CacheEntry entry;
+    synchronized ( entries ) {
+      entry = entries.get( file.getId() );
+      if ( entry != null && !version.equals( entry.version ) ) {
+        // the file was saved since it was cached
+        entries.remove( file.getId() );
+        entry = null;
+      }
+    }
+
+    AbstractMeta meta = entry != null && metaType.isInstance( entry.meta )
+      ? copyOf( entry.meta, repository, parent ) : null;
+    if ( meta == null ) {
+      missCount.incrementAndGet();
+      if ( log.isDebugEnabled() ) {
+        log.debug( "Meta cache miss for " + file.getPath() + " (version " + version + ")" );
+      }
+      return null;
+    }
+
+    hitCount.incrementAndGet();
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Meta cache hit for " + file.getPath() + " (version " + version + ")" );
+    }
+
+    return metaType.cast( meta );
+  }
+
+  private void evictEldestEntries() {
+    Iterator<CacheEntry> iterator = entries.values().iterator();
+    while ( entries.size() > Math.max( maxEntries, 0 ) && iterator.hasNext() ) {
+      iterator.next();
+      iterator.remove();
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  private static String getVersion( RepositoryFile file ) {
+    if ( file == null || file.getId() == null ) {
+      return null;
+    }
+    if ( file.getVersionId() != null ) {
+      return file.getVersionId().toString();
+    }
+    if ( file.getLastModifiedDate() != null ) {
+      return Long.toString( file.getLastModifiedDate().getTime() );
+    }
+    return null;
+  }
+
+  /**
+   * Returns a copy of the given meta suitable for caching: only its internal variables are kept, everything else
+   * comes from the parent of each execution.
+   *
+   * @param meta the freshly loaded meta
+   * @return the snapshot, or <code>null</code> if the meta cannot be copied
+   */
+  static AbstractMeta snapshotOf( AbstractMeta meta ) {
+    AbstractMeta snapshot = copyOf( meta );
+    if ( snapshot != null ) {
+      snapshot.shareVariablesWith( getInternalVariables( meta ) );
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns a private copy of the given snapshot, ready to be executed with the given repository and parent variable
+   * space.
+   *
+   * @param snapshot   a snapshot returned by {@link #snapshotOf(AbstractMeta)}
+   * @param repository the repository used by the execution
+   * @param parent     the parent variable space of the execution
+   * @return the copy, or <code>null</code> if the snapshot cannot be copied
+   */
+  static AbstractMeta copyOf( AbstractMeta snapshot, Repository repository, VariableSpace parent ) {
+    AbstractMeta meta = copyOf( snapshot );
+    if ( meta == null ) {
+      return null;
+    }
+
+    // same as loading it from scratch: the parent variables plus the internal ones of the file
+    VariableSpace variables = new Variables();
+    variables.initializeVariablesFrom( parent );
+    for ( String name : snapshot.listVariables() ) {
+      variables.setVariable( name, snapshot.getVariable( name ) );
+    }
+    meta.shareVariablesWith( variables );
+    meta.setRepository( repository );
+    return meta;
+  }
+
+  private static AbstractMeta copyOf( AbstractMeta meta ) {
+    if ( meta instanceof TransMeta ) {
+      return (AbstractMeta) ( (TransMeta) meta ).realClone( false );
+    } else if ( meta instanceof JobMeta ) {
+      return (AbstractMeta) ( (JobMeta) meta ).realClone( false );
+    }
+    return null;
+  }
+
+  private static VariableSpace getInternalVariables( AbstractMeta meta ) {
+    VariableSpace variables = new Variables();
+    for ( String name : meta.listVariables() ) {
+      if ( name.startsWith( Const.INTERNAL_VARIABLE_PREFIX ) ) {
+        variables.setVariable( name, meta.getVariable( name ) );
+      }
+    }
+    return variables;
+  }
+
+  private static class CacheEntry {
+    private final String version;
+    private final AbstractMeta meta;
+    // of the transformation, 0 until it is computed
+    private volatile int threadFootprint;
+
+    CacheEntry( String version, AbstractMeta meta ) {
+      this.version = version;
+      this.meta = meta;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.TransMeta;
+
+/**
+ * Server-wide cache of the {@link TransMeta} and {@link JobMeta} parsed from input streams (such as PVFS files),
+ * keyed by a digest of the stream contents.
+ * <p>
+ * The stream is read once, computing its digest on the way; on a miss the meta is parsed from the bytes already read.
+ * An unchanged file therefore skips the XML parsing and the plugin resolution altogether. As with
+ * {@link EngineMetaCache}, every lookup returns a private clone. The cache is bounded by the total size of the cached
+ * files and evicts the least recently used entry.
+ */
+public class EngineMetaContentCache {
+
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+  private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+  private static final Log log = LogFactory.getLog( EngineMetaContentCache.class );
+
+  private static final EngineMetaContentCache instance = new EngineMetaContentCache();
+
+  private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>( 16, 0.75f, true );
+
+  private long maxBytes = DEFAULT_MAX_BYTES;
+
+  private long bytes;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  // package-local for test reasons
+  EngineMetaContentCache() {
+  }
+
+  public static EngineMetaContentCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Reads the given stream to its end, computing the digest of its contents.
+   *
+   * @param inputStream the stream, which is not closed
+   * @return the contents of the stream
+   * @throws IOException if the stream cannot be read
+   */
+  public static Content read( InputStream inputStream ) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IOException( e );
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DigestInputStream digestStream = new DigestInputStream( inputStream, digest );
+    byte[] buffer = new byte[8192];
+    int read;
+    while ( ( read = digestStream.read( buffer ) ) != -1 ) {
+      bytes.write( buffer, 0, read );
+    }
+    return new Content( bytes.toByteArray(), Base64.getEncoder().encodeToString( digest.digest() ) );
+  }
+
+  /**
+   * Returns a private copy of the cached transformation with the given contents, ready to be executed with the given
+   * repository and parent variable space.
+   *
+   * @param content    the contents of the transformation
+   * @param repository the repository used by this execution
+   * @param parent     the parent variable space of this execution
+   * @return a copy of the cached transformation, or <code>null</code> if it is not cached
+   */
+  public TransMeta getTransMeta( Content content, Repository repository, VariableSpace parent ) {
+    return get( content, TransMeta.class, repository, parent );
+  }
+
+  /**
+   * Returns a private copy of the cached job with the given contents, ready to be executed with the given repository
+   * and parent variable space.
+   *
+   * @param content    the contents of the job
+   * @param repository the repository used by this execution
+   * @param parent     the parent variable space of this execution
+   * @return a copy of the cached job, or <code>null</code> if it is not cached
+   */
+  public JobMeta getJobMeta( Content content, Repository repository, VariableSpace parent ) {
+    return get( content, JobMeta.class, repository, parent );
+  }
+
+  /**
+   * Caches a snapshot of the given meta for the given contents. Contents larger than the cache are not cached.
+   *
+   * @param content the contents the meta was parsed from
+   * @param meta    the freshly parsed meta
+   */
+  public void put( Content content, AbstractMeta meta ) {
+    if ( content == null || meta == null || !isEnabled() || content.getLength() > maxBytes ) {
+      return;
+    }
+
+    AbstractMeta snapshot = EngineMetaCache.snapshotOf( meta );
+    if ( snapshot == null ) {
+      return;
+    }
+
+    synchronized ( entries ) {
+      CacheEntry previous = entries.put( content.getDigest(), new CacheEntry( snapshot, content.getLength() ) );
+      if ( previous != null ) {
+        bytes -= previous.length;
+      }
+      bytes += content.getLength();
+      evictEldestEntries();
+    }
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+      bytes = 0;
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Sets the maximum total size, in bytes, of the files whose metas are cached. A value of zero or less disables the
+   * cache.
+   *
+   * @param maxBytes the maximum total size
+   */
+  public void setMaxBytes( long maxBytes ) {
+    synchronized ( entries ) {
+      this.maxBytes = maxBytes;
+      evictEldestEntries();
+    }
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the total size, in bytes, of the files whose metas are cached
+   */
+  public long getBytes() {
+    synchronized ( entries ) {
+      return bytes;
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return the ratio of lookups that found the meta in the cache, between 0 and 1
+   */
+  public double getHitRate() {
+    long hits = hitCount.get();
+    long lookups = hits + missCount.get();
+    return lookups == 0 ? 0 : hits / (double) lookups;
+  }
+
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  private <T extends AbstractMeta> T get( Content content, Class<T> metaType, Repository repository,
+                                          VariableSpace parent ) {
+    if ( content == null || !isEnabled() ) {
+      return null;
+    }
+
+    CacheEntry entry;
+    synchronized ( entries ) {
+      entry = entries.get( content.getDigest() );
+    }
+
+    AbstractMeta meta = entry != null && metaType.isInstance( entry.meta )
+      ? EngineMetaCache.copyOf( entry.meta, repository, parent ) : null;
+    if ( meta == null ) {
+      missCount.incrementAndGet();
+      if ( log.isDebugEnabled() ) {
+        log.debug( "Meta content cache miss for digest " + content.getDigest() );
+      }
+      return null;
+    }
+
+    hitCount.incrementAndGet();
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Meta content cache hit for digest " + content.getDigest() );
+    }
+    return metaType.cast( meta );
+  }
+
+  private void evictEldestEntries() {
+    Iterator<CacheEntry> iterator = entries.values().iterator();
+    while ( bytes > Math.max( maxBytes, 0 ) && iterator.hasNext() ) {
+      bytes -= iterator.next().length;
+      iterator.remove();
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * The contents of a stream along with their digest
+   */
+  public static class Content {
+    private final byte[] bytes;
+    private final String digest;
+
+    Content( byte[] bytes, String digest ) {
+      this.bytes = bytes;
+      this.digest = digest;
+    }
+
+    public String getDigest() {
+      return digest;
+    }
+
+    public int getLength() {
+      return bytes.length;
+    }
+
+    /**
+     * @return a new stream over the contents
+     */
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream( bytes );
+    }
+  }
+
+  private static class CacheEntry {
+    private final AbstractMeta meta;
+    private final long length;
+
+    CacheEntry( AbstractMeta meta, long length ) {
+      this.meta = meta;
+      this.length = length;
+    }
+  }
+}
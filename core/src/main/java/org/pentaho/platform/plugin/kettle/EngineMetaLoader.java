@@ -13,12 +13,11 @@
 
 package org.pentaho.platform.plugin.kettle;
 
-import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.base.AbstractMeta;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.repository.RepositoriesMeta;
 import org.pentaho.di.repository.Repository;
-import org.pentaho.di.repository.RepositoryDirectoryInterface;
 import org.pentaho.di.repository.RepositoryMeta;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.platform.plugin.kettle.messages.Messages;
@@ -57,69 +56,29 @@ public class EngineMetaLoader {
   }
 
   /**
-   * Loads a transformation from the PDI repository
+   * Loads a transformation or a job through the {@link EngineMetaResolverChain}
    * 
    * @param directoryName
    * @param transformationName
    * @return
    * @throws FileNotFoundException
    */
-  @SuppressWarnings( "unchecked" )
-  private <T> T load( final String directoryName, final String fileName, Class<T> metaType, VariableSpace parent )
-    throws FileNotFoundException {
+  private <T extends AbstractMeta> T load( final String directoryName, final String fileName, Class<T> metaType,
+                                           VariableSpace parent ) throws FileNotFoundException {
 
     if ( log.isDebugEnabled() ) {
       log.debug( MessageFormat.format( "attempting to load dir: {0} file: {1} from repository: {2}", directoryName, //$NON-NLS-1$
           fileName, ( repository == null ) ? "" : repository.getName() ) ); //$NON-NLS-1$
-    }
 
-    T meta = null;
-    try {
-      if ( repository != null ) {
-        // Load the transformation from the repository the "new way"
-        RepositoryDirectoryInterface directory = repository.loadRepositoryDirectoryTree().findDirectory( directoryName );
-        if ( metaType == TransMeta.class ) {
-          meta = (T) repository.loadTransformation( repository.getBowl(), fileName, directory, null, true, null, parent );
-        } else {
-          meta = (T) repository.loadJob( fileName, directory, null, null, parent );
-        }
-      } else {
+      if ( repository == null ) {
         // temporary debug for testing failure cases on mac
-        if ( log.isDebugEnabled() ) {
-          log.debug( "Repository is null!" ); //$NON-NLS-1$
-          dumpRepositoryNames();
-        }
+        log.debug( "Repository is null!" ); //$NON-NLS-1$
+        dumpRepositoryNames();
       }
-    } catch ( Exception e ) {
-      log.error( MessageFormat.format(
-          "Using the new Repository API, we could not find dir: {0} file: {1} in repository: {2}", directoryName, //$NON-NLS-1$
-          fileName, ( repository == null ) ? "" : repository.getName() ), e ); //$NON-NLS-1$
     }
 
-    if ( meta == null ) {
-      // Load the job or trans the old way. If repository is null, that is ok, the meta object will attempt to load from
-      // the FS
-      try {
-        if ( metaType == TransMeta.class ) {
-          meta = (T) new TransMeta( directoryName + "/" + fileName, repository ); //$NON-NLS-1$
-        } else {
-          meta = (T) new JobMeta( directoryName + "/" + fileName, repository ); //$NON-NLS-1$
-        }
-      } catch ( KettleException e ) {
-        log.error( MessageFormat.format(
-            "Using the old Repository API, failed to open file: {0}/{1} in repository: {2}", directoryName, //$NON-NLS-1$
-            fileName, ( repository == null ) ? "" : repository.getName() ), e ); //$NON-NLS-1$
-      }
-    }
-
-    if ( meta == null ) {
-      String message =
-          MessageFormat.format( Messages.getInstance()
-              .getErrorString( "EngineMetaLoader.ERROR_0002_PDI_FILE_NOT_FOUND" ), //$NON-NLS-1$
-              directoryName, fileName, ( repository == null ) ? "" : repository.getName() ); //$NON-NLS-1$ 
-      throw new FileNotFoundException( message );
-    }
-    return meta;
+    // If repository is null, that is ok, the meta object will attempt to load from the FS
+    return EngineMetaResolverChain.getInstance().resolve( metaType, repository, directoryName, fileName, parent );
   }
 
   private void dumpRepositoryNames() {
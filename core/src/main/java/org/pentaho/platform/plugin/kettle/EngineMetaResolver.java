@@ -0,0 +1,44 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.repository.Repository;
+
+/**
+ * One strategy for loading a transformation or a job. Strategies are tried in order by the
+ * {@link EngineMetaResolverChain} until one of them returns a meta.
+ */
+public interface EngineMetaResolver {
+
+  /**
+   * @return the name of this strategy, used for logging
+   */
+  String getName();
+
+  /**
+   * Loads the transformation or job.
+   *
+   * @param metaType   either {@code TransMeta.class} or {@code JobMeta.class}
+   * @param repository the repository, may be <code>null</code>
+   * @param directory  the directory of the file
+   * @param fileName   the file name, id or path, as given to the execution
+   * @param parent     the parent variable space
+   * @return the meta, or <code>null</code> if this strategy does not apply
+   * @throws Exception if this strategy failed to load the file
+   */
+  AbstractMeta resolve( Class<? extends AbstractMeta> metaType, Repository repository, String directory,
+                        String fileName, VariableSpace parent ) throws Exception;
+}
@@ -0,0 +1,373 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.FileNotFoundException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+import org.pentaho.di.repository.StringObjectId;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.kettle.messages.Messages;
+
+/**
+ * Ordered chain of {@link EngineMetaResolver}s used to load transformations and jobs.
+ * <p>
+ * The chain remembers which strategy loaded each file and tries that one first the next time, so a file that only
+ * resolves through the last strategy does not pay for the failed attempts (and their logged stack traces) on every
+ * execution. Files that cannot be loaded by any strategy are remembered for a short time, during which they fail
+ * right away. Both are kept per user, as what a user can load depends on their permissions.
+ * <p>
+ * Both are bounded: the least recently used preferred strategies are forgotten, and the expired misses are swept as
+ * new ones are added, the oldest being dropped should there still be too many.
+ */
+public class EngineMetaResolverChain {
+
+  public static final long DEFAULT_MISS_TTL = TimeUnit.SECONDS.toMillis( 10 );
+
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static final Log log = LogFactory.getLog( EngineMetaResolverChain.class );
+
+  private static final EngineMetaResolverChain instance = new EngineMetaResolverChain(
+    new UnifiedRepositoryResolver(), new RepositoryResolver(), new FileResolver() );
+
+  private volatile List<EngineMetaResolver> resolvers;
+
+  private final Map<String, EngineMetaResolver> preferredResolvers =
+    new LinkedHashMap<String, EngineMetaResolver>( 16, 0.75f, true );
+
+  // in insertion order, which is also the order they expire in
+  private final Map<String, Long> misses = new LinkedHashMap<String, Long>();
+
+  private volatile long missTtl = DEFAULT_MISS_TTL;
+
+  private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  public EngineMetaResolverChain( EngineMetaResolver... resolvers ) {
+    this.resolvers = Arrays.asList( resolvers );
+  }
+
+  public static EngineMetaResolverChain getInstance() {
+    return instance;
+  }
+
+  /**
+   * Loads the given transformation or job with the first strategy that succeeds.
+   *
+   * @param metaType   either {@code TransMeta.class} or {@code JobMeta.class}
+   * @param repository the repository, may be <code>null</code>
+   * @param directory  the directory of the file
+   * @param fileName   the file name, id or path
+   * @param parent     the parent variable space
+   * @return the loaded meta
+   * @throws FileNotFoundException if no strategy could load the file
+   */
+  public <T extends AbstractMeta> T resolve( Class<T> metaType, Repository repository, String directory,
+                                             String fileName, VariableSpace parent ) throws FileNotFoundException {
+    String repositoryName = repository == null ? "" : repository.getName(); //$NON-NLS-1$
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    String userName = session == null ? "" : session.getName(); //$NON-NLS-1$
+    String key = metaType.getSimpleName() + ":" + repositoryName + ":" + userName + ":" + directory //$NON-NLS-1$
+      + ":" + fileName; //$NON-NLS-1$
+
+    if ( isMiss( key ) ) {
+      throw new FileNotFoundException( getNotFoundMessage( directory, fileName, repositoryName ) );
+    }
+
+    Exception lastError = null;
+    for ( EngineMetaResolver resolver : getOrderedResolvers( getPreferredResolver( key ) ) ) {
+      try {
+        AbstractMeta meta = resolver.resolve( metaType, repository, directory, fileName, parent );
+        if ( metaType.isInstance( meta ) ) {
+          putPreferredResolver( key, resolver );
+          return metaType.cast( meta );
+        }
+      } catch ( Exception e ) {
+        lastError = e;
+        if ( log.isDebugEnabled() ) {
+          log.debug( MessageFormat.format( "Could not load dir: {0} file: {1} with the {2} strategy", directory, //$NON-NLS-1$
+            fileName, resolver.getName() ), e );
+        }
+      }
+    }
+
+    synchronized ( preferredResolvers ) {
+      preferredResolvers.remove( key );
+    }
+    putMiss( key );
+
+    String message = getNotFoundMessage( directory, fileName, repositoryName );
+    log.error( message, lastError );
+    FileNotFoundException exception = new FileNotFoundException( message );
+    exception.initCause( lastError );
+    throw exception;
+  }
+
+  /**
+   * Forgets the preferred strategies and the misses.
+   */
+  public void clear() {
+    synchronized ( preferredResolvers ) {
+      preferredResolvers.clear();
+    }
+    synchronized ( misses ) {
+      misses.clear();
+    }
+  }
+
+  public List<EngineMetaResolver> getResolvers() {
+    return resolvers;
+  }
+
+  public void setResolvers( List<EngineMetaResolver> resolvers ) {
+    this.resolvers = new ArrayList<>( resolvers );
+    clear();
+  }
+
+  public long getMissTtl() {
+    return missTtl;
+  }
+
+  /**
+   * Sets for how long, in milliseconds, a file that could not be loaded fails right away. A value of zero or less
+   * disables the caching of misses.
+   *
+   * @param missTtl the time to live of a miss, in milliseconds
+   */
+  public void setMissTtl( long missTtl ) {
+    this.missTtl = missTtl;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets how many preferred strategies, and how many misses, are remembered at most.
+   *
+   * @param maxEntries the maximum number of entries of each kind
+   */
+  public void setMaxEntries( int maxEntries ) {
+    this.maxEntries = maxEntries;
+    synchronized ( preferredResolvers ) {
+      evictEldestEntries( preferredResolvers );
+    }
+    synchronized ( misses ) {
+      evictEldestEntries( misses );
+    }
+  }
+
+  /**
+   * Returns the number of remembered preferred strategies and misses.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    int size;
+    synchronized ( preferredResolvers ) {
+      size = preferredResolvers.size();
+    }
+    synchronized ( misses ) {
+      return size + misses.size();
+    }
+  }
+
+  private EngineMetaResolver getPreferredResolver( String key ) {
+    synchronized ( preferredResolvers ) {
+      return preferredResolvers.get( key );
+    }
+  }
+
+  private void putPreferredResolver( String key, EngineMetaResolver resolver ) {
+    synchronized ( preferredResolvers ) {
+      preferredResolvers.put( key, resolver );
+      evictEldestEntries( preferredResolvers );
+    }
+  }
+
+  private boolean isMiss( String key ) {
+    synchronized ( misses ) {
+      Long missExpiration = misses.get( key );
+      if ( missExpiration == null ) {
+        return false;
+      }
+      if ( System.currentTimeMillis() < missExpiration ) {
+        return true;
+      }
+      misses.remove( key );
+      return false;
+    }
+  }
+
+  private void putMiss( String key ) {
+    long ttl = missTtl;
+    if ( ttl <= 0 ) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized ( misses ) {
+      // re-inserted so it moves behind the ones expiring before it
+      misses.remove( key );
+      misses.put( key, now + ttl );
+
+      Iterator<Long> iterator = misses.values().iterator();
+      while ( iterator.hasNext() && iterator.next() <= now ) {
+        iterator.remove();
+      }
+      evictEldestEntries( misses );
+    }
+  }
+
+  private void evictEldestEntries( Map<String, ?> entries ) {
+    Iterator<?> iterator = entries.values().iterator();
+    while ( entries.size() > Math.max( maxEntries, 0 ) && iterator.hasNext() ) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  private List<EngineMetaResolver> getOrderedResolvers( EngineMetaResolver preferred ) {
+    List<EngineMetaResolver> currentResolvers = resolvers;
+    if ( preferred == null || !currentResolvers.contains( preferred ) ) {
+      return currentResolvers;
+    }
+
+    // the preferred one first, the others remain as fallback should it stop working
+    List<EngineMetaResolver> ordered = new ArrayList<>( currentResolvers.size() );
+    ordered.add( preferred );
+    for ( EngineMetaResolver resolver : currentResolvers ) {
+      if ( resolver != preferred ) {
+        ordered.add( resolver );
+      }
+    }
+    return ordered;
+  }
+
+  private static String getNotFoundMessage( String directory, String fileName, String repositoryName ) {
+    return MessageFormat.format( Messages.getInstance().getErrorString( "EngineMetaLoader.ERROR_0002_PDI_FILE_NOT_FOUND" ), //$NON-NLS-1$
+      directory, fileName, repositoryName );
+  }
+
+  /**
+   * Loads the file by its id in the unified repository
+   */
+  public static class UnifiedRepositoryResolver implements EngineMetaResolver {
+
+    @Override
+    public String getName() {
+      return "unified repository"; //$NON-NLS-1$
+    }
+
+    @Override
+    public AbstractMeta resolve( Class<? extends AbstractMeta> metaType, Repository repository, String directory,
+                                 String fileName, VariableSpace parent ) throws Exception {
+      IUnifiedRepository unifiedRepository = PentahoSystem.get( IUnifiedRepository.class, null );
+      if ( repository == null || unifiedRepository == null || fileName == null ) {
+        return null;
+      }
+
+      RepositoryFile file = unifiedRepository.getFile( idToPath( fileName ) );
+      if ( file == null ) {
+        return null;
+      }
+
+      ObjectId objectId = new StringObjectId( file.getId().toString() );
+      if ( metaType == TransMeta.class ) {
+        return repository.loadTransformation( objectId, null, parent );
+      }
+      return repository.loadJob( objectId, null, parent );
+    }
+
+    private static String idToPath( String id ) {
+      String path = id.replace( ':', '/' );
+      if ( !path.isEmpty() && path.charAt( 0 ) != '/' ) {
+        path = "/" + path;
+      }
+      return path;
+    }
+  }
+
+  /**
+   * Loads the file by directory and name through the PDI repository API
+   */
+  public static class RepositoryResolver implements EngineMetaResolver {
+
+    @Override
+    public String getName() {
+      return "repository"; //$NON-NLS-1$
+    }
+
+    @Override
+    public AbstractMeta resolve( Class<? extends AbstractMeta> metaType, Repository repository, String directory,
+                                 String fileName, VariableSpace parent ) throws Exception {
+      if ( repository == null ) {
+        return null;
+      }
+
+      try {
+        RepositoryDirectoryInterface repositoryDirectory =
+          RepositoryDirectoryIndex.getInstance().findDirectory( repository, directory );
+        if ( metaType == TransMeta.class ) {
+          return repository.loadTransformation( repository.getBowl(), fileName, repositoryDirectory, null, true, null,
+            parent );
+        }
+        return repository.loadJob( fileName, repositoryDirectory, null, null, parent );
+      } catch ( Exception e ) {
+        // the indexed directory may be stale, resolve it again next time
+        RepositoryDirectoryIndex.getInstance().invalidate( repository, directory );
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Loads the file from its path. If the repository is <code>null</code>, the file is loaded from the file system.
+   */
+  public static class FileResolver implements EngineMetaResolver {
+
+    @Override
+    public String getName() {
+      return "file"; //$NON-NLS-1$
+    }
+
+    @Override
+    public AbstractMeta resolve( Class<? extends AbstractMeta> metaType, Repository repository, String directory,
+                                 String fileName, VariableSpace parent ) throws Exception {
+      if ( metaType == TransMeta.class ) {
+        return new TransMeta( directory + "/" + fileName, repository ); //$NON-NLS-1$
+      }
+      return new JobMeta( directory + "/" + fileName, repository ); //$NON-NLS-1$
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hashed timer wheel firing the deadlines of the executions.
+ * <p>
+ * The deadlines are spread over {@link #WHEEL_SIZE} buckets of {@link #getTickDuration()} each; a single daemon thread
+ * visits one bucket per tick and fires its expired deadlines. Scheduling and cancelling are constant time, which
+ * matters as nearly every execution schedules a deadline that is cancelled when it finishes, and deadlines fire at
+ * most one tick late.
+ */
+public class ExecutionDeadlineTimer {
+
+  public static final int WHEEL_SIZE = 512;
+
+  public static final long DEFAULT_TICK_DURATION = TimeUnit.SECONDS.toMillis( 1 );
+
+  private static final Log log = LogFactory.getLog( ExecutionDeadlineTimer.class );
+
+  private static final ExecutionDeadlineTimer instance = new ExecutionDeadlineTimer( DEFAULT_TICK_DURATION );
+
+  private final long tickDuration;
+
+  private final List<List<Deadline>> wheel = new ArrayList<>( WHEEL_SIZE );
+
+  // scheduled since the last tick, only the worker thread touches the wheel
+  private final Queue<Deadline> pending = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong firedCount = new AtomicLong();
+
+  private long startTime;
+
+  private Thread worker;
+
+  // package-local for test reasons
+  ExecutionDeadlineTimer( long tickDuration ) {
+    this.tickDuration = tickDuration;
+    for ( int i = 0; i < WHEEL_SIZE; i++ ) {
+      wheel.add( new ArrayList<>() );
+    }
+  }
+
+  public static ExecutionDeadlineTimer getInstance() {
+    return instance;
+  }
+
+  /**
+   * Schedules a task to run once the given delay has elapsed, unless it is cancelled before.
+   *
+   * @param delay the delay, in milliseconds
+   * @param task  the task, run by the timer thread so it must be short
+   * @return the deadline, to cancel
+   */
+  public Deadline schedule( long delay, Runnable task ) {
+    startWorker();
+    Deadline deadline = new Deadline( System.currentTimeMillis() + Math.max( delay, 0 ), task );
+    pending.add( deadline );
+    return deadline;
+  }
+
+  public long getTickDuration() {
+    return tickDuration;
+  }
+
+  public long getFiredCount() {
+    return firedCount.get();
+  }
+
+  private synchronized void startWorker() {
+    if ( worker == null ) {
+      startTime = System.currentTimeMillis();
+      worker = new Thread( this::run, "ExecutionDeadlineTimer" ); //$NON-NLS-1$
+      worker.setDaemon( true );
+      worker.start();
+    }
+  }
+
+  private void run() {
+    long tick = 0;
+    while ( !Thread.currentThread().isInterrupted() ) {
+      long tickTime = startTime + ( tick + 1 ) * tickDuration;
+      long sleep = tickTime - System.currentTimeMillis();
+      if ( sleep > 0 ) {
+        try {
+          Thread.sleep( sleep );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+
+      transferPending( tick );
+      fire( wheel.get( (int) ( tick % WHEEL_SIZE ) ), tickTime );
+      tick++;
+    }
+  }
+
+  /**
+   * Puts the newly scheduled deadlines in the bucket of the tick they expire at
+   */
+  private void transferPending( long currentTick ) {
+    Deadline deadline;
+    while ( ( deadline = pending.poll() ) != null ) {
+      if ( deadline.isCancelled() ) {
+        continue;
+      }
+      long expiryTick = Math.max( ( deadline.time - startTime + tickDuration - 1 ) / tickDuration - 1, currentTick );
+      deadline.rounds = ( expiryTick - currentTick ) / WHEEL_SIZE;
+      wheel.get( (int) ( expiryTick % WHEEL_SIZE ) ).add( deadline );
+    }
+  }
+
+  private void fire( List<Deadline> bucket, long tickTime ) {
+    Iterator<Deadline> iterator = bucket.iterator();
+    while ( iterator.hasNext() ) {
+      Deadline deadline = iterator.next();
+      if ( deadline.isCancelled() ) {
+        iterator.remove();
+      } else if ( deadline.rounds > 0 ) {
+        deadline.rounds--;
+      } else if ( deadline.time <= tickTime ) {
+        iterator.remove();
+        firedCount.incrementAndGet();
+        try {
+          deadline.task.run();
+        } catch ( RuntimeException e ) {
+          log.error( e.getMessage(), e );
+        }
+      }
+    }
+  }
+
+  /**
+   * A scheduled task
+   */
+  public static class Deadline {
+    private final long time;
+    private final Runnable task;
+    private volatile boolean cancelled;
+    // remaining turns of the wheel, only used by the timer thread
+    private long rounds;
+
+    Deadline( long time, Runnable task ) {
+      this.time = time;
+      this.task = task;
+    }
+
+    /**
+     * Cancels the task, if it has not run yet
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * @return the time the task runs at, in milliseconds since the epoch
+     */
+    public long getTime() {
+      return time;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.pentaho.di.core.Const;
+
+/**
+ * Keeps the watermarks in a properties file on the local disk, the default store. The file is replaced atomically on
+ * each commit.
+ */
+public class FileWatermarkStore implements WatermarkStore {
+
+  public static final String DEFAULT_FILE_NAME = "pdi-watermarks.properties"; //$NON-NLS-1$
+
+  private static final FileWatermarkStore instance =
+    new FileWatermarkStore( new File( Const.getKettleDirectory(), DEFAULT_FILE_NAME ) );
+
+  private File file;
+
+  // package-local for test reasons
+  FileWatermarkStore( File file ) {
+    this.file = file;
+  }
+
+  public static FileWatermarkStore getInstance() {
+    return instance;
+  }
+
+  @Override
+  public synchronized String get( String key ) throws IOException {
+    return load().getProperty( key );
+  }
+
+  @Override
+  public synchronized void commit( String key, String value ) throws IOException {
+    Properties watermarks = load();
+    watermarks.setProperty( key, value );
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    Files.createDirectories( directory.toPath() );
+    File temporary = new File( directory, file.getName() + ".tmp" ); //$NON-NLS-1$
+    try ( OutputStream outputStream = Files.newOutputStream( temporary.toPath() ) ) {
+      watermarks.store( outputStream, null );
+    }
+    // never leave a partially written file behind
+    Files.move( temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE );
+  }
+
+  private Properties load() throws IOException {
+    Properties watermarks = new Properties();
+    if ( file.isFile() ) {
+      try ( InputStream inputStream = Files.newInputStream( file.toPath() ) ) {
+        watermarks.load( inputStream );
+      }
+    }
+    return watermarks;
+  }
+
+  public synchronized File getFile() {
+    return file;
+  }
+
+  public synchronized void setFile( File file ) {
+    this.file = file;
+  }
+}
@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the watermarks in a database table, shared by all the servers using the same data source. The table has to
+ * exist:
+ *
+ * <pre>
+ * CREATE TABLE PDI_WATERMARKS (
+ *   WATERMARK_KEY VARCHAR(1000) NOT NULL PRIMARY KEY,
+ *   WATERMARK_VALUE VARCHAR(1000),
+ *   COMMITTED_AT TIMESTAMP
+ * )
+ * </pre>
+ */
+public class JdbcWatermarkStore implements WatermarkStore {
+
+  public static final String DEFAULT_TABLE = "PDI_WATERMARKS"; //$NON-NLS-1$
+
+  private final DataSource dataSource;
+
+  private final String table;
+
+  /**
+   * @param dataSource the data source of the database
+   * @param table      the name of the table, possibly qualified by its schema
+   */
+  public JdbcWatermarkStore( DataSource dataSource, String table ) {
+    this.dataSource = dataSource;
+    this.table = table;
+  }
+
+  @Override
+  public String get( String key ) throws IOException {
+    try ( Connection connection = dataSource.getConnection();
+          PreparedStatement statement = connection.prepareStatement(
+            "SELECT WATERMARK_VALUE FROM " + table + " WHERE WATERMARK_KEY = ?" ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      statement.setString( 1, key );
+      try ( ResultSet resultSet = statement.executeQuery() ) {
+        return resultSet.next() ? resultSet.getString( 1 ) : null;
+      }
+    } catch ( SQLException e ) {
+      throw new IOException( e );
+    }
+  }
+
+  @Override
+  public void commit( String key, String value ) throws IOException {
+    Timestamp now = new Timestamp( System.currentTimeMillis() );
+    try ( Connection connection = dataSource.getConnection() ) {
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit( false );
+      try {
+        int updated;
+        try ( PreparedStatement update = connection.prepareStatement( "UPDATE " + table //$NON-NLS-1$
+          + " SET WATERMARK_VALUE = ?, COMMITTED_AT = ? WHERE WATERMARK_KEY = ?" ) ) { //$NON-NLS-1$
+          update.setString( 1, value );
+          update.setTimestamp( 2, now );
+          update.setString( 3, key );
+          updated = update.executeUpdate();
+        }
+        if ( updated == 0 ) {
+          try ( PreparedStatement insert = connection.prepareStatement( "INSERT INTO " + table //$NON-NLS-1$
+            + " (WATERMARK_KEY, WATERMARK_VALUE, COMMITTED_AT) VALUES (?, ?, ?)" ) ) { //$NON-NLS-1$
+            insert.setString( 1, key );
+            insert.setString( 2, value );
+            insert.setTimestamp( 3, now );
+            insert.executeUpdate();
+          }
+        }
+        connection.commit();
+      } catch ( SQLException e ) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit( autoCommit );
+      }
+    } catch ( SQLException e ) {
+      throw new IOException( e );
+    }
+  }
+
+  public String getTable() {
+    return table;
+  }
+}
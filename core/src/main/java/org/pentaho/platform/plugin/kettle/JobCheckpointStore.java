@@ -0,0 +1,326 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobEntryListener;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.job.entry.JobEntryInterface;
+
+/**
+ * Keeps the progress of the jobs on the local disk, so that a job that failed can be resumed from where it stopped
+ * instead of from its start.
+ * <p>
+ * A {@link Checkpoint} holds the entries a job completed, with their results, and the entry to resume from: the first
+ * entry that failed, or the last entry that started if none failed yet. It is written after each entry, one file per key in {@link #getDirectory()},
+ * the key identifying the job file and the inputs of the execution.
+ */
+public class JobCheckpointStore {
+
+  public static final String DEFAULT_DIRECTORY_NAME = "pdi-checkpoints"; //$NON-NLS-1$
+
+  private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+  private static final String FILE_EXTENSION = ".properties"; //$NON-NLS-1$
+
+  private static final Log log = LogFactory.getLog( JobCheckpointStore.class );
+
+  private static final JobCheckpointStore instance =
+    new JobCheckpointStore( new File( Const.getKettleDirectory(), DEFAULT_DIRECTORY_NAME ) );
+
+  private File directory;
+
+  // package-local for test reasons
+  JobCheckpointStore( File directory ) {
+    this.directory = directory;
+  }
+
+  public static JobCheckpointStore getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the checkpoint of the given key.
+   *
+   * @param key the key of the execution
+   * @return the checkpoint, or <code>null</code> if there is none or it cannot be read
+   */
+  public synchronized Checkpoint load( String key ) {
+    File file = getFile( key );
+    if ( !file.isFile() ) {
+      return null;
+    }
+
+    Properties properties = new Properties();
+    try ( InputStream inputStream = Files.newInputStream( file.toPath() ) ) {
+      properties.load( inputStream );
+    } catch ( IOException e ) {
+      log.warn( "Could not read the checkpoint " + file, e ); //$NON-NLS-1$
+      return null;
+    }
+    if ( !key.equals( properties.getProperty( "key" ) ) ) { //$NON-NLS-1$
+      return null;
+    }
+    return Checkpoint.fromProperties( key, properties );
+  }
+
+  /**
+   * Writes a checkpoint, replacing the previous one of its key.
+   *
+   * @param checkpoint the checkpoint
+   * @throws IOException if it cannot be written
+   */
+  public synchronized void save( Checkpoint checkpoint ) throws IOException {
+    File file = getFile( checkpoint.getKey() );
+    Files.createDirectories( directory.toPath() );
+    File temporary = new File( directory, file.getName() + ".tmp" ); //$NON-NLS-1$
+    try ( OutputStream outputStream = Files.newOutputStream( temporary.toPath() ) ) {
+      checkpoint.toProperties().store( outputStream, checkpoint.getJobName() );
+    }
+    // never leave a partially written checkpoint behind
+    Files.move( temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE );
+  }
+
+  /**
+   * Removes the checkpoint of the given key, once its job succeeded.
+   *
+   * @param key the key of the execution
+   */
+  public synchronized void delete( String key ) {
+    try {
+      Files.deleteIfExists( getFile( key ).toPath() );
+    } catch ( IOException e ) {
+      log.warn( e.getMessage(), e );
+    }
+  }
+
+  /**
+   * Returns a listener recording the progress of a job in the given checkpoint, as its entries run.
+   *
+   * @param checkpoint the checkpoint, new or loaded to resume from
+   * @return the listener to add to the job
+   */
+  public JobEntryListener newRecorder( Checkpoint checkpoint ) {
+    return new JobEntryListener() {
+      @Override
+      public void beforeExecution( Job job, JobEntryCopy jobEntryCopy, JobEntryInterface jobEntryInterface ) {
+        checkpoint.started( jobEntryCopy );
+        saveQuietly( checkpoint );
+      }
+
+      @Override
+      public void afterExecution( Job job, JobEntryCopy jobEntryCopy, JobEntryInterface jobEntryInterface,
+                                  Result result ) {
+        checkpoint.finished( jobEntryCopy, result );
+        saveQuietly( checkpoint );
+      }
+    };
+  }
+
+  private void saveQuietly( Checkpoint checkpoint ) {
+    try {
+      save( checkpoint );
+    } catch ( IOException e ) {
+      // the job keeps running, it just cannot be resumed from this point
+      log.warn( "Could not write the checkpoint of " + checkpoint.getJobName(), e ); //$NON-NLS-1$
+    }
+  }
+
+  public synchronized File getDirectory() {
+    return directory;
+  }
+
+  public synchronized void setDirectory( File directory ) {
+    this.directory = directory;
+  }
+
+  private File getFile( String key ) {
+    try {
+      byte[] hash = MessageDigest.getInstance( DIGEST_ALGORITHM ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+      StringBuilder name = new StringBuilder();
+      for ( byte b : hash ) {
+        name.append( String.format( "%02x", b ) ); //$NON-NLS-1$
+      }
+      return new File( directory, name + FILE_EXTENSION );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * The progress of a job
+   */
+  public static class Checkpoint {
+    private final String key;
+    private final String jobName;
+    private final List<CompletedEntry> completedEntries = new ArrayList<>();
+    private String resumeEntryName;
+    private int resumeEntryNr;
+    // an entry failed during this execution, the entries run after it, such as error handling, do not move the resume
+    // entry
+    private boolean failed;
+
+    public Checkpoint( String key, String jobName ) {
+      this.key = key;
+      this.jobName = jobName;
+    }
+
+    synchronized void started( JobEntryCopy jobEntryCopy ) {
+      if ( !failed ) {
+        resumeEntryName = jobEntryCopy.getName();
+        resumeEntryNr = jobEntryCopy.getNr();
+      }
+    }
+
+    synchronized void finished( JobEntryCopy jobEntryCopy, Result result ) {
+      if ( result != null && result.getResult() ) {
+        String resultXml;
+        try {
+          resultXml = result.getXML();
+        } catch ( Exception e ) {
+          resultXml = null;
+        }
+        completedEntries.add( new CompletedEntry( jobEntryCopy.getName(), jobEntryCopy.getNr(), resultXml ) );
+        if ( !failed && jobEntryCopy.getName().equals( resumeEntryName ) && jobEntryCopy.getNr() == resumeEntryNr ) {
+          resumeEntryName = null;
+        }
+      } else if ( !failed ) {
+        failed = true;
+        resumeEntryName = jobEntryCopy.getName();
+        resumeEntryNr = jobEntryCopy.getNr();
+      }
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getJobName() {
+      return jobName;
+    }
+
+    /**
+     * @return the entries the job completed, in the order they completed
+     */
+    public synchronized List<CompletedEntry> getCompletedEntries() {
+      return Collections.unmodifiableList( new ArrayList<>( completedEntries ) );
+    }
+
+    /**
+     * @return the name of the entry to resume from, <code>null</code> if there is none
+     */
+    public synchronized String getResumeEntryName() {
+      return resumeEntryName;
+    }
+
+    /**
+     * @return the copy number of the entry to resume from
+     */
+    public synchronized int getResumeEntryNr() {
+      return resumeEntryNr;
+    }
+
+    synchronized Properties toProperties() {
+      Properties properties = new Properties();
+      properties.setProperty( "key", key ); //$NON-NLS-1$
+      properties.setProperty( "job", jobName ); //$NON-NLS-1$
+      properties.setProperty( "completed", Integer.toString( completedEntries.size() ) ); //$NON-NLS-1$
+      for ( int i = 0; i < completedEntries.size(); i++ ) {
+        CompletedEntry entry = completedEntries.get( i );
+        properties.setProperty( "completed." + i + ".name", entry.name ); //$NON-NLS-1$ //$NON-NLS-2$
+        properties.setProperty( "completed." + i + ".nr", Integer.toString( entry.nr ) ); //$NON-NLS-1$ //$NON-NLS-2$
+        if ( entry.resultXml != null ) {
+          properties.setProperty( "completed." + i + ".result", entry.resultXml ); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+      }
+      if ( resumeEntryName != null ) {
+        properties.setProperty( "resume.name", resumeEntryName ); //$NON-NLS-1$
+        properties.setProperty( "resume.nr", Integer.toString( resumeEntryNr ) ); //$NON-NLS-1$
+      }
+      return properties;
+    }
+
+    static Checkpoint fromProperties( String key, Properties properties ) {
+      Checkpoint checkpoint = new Checkpoint( key, properties.getProperty( "job" ) ); //$NON-NLS-1$
+      int completed = Integer.parseInt( properties.getProperty( "completed", "0" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+      for ( int i = 0; i < completed; i++ ) {
+        checkpoint.completedEntries.add( new CompletedEntry(
+          properties.getProperty( "completed." + i + ".name" ), //$NON-NLS-1$ //$NON-NLS-2$
+          Integer.parseInt( properties.getProperty( "completed." + i + ".nr", "0" ) ), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+          properties.getProperty( "completed." + i + ".result" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      checkpoint.resumeEntryName = properties.getProperty( "resume.name" ); //$NON-NLS-1$
+      checkpoint.resumeEntryNr = Integer.parseInt( properties.getProperty( "resume.nr", "0" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+      return checkpoint;
+    }
+  }
+
+  /**
+   * A job entry that completed successfully
+   */
+  public static class CompletedEntry {
+    private final String name;
+    private final int nr;
+    private final String resultXml;
+
+    CompletedEntry( String name, int nr, String resultXml ) {
+      this.name = name;
+      this.nr = nr;
+      this.resultXml = resultXml;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getNr() {
+      return nr;
+    }
+
+    /**
+     * @return the result of the entry, or <code>null</code> if it was not recorded
+     */
+    public Result getResult() {
+      if ( resultXml == null ) {
+        return null;
+      }
+      try {
+        return new Result( XMLHandler.getSubNode( XMLHandler.loadXMLString( resultXml ), Result.XML_TAG ) );
+      } catch ( Exception e ) {
+        log.warn( "Could not read the result of " + name, e ); //$NON-NLS-1$
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.job.JobEntryJob;
+import org.pentaho.di.job.entries.trans.JobEntryTrans;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.job.entry.JobEntryInterface;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.pentaho.platform.plugin.kettle.messages.Messages;
+
+/**
+ * Loads the transformations and jobs referenced by the entries of a job into the {@link EngineMetaCache}
+ * concurrently, on a bounded server-wide pool, while the job runs.
+ * <p>
+ * Only the files of the repository are prefetched, by name or by reference, and only those that are not cached yet.
+ * Each load runs on a repository connection of its own, and only if one can be borrowed without waiting: the
+ * execution already holds a connection, and waiting for another one could stall it behind its own siblings. The
+ * referenced jobs are walked recursively, one level at a time.
+ * <p>
+ * The entries of the job still load what they run through the repository of the execution, which is never wrapped,
+ * as job entries and plugins may depend on its concrete class. The prefetched metadata is served from the cache to
+ * the executions of those files, such as the scheduled ones.
+ */
+public class JobMetaPrefetcher {
+
+  private static final Log log = LogFactory.getLog( JobMetaPrefetcher.class );
+
+  private static final JobMetaPrefetcher instance = new JobMetaPrefetcher();
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  private final EngineMetaCache metaCache;
+
+  // runs the loads instead of the pool of the prefetcher, for tests
+  private final Executor loadExecutor;
+
+  private ThreadPoolExecutor executor;
+
+  private int maxThreads;
+
+  private JobMetaPrefetcher() {
+    this( EngineMetaCache.getInstance(), null );
+  }
+
+  // package-local for test reasons
+  JobMetaPrefetcher( EngineMetaCache metaCache, Executor loadExecutor ) {
+    this.metaCache = metaCache;
+    this.loadExecutor = loadExecutor;
+  }
+
+  public static JobMetaPrefetcher getInstance() {
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return maxThreads > 0;
+  }
+
+  /**
+   * Sets the number of threads used to load the referenced transformations and jobs. A value of zero or less
+   * disables the prefetch.
+   *
+   * @param maxThreads the number of threads
+   */
+  public synchronized void setMaxThreads( int maxThreads ) {
+    if ( maxThreads > 0 && executor != null && maxThreads != this.maxThreads ) {
+      if ( maxThreads > executor.getMaximumPoolSize() ) {
+        executor.setMaximumPoolSize( maxThreads );
+        executor.setCorePoolSize( maxThreads );
+      } else {
+        executor.setCorePoolSize( maxThreads );
+        executor.setMaximumPoolSize( maxThreads );
+      }
+    }
+    this.maxThreads = maxThreads;
+  }
+
+  /**
+   * Lends repository connections to the loads, so that they do not share the connection of the execution
+   */
+  public interface Connections {
+
+    /**
+     * @return a connection for the current user, or <code>null</code> if none is available without waiting
+     * @throws KettleException if the connection could not be opened
+     */
+    Repository borrow() throws KettleException;
+
+    /**
+     * @param repository a connection obtained from {@link #borrow()}
+     */
+    void release( Repository repository );
+  }
+
+  /**
+   * Starts loading every transformation and job referenced by the given job and, recursively, by the referenced jobs,
+   * into the meta cache. Returns right away, the job does not wait for the loads.
+   *
+   * @param jobMeta     the job about to be executed
+   * @param connections lends a connection to each load
+   */
+  public void prefetch( JobMeta jobMeta, Connections connections ) {
+    if ( !isEnabled() || !metaCache.isEnabled() || jobMeta == null ) {
+      return;
+    }
+    prefetchReferences( jobMeta, PentahoSessionHolder.getSession(), connections, ConcurrentHashMap.newKeySet() );
+  }
+
+  private void prefetchReferences( JobMeta jobMeta, IPentahoSession session, Connections connections,
+                                   Set<String> references ) {
+    for ( JobEntryCopy copy : jobMeta.getJobCopies() ) {
+      Load load = getLoad( copy.getEntry(), jobMeta, references );
+      if ( load != null ) {
+        getExecutor().execute( () -> {
+          AbstractMeta meta = runAs( session, copy.getName(), () -> load.run( connections ) );
+          if ( meta instanceof JobMeta ) {
+            prefetchReferences( (JobMeta) meta, session, connections, references );
+          }
+        } );
+      }
+    }
+  }
+
+  /**
+   * Loads a meta over a connection
+   */
+  private interface Loader {
+    AbstractMeta load( Repository repository ) throws KettleException;
+  }
+
+  /**
+   * Loads the file referenced by a job entry into the cache
+   */
+  private class Load {
+    private final String path;
+    private final Serializable id;
+    private final Class<? extends AbstractMeta> metaType;
+    private final JobMeta parent;
+    private final Loader loader;
+
+    Load( String path, Serializable id, Class<? extends AbstractMeta> metaType, JobMeta parent, Loader loader ) {
+      this.path = path;
+      this.id = id;
+      this.metaType = metaType;
+      this.parent = parent;
+      this.loader = loader;
+    }
+
+    /**
+     * @return the loaded or cached job, to walk its references, or <code>null</code>
+     */
+    AbstractMeta run( Connections connections ) throws KettleException {
+      RepositoryFile file = getRepositoryFile( path, id );
+      if ( file == null ) {
+        // not in the repository, the entry reports it
+        return null;
+      }
+      if ( metaType == JobMeta.class ) {
+        JobMeta cached = metaCache.getJobMeta( file, null, parent );
+        if ( cached != null ) {
+          return cached;
+        }
+      } else if ( metaCache.contains( file ) ) {
+        return null;
+      }
+
+      Repository connection = connections.borrow();
+      if ( connection == null ) {
+        if ( log.isDebugEnabled() ) {
+          log.debug( "Not prefetching " + file.getPath() + ", no repository connection is available" ); //$NON-NLS-1$
+        }
+        return null;
+      }
+      AbstractMeta meta;
+      try {
+        meta = loader.load( connection );
+      } finally {
+        connections.release( connection );
+      }
+      if ( metaType.isInstance( meta ) ) {
+        metaCache.put( file, meta );
+        if ( log.isDebugEnabled() ) {
+          log.debug( "Prefetched " + file.getPath() ); //$NON-NLS-1$
+        }
+        return meta;
+      }
+      return null;
+    }
+  }
+
+  private Load getLoad( JobEntryInterface entry, JobMeta parent, Set<String> references ) {
+    if ( entry instanceof JobEntryTrans ) {
+      JobEntryTrans transEntry = (JobEntryTrans) entry;
+      String path = getPath( transEntry.getSpecificationMethod(), parent, transEntry.getDirectory(),
+        transEntry.getTransname(), ".ktr" ); //$NON-NLS-1$
+      Serializable id = getId( transEntry.getSpecificationMethod(), transEntry.getTransObjectId() );
+      if ( ( path != null || id != null ) && references.add( "trans:" + path + ":" + id ) ) { //$NON-NLS-1$
+        return new Load( path, id, TransMeta.class, parent,
+          repository -> transEntry.getTransMeta( repository, parent.getMetaStore(), parent ) );
+      }
+    } else if ( entry instanceof JobEntryJob ) {
+      JobEntryJob jobEntry = (JobEntryJob) entry;
+      String path = getPath( jobEntry.getSpecificationMethod(), parent, jobEntry.getDirectory(),
+        jobEntry.getJobName(), ".kjb" ); //$NON-NLS-1$
+      Serializable id = getId( jobEntry.getSpecificationMethod(), jobEntry.getJobObjectId() );
+      if ( ( path != null || id != null ) && references.add( "job:" + path + ":" + id ) ) { //$NON-NLS-1$
+        return new Load( path, id, JobMeta.class, parent,
+          repository -> jobEntry.getJobMeta( repository, parent.getMetaStore(), parent ) );
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the path of a file referenced by name, or <code>null</code> if it is referenced otherwise
+   */
+  private static String getPath( ObjectLocationSpecificationMethod method, JobMeta parent, String directory,
+                                 String name, String extension ) {
+    if ( method != ObjectLocationSpecificationMethod.REPOSITORY_BY_NAME || name == null ) {
+      return null;
+    }
+    String realDirectory = directory != null ? parent.environmentSubstitute( directory ) : ""; //$NON-NLS-1$
+    String realName = parent.environmentSubstitute( name );
+    return ( realDirectory.endsWith( "/" ) ? realDirectory : realDirectory + "/" ) //$NON-NLS-1$ //$NON-NLS-2$
+      + ( realName.endsWith( extension ) ? realName : realName + extension );
+  }
+
+  /**
+   * Returns the id of a file referenced by reference, or <code>null</code> if it is referenced otherwise
+   */
+  private static Serializable getId( ObjectLocationSpecificationMethod method, ObjectId objectId ) {
+    return method == ObjectLocationSpecificationMethod.REPOSITORY_BY_REFERENCE && objectId != null
+      ? objectId.getId() : null;
+  }
+
+  /**
+   * Returns the referenced file of the unified repository, or <code>null</code> if it cannot be found
+   */
+  RepositoryFile getRepositoryFile( String path, Serializable id ) {
+    IUnifiedRepository unifiedRepository = PentahoSystem.get( IUnifiedRepository.class, null );
+    if ( unifiedRepository == null ) {
+      return null;
+    }
+    return id != null ? unifiedRepository.getFileById( id ) : unifiedRepository.getFile( path );
+  }
+
+  /**
+   * Runs the load as the user of the execution, as the pool threads are shared by all users. A failed load is left to
+   * the entry, which reports it when it runs.
+   *
+   * @return the loaded meta, or <code>null</code> if the load failed
+   */
+  private AbstractMeta runAs( IPentahoSession session, String entryName, Callable<AbstractMeta> load ) {
+    try {
+      if ( session == null ) {
+        return load.call();
+      }
+      return SecurityHelper.getInstance().runAsUser( session.getName(), load );
+    } catch ( Exception e ) {
+      log.warn( Messages.getInstance().getErrorString( "JobMetaPrefetcher.ERROR_0001_PREFETCH_FAILED", entryName ),
+        log.isDebugEnabled() ? e : null );
+      return null;
+    }
+  }
+
+  private synchronized Executor getExecutor() {
+    if ( loadExecutor != null ) {
+      return loadExecutor;
+    }
+    if ( executor == null ) {
+      executor = new ThreadPoolExecutor( maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread( runnable, "JobMetaPrefetcher-" + threadCount.incrementAndGet() ); //$NON-NLS-1$
+          thread.setDaemon( true );
+          return thread;
+        } );
+      executor.allowCoreThreadTimeOut( true );
+    }
+    return executor;
+  }
+}
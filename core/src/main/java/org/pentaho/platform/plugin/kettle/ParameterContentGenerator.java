@@ -23,12 +23,19 @@ import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.platform.api.util.IPdiContentProvider;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.solution.SimpleContentGenerator;
+import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 import org.pentaho.util.messages.LocaleHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.OutputStream;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -41,6 +48,8 @@ public class ParameterContentGenerator extends SimpleContentGenerator {
 
   private static final String PATH = "path"; //$NON-NLS-1$
   private static final String FILE = "file"; //$NON-NLS-1$
+  private static final String MODE = "mode"; //$NON-NLS-1$
+  private static final String MODE_BULK = "bulk"; //$NON-NLS-1$
 
   private Log log = LogFactory.getLog( ParameterContentGenerator.class );
 
@@ -50,6 +59,12 @@ public class ParameterContentGenerator extends SimpleContentGenerator {
     IParameterProvider pathParams = parameterProviders.get( PATH );
     IParameterProvider requestParams = parameterProviders.get( IParameterProvider.SCOPE_REQUEST );
 
+    if ( pathParams == null && requestParams != null
+      && MODE_BULK.equals( requestParams.getStringParameter( MODE, null ) ) ) {
+      createBulkContent( requestParams, out );
+      return;
+    }
+
     RepositoryFile file = null;
 
     if ( pathParams != null ) {
@@ -85,6 +100,61 @@ public class ParameterContentGenerator extends SimpleContentGenerator {
     out.flush();
   }
 
+  /**
+   * Writes the user parameters of all the files given as "path" request parameters, in one response:
+   * <pre>
+   * &lt;files&gt;
+   *   &lt;file path="/public/sample.ktr" has-parameters="true"&gt;
+   *     &lt;parameter name="param1"/&gt;
+   *   &lt;/file&gt;
+   * &lt;/files&gt;
+   * </pre>
+   * Files that cannot be found are left out.
+   */
+  private void createBulkContent( IParameterProvider requestParams, OutputStream out ) throws Exception {
+    IUnifiedRepository repo = PentahoSystem.get( IUnifiedRepository.class, null );
+
+    List<String> paths = new ArrayList<>();
+    for ( Object path : requestParams.getArrayParameter( PATH, new Object[ 0 ] ) ) {
+      RepositoryFile file = repo.getFile( idTopath( URLDecoder.decode( String.valueOf( path ), LocaleHelper.UTF_8 ) ) );
+      if ( file != null && !file.isFolder() ) {
+        paths.add( file.getPath() );
+      }
+    }
+
+    IPdiContentProvider provider =
+        (IPdiContentProvider) PentahoSystem.get( IPluginManager.class ).getBean(
+            IPdiContentProvider.class.getSimpleName() );
+
+    Map<String, Map<String, String>> userParams;
+    if ( provider instanceof PdiContentProvider ) {
+      userParams = ( (PdiContentProvider) provider ).getUserParameters( paths );
+    } else {
+      userParams = new LinkedHashMap<>();
+      for ( String path : paths ) {
+        userParams.put( path, provider.getUserParameters( path ) );
+      }
+    }
+
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Element files = document.createElement( "files" ); //$NON-NLS-1$
+    for ( Map.Entry<String, Map<String, String>> entry : userParams.entrySet() ) {
+      Element file = document.createElement( FILE );
+      file.setAttribute( PATH, entry.getKey() );
+      file.setAttribute( "has-parameters", Boolean.toString( !entry.getValue().isEmpty() ) ); //$NON-NLS-1$
+      for ( String name : entry.getValue().keySet() ) {
+        Element parameter = document.createElement( "parameter" ); //$NON-NLS-1$
+        parameter.setAttribute( "name", name ); //$NON-NLS-1$
+        file.appendChild( parameter );
+      }
+      files.appendChild( file );
+    }
+    document.appendChild( files );
+
+    out.write( XmlDom4JHelper.docToString( document ).toString().getBytes( LocaleHelper.getSystemEncoding() ) );
+    out.flush();
+  }
+
   @Override
   public String getMimeType() {
     return "text/xml";
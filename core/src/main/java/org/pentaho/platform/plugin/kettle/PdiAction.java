@@ -13,26 +13,49 @@
 
 package org.pentaho.platform.plugin.kettle;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoMetaData;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.memory.MemoryMetaData;
 import org.pentaho.commons.connection.memory.MemoryResultSet;
 import org.pentaho.di.ExecutionConfiguration;
 import org.pentaho.di.base.AbstractMeta;
 import org.pentaho.di.connections.vfs.provider.ConnectionFileProvider;
+import org.pentaho.di.core.database.DataSourceNamingException;
+import org.pentaho.di.core.database.DataSourceProviderFactory;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleMissingPluginsException;
 import org.pentaho.di.core.exception.KettleSecurityException;
@@ -47,22 +70,26 @@ import org.pentaho.di.core.parameters.UnknownParamException;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.variables.Variables;
-import org.pentaho.di.core.xml.XMLHandlerCache;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
 import org.pentaho.di.job.JobConfiguration;
 import org.pentaho.di.job.JobExecutionConfiguration;
+import org.pentaho.di.job.JobListener;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.repository.Repository;
-import org.pentaho.di.repository.StringObjectId;
 import org.pentaho.di.trans.RowProducer;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransConfiguration;
 import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransListener;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.RowListener;
+import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.www.CarteSingleton;
 import org.pentaho.platform.api.action.IAction;
@@ -71,11 +98,14 @@ import org.pentaho.platform.api.action.IVarArgsAction;
 import org.pentaho.platform.api.engine.ActionExecutionException;
 import org.pentaho.platform.api.engine.ActionValidationException;
 import org.pentaho.platform.api.engine.IAuthorizationPolicy;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.ISystemConfig;
+import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
 import org.pentaho.platform.plugin.action.kettle.KettleSystemListener;
 import org.pentaho.platform.plugin.action.messages.Messages;
 import org.pentaho.platform.plugin.kettle.security.policy.rolebased.actions.RepositoryExecuteAction;
@@ -119,12 +149,104 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   protected static final String LOG_LEVEL_PROPERTY = "settings/log_level";
   protected static final String SAFE_MODE_PROPERTY = "settings/safe_mode";
   protected static final String GATHER_METRICS_PROPERTY = "settings/gather_metrics";
+  protected static final String META_CACHE_SIZE_PROPERTY = "settings/meta_cache_size";
+  protected static final String REPOSITORY_POOL_SIZE_PROPERTY = "settings/repository_pool_size";
+  protected static final String REPOSITORY_POOL_MAX_IDLE_PROPERTY = "settings/repository_pool_max_idle_seconds";
+  protected static final String REPOSITORY_POOL_TIMEOUT_PROPERTY = "settings/repository_pool_borrow_timeout_seconds";
+  protected static final String JOB_PREFETCH_THREADS_PROPERTY = "settings/job_prefetch_threads";
+  protected static final String META_MISS_TTL_PROPERTY = "settings/meta_miss_ttl_seconds";
+  protected static final String META_CONTENT_CACHE_SIZE_PROPERTY = "settings/meta_content_cache_size_mb";
+  protected static final String XML_CACHE_MAX_EXECUTIONS_PROPERTY = "settings/xml_cache_max_executions";
+  protected static final String MAX_CONCURRENT_EXECUTIONS_PROPERTY = "settings/max_concurrent_executions";
+  protected static final String ROLE_WEIGHTS_PROPERTY = "settings/execution_role_weights";
+  protected static final String VIRTUAL_THREADS_PROPERTY = "settings/virtual_threads";
+  protected static final String COALESCED_PATHS_PROPERTY = "settings/coalesced_paths";
+  protected static final String THREAD_BUDGET_PROPERTY = "settings/thread_budget";
+  protected static final String PREPARED_POOL_PATHS_PROPERTY = "settings/prepared_pool_paths";
+  protected static final String PREPARED_POOL_SIZE_PROPERTY = "settings/prepared_pool_size";
+  protected static final String PREPARED_POOL_MAX_KEYS_PROPERTY = "settings/prepared_pool_max_keys";
+  protected static final String PREPARED_POOL_MAX_IDLE_PROPERTY = "settings/prepared_pool_max_idle_minutes";
+  protected static final String EXECUTION_TIMEOUT_PROPERTY = "settings/execution_timeout_seconds";
+  protected static final String EXECUTION_TIMEOUT_PATHS_PROPERTY = "settings/execution_timeout_paths";
+  protected static final String CARTE_MAX_ENTRIES_PROPERTY = "settings/carte_max_entries";
+  protected static final String CARTE_TTL_PROPERTY = "settings/carte_ttl_minutes";
+  protected static final String CARTE_MAX_SUMMARIES_PROPERTY = "settings/carte_max_summaries";
+  protected static final String JOB_CHECKPOINTS_PROPERTY = "settings/job_checkpoints";
+  protected static final String JOB_CHECKPOINT_DIR_PROPERTY = "settings/job_checkpoint_dir";
 
-  private MemoryResultSet transformationOutputRows;
+  /**
+   * The prefix of the arguments the scheduler adds to its executions, such as the action class and user
+   */
+  private static final String SCHEDULER_VAR_ARG_PREFIX = "ActionAdapterQuartzJob-"; //$NON-NLS-1$
+
+  /**
+   * The other arguments that are not inputs of the job, added by the scheduler or asking to resume it
+   */
+  private static final Set<String> NON_INPUT_VAR_ARGS = new HashSet<>( Arrays.asList(
+    "lineage-id", "uiPassParam", "autoCreateUniqueFilename", "appendDateFormat", "resume" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+  protected static final String WATERMARK_STORE_PROPERTY = "settings/watermark_store";
+  protected static final String WATERMARK_FILE_PROPERTY = "settings/watermark_file";
+  protected static final String WATERMARK_DATASOURCE_PROPERTY = "settings/watermark_datasource";
+  protected static final String WATERMARK_TABLE_PROPERTY = "settings/watermark_table";
+  protected static final String OUTPUT_ROWS_MEMORY_THRESHOLD_PROPERTY = "settings/output_rows_memory_threshold";
+  protected static final String OUTPUT_ROWS_SPILL_DIR_PROPERTY = "settings/output_rows_spill_dir";
+
+  private static final AtomicInteger completionThreadCount = new AtomicInteger();
+
+  /**
+   * Runs the last step of the asynchronous executions, once their transformation or job is finished
+   */
+  private static final ExecutorService completionExecutor = createCompletionExecutor();
+
+  private static final AtomicInteger clusterMonitorThreadCount = new AtomicInteger();
+
+  /**
+   * Waits for the clustered transformations of the asynchronous executions, which are monitored by polling their
+   * servers
+   */
+  private static final ExecutorService clusterMonitorExecutor = Executors.newCachedThreadPool( runnable -> {
+    Thread thread = new Thread( runnable, "PdiAction-cluster-monitor-" + clusterMonitorThreadCount.incrementAndGet() ); //$NON-NLS-1$
+    thread.setDaemon( true );
+    return thread;
+  } );
+
+  private static final AtomicInteger admissionThreadCount = new AtomicInteger();
+
+  /**
+   * Starts the asynchronous executions which had to wait for an execution slot, once they are admitted
+   */
+  private static final ExecutorService admissionExecutor = Executors.newCachedThreadPool( runnable -> {
+    Thread thread = new Thread( runnable, "PdiAction-admission-" + admissionThreadCount.incrementAndGet() ); //$NON-NLS-1$
+    thread.setDaemon( true );
+    return thread;
+  } );
+
+  private static final AtomicInteger deadlineThreadCount = new AtomicInteger();
+
+  /**
+   * Stops the transformations and jobs whose timeout elapsed, off the timer thread
+   */
+  private static final ExecutorService deadlineExecutor = Executors.newCachedThreadPool( runnable -> {
+    Thread thread = new Thread( runnable, "PdiAction-deadline-" + deadlineThreadCount.incrementAndGet() ); //$NON-NLS-1$
+    thread.setDaemon( true );
+    return thread;
+  } );
+
+  private static final AtomicBoolean virtualThreadsWarned = new AtomicBoolean();
+
+  private IPentahoResultSet transformationOutputRows;
+
+  /**
+   * The repository file of the transformation, if it was loaded from the repository
+   */
+  private RepositoryFile transFile;
 
   private IPentahoResultSet injectorRows;
 
-  private MemoryResultSet transformationOutputErrorRows;
+  private IPentahoResultSet transformationOutputErrorRows;
+
+  // the step this action listens to, until the transformation is finished
+  private StepInterface monitoredStep;
 
   private int transformationOutputRowsCount;
 
@@ -138,6 +260,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
 
   private String monitorStep = null;
 
+  private RowStreamWriter rowStream;
+
   private String injectorStep = null;
 
   private Map<String, Object> varArgs = new HashMap<>();
@@ -157,6 +281,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   Job localJob = null;
   // package-local for test reasons
   Trans localTrans = null;
+  // package-local for test reasons
+  ClusteredTransExecution clusteredTrans = null;
 
   private Log log = LogFactory.getLog( PdiAction.class );
 
@@ -173,11 +299,28 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   private String gatheringMetrics;
   private String expandingRemoteJob;
   private String startCopyName;
+  private String resume;
+
+  // the key of the checkpoint of the running job, if its progress is recorded
+  private String checkpointKey;
+
+  private String watermarkVariable;
+  private String watermarkField;
 
   // When the Transformation prepare execution fails, the exception is logged and not thrown to the caller. Adding a
   // flag to indicate the success/failure of this steps
   private boolean transPrepExecutionFailure = false;
 
+  private PdiAdmissionController.Priority executionPriority = PdiAdmissionController.Priority.SCHEDULED;
+
+  private String executionTimeout;
+
+  private volatile boolean timedOut = false;
+
+  private ExecutionDeadlineTimer.Deadline deadline;
+
+  private PdiAdmissionController.Permit threadPermit;
+
   public void setLogger( Log log ) {
     this.log = log;
   }
@@ -232,12 +375,361 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
 
   /**
    * Execute the specified transformation in the chosen repository.
+   * <p>
+   * With virtual threads enabled in the plugin configuration, the execution, including waiting for a free execution
+   * slot and for the transformation or job to finish, runs on a virtual thread while the calling thread waits for it,
+   * see {@link PdiOrchestrationExecutor}.
    */
   @Override
   public void execute() throws Exception {
+    if ( isVirtualThreadsEnabled() ) {
+      waitForVirtualThread();
+      return;
+    }
+    executeOnCurrentThread();
+  }
+
+  /**
+   * Runs the execution on a virtual thread, as the user of the current session, and waits for it. If the waiting
+   * thread is interrupted, so is the execution.
+   */
+  private void waitForVirtualThread() throws Exception {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    Future<Void> execution = PdiOrchestrationExecutor.getInstance().getExecutor().submit( () -> {
+      runAsUser( session, () -> {
+        executeOnCurrentThread();
+        return null;
+      } );
+      return null;
+    } );
+    try {
+      execution.get();
+    } catch ( InterruptedException e ) {
+      execution.cancel( true );
+      throw e;
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * Executes the transformation or job, waiting for it on the current thread.
+   */
+  private void executeOnCurrentThread() throws Exception {
+    beforeExecution();
+
+    String coalescingKey = getCoalescingKey();
+    if ( coalescingKey == null ) {
+      executeAdmitted();
+      return;
+    }
+
+    PdiExecutionCoalescer.Flight flight = PdiExecutionCoalescer.getInstance().join( coalescingKey );
+    if ( !flight.isLeader() ) {
+      // the same execution is already running, take its outcome
+      copyOutcomeOf( flight.await() );
+      return;
+    }
+
+    try {
+      executeAdmitted();
+    } catch ( Throwable e ) {
+      flight.fail( e );
+      throw e;
+    }
+    flight.complete( this );
+  }
+
+  /**
+   * Waits for a free execution slot and executes the transformation or job.
+   */
+  private void executeAdmitted() throws Exception {
+    // wait for a free execution slot
+    PdiAdmissionController.Permit permit = acquireExecutionSlot();
+    try {
+      // the XML node cache is shared with the other executions, it is only cleared when it is safe to do so
+      XMLHandlerCacheScope xmlCacheScope = getXmlCacheScope();
+      xmlCacheScope.enter();
+      try {
+        pdiUserAppender = KettleLogStore.getAppender();
+        Repository repository = connectToRepository();
+
+        checkIfPvfs();
+
+        try {
+
+          if ( transformation != null ) {
+            executeTransformation( repository );
+          } else if ( job != null ) {
+            executeJob( repository );
+          }
+          commitWatermark();
+        } finally {
+          disarmDeadline();
+          releaseThreads();
+          if ( repository != null ) {
+            releaseRepository( repository );
+          }
+        }
+      } finally {
+        xmlCacheScope.exit();
+      }
+    } finally {
+      permit.release();
+    }
+  }
+
+  /**
+   * Executes the specified transformation or job without waiting for it to finish. The returned future completes when
+   * the transformation or job finishes, as notified by its listeners, so no thread is held while it runs.
+   * <p>
+   * With virtual threads enabled in the plugin configuration, the whole execution, including waiting for it to
+   * finish, runs on a virtual thread instead, see {@link PdiOrchestrationExecutor}.
+   *
+   * @return the future result of the execution, completed exceptionally if the execution could not start or failed
+   */
+  public CompletableFuture<PdiExecutionResult> executeAsync() {
+    if ( isVirtualThreadsEnabled() ) {
+      return executeOnVirtualThread();
+    }
+    return executeWithListeners();
+  }
+
+  /**
+   * Runs the execution on a virtual thread, as the user of the current session.
+   */
+  private CompletableFuture<PdiExecutionResult> executeOnVirtualThread() {
+    CompletableFuture<PdiExecutionResult> future = new CompletableFuture<>();
+    IPentahoSession session = PentahoSessionHolder.getSession();
+
+    PdiOrchestrationExecutor.getInstance().getExecutor().execute( () -> {
+      try {
+        runAsUser( session, () -> {
+          executeOnCurrentThread();
+          return null;
+        } );
+        future.complete( getExecutionResult() );
+      } catch ( Throwable e ) {
+        future.completeExceptionally( e );
+      }
+    } );
+    return future;
+  }
+
+  /**
+   * Runs the given execution as the user of the given session, if any, on a thread other than the one of the session.
+   */
+  private static void runAsUser( IPentahoSession session, Callable<Void> execution ) throws Exception {
+    if ( session == null ) {
+      execution.call();
+    } else {
+      SecurityHelper.getInstance().runAsUser( session.getName(), execution );
+    }
+  }
+
+  /**
+   * Whether the executions run on virtual threads, according to the plugin configuration and the
+   * support of the Java version
+   */
+  private boolean isVirtualThreadsEnabled() {
+    // Note that any string different from "true"/"false" will result into a false value
+    if ( !Boolean.parseBoolean( getPropertyAsString( getPluginSettings(), VIRTUAL_THREADS_PROPERTY ) ) ) {
+      return false;
+    }
+    if ( !PdiOrchestrationExecutor.getInstance().isSupported() ) {
+      if ( virtualThreadsWarned.compareAndSet( false, true ) ) {
+        log.warn( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+          .getString( "PdiAction.WARN_VIRTUAL_THREADS_NOT_SUPPORTED", System.getProperty( "java.version" ) ) );
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Waits for a free execution slot without holding the current thread, starts the execution and completes the future
+   * from the listener of the transformation or job. If a slot is free right away, the execution starts on the current
+   * thread.
+   */
+  private CompletableFuture<PdiExecutionResult> executeWithListeners() {
+    CompletableFuture<PdiExecutionResult> future = new CompletableFuture<>();
+    CompletableFuture<PdiAdmissionController.Permit> admission;
+    try {
+      beforeExecution();
+      admission = acquireExecutionSlotAsync();
+    } catch ( Exception e ) {
+      future.completeExceptionally( e );
+      return future;
+    }
+
+    if ( admission.isDone() ) {
+      startAdmitted( future, admission.join() );
+      return future;
+    }
+
+    // started once admitted, on a thread of its own, as the user of the current session
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    admission.thenAcceptAsync( permit -> {
+      try {
+        if ( session == null ) {
+          startAdmitted( future, permit );
+        } else {
+          SecurityHelper.getInstance().runAsUser( session.getName(), () -> {
+            startAdmitted( future, permit );
+            return null;
+          } );
+        }
+      } catch ( Exception e ) {
+        permit.release();
+        future.completeExceptionally( e );
+      }
+    }, admissionExecutor );
+    // leaves the queue if given up before being admitted
+    future.whenComplete( ( result, error ) -> {
+      if ( future.isCancelled() ) {
+        admission.cancel( false );
+      }
+    } );
+    return future;
+  }
+
+  /**
+   * Starts the admitted execution and completes the future from the listener of the transformation or job.
+   */
+  private void startAdmitted( CompletableFuture<PdiExecutionResult> future, PdiAdmissionController.Permit permit ) {
+    AtomicBoolean completed = new AtomicBoolean();
+    XMLHandlerCacheScope xmlCacheScope = null;
+    Repository repository = null;
+
+    try {
+      XMLHandlerCacheScope scope = getXmlCacheScope();
+      scope.enter();
+      xmlCacheScope = scope;
+      pdiUserAppender = KettleLogStore.getAppender();
+      repository = connectToRepository();
+
+      checkIfPvfs();
+
+      final PdiAdmissionController.Permit executionPermit = permit;
+      final Repository executionRepository = repository;
+      final XMLHandlerCacheScope executionXmlCacheScope = xmlCacheScope;
+      boolean started = false;
+
+      TransMeta transMeta = transformation != null ? loadTransformation( repository ) : null;
+      if ( transMeta != null && isRunClustered( transMeta ) ) {
+        started = startClusteredTransformation( transMeta );
+        if ( started ) {
+          clusterMonitorExecutor.execute( () -> complete( future, completed, () -> {
+            finishClusteredTransformation();
+            return null;
+          }, executionPermit, executionRepository, executionXmlCacheScope ) );
+        }
+      } else if ( transMeta != null ) {
+        started = startTransformation( transMeta, onceFinished(
+          () -> completionExecutor.execute( () -> complete( future, completed, () -> {
+            finishTransformation( false );
+            return null;
+          }, executionPermit, executionRepository, executionXmlCacheScope ) ) ) );
+      } else if ( job != null ) {
+        JobMeta jobMeta = loadJob( repository );
+        prefetchReferencedMetas( jobMeta );
+        started = startJob( jobMeta, repository, new JobAdapter() {
+          @Override
+          public void jobFinished( Job job ) {
+            completionExecutor.execute( () -> complete( future, completed, () -> {
+              finishJob( false );
+              return null;
+            }, executionPermit, executionRepository, executionXmlCacheScope ) );
+          }
+        } );
+      }
+
+      if ( !started ) {
+        // nothing is running, there is nothing to wait for
+        complete( future, completed, () -> null, permit, repository, xmlCacheScope );
+      }
+    } catch ( Exception e ) {
+      if ( localTrans != null && localTrans.isRunning() ) {
+        localTrans.stopAll();
+      }
+      if ( localJob != null && localJob.isActive() ) {
+        localJob.stopAll();
+      }
+      if ( clusteredTrans != null && clusteredTrans.getResult() == null ) {
+        clusteredTrans.stop();
+      }
+      PdiAdmissionController.Permit executionPermit = permit;
+      XMLHandlerCacheScope executionXmlCacheScope = xmlCacheScope;
+      Repository executionRepository = repository;
+      complete( future, completed, () -> {
+        throw e;
+      }, executionPermit, executionRepository, executionXmlCacheScope );
+    }
+  }
+
+  /**
+   * Runs the last step of an asynchronous execution, releases its resources and completes its future, once.
+   */
+  private void complete( CompletableFuture<PdiExecutionResult> future, AtomicBoolean completed, Callable<Void> finish,
+                         PdiAdmissionController.Permit permit, Repository repository,
+                         XMLHandlerCacheScope xmlCacheScope ) {
+    if ( !completed.compareAndSet( false, true ) ) {
+      return;
+    }
+
+    Exception error = null;
+    try {
+      finish.call();
+      commitWatermark();
+    } catch ( Exception e ) {
+      error = e;
+    } finally {
+      disarmDeadline();
+      releaseThreads();
+      if ( repository != null ) {
+        releaseRepository( repository );
+      }
+      if ( xmlCacheScope != null ) {
+        xmlCacheScope.exit();
+      }
+      if ( permit != null ) {
+        permit.release();
+      }
+    }
+
+    if ( error != null ) {
+      future.completeExceptionally( error );
+    } else {
+      future.complete( getExecutionResult() );
+    }
+  }
+
+  /**
+   * Returns the outcome of the last execution
+   *
+   * @return the outcome of the last execution
+   */
+  public PdiExecutionResult getExecutionResult() {
+    String logChannelId = localTrans != null ? localTrans.getLogChannelId()
+      : clusteredTrans != null ? clusteredTrans.getLogChannelId()
+      : localJob != null ? localJob.getLogChannelId() : null;
+    return new PdiExecutionResult( getStatus(), getResult(), isExecutionSuccessful(),
+      transformationOutputRowsCount, transformationOutputErrorRowsCount, logChannelId );
+  }
+
+  /**
+   * Checks the permissions and the configuration of this action and initializes the environment
+   */
+  private void beforeExecution() throws Exception {
 
-    // Reset the flag
+    // Reset the flags
     transPrepExecutionFailure = false;
+    timedOut = false;
+    disposeOutputRows();
 
     IAuthorizationPolicy authorizationPolicy =
         PentahoSystem.get( IAuthorizationPolicy.class, PentahoSessionHolder.getSession() );
@@ -255,29 +747,50 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
 
     // initialize environment variables
     KettleSystemListener.environmentInit( PentahoSessionHolder.getSession() );
+  }
+
+  /**
+   * Connects to the repository and loads the transformation or job of this action into the caches, without executing
+   * it. The steps and job entries are not checked, as their checks may connect to databases; only those whose plugin
+   * is missing are reported.
+   *
+   * @throws Exception if the transformation or job cannot be loaded, or uses missing plugins
+   */
+  void warmUp() throws Exception {
+    validate();
 
     pdiUserAppender = KettleLogStore.getAppender();
     Repository repository = connectToRepository();
-
-    checkIfPvfs();
-
     try {
+      VariableSpace varSpace = Variables.getADefaultVariableSpace();
+      populateVariables( varSpace );
 
+      boolean missingPlugins = false;
       if ( transformation != null ) {
-        executeTransformation( repository );
+        missingPlugins = loadTransMeta( repository, varSpace ).hasMissingPlugins();
       } else if ( job != null ) {
-        executeJob( repository );
+        missingPlugins = loadJobMeta( repository, varSpace ).hasMissingPlugins();
+      }
+      if ( missingPlugins ) {
+        throw new KettleException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
+          "PdiAction.ERROR_0018_MISSING_PLUGINS", transformation != null ? transformation : job ) );
       }
     } finally {
       if ( repository != null ) {
-        if ( log.isDebugEnabled() ) {
-          log.debug( Messages.getInstance().getString( "Kettle.DEBUG_DISCONNECTING" ) );
-        }
-        repository.disconnect();
+        releaseRepository( repository );
       }
     }
+  }
 
-    XMLHandlerCache.getInstance().clear();
+  private static ExecutorService createCompletionExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor( 2, 2, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+      runnable -> {
+        Thread thread = new Thread( runnable, "PdiAction-completion-" + completionThreadCount.incrementAndGet() ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      } );
+    executor.allowCoreThreadTimeOut( true );
+    return executor;
   }
 
   protected boolean isPvfs( String path ) {
@@ -301,25 +814,18 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
 
     // TODO: beware of BISERVER-50
 
+    configureResolverChain();
     EngineMetaLoader engineMetaUtil = new EngineMetaLoader( repository );
 
     try {
       return engineMetaUtil.loadTransMeta( directory, transformation, parent );
     } catch ( FileNotFoundException e ) {
+      discardRepository( repository );
       throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
           .getErrorString( "PdiAction.ERROR_0006_FAILED_TRANSMETA_CREATION", directory, transformation ), e );
-    }
-  }
-
-  private TransMeta createTransMetaJCR( Repository repository, VariableSpace parent ) throws ActionExecutionException {
-    try {
-      IUnifiedRepository unifiedRepository = PentahoSystem.get( IUnifiedRepository.class, null );
-      RepositoryFile transFile = unifiedRepository.getFile( idToPath( transformation ) );
-
-      return repository.loadTransformation( new StringObjectId( (String) transFile.getId() ), null, parent );
-    } catch ( Throwable e ) {
-      throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
-          .getErrorString( "PdiAction.ERROR_0006_FAILED_TRANSMETA_CREATION", directory, transformation ), e );
+    } catch ( RuntimeException e ) {
+      discardRepository( repository );
+      throw e;
     }
   }
 
@@ -348,6 +854,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
       aMeta.setLogLevel( LogLevel.getLogLevelForCode( logLevel ) );
     }
 
+    // before the inputs, so that a watermark passed explicitly wins
+    injectWatermark( aMeta );
     populateInputs( aMeta, aMeta );
 
     overrideMetaValuesFromConfiguration( aMeta );
@@ -432,58 +940,592 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     return null;
   }
 
-  private JobMeta createJobMeta( Repository repository, VariableSpace parent ) throws ActionExecutionException {
-    // TODO: do we need to set a parameter on the job or trans meta called
-    // ${pentaho.solutionpath} to mimic the old in-line xml replacement behavior
-    // (see scm history for an illustration of this)?
+  /**
+   * Returns the value for the given property as an <code>int</code>. If the property is not defined or is not a valid
+   * number, it will return the given default value.
+   *
+   * @param settings the configuration
+   * @param propertyName the name of the property
+   * @param defaultValue the value to use when the property is not defined or is invalid
+   * @return the value for the given property or <code>defaultValue</code>
+   */
+  private int getPropertyAsInt( Properties settings, String propertyName, int defaultValue ) {
+    String propertyValue = getPropertyAsString( settings, propertyName );
+    if ( propertyValue != null ) {
+      try {
+        return Integer.parseInt( propertyValue );
+      } catch ( NumberFormatException e ) {
+        log.warn( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+          .getErrorString( "PdiAction.ERROR_0012_INVALID_NUMERIC_SETTING", propertyName, propertyValue ) );
+      }
+    }
 
-    // TODO: beware of BISERVER-50
+    return defaultValue;
+  }
 
-    EngineMetaLoader engineMetaUtil = new EngineMetaLoader( repository );
+  /**
+   * Returns the server-wide meta cache, sized according to the plugin configuration.
+   *
+   * @return the meta cache
+   */
+  @VisibleForTesting
+  EngineMetaCache getMetaCache() {
+    EngineMetaCache metaCache = EngineMetaCache.getInstance();
+    metaCache.setMaxEntries(
+      getPropertyAsInt( getPluginSettings(), META_CACHE_SIZE_PROPERTY, EngineMetaCache.DEFAULT_MAX_ENTRIES ) );
+    return metaCache;
+  }
 
-    try {
-      return engineMetaUtil.loadJobMeta( directory, job, parent );
-    } catch ( FileNotFoundException e ) {
-      throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
-          .getErrorString( "PdiAction.ERROR_0007_FAILED_JOBMETA_CREATION", directory, job ), e );
-    }
+  /**
+   * Returns the server-wide cache of the metas parsed from input streams, sized according to the plugin configuration.
+   *
+   * @return the meta content cache
+   */
+  @VisibleForTesting
+  EngineMetaContentCache getContentCache() {
+    EngineMetaContentCache contentCache = EngineMetaContentCache.getInstance();
+    long defaultSize = EngineMetaContentCache.DEFAULT_MAX_BYTES / ( 1024 * 1024 );
+    contentCache.setMaxBytes(
+      getPropertyAsInt( getPluginSettings(), META_CONTENT_CACHE_SIZE_PROPERTY, (int) defaultSize ) * 1024L * 1024L );
+    return contentCache;
   }
 
-  private JobMeta createJobMetaJCR( Repository repository, VariableSpace parent ) throws ActionExecutionException {
-    try {
-      IUnifiedRepository unifiedRepository = PentahoSystem.get( IUnifiedRepository.class, null );
-      RepositoryFile jobFile = unifiedRepository.getFile( idToPath( job ) );
+  /**
+   * Returns the server-wide scope of the XML node cache, configured according to the plugin configuration.
+   *
+   * @return the XML node cache scope
+   */
+  private XMLHandlerCacheScope getXmlCacheScope() {
+    XMLHandlerCacheScope xmlCacheScope = XMLHandlerCacheScope.getInstance();
+    xmlCacheScope.setMaxExecutions( getPropertyAsInt( getPluginSettings(), XML_CACHE_MAX_EXECUTIONS_PROPERTY,
+      XMLHandlerCacheScope.DEFAULT_MAX_EXECUTIONS ) );
+    return xmlCacheScope;
+  }
 
-      return repository.loadJob( new StringObjectId( (String) jobFile.getId() ), null, parent );
-    } catch ( Throwable e ) {
-      throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
-          .getErrorString( "PdiAction.ERROR_0007_FAILED_JOBMETA_CREATION", directory, job ), e );
-    }
+  /**
+   * Returns the server-wide admission controller, limited according to the plugin configuration.
+   *
+   * @return the admission controller
+   */
+  private PdiAdmissionController getAdmissionController() {
+    Properties settings = getPluginSettings();
+    PdiAdmissionController admissionController = PdiAdmissionController.getInstance();
+    admissionController.setMaxConcurrent( getPropertyAsInt( settings, MAX_CONCURRENT_EXECUTIONS_PROPERTY,
+      PdiAdmissionController.DEFAULT_MAX_CONCURRENT ) );
+    admissionController.setRoleWeights(
+      PdiAdmissionController.parseRoleWeights( getPropertyAsString( settings, ROLE_WEIGHTS_PROPERTY ) ) );
+    return admissionController;
   }
 
-  private void populateJobMeta( JobMeta jobMeta ) {
-    if ( arguments != null ) {
-      jobMeta.setArguments( arguments );
+  /**
+   * Schedules the stop of the transformation or job once its timeout elapses, if it has one.
+   *
+   * @param stop stops the transformation or job
+   */
+  private void armDeadline( Runnable stop ) {
+    disarmDeadline();
+    long timeout = getExecutionTimeoutSeconds();
+    if ( timeout <= 0 ) {
+      return;
     }
 
-    populateMeta( jobMeta );
+    String name = transformation != null ? transformation : job;
+    deadline = ExecutionDeadlineTimer.getInstance().schedule( TimeUnit.SECONDS.toMillis( timeout ), () -> {
+      timedOut = true;
+      // stopping takes a while, the timer thread fires the other deadlines meanwhile
+      deadlineExecutor.execute( () -> {
+        log.error( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
+          "PdiAction.ERROR_0013_EXECUTION_TIMED_OUT", name, Long.toString( timeout ) ) );
+        // the waiting execution then cleans up and releases its resources as usual
+        stop.run();
+      } );
+    } );
+  }
+
+  private void disarmDeadline() {
+    if ( deadline != null ) {
+      deadline.cancel();
+      deadline = null;
+    }
   }
 
-  private String idToPath( String id ) {
-    String path = id.replace( ':', '/' );
-    if ( !path.isEmpty() && path.charAt( 0 ) != '/' ) {
-      path = "/" + path;
+  /**
+   * Returns the timeout of this execution: the one set on this action, else the one of its path in the plugin
+   * configuration, else the default one of the plugin configuration.
+   *
+   * @return the timeout in seconds, zero or less for none
+   */
+  long getExecutionTimeoutSeconds() {
+    if ( executionTimeout != null ) {
+      try {
+        return Long.parseLong( executionTimeout.trim() );
+      } catch ( NumberFormatException e ) {
+        log.warn( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+          .getErrorString( "PdiAction.ERROR_0012_INVALID_NUMERIC_SETTING", "executionTimeout", executionTimeout ) );
+      }
     }
-    return path;
-  }
 
-  private void populateInputs( NamedParams paramHolder, VariableSpace varSpace ) {
-    if ( parameters != null ) {
-      for ( Map.Entry<String, String> entry : parameters.entrySet() ) {
-        try {
-          paramHolder.setParameterValue( entry.getKey(), entry.getValue() );
-        } catch ( UnknownParamException upe ) {
-          log.warn( upe );
+    Properties settings = getPluginSettings();
+    String path = idToPath( StringUtils.defaultString( directory ) ) + "/" //$NON-NLS-1$
+      + ( transformation != null ? transformation + ".ktr" : job + ".kjb" ); //$NON-NLS-1$ //$NON-NLS-2$
+    String pathTimeouts = getPropertyAsString( settings, EXECUTION_TIMEOUT_PATHS_PROPERTY );
+    if ( pathTimeouts != null ) {
+      // the most specific path wins
+      String bestPath = null;
+      long bestTimeout = 0;
+      for ( String entry : pathTimeouts.split( "," ) ) { //$NON-NLS-1$
+        int separator = entry.lastIndexOf( '=' );
+        if ( separator <= 0 ) {
+          continue;
+        }
+        String configuredPath = entry.substring( 0, separator ).trim();
+        boolean matches = configuredPath.endsWith( "/" ) ? path.startsWith( configuredPath ) //$NON-NLS-1$
+          : path.equals( configuredPath );
+        if ( matches && ( bestPath == null || configuredPath.length() > bestPath.length() ) ) {
+          try {
+            bestTimeout = Long.parseLong( entry.substring( separator + 1 ).trim() );
+            bestPath = configuredPath;
+          } catch ( NumberFormatException e ) {
+            log.warn( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
+              "PdiAction.ERROR_0012_INVALID_NUMERIC_SETTING", EXECUTION_TIMEOUT_PATHS_PROPERTY, entry ) );
+          }
+        }
+      }
+      if ( bestPath != null ) {
+        return bestTimeout;
+      }
+    }
+
+    return getPropertyAsInt( settings, EXECUTION_TIMEOUT_PROPERTY, 0 );
+  }
+
+  /**
+   * Returns the server-wide retention of the runs registered in Carte, configured according to the plugin
+   * configuration.
+   *
+   * @return the Carte registry retention
+   */
+  private CarteRegistryRetention getCarteRetention() {
+    Properties settings = getPluginSettings();
+    CarteRegistryRetention retention = CarteRegistryRetention.getInstance();
+    retention.setMaxEntries( getPropertyAsInt( settings, CARTE_MAX_ENTRIES_PROPERTY,
+      CarteRegistryRetention.DEFAULT_MAX_ENTRIES ) );
+    retention.setTtl( TimeUnit.MINUTES.toMillis( getPropertyAsInt( settings, CARTE_TTL_PROPERTY,
+      (int) TimeUnit.MILLISECONDS.toMinutes( CarteRegistryRetention.DEFAULT_TTL ) ) ) );
+    retention.setMaxSummaries( getPropertyAsInt( settings, CARTE_MAX_SUMMARIES_PROPERTY,
+      CarteRegistryRetention.DEFAULT_MAX_SUMMARIES ) );
+    return retention;
+  }
+
+  /**
+   * Returns the key identifying this execution when its file is coalesced according to the plugin configuration: the
+   * user, the path and version of the file, and all the inputs of the execution. The executions of different users are
+   * never shared, as each one runs with the permissions of its user.
+   *
+   * @return the key, or <code>null</code> if this execution must run on its own
+   */
+  @VisibleForTesting
+  String getCoalescingKey() {
+    PdiExecutionCoalescer coalescer = PdiExecutionCoalescer.getInstance();
+    coalescer.setPaths( PdiExecutionCoalescer.parsePaths(
+      getPropertyAsString( getPluginSettings(), COALESCED_PATHS_PROPERTY ) ) );
+    if ( coalescer.getPaths().isEmpty() || inputStream != null || injectorStep != null || rowStream != null ) {
+      // rows injected, a file outside of the repository or rows streamed to this caller only, the executions cannot be
+      // shared
+      return null;
+    }
+
+    // also checks that the current user can read the file
+    RepositoryFile file = transformation != null ? getRepositoryFile( transformation, ".ktr" ) //$NON-NLS-1$
+      : getRepositoryFile( job, ".kjb" ); //$NON-NLS-1$
+    if ( file == null || !coalescer.isCoalesced( file.getPath() ) ) {
+      return null;
+    }
+
+    return getSessionUser() + "|" + getExecutionSignature( file ); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns the key identifying this transformation when it is kept prepared according to the plugin configuration:
+   * the user, the path and version of the file, and all the inputs of the execution.
+   *
+   * @return the key, or <code>null</code> if this transformation must be prepared when it runs
+   */
+  private String getPreparedPoolKey() {
+    PreparedTransPool pool = getPreparedPool();
+    if ( pool.getPaths().isEmpty() || inputStream != null || injectorStep != null || getClass() != PdiAction.class ) {
+      // rows injected, a file outside of the repository or a customized transformation, it cannot be prepared ahead
+      return null;
+    }
+
+    RepositoryFile file = getRepositoryFile( transformation, ".ktr" ); //$NON-NLS-1$
+    if ( file == null || !pool.isPooled( file.getPath() ) ) {
+      return null;
+    }
+    return getSessionUser() + "|" + getExecutionSignature( file ); //$NON-NLS-1$
+  }
+
+  private PreparedTransPool getPreparedPool() {
+    Properties settings = getPluginSettings();
+    PreparedTransPool pool = PreparedTransPool.getInstance();
+    pool.setPaths( PdiExecutionCoalescer.parsePaths( getPropertyAsString( settings, PREPARED_POOL_PATHS_PROPERTY ) ) );
+    pool.setSize( getPropertyAsInt( settings, PREPARED_POOL_SIZE_PROPERTY, PreparedTransPool.DEFAULT_SIZE ) );
+    pool.setMaxKeys( getPropertyAsInt( settings, PREPARED_POOL_MAX_KEYS_PROPERTY, PreparedTransPool.DEFAULT_MAX_KEYS ) );
+    pool.setMaxIdleTime( TimeUnit.MINUTES.toMillis( getPropertyAsInt( settings, PREPARED_POOL_MAX_IDLE_PROPERTY,
+      (int) TimeUnit.MILLISECONDS.toMinutes( PreparedTransPool.DEFAULT_MAX_IDLE_TIME ) ) ) );
+    return pool;
+  }
+
+  /**
+   * Returns the path and version of the given file followed by all the inputs of this execution
+   */
+  private String getExecutionSignature( RepositoryFile file ) {
+    StringBuilder key = new StringBuilder( file.getPath() );
+    key.append( '@' ).append( file.getVersionId() );
+    key.append( '@' ).append( file.getLastModifiedDate() != null ? file.getLastModifiedDate().getTime() : 0 );
+    key.append( "|parameters=" ).append( parameters != null ? new TreeMap<>( parameters ) : null ); //$NON-NLS-1$
+    key.append( "|variables=" ).append( variables != null ? new TreeMap<>( variables ) : null ); //$NON-NLS-1$
+    key.append( "|varArgs=" ).append( new TreeMap<>( varArgs ) ); //$NON-NLS-1$
+    key.append( "|arguments=" ).append( Arrays.toString( arguments ) ); //$NON-NLS-1$
+    key.append( "|monitorStep=" ).append( monitorStep ); //$NON-NLS-1$
+    key.append( "|startCopyName=" ).append( startCopyName ); //$NON-NLS-1$
+    key.append( "|resume=" ).append( resume ); //$NON-NLS-1$
+    if ( watermarkVariable != null ) {
+      key.append( "|watermark=" ).append( watermarkVariable ).append( '=' ).append( getCommittedWatermark() ); //$NON-NLS-1$
+    }
+    key.append( "|logLevel=" ).append( logLevel ); //$NON-NLS-1$
+    key.append( "|clearLog=" ).append( clearLog ); //$NON-NLS-1$
+    key.append( "|safeMode=" ).append( runSafeMode ); //$NON-NLS-1$
+    key.append( "|clustered=" ).append( runClustered ); //$NON-NLS-1$
+    key.append( "|gatheringMetrics=" ).append( gatheringMetrics ); //$NON-NLS-1$
+    key.append( "|expandingRemoteJob=" ).append( expandingRemoteJob ); //$NON-NLS-1$
+    key.append( "|timeout=" ).append( executionTimeout ); //$NON-NLS-1$
+    return key.toString();
+  }
+
+  /**
+   * Takes the outcome of an identical execution: its transformation or job, log and captured rows. Each action gets its
+   * own copy of the rows, so they can be read independently.
+   *
+   * @param leader the action that ran
+   */
+  private void copyOutcomeOf( PdiAction leader ) {
+    localTrans = leader.localTrans;
+    clusteredTrans = leader.clusteredTrans;
+    localJob = leader.localJob;
+    pdiUserAppender = leader.pdiUserAppender;
+    transPrepExecutionFailure = leader.transPrepExecutionFailure;
+    timedOut = leader.timedOut;
+    transformationOutputRows = copyOf( leader.transformationOutputRows );
+    transformationOutputErrorRows = copyOf( leader.transformationOutputErrorRows );
+    transformationOutputRowsCount = leader.transformationOutputRowsCount;
+    transformationOutputErrorRowsCount = leader.transformationOutputErrorRowsCount;
+  }
+
+  private static IPentahoResultSet copyOf( IPentahoResultSet rows ) {
+    return rows != null ? rows.memoryCopy() : null;
+  }
+
+  /**
+   * Waits for a free execution slot, shared fairly between the users of the same priority class.
+   *
+   * @return the permit of this execution
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private PdiAdmissionController.Permit acquireExecutionSlot() throws InterruptedException {
+    PdiAdmissionController admissionController = getAdmissionController();
+    String user = getSessionUser();
+    return admissionController.acquire( executionPriority, user, getUserRoles( admissionController, user ) );
+  }
+
+  /**
+   * Asks for a free execution slot, shared fairly between the users of the same priority class, without waiting for
+   * it.
+   *
+   * @return the permit of this execution, once it is admitted
+   */
+  private CompletableFuture<PdiAdmissionController.Permit> acquireExecutionSlotAsync() {
+    PdiAdmissionController admissionController = getAdmissionController();
+    String user = getSessionUser();
+    return admissionController.acquireAsync( executionPriority, user, getUserRoles( admissionController, user ), 1 );
+  }
+
+  /**
+   * Waits until the threads of the transformation fit in the server-wide thread budget, if one is configured.
+   *
+   * @param transMeta the transformation about to be prepared
+   * @throws ActionExecutionException if interrupted while waiting
+   */
+  private void acquireThreads( TransMeta transMeta ) throws ActionExecutionException {
+    if ( threadPermit != null ) {
+      // already waited for, before looking for a prepared transformation
+      return;
+    }
+    PdiAdmissionController threadBudget = PdiAdmissionController.getThreadBudget();
+    Properties settings = getPluginSettings();
+    threadBudget.setMaxConcurrent( getPropertyAsInt( settings, THREAD_BUDGET_PROPERTY, 0 ) );
+    threadBudget.setRoleWeights(
+      PdiAdmissionController.parseRoleWeights( getPropertyAsString( settings, ROLE_WEIGHTS_PROPERTY ) ) );
+    if ( threadBudget.getMaxConcurrent() <= 0 ) {
+      return;
+    }
+
+    int footprint = getThreadFootprint( transMeta );
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Thread footprint of " + transMeta.getName() + ": " + footprint ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    String user = getSessionUser();
+    try {
+      threadPermit = threadBudget.acquire( executionPriority, user, getUserRoles( threadBudget, user ), footprint );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+        .getErrorString( "PdiAction.ERROR_0014_INTERRUPTED_WAITING_FOR_THREADS" ), e );
+    }
+  }
+
+  /**
+   * Returns the thread footprint of the transformation. As it loads the transformations referenced by the steps, it is
+   * only computed once per version of the repository file of the transformation, and kept with its cached meta.
+   */
+  private int getThreadFootprint( TransMeta transMeta ) {
+    EngineMetaCache metaCache = getMetaCache();
+    int footprint = transFile != null ? metaCache.getThreadFootprint( transFile ) : 0;
+    if ( footprint <= 0 ) {
+      footprint = TransThreadFootprint.of( transMeta, transMeta.getRepository() );
+      if ( transFile != null ) {
+        metaCache.putThreadFootprint( transFile, footprint );
+      }
+    }
+    return footprint;
+  }
+
+  private void releaseThreads() {
+    if ( threadPermit != null ) {
+      threadPermit.release();
+      threadPermit = null;
+    }
+  }
+
+  private static String getSessionUser() {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    return session != null ? session.getName() : null;
+  }
+
+  /**
+   * Returns the roles of the given user, only when the admission controller has role weights to apply to them
+   */
+  private static List<String> getUserRoles( PdiAdmissionController admissionController, String user ) {
+    if ( user == null || admissionController.getRoleWeights().isEmpty() ) {
+      return null;
+    }
+    IUserRoleListService userRoleListService = PentahoSystem.get( IUserRoleListService.class );
+    return userRoleListService != null ? userRoleListService.getRolesForUser( null, user ) : null;
+  }
+
+  /**
+   * Applies the plugin configuration to the server-wide resolver chain used to load transformations and jobs.
+   */
+  private void configureResolverChain() {
+    int missTtl = getPropertyAsInt( getPluginSettings(), META_MISS_TTL_PROPERTY,
+      (int) TimeUnit.MILLISECONDS.toSeconds( EngineMetaResolverChain.DEFAULT_MISS_TTL ) );
+    EngineMetaResolverChain.getInstance().setMissTtl( TimeUnit.SECONDS.toMillis( missTtl ) );
+  }
+
+  private JobMeta createJobMeta( Repository repository, VariableSpace parent ) throws ActionExecutionException {
+    // TODO: do we need to set a parameter on the job or trans meta called
+    // ${pentaho.solutionpath} to mimic the old in-line xml replacement behavior
+    // (see scm history for an illustration of this)?
+
+    // TODO: beware of BISERVER-50
+
+    configureResolverChain();
+    EngineMetaLoader engineMetaUtil = new EngineMetaLoader( repository );
+
+    try {
+      return engineMetaUtil.loadJobMeta( directory, job, parent );
+    } catch ( FileNotFoundException e ) {
+      discardRepository( repository );
+      throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+          .getErrorString( "PdiAction.ERROR_0007_FAILED_JOBMETA_CREATION", directory, job ), e );
+    } catch ( RuntimeException e ) {
+      discardRepository( repository );
+      throw e;
+    }
+  }
+
+  private void populateJobMeta( JobMeta jobMeta ) {
+    if ( arguments != null ) {
+      jobMeta.setArguments( arguments );
+    }
+
+    populateMeta( jobMeta );
+  }
+
+  /**
+   * Returns the file with the given id from the unified repository, or <code>null</code> if it cannot be found. The
+   * id may also be the name of the file, without extension, within {@link #directory}.
+   */
+  private RepositoryFile getRepositoryFile( String id, String extension ) {
+    try {
+      IUnifiedRepository unifiedRepository = PentahoSystem.get( IUnifiedRepository.class, null );
+      if ( unifiedRepository == null ) {
+        return null;
+      }
+
+      RepositoryFile file = unifiedRepository.getFile( idToPath( id ) );
+      if ( file == null && directory != null ) {
+        String fileName = id.endsWith( extension ) ? id : id + extension;
+        file = unifiedRepository.getFile( idToPath( directory ) + "/" + fileName ); //$NON-NLS-1$
+      }
+      return file;
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+
+  private String idToPath( String id ) {
+    String path = id.replace( ':', '/' );
+    if ( !path.isEmpty() && path.charAt( 0 ) != '/' ) {
+      path = "/" + path;
+    }
+    return path;
+  }
+
+  /**
+   * Sets the last committed watermark of this execution as the value of its watermark variable, and of the parameter
+   * of the same name if the transformation or job declares one.
+   */
+  private void injectWatermark( AbstractMeta aMeta ) {
+    if ( watermarkVariable == null ) {
+      return;
+    }
+    String watermark = getCommittedWatermark();
+    if ( watermark == null ) {
+      // the first run, the transformation or job starts from its own default
+      return;
+    }
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Injecting the watermark " + watermarkVariable + "=" + watermark ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    aMeta.setVariable( watermarkVariable, watermark );
+    if ( Arrays.asList( aMeta.listParameters() ).contains( watermarkVariable ) ) {
+      try {
+        aMeta.setParameterValue( watermarkVariable, watermark );
+      } catch ( UnknownParamException upe ) {
+        log.warn( upe );
+      }
+    }
+  }
+
+  private String getCommittedWatermark() {
+    try {
+      return getWatermarkStore().get( getWatermarkKey() );
+    } catch ( IOException e ) {
+      log.error( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
+        "PdiAction.ERROR_0016_WATERMARK_READ_FAILED", watermarkVariable ), e );
+      return null;
+    }
+  }
+
+  /**
+   * Commits the new watermark of a successful execution: the highest value of the watermark field in the rows of the
+   * monitor step if there is one, else the value the execution left in the watermark variable.
+   */
+  private void commitWatermark() {
+    if ( watermarkVariable == null || !isExecutionSuccessful() ) {
+      return;
+    }
+    String watermark = watermarkField != null ? getHighestValue( transformationOutputRows, watermarkField )
+      : localTrans != null ? localTrans.getVariable( watermarkVariable )
+      : localJob != null ? localJob.getVariable( watermarkVariable ) : null;
+    if ( watermark == null ) {
+      return;
+    }
+
+    try {
+      getWatermarkStore().commit( getWatermarkKey(), watermark );
+      if ( log.isDebugEnabled() ) {
+        log.debug( "Committed the watermark " + watermarkVariable + "=" + watermark ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    } catch ( IOException e ) {
+      // the next run processes the same data again, nothing is lost
+      log.error( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
+        "PdiAction.ERROR_0017_WATERMARK_COMMIT_FAILED", watermarkVariable, watermark ), e );
+    }
+  }
+
+  /**
+   * Returns the highest value of a column, formatted the way Kettle formats dates by default, or <code>null</code> if
+   * there are no rows
+   */
+  @SuppressWarnings( { "unchecked", "rawtypes" } )
+  static String getHighestValue( IPentahoResultSet rows, String columnName ) {
+    if ( rows == null ) {
+      return null;
+    }
+    int column = rows.getMetaData().getColumnIndex( columnName );
+    if ( column < 0 ) {
+      return null;
+    }
+
+    Object highest = null;
+    for ( int row = 0; row < rows.getRowCount(); row++ ) {
+      Object value = rows.getValueAt( row, column );
+      if ( value == null ) {
+        continue;
+      }
+      if ( highest == null || ( value instanceof Comparable && value.getClass() == highest.getClass()
+        && ( (Comparable) value ).compareTo( highest ) > 0 ) ) {
+        highest = value;
+      }
+    }
+    if ( highest instanceof Date ) {
+      return new SimpleDateFormat( ValueMetaBase.DEFAULT_DATE_FORMAT_MASK ).format( (Date) highest );
+    }
+    return highest != null ? highest.toString() : null;
+  }
+
+  /**
+   * Returns the key of the watermark of this execution: the path of its file and the name of its watermark variable
+   */
+  private String getWatermarkKey() {
+    RepositoryFile file = transformation != null ? getRepositoryFile( transformation, ".ktr" ) //$NON-NLS-1$
+      : getRepositoryFile( job, ".kjb" ); //$NON-NLS-1$
+    String path = file != null ? file.getPath() : transformation != null ? transformation : job;
+    return path + "#" + watermarkVariable; //$NON-NLS-1$
+  }
+
+  private WatermarkStore getWatermarkStore() throws IOException {
+    Properties settings = getPluginSettings();
+    if ( "jdbc".equalsIgnoreCase( getPropertyAsString( settings, WATERMARK_STORE_PROPERTY ) ) ) { //$NON-NLS-1$
+      String table = getPropertyAsString( settings, WATERMARK_TABLE_PROPERTY );
+      try {
+        DataSource dataSource = DataSourceProviderFactory.getDataSourceProviderInterface()
+          .getNamedDataSource( getPropertyAsString( settings, WATERMARK_DATASOURCE_PROPERTY ) );
+        return new JdbcWatermarkStore( dataSource,
+          StringUtils.isNotBlank( table ) ? table.trim() : JdbcWatermarkStore.DEFAULT_TABLE );
+      } catch ( DataSourceNamingException e ) {
+        throw new IOException( e );
+      }
+    }
+
+    FileWatermarkStore store = FileWatermarkStore.getInstance();
+    String fileName = getPropertyAsString( settings, WATERMARK_FILE_PROPERTY );
+    if ( StringUtils.isNotBlank( fileName ) ) {
+      store.setFile( new File( fileName.trim() ) );
+    }
+    return store;
+  }
+
+  private void populateInputs( NamedParams paramHolder, VariableSpace varSpace ) {
+    if ( parameters != null ) {
+      for ( Map.Entry<String, String> entry : parameters.entrySet() ) {
+        try {
+          paramHolder.setParameterValue( entry.getKey(), entry.getValue() );
+        } catch ( UnknownParamException upe ) {
+          log.warn( upe );
         }
       }
     }
@@ -525,42 +1567,68 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   }
 
   protected void executeTransformation( Repository repository ) throws ActionExecutionException {
-    TransMeta transMeta = null;
+    executeTransformation( loadTransformation( repository ) );
+  }
 
+  /**
+   * Loads and populates the transformation to execute
+   */
+  private TransMeta loadTransformation( Repository repository ) throws ActionExecutionException {
     VariableSpace varSpace = Variables.getADefaultVariableSpace();
     populateVariables( varSpace );
 
+    TransMeta transMeta = loadTransMeta( repository, varSpace );
+
+    // Whichever the TransMeta we got, let's populate it
+    populateTransMeta( transMeta );
+    return transMeta;
+  }
+
+  /**
+   * Loads the transformation of this action, from the input stream or from the repository, going through the caches.
+   */
+  private TransMeta loadTransMeta( Repository repository, VariableSpace varSpace ) throws ActionExecutionException {
+    TransMeta transMeta = null;
+    transFile = null;
+
     if ( isVfs && this.inputStream != null ) {
+      EngineMetaContentCache contentCache = getContentCache();
       try {
-        transMeta =
-            new TransMeta( inputStream, repository, true, varSpace,
-                ( msg, t1, t2 ) -> false );
-      } catch ( KettleXMLException | KettleMissingPluginsException e ) {
+        if ( contentCache.isEnabled() ) {
+          EngineMetaContentCache.Content content = EngineMetaContentCache.read( inputStream );
+          transMeta = contentCache.getTransMeta( content, repository, varSpace );
+          if ( transMeta == null ) {
+            transMeta =
+                new TransMeta( content.getInputStream(), repository, true, varSpace,
+                    ( msg, t1, t2 ) -> false );
+            contentCache.put( content, transMeta );
+          }
+        } else {
+          transMeta =
+              new TransMeta( inputStream, repository, true, varSpace,
+                  ( msg, t1, t2 ) -> false );
+        }
+      } catch ( KettleXMLException | KettleMissingPluginsException | IOException e ) {
         throw new ActionExecutionException( e );
       }
     } else {
-      // try loading from internal repository before falling back onto kettle
-      // the repository passed here is not used to load the transformation it is used
-      // to populate available databases, etc in "standard" kettle fashion
-      try {
-        transMeta = createTransMetaJCR( repository, varSpace );
-      } catch ( Throwable t ) {
-        // ignored
-      }
+      transFile = getRepositoryFile( transformation, ".ktr" ); //$NON-NLS-1$
+      EngineMetaCache metaCache = getMetaCache();
 
+      transMeta = metaCache.getTransMeta( transFile, repository, varSpace );
       if ( transMeta == null ) {
+        // the resolver chain tries the internal repository before falling back onto kettle
+        // the repository passed here is not only used to load the transformation, it is also used
+        // to populate available databases, etc in "standard" kettle fashion
         transMeta = createTransMeta( repository, varSpace );
+        metaCache.put( transFile, transMeta );
       }
     }
     if ( transMeta == null ) {
       throw new IllegalStateException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
         .getErrorString( "PdiAction.ERROR_0004_FAILED_TRANSMETA_CREATION" ) );
     }
-
-    // Whichever the TransMeta we got, let's populate it
-    populateTransMeta( transMeta );
-
-    executeTransformation( transMeta );
+    return transMeta;
   }
 
   /**
@@ -570,9 +1638,124 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @throws ActionExecutionException
    */
   protected void executeTransformation( final TransMeta transMeta )
+    throws ActionExecutionException {
+    if ( isRunClustered( transMeta ) ) {
+      if ( startClusteredTransformation( transMeta ) ) {
+        finishClusteredTransformation();
+      }
+      return;
+    }
+    if ( startTransformation( transMeta, null ) ) {
+      finishTransformation( true );
+    }
+  }
+
+  /**
+   * Starts a PDI transformation, up to the injection of the rows.
+   *
+   * @param transMeta the transformation
+   * @param listener  notified when the transformation finishes, may be <code>null</code>
+   * @return <code>false</code> if the transformation could not be prepared and was not started
+   * @throws ActionExecutionException
+   */
+  private boolean startTransformation( final TransMeta transMeta, final TransListener listener )
     throws ActionExecutionException {
     localTrans = null;
 
+    String preparedPoolKey = transMeta != null ? getPreparedPoolKey() : null;
+    if ( preparedPoolKey != null ) {
+      // the step threads are started below, wait until they fit in the thread budget
+      acquireThreads( transMeta );
+      localTrans = getPreparedPool().claim( preparedPoolKey, transMeta, getSessionUser() );
+      if ( localTrans != null ) {
+        if ( log.isDebugEnabled() ) {
+          log.debug( "Using a transformation prepared ahead of time for " + transMeta.getName() ); //$NON-NLS-1$
+        }
+        addToCarte( localTrans, localTrans.getTransMeta() );
+        armDeadline( localTrans::stopAll );
+      }
+    }
+
+    if ( localTrans == null && !prepareTransformation( transMeta, preparedPoolKey != null ) ) {
+      return false;
+    }
+
+    try {
+      if ( log.isDebugEnabled() ) {
+        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_FINDING_STEP_IMPORTER" ) );
+      }
+
+      String stepName = getMonitorStepName();
+
+      if ( stepName != null ) {
+        registerAsStepListener( stepName, localTrans );
+      }
+    } catch ( Exception e ) {
+      throw new ActionExecutionException( Messages.getInstance().getErrorString(
+          "Kettle.ERROR_0012_ROW_LISTENER_CREATE_FAILED" ), e );
+    }
+
+    try {
+      if ( log.isDebugEnabled() ) {
+        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_FINDING_STEP_IMPORTER" ) );
+      }
+
+      if ( injectorStep != null ) {
+        registerAsProducer( injectorStep, localTrans );
+      }
+    } catch ( Exception e ) {
+      throw new ActionExecutionException( Messages.getInstance().getErrorString(
+          "Kettle.ERROR_0012_ROW_INJECTOR_CREATE_FAILED" ), e );
+    }
+
+    try {
+      if ( log.isDebugEnabled() ) {
+        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_STARTING_TRANSFORMATION" ) );
+      }
+      if ( listener != null ) {
+        // before starting, so that it cannot miss the end of a short transformation
+        localTrans.addTransListener( listener );
+      }
+      localTrans.startThreads();
+    } catch ( Exception e ) {
+      throw new ActionExecutionException( Messages.getInstance().getErrorString(
+          "Kettle.ERROR_0013_TRANSFORMATION_START_FAILED" ), e );
+    }
+
+    // inject rows if necessary
+    if ( injectorRows != null ) {
+      // create a row meta
+      try {
+        if ( log.isDebugEnabled() ) {
+          log.debug( Messages.getInstance().getString( "Injecting rows" ) );
+        }
+        RowMeta rowMeta = new RowMeta();
+        RowMetaInterface rowMetaInterface = transMeta.getStepFields( injectorStep );
+        rowMeta.addRowMeta( rowMetaInterface );
+
+        // inject the rows
+        Object[] row = injectorRows.next();
+        while ( row != null ) {
+          rowInjector.putRow( rowMeta, row );
+          row = injectorRows.next();
+        }
+        rowInjector.finished();
+      } catch ( Exception e ) {
+        throw new ActionExecutionException( Messages.getInstance().getErrorString( "Row injection failed" ), e ); // $NON-NLS-1$
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates and prepares the transformation to run.
+   *
+   * @param transMeta the transformation
+   * @param pooled    whether the transformation is also kept prepared, to record how long it took to prepare
+   * @return <code>false</code> if the transformation could not be prepared
+   * @throws ActionExecutionException
+   */
+  private boolean prepareTransformation( TransMeta transMeta, boolean pooled ) throws ActionExecutionException {
     if ( transMeta != null ) {
      localTrans = getLocalTrans( transMeta );
     }
@@ -582,6 +1765,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
           "Kettle.ERROR_0010_BAD_TRANSFORMATION_METADATA" ) );
     }
 
+    armDeadline( localTrans::stopAll );
+
     // OK, we have the transformation, now run it!
 
     if ( !customizeTrans( localTrans ) ) {
@@ -589,6 +1774,9 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
           "Kettle.ERROR_0028_CUSTOMIZATION_FUNCITON_FAILED" ) );
     }
 
+    // the step threads are started below, wait until they fit in the thread budget
+    acquireThreads( transMeta );
+
     if ( log.isDebugEnabled() ) {
       log.debug( Messages.getInstance().getString( "Kettle.DEBUG_PREPARING_TRANSFORMATION" ) );
     }
@@ -597,87 +1785,121 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
       if( log.isDebugEnabled() ) {
         log.debug( MessageFormat.format("Executing with: gather metrics=[{0}], safe mode=[{1}], log level=[{2}]", transMeta.isGatheringMetrics(), transMeta.isSafeModeEnabled(), transMeta.getLogLevel().getCode() ) );
       }
+      long start = System.nanoTime();
       localTrans.prepareExecution( transMeta.getArguments() );
+      if ( pooled ) {
+        getPreparedPool().recordColdPrepare( System.nanoTime() - start );
+      }
     } catch ( Exception e ) {
       transPrepExecutionFailure = true;
       // don't throw exception, because the scheduler may try to run this transformation again
       log.error( Messages.getInstance().getErrorString( "Kettle.ERROR_0011_TRANSFORMATION_PREPARATION_FAILED" ), e ); // $NON-NLS-1$
-      return;
+      return false;
     }
+    return true;
+  }
 
-    try {
-      if ( log.isDebugEnabled() ) {
-        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_FINDING_STEP_IMPORTER" ) );
-      }
-
-      String stepName = getMonitorStepName();
-
-      if ( stepName != null ) {
-        registerAsStepListener( stepName, localTrans );
-      }
-    } catch ( Exception e ) {
-      throw new ActionExecutionException( Messages.getInstance().getErrorString(
-          "Kettle.ERROR_0012_ROW_LISTENER_CREATE_FAILED" ), e );
+  /**
+   * Whether the transformation runs on its cluster: when asked to, and only if it has clustered steps.
+   */
+  private boolean isRunClustered( TransMeta transMeta ) {
+    // Note that any string different from "true"/"false" will result into a false value
+    if ( !Boolean.parseBoolean( runClustered ) ) {
+      return false;
+    }
+    if ( !ClusteredTransExecution.isClustered( transMeta ) ) {
+      log.warn( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+        .getString( "PdiAction.WARN_NOT_CLUSTERED", transMeta.getName() ) );
+      return false;
     }
+    return true;
+  }
 
-    try {
-      if ( log.isDebugEnabled() ) {
-        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_FINDING_STEP_IMPORTER" ) );
-      }
+  /**
+   * Splits the transformation and starts its pieces on the slave servers of its cluster schemas.
+   *
+   * @param transMeta the transformation
+   * @return <code>false</code> if the transformation could not be started on its cluster
+   * @throws ActionExecutionException
+   */
+  private boolean startClusteredTransformation( TransMeta transMeta ) throws ActionExecutionException {
+    localTrans = null;
+    clusteredTrans = null;
 
-      if ( injectorStep != null ) {
-        registerAsProducer( injectorStep, localTrans );
+    TransExecutionConfiguration executionConfiguration = getTransExecutionConfiguration( transMeta );
+    executionConfiguration.setRepository( transMeta.getRepository() );
+    Map<String, String> params = new HashMap<>();
+    for ( String name : transMeta.listParameters() ) {
+      try {
+        params.put( name, transMeta.getParameterValue( name ) );
+      } catch ( UnknownParamException upe ) {
+        log.warn( upe );
       }
-    } catch ( Exception e ) {
-      throw new ActionExecutionException( Messages.getInstance().getErrorString(
-          "Kettle.ERROR_0012_ROW_INJECTOR_CREATE_FAILED" ), e );
     }
+    executionConfiguration.setParams( params );
+    // the slave servers resolve the variables on their own, send the ones of this execution
+    Map<String, String> transVariables = new HashMap<>();
+    for ( String name : transMeta.listVariables() ) {
+      transVariables.put( name, transMeta.getVariable( name ) );
+    }
+    executionConfiguration.setVariables( transVariables );
+
+    clusteredTrans = newClusteredTransExecution( transMeta, executionConfiguration );
+    armDeadline( clusteredTrans::stop );
 
     try {
       if ( log.isDebugEnabled() ) {
-        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_STARTING_TRANSFORMATION" ) );
+        log.debug( "Starting " + transMeta.getName() + " on its cluster" ); //$NON-NLS-1$ //$NON-NLS-2$
       }
-      localTrans.startThreads();
+      clusteredTrans.start();
     } catch ( Exception e ) {
-      throw new ActionExecutionException( Messages.getInstance().getErrorString(
-          "Kettle.ERROR_0013_TRANSFORMATION_START_FAILED" ), e );
+      transPrepExecutionFailure = true;
+      // don't throw exception, because the scheduler may try to run this transformation again
+      log.error( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+        .getErrorString( "PdiAction.ERROR_0015_CLUSTERED_EXECUTION_FAILED", transMeta.getName() ), e );
+      clusteredTrans.stop();
+      return false;
     }
+    return true;
+  }
 
-    // inject rows if necessary
-    if ( injectorRows != null ) {
-      // create a row meta
-      try {
-        if ( log.isDebugEnabled() ) {
-          log.debug( Messages.getInstance().getString( "Injecting rows" ) );
-        }
-        RowMeta rowMeta = new RowMeta();
-        RowMetaInterface rowMetaInterface = transMeta.getStepFields( injectorStep );
-        rowMeta.addRowMeta( rowMetaInterface );
-
-        // inject the rows
-        Object[] row = injectorRows.next();
-        while ( row != null ) {
-          rowInjector.putRow( rowMeta, row );
-          row = injectorRows.next();
-        }
-        rowInjector.finished();
-      } catch ( Exception e ) {
-        throw new ActionExecutionException( Messages.getInstance().getErrorString( "Row injection failed" ), e ); // $NON-NLS-1$
-      }
+  /**
+   * Waits for the pieces of a clustered transformation to finish and removes them from their servers.
+   */
+  private void finishClusteredTransformation() {
+    if ( log.isDebugEnabled() ) {
+      log.debug( Messages.getInstance().getString( "Kettle.DEBUG_TRANSFORMATION_RUNNING" ) );
     }
+    clusteredTrans.waitUntilFinished();
+  }
 
+  /**
+   * Cleans up a finished PDI transformation and collects its output.
+   *
+   * @param wait whether to wait for the transformation to finish first
+   * @throws ActionExecutionException
+   */
+  private void finishTransformation( boolean wait ) throws ActionExecutionException {
     try {
-      // It's running in a separate thread to allow monitoring, etc.
-      if ( log.isDebugEnabled() ) {
-        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_TRANSFORMATION_RUNNING" ) );
-      }
+      if ( wait ) {
+        // It's running in a separate thread to allow monitoring, etc.
+        if ( log.isDebugEnabled() ) {
+          log.debug( Messages.getInstance().getString( "Kettle.DEBUG_TRANSFORMATION_RUNNING" ) );
+        }
 
-      localTrans.waitUntilFinished();
+        localTrans.waitUntilFinished();
+      }
       localTrans.cleanup();
     } catch ( Exception e ) {
       int transErrors = localTrans.getErrors();
       throw new ActionExecutionException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
           .getErrorString( "PdiAction.ERROR_0009_TRANSFORMATION_HAD_ERRORS", Integer.toString( transErrors ) ), e );
+    } finally {
+      // the transformation stays in Carte, it must not keep this action and the rows it captured from being released
+      if ( monitoredStep != null ) {
+        monitoredStep.removeRowListener( this );
+        monitoredStep = null;
+      }
     }
 
     // Dump the Kettle log...
@@ -688,6 +1910,9 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     // Build written row output
     if ( transformationOutputRows != null ) {
       transformationOutputRowsCount = transformationOutputRows.getRowCount();
+    } else if ( rowStream != null ) {
+      // the rows the client got, not the ones still queued
+      transformationOutputRowsCount = rowStream.awaitWrittenRowCount();
     }
 
     // Build error row output
@@ -718,9 +1943,7 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
       newLocalTrans.setLogLevel( transMeta.getLogLevel() );
       newLocalTrans.setSafeModeEnabled( transMeta.isSafeModeEnabled() );
       newLocalTrans.setGatheringMetrics( transMeta.isGatheringMetrics() );
-      CarteSingleton.getInstance().getTransformationMap().addTransformation( getTransformationName( carteObjectId ),
-          carteObjectId, newLocalTrans, new TransConfiguration( newLocalTrans.getTransMeta(),
-          getTransExecutionConfiguration( transMeta ) ) );
+      addToCarte( newLocalTrans, transMeta );
 
       return newLocalTrans;
     } catch ( Exception e ) {
@@ -729,6 +1952,20 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     }
   }
 
+  /**
+   * Adds a transformation to Carte, under the Carte object id of its metadata.
+   *
+   * @param trans     the transformation
+   * @param transMeta the transformation metadata
+   */
+  private void addToCarte( Trans trans, TransMeta transMeta ) {
+    String carteObjectId = transMeta.getCarteObjectId();
+    CarteSingleton.getInstance().getTransformationMap().addTransformation( getTransformationName( carteObjectId ),
+        carteObjectId, trans, new TransConfiguration( trans.getTransMeta(),
+        getTransExecutionConfiguration( transMeta ) ) );
+    getCarteRetention().register( getTransformationName( carteObjectId ), carteObjectId, trans );
+  }
+
   /**
    * Obtain an {@link ExecutionConfiguration} for a Transformation, filled with the proper configuration values.
    *
@@ -769,6 +2006,7 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
       newLocalJob.setGatheringMetrics( jobMeta.isGatheringMetrics() );
       CarteSingleton.getInstance().getJobMap().addJob( getJobName( carteObjectId ), carteObjectId, newLocalJob,
         new JobConfiguration( newLocalJob.getJobMeta(), getJobExecutionConfiguration( jobMeta ) ) );
+      getCarteRetention().register( getJobName( carteObjectId ), carteObjectId, newLocalJob );
 
       return newLocalJob;
     } catch ( Exception e ) {
@@ -811,6 +2049,29 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     return new Trans( transMeta );
   }
 
+  /**
+   * Returns a listener running the given task once the transformation is finished, and then dropping it, so the
+   * transformation kept in Carte does not keep the action from being released.
+   */
+  private static TransListener onceFinished( Runnable finished ) {
+    AtomicReference<Runnable> pending = new AtomicReference<>( finished );
+    return new TransAdapter() {
+      @Override
+      public void transFinished( Trans trans ) {
+        Runnable task = pending.getAndSet( null );
+        if ( task != null ) {
+          task.run();
+        }
+      }
+    };
+  }
+
+  @VisibleForTesting
+  ClusteredTransExecution newClusteredTransExecution( TransMeta transMeta,
+                                                      TransExecutionConfiguration executionConfiguration ) {
+    return new ClusteredTransExecution( transMeta, executionConfiguration );
+  }
+
   @VisibleForTesting
   JobExecutionConfiguration newJobExecutionConfiguration() {
     return new JobExecutionConfiguration();
@@ -856,17 +2117,44 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
           }
 
           MemoryMetaData metaData = new MemoryMetaData( columns, null );
-          transformationOutputRows = new MemoryResultSet( metaData );
-          transformationOutputErrorRows = new MemoryResultSet( metaData );
+          if ( rowStream != null ) {
+            // written as they come, never held in memory, and the error rows are only counted
+            rowStream.start( fieldNames );
+          } else {
+            transformationOutputRows = newOutputRows( metaData );
+            transformationOutputErrorRows = newOutputRows( metaData );
+          }
 
           // add ourself as a row listener
           step.step.addRowListener( this );
+          monitoredStep = step.step;
           break;
         }
       }
+      if ( rowStream != null && monitoredStep == null ) {
+        // the client would get an empty response that looks complete
+        throw new KettleStepException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+          .getErrorString( "PdiAction.ERROR_0019_MONITOR_STEP_NOT_FOUND", stepName ) );
+      }
     }
   }
 
+  /**
+   * Returns the result set capturing the rows of the monitored step: kept column by column, much smaller than one array
+   * of boxed values per row, and written to the disk beyond the configured number of rows.
+   */
+  private IPentahoResultSet newOutputRows( IPentahoMetaData metaData ) {
+    Properties settings = getPluginSettings();
+    int memoryThreshold = getPropertyAsInt( settings, OUTPUT_ROWS_MEMORY_THRESHOLD_PROPERTY, 0 );
+    if ( memoryThreshold <= 0 ) {
+      return new ColumnarResultSet( metaData );
+    }
+    String directoryName = getPropertyAsString( settings, OUTPUT_ROWS_SPILL_DIR_PROPERTY );
+    File directory = StringUtils.isNotBlank( directoryName ) ? new File( directoryName.trim() )
+      : new File( System.getProperty( "java.io.tmpdir" ) ); //$NON-NLS-1$
+    return new SpillingResultSet( metaData, memoryThreshold, directory );
+  }
+
   /**
    * Registers this component as a row producer in a transformation. This allows this component to inject rows into a
    * transformation when it is executed.
@@ -886,44 +2174,105 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   }
 
   protected void executeJob( Repository repository ) throws ActionExecutionException {
-    JobMeta jobMeta = null;
+    JobMeta jobMeta = loadJob( repository );
+    prefetchReferencedMetas( jobMeta );
+    executeJob( jobMeta, repository );
+  }
 
+  /**
+   * Loads and populates the job to execute
+   */
+  private JobMeta loadJob( Repository repository ) throws ActionExecutionException {
     VariableSpace varSpace = Variables.getADefaultVariableSpace();
     populateVariables( varSpace );
 
+    JobMeta jobMeta = loadJobMeta( repository, varSpace );
+
+    // Whichever the JobMeta we got, let's populate it
+    populateJobMeta( jobMeta );
+
+    return jobMeta;
+  }
+
+  /**
+   * Loads the job of this action, from the input stream or from the repository, going through the caches.
+   */
+  private JobMeta loadJobMeta( Repository repository, VariableSpace varSpace ) throws ActionExecutionException {
+    JobMeta jobMeta = null;
+
     if ( isVfs ) {
       log.debug( "using vfs, inputStream=" + inputStream );
     }
     if ( isVfs && this.inputStream != null ) {
+      EngineMetaContentCache contentCache = getContentCache();
       try {
-        jobMeta = new JobMeta( inputStream, repository, ( msg, t1, t2 ) -> false, varSpace );
-      } catch ( KettleXMLException e ) {
+        if ( contentCache.isEnabled() ) {
+          EngineMetaContentCache.Content content = EngineMetaContentCache.read( inputStream );
+          jobMeta = contentCache.getJobMeta( content, repository, varSpace );
+          if ( jobMeta == null ) {
+            jobMeta = new JobMeta( content.getInputStream(), repository, ( msg, t1, t2 ) -> false, varSpace );
+            contentCache.put( content, jobMeta );
+          }
+        } else {
+          jobMeta = new JobMeta( inputStream, repository, ( msg, t1, t2 ) -> false, varSpace );
+        }
+      } catch ( KettleXMLException | IOException e ) {
         throw new ActionExecutionException( e );
       }
     } else {
+      RepositoryFile jobFile = getRepositoryFile( job, ".kjb" ); //$NON-NLS-1$
+      EngineMetaCache metaCache = getMetaCache();
 
-      // try loading from internal repository before falling back onto kettle
-      // the repository passed here is not used to load the job it is used
-      // to populate available databases, etc in "standard" kettle fashion
-      try {
-        jobMeta = createJobMetaJCR( repository, varSpace );
-      } catch ( Throwable t ) {
-        // ignored
-      }
-
+      jobMeta = metaCache.getJobMeta( jobFile, repository, varSpace );
       if ( jobMeta == null ) {
+        // the resolver chain tries the internal repository before falling back onto kettle
+        // the repository passed here is not only used to load the job, it is also used
+        // to populate available databases, etc in "standard" kettle fashion
         jobMeta = createJobMeta( repository, varSpace );
+        metaCache.put( jobFile, jobMeta );
       }
     }
     if ( jobMeta == null ) {
       throw new IllegalStateException( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
         .getErrorString( "PdiAction.ERROR_0005_FAILED_JOBMETA_CREATION" ) );
     }
+    return jobMeta;
+  }
 
-    // Whichever the JobMeta we got, let's populate it
-    populateJobMeta( jobMeta );
+  /**
+   * Loads the transformations and jobs referenced by the given job into the meta cache concurrently, if enabled in the
+   * plugin configuration. The loads run in the background on pooled connections that are idle, they never wait for one
+   * nor use the connection of this execution.
+   *
+   * @param jobMeta the job about to be executed
+   */
+  private void prefetchReferencedMetas( JobMeta jobMeta ) {
+    JobMetaPrefetcher prefetcher = JobMetaPrefetcher.getInstance();
+    prefetcher.setMaxThreads( getPropertyAsInt( getPluginSettings(), JOB_PREFETCH_THREADS_PROPERTY, 0 ) );
+    if ( !prefetcher.isEnabled() ) {
+      return;
+    }
+    RepositoryConnectionPool pool = getRepositoryConnectionPool();
+    if ( !pool.isEnabled() ) {
+      // every load would open a connection of its own
+      log.debug( "Not prefetching the transformations and jobs referenced by " + job //$NON-NLS-1$
+        + ", the repository connections are not pooled" ); //$NON-NLS-1$
+      return;
+    }
 
-    executeJob( jobMeta, repository );
+    String userName = PentahoSessionHolder.getSession().getName();
+    RepositoryConnectionPool.RepositoryConnector connector = newRepositoryConnector( userName );
+    prefetcher.prefetch( jobMeta, new JobMetaPrefetcher.Connections() {
+      @Override
+      public Repository borrow() throws KettleException {
+        return pool.borrowIfAvailable( repositoryName, userName, connector );
+      }
+
+      @Override
+      public void release( Repository connection ) {
+        releaseRepository( connection );
+      }
+    } );
   }
 
   /**
@@ -934,6 +2283,21 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @throws ActionExecutionException
    */
   protected void executeJob( final JobMeta jobMeta, final Repository repository )
+    throws ActionExecutionException {
+    startJob( jobMeta, repository, null );
+    finishJob( true );
+  }
+
+  /**
+   * Starts a PDI job.
+   *
+   * @param jobMeta    the job
+   * @param repository the repository
+   * @param listener   notified when the job finishes, may be <code>null</code>
+   * @return <code>true</code>, the job is started
+   * @throws ActionExecutionException if the job could not be started
+   */
+  private boolean startJob( final JobMeta jobMeta, final Repository repository, final JobListener listener )
     throws ActionExecutionException {
     localJob = null;
 
@@ -949,6 +2313,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
           "Kettle.ERROR_0021_BAD_JOB_METADATA" ) );
     }
 
+    armDeadline( localJob::stopAll );
+
     // OK, we have the job, now run it!
 
     try {
@@ -956,23 +2322,118 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
         log.debug( Messages.getInstance().getString( "Kettle.DEBUG_STARTING_JOB" ) );
       }
 
+      JobCheckpointStore.Checkpoint checkpoint = getCheckpoint( jobMeta );
       if ( startCopyName != null ) {
         JobEntryCopy startJobEntryCopy = jobMeta.findJobEntry( startCopyName );
         localJob.setStartJobEntryCopy( startJobEntryCopy );
+      } else if ( checkpoint != null && checkpoint.getResumeEntryName() != null ) {
+        JobEntryCopy resumeJobEntryCopy =
+          jobMeta.findJobEntry( checkpoint.getResumeEntryName(), checkpoint.getResumeEntryNr(), false );
+        if ( resumeJobEntryCopy != null ) {
+          log.info( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getString(
+            "PdiAction.INFO_RESUMING_JOB", jobMeta.getName(), resumeJobEntryCopy.getName(),
+            Integer.toString( checkpoint.getCompletedEntries().size() ) ) );
+          localJob.setStartJobEntryCopy( resumeJobEntryCopy );
+        }
+      }
+      if ( checkpoint != null ) {
+        localJob.addJobEntryListener( getCheckpointStore().newRecorder( checkpoint ) );
       }
 
+      if ( listener != null ) {
+        // before starting, so that it cannot miss the end of a short job
+        localJob.addJobListener( listener );
+      }
       localJob.start();
 
     } catch ( Throwable e ) {
       throw new ActionExecutionException( Messages.getInstance().getErrorString(
         "Kettle.ERROR_0022_JOB_START_FAILED" ), e );
     }
+    return true;
+  }
 
-    // It's running in a separate thread to allow monitoring, etc.
-    if ( log.isDebugEnabled() ) {
-      log.debug( Messages.getInstance().getString( "Kettle.DEBUG_JOB_RUNNING" ) );
+  /**
+   * Returns the checkpoint to record the progress of the job in, if enabled in the plugin configuration: the one left
+   * by a previous execution that failed when resuming, else a new one.
+   *
+   * @param jobMeta the job about to start
+   * @return the checkpoint, or <code>null</code> if the progress of the job is not recorded
+   */
+  private JobCheckpointStore.Checkpoint getCheckpoint( JobMeta jobMeta ) {
+    checkpointKey = null;
+    // Note that any string different from "true"/"false" will result into a false value
+    if ( inputStream != null
+      || !Boolean.parseBoolean( getPropertyAsString( getPluginSettings(), JOB_CHECKPOINTS_PROPERTY ) ) ) {
+      return null;
+    }
+    RepositoryFile file = getRepositoryFile( job, ".kjb" ); //$NON-NLS-1$
+    if ( file == null ) {
+      return null;
+    }
+
+    String key = getCheckpointKey( file );
+    JobCheckpointStore.Checkpoint checkpoint = Boolean.parseBoolean( resume ) ? getCheckpointStore().load( key ) : null;
+    if ( checkpoint == null ) {
+      checkpoint = new JobCheckpointStore.Checkpoint( key, jobMeta.getName() );
+    }
+    checkpointKey = key;
+    return checkpoint;
+  }
+
+  /**
+   * Returns the path and version of the job file followed by the inputs of this execution, which a resumed execution
+   * must have in common with the one that failed
+   */
+  private String getCheckpointKey( RepositoryFile file ) {
+    StringBuilder key = new StringBuilder( file.getPath() );
+    key.append( '@' ).append( file.getVersionId() );
+    key.append( "|parameters=" ).append( parameters != null ? new TreeMap<>( parameters ) : null ); //$NON-NLS-1$
+    key.append( "|variables=" ).append( variables != null ? new TreeMap<>( variables ) : null ); //$NON-NLS-1$
+    key.append( "|varArgs=" ).append( getInputVarArgs() ); //$NON-NLS-1$
+    key.append( "|arguments=" ).append( Arrays.toString( arguments ) ); //$NON-NLS-1$
+    return key.toString();
+  }
+
+  /**
+   * Returns the arguments of this execution that are inputs of the job, leaving out the resume flag and the entries the
+   * scheduler adds for its own bookkeeping, which differ between an execution and the one resuming it
+   */
+  private Map<String, Object> getInputVarArgs() {
+    Map<String, Object> inputs = new TreeMap<>();
+    for ( Map.Entry<String, Object> entry : varArgs.entrySet() ) {
+      String name = entry.getKey();
+      boolean bookkeeping = name.startsWith( SCHEDULER_VAR_ARG_PREFIX )
+        && !name.equals( ActionUtil.QUARTZ_STREAMPROVIDER_INPUT_FILE );
+      if ( !bookkeeping && !NON_INPUT_VAR_ARGS.contains( name ) ) {
+        inputs.put( name, entry.getValue() );
+      }
+    }
+    return inputs;
+  }
+
+  private JobCheckpointStore getCheckpointStore() {
+    JobCheckpointStore store = JobCheckpointStore.getInstance();
+    String directoryName = getPropertyAsString( getPluginSettings(), JOB_CHECKPOINT_DIR_PROPERTY );
+    if ( StringUtils.isNotBlank( directoryName ) ) {
+      store.setDirectory( new File( directoryName.trim() ) );
+    }
+    return store;
+  }
+
+  /**
+   * Reports the errors of a finished PDI job.
+   *
+   * @param wait whether to wait for the job to finish first
+   */
+  private void finishJob( boolean wait ) {
+    if ( wait ) {
+      // It's running in a separate thread to allow monitoring, etc.
+      if ( log.isDebugEnabled() ) {
+        log.debug( Messages.getInstance().getString( "Kettle.DEBUG_JOB_RUNNING" ) );
+      }
+      localJob.waitUntilFinished();
     }
-    localJob.waitUntilFinished();
     int jobErrors = localJob.getErrors();
     long jobResultErrors = localJob.getResult().getNrErrors();
     if ( ( jobErrors > 0 ) || ( jobResultErrors > 0 ) ) {
@@ -983,9 +2444,15 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
       log.error( org.pentaho.platform.plugin.kettle.messages.Messages.getInstance().getErrorString(
           "PdiAction.ERROR_0008_JOB_HAD_ERRORS",
           Integer.toString( jobErrors ), Long.toString( jobResultErrors ) ) );
+      // the checkpoint is kept, the job can be resumed from the entry that failed
       return;
     }
 
+    if ( checkpointKey != null && !timedOut && !localJob.isStopped() && localJob.getResult().getResult() ) {
+      // the job went all the way through, there is nothing left to resume
+      getCheckpointStore().delete( checkpointKey );
+    }
+
     // Dump the Kettle log...
     if ( log.isDebugEnabled() ) {
       log.debug( pdiUserAppender.getBuffer().toString() );
@@ -1003,13 +2470,59 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   protected Repository connectToRepository() throws KettleSecurityException, KettleException,
     ActionExecutionException {
 
+    String userName = PentahoSessionHolder.getSession().getName();
+
+    // Calling the kettle utility method to connect to the repository, reusing an idle connection if there is one
+    return getRepositoryConnectionPool().borrow( repositoryName, userName, newRepositoryConnector( userName ) );
+  }
+
+  private RepositoryConnectionPool.RepositoryConnector newRepositoryConnector( String userName ) {
     boolean singleDiServerInstance =
       "true".equals( PentahoSystem.getSystemSetting( SINGLE_DI_SERVER_INSTANCE, "true" ) );
+    String serverUrl = PentahoSystem.getApplicationContext().getFullyQualifiedServerURL();
+
+    return () -> RepositoryConnectionUtils.connectToRepository( repositoryName, singleDiServerInstance, userName,
+      serverUrl, pdiUserAppender );
+  }
+
+  /**
+   * Gives the repository connection back to the pool, or disconnects it if it is not pooled
+   *
+   * @param repository the connection obtained from {@link #connectToRepository()}
+   */
+  protected void releaseRepository( Repository repository ) {
+    if ( log.isDebugEnabled() ) {
+      log.debug( Messages.getInstance().getString( "Kettle.DEBUG_DISCONNECTING" ) );
+    }
+    getRepositoryConnectionPool().release( repository );
+  }
 
-    // Calling the kettle utility method to connect to the repository
-    return RepositoryConnectionUtils.connectToRepository( repositoryName, singleDiServerInstance,
-      PentahoSessionHolder.getSession().getName(), PentahoSystem.getApplicationContext().getFullyQualifiedServerURL(),
-      pdiUserAppender );
+  /**
+   * Disconnects the repository connection when it is released instead of giving it back to the pool: it failed to load
+   * a file, and its session may be gone.
+   *
+   * @param repository the connection obtained from {@link #connectToRepository()}
+   */
+  private void discardRepository( Repository repository ) {
+    getRepositoryConnectionPool().discard( repository );
+  }
+
+  /**
+   * Returns the server-wide repository connection pool, configured according to the plugin configuration.
+   *
+   * @return the repository connection pool
+   */
+  @VisibleForTesting
+  RepositoryConnectionPool getRepositoryConnectionPool() {
+    Properties systemConfig = getPluginSettings();
+    RepositoryConnectionPool pool = RepositoryConnectionPool.getInstance();
+    pool.setMaxSize(
+      getPropertyAsInt( systemConfig, REPOSITORY_POOL_SIZE_PROPERTY, RepositoryConnectionPool.DEFAULT_MAX_SIZE ) );
+    pool.setMaxIdleTime( TimeUnit.SECONDS.toMillis( getPropertyAsInt( systemConfig, REPOSITORY_POOL_MAX_IDLE_PROPERTY,
+      (int) TimeUnit.MILLISECONDS.toSeconds( RepositoryConnectionPool.DEFAULT_MAX_IDLE_TIME ) ) ) );
+    pool.setBorrowTimeout( TimeUnit.SECONDS.toMillis( getPropertyAsInt( systemConfig, REPOSITORY_POOL_TIMEOUT_PROPERTY,
+      (int) TimeUnit.MILLISECONDS.toSeconds( RepositoryConnectionPool.DEFAULT_BORROW_TIMEOUT ) ) ) );
+    return pool;
   }
 
   @Override
@@ -1021,7 +2534,10 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    */
   @Override
   public void rowWrittenEvent( final RowMetaInterface rowMeta, final Object[] row ) throws KettleStepException {
-    processRow( transformationOutputRows, rowMeta, row );
+    if ( rowStream != null ) {
+      rowStream.write( rowMeta, row );
+    }
+    captureRow( transformationOutputRows, rowMeta, row );
   }
 
   /**
@@ -1029,7 +2545,23 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    */
   @Override
   public void errorRowWrittenEvent( final RowMetaInterface rowMeta, final Object[] row ) throws KettleStepException {
-    processRow( transformationOutputErrorRows, rowMeta, row );
+    if ( rowStream != null ) {
+      transformationOutputErrorRowsCount++;
+    }
+    captureRow( transformationOutputErrorRows, rowMeta, row );
+  }
+
+  private void captureRow( IPentahoResultSet rows, RowMetaInterface rowMeta, Object[] row )
+    throws KettleStepException {
+    try {
+      if ( rows instanceof SpillingResultSet ) {
+        ( (SpillingResultSet) rows ).addRow( rowMeta, row );
+      } else if ( rows instanceof ColumnarResultSet ) {
+        ( (ColumnarResultSet) rows ).addRow( rowMeta, row );
+      }
+    } catch ( KettleValueException | IOException e ) {
+      throw new KettleStepException( e );
+    }
   }
 
   /**
@@ -1039,7 +2571,10 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @param rowMeta
    * @param row
    * @throws KettleStepException
+   * @deprecated the rows of the monitored step are captured by {@link ColumnarResultSet#addRow(RowMetaInterface,
+   * Object[])}
    */
+  @Deprecated
   public void processRow( MemoryResultSet memResults, final RowMetaInterface rowMeta, final Object[] row )
     throws KettleStepException {
     if ( memResults == null ) {
@@ -1113,7 +2648,7 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @return
    */
   public MemoryResultSet getTransformationOutputRows() {
-    return transformationOutputRows;
+    return (MemoryResultSet) transformationOutputRows;
   }
 
   /**
@@ -1123,9 +2658,45 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @return
    */
   public MemoryResultSet getTransformationOutputErrorRows() {
+    return (MemoryResultSet) transformationOutputErrorRows;
+  }
+
+  /**
+   * Returns the successful output rows as they were captured, without copying them. This will only return data if
+   * setMonitorStepName() or setImportStepName() has been called
+   *
+   * @return the result set of the successful output rows
+   */
+  public IPentahoResultSet getTransformationOutputResultSet() {
+    return transformationOutputRows;
+  }
+
+  /**
+   * Returns the error output rows as they were captured, without copying them. This will only return data if
+   * setMonitorStepName() or setImportStepName() has been called
+   *
+   * @return the result set of the error output rows
+   */
+  public IPentahoResultSet getTransformationOutputErrorResultSet() {
     return transformationOutputErrorRows;
   }
 
+  /**
+   * Disposes the rows captured from the monitored step by the last execution, deleting the temporary files of the
+   * spilled rows right away instead of once they are no longer referenced. The result sets returned for them must no
+   * longer be used. This is done as well when this action is executed again.
+   */
+  public void disposeOutputRows() {
+    if ( transformationOutputRows != null ) {
+      transformationOutputRows.dispose();
+      transformationOutputRows = null;
+    }
+    if ( transformationOutputErrorRows != null ) {
+      transformationOutputErrorRows.dispose();
+      transformationOutputErrorRows = null;
+    }
+  }
+
   /**
    * Returns the number of successful output rows. This will only return data if setMonitorStepName() or
    * setImportStepName() has been called
@@ -1193,6 +2764,22 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     return monitorStep;
   }
 
+  /**
+   * Sets the writer the rows of the monitored step are streamed to while the transformation runs, instead of being
+   * kept in {@link #getTransformationOutputResultSet()}. Its error rows are only counted. The transformation fails to
+   * start if it has no such step. The caller waits for the rows to be written with {@link RowStreamWriter#finish()}
+   * once the execution is done.
+   *
+   * @param rowStream the writer of the rows
+   */
+  public void setRowStream( RowStreamWriter rowStream ) {
+    this.rowStream = rowStream;
+  }
+
+  public RowStreamWriter getRowStream() {
+    return rowStream;
+  }
+
   /**
    * Sets the name of the transformation step to inject rows into. Use this in conjunction with setInjectorRows().
    *
@@ -1208,8 +2795,13 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
    * @return the status of the transformation or job
    */
   public String getStatus() {
-    if ( localTrans != null ) {
+    if ( timedOut ) {
+      return org.pentaho.platform.plugin.kettle.messages.Messages.getInstance()
+        .getString( "PdiAction.STATUS_TIMED_OUT" );
+    } else if ( localTrans != null ) {
       return localTrans.getStatus();
+    } else if ( clusteredTrans != null ) {
+      return clusteredTrans.getStatus();
     } else if ( localJob != null ) {
       return localJob.getStatus();
     } else {
@@ -1225,6 +2817,8 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   public int getResult() {
     if ( localTrans != null ) {
       return localTrans.getResult().getExitStatus();
+    } else if ( clusteredTrans != null && clusteredTrans.getResult() != null ) {
+      return clusteredTrans.getResult().getExitStatus();
     } else if ( localJob != null ) {
       return localJob.getResult().getExitStatus();
     } else {
@@ -1292,6 +2886,40 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     this.expandingRemoteJob = expandingRemoteJob;
   }
 
+  public String getExecutionTimeout() {
+    return executionTimeout;
+  }
+
+  /**
+   * Sets after how many seconds this execution is stopped if it is still running, overriding the plugin configuration.
+   * Zero or less for no timeout.
+   *
+   * @param executionTimeout the timeout in seconds
+   */
+  public void setExecutionTimeout( String executionTimeout ) {
+    this.executionTimeout = executionTimeout;
+  }
+
+  /**
+   * @return <code>true</code> if the last execution was stopped because it did not finish within its timeout
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  public PdiAdmissionController.Priority getExecutionPriority() {
+    return executionPriority;
+  }
+
+  /**
+   * Sets the priority class of this execution when executions have to wait for a free slot
+   *
+   * @param executionPriority the priority class, scheduled by default
+   */
+  public void setExecutionPriority( PdiAdmissionController.Priority executionPriority ) {
+    this.executionPriority = executionPriority;
+  }
+
   public String getStartCopyName() {
     return startCopyName;
   }
@@ -1300,6 +2928,48 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
     this.startCopyName = startCopyName;
   }
 
+  public String getWatermarkVariable() {
+    return watermarkVariable;
+  }
+
+  /**
+   * Makes this execution incremental: the last committed watermark is set as the value of the given variable, and of
+   * the parameter of the same name if there is one, and the new watermark is committed after each successful run.
+   *
+   * @param watermarkVariable the name of the variable
+   */
+  public void setWatermarkVariable( String watermarkVariable ) {
+    this.watermarkVariable = watermarkVariable;
+  }
+
+  public String getWatermarkField() {
+    return watermarkField;
+  }
+
+  /**
+   * Takes the new watermark from the rows of the monitor step, as the highest value of the given field, instead of from
+   * the watermark variable.
+   *
+   * @param watermarkField the name of the field
+   */
+  public void setWatermarkField( String watermarkField ) {
+    this.watermarkField = watermarkField;
+  }
+
+  public String getResume() {
+    return resume;
+  }
+
+  /**
+   * Resumes a job that failed from the entry it failed at, instead of running it from its start, when job checkpoints
+   * are enabled in the plugin configuration. Ignored when a start copy name is set.
+   *
+   * @param resume "true" to resume
+   */
+  public void setResume( String resume ) {
+    this.resume = resume;
+  }
+
   public void setInputStream( InputStream inputStream ) {
     this.inputStream = inputStream;
   }
@@ -1316,13 +2986,16 @@ public class PdiAction implements IAction, IVarArgsAction, ILoggingAction, RowLi
   @Override
   public boolean isExecutionSuccessful() {
     boolean isSuccess;
-    //Check if prevalidation failed
-    isSuccess = !isTransPrepareExecutionFailed();
+    //Check if prevalidation failed or the execution was stopped at its deadline
+    isSuccess = !isTransPrepareExecutionFailed() && !timedOut;
     if ( isSuccess ) {
       //Check if the transformation or jobs have step error
       if ( localTrans != null && localTrans.getErrors() > 0 ) {
         isSuccess = false;
       }
+      if ( clusteredTrans != null && ( clusteredTrans.getResult() == null || clusteredTrans.getErrors() > 0 ) ) {
+        isSuccess = false;
+      }
       //Check if the transformation or jobs have step error
       if ( localJob != null && localJob.getErrors() > 0 ) {
         isSuccess = false;
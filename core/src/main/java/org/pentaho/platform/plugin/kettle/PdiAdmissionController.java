@@ -0,0 +1,583 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Server-wide limit of the transformations and jobs running at the same time.
+ * <p>
+ * An execution must be admitted before it starts. Once {@link #getMaxConcurrent()} executions are running, the
+ * following ones wait in a queue per {@link Priority}; when an execution finishes, a waiting execution of the highest
+ * priority class is admitted. Interactive executions thus start before any queued background or scheduled execution.
+ * <p>
+ * Within a class, the slots are shared fairly between the users: the next execution is the oldest one of the user with
+ * the fewest running executions relative to their weight, so a user flooding the server with executions does not delay
+ * the executions of the other users. The weight of a user is the highest weight of their roles, see
+ * {@link #setRoleWeights(Map)}, and 1 by default. The executions of a user start in the order they arrived.
+ * <p>
+ * An execution may also take several units of the limit, its cost. The {@link #getThreadBudget() thread budget} uses
+ * this to admit transformations according to the number of threads they start: the limit is then a number of threads,
+ * and the cost of a transformation is its thread footprint. An execution costing more than the whole limit still runs,
+ * alone.
+ */
+public class PdiAdmissionController {
+
+  /**
+   * The priority classes of the executions, from the highest to the lowest
+   */
+  public enum Priority {
+    /**
+     * Executions requested by a user waiting for their output, such as {@link PdiContentGenerator}
+     */
+    INTERACTIVE,
+    /**
+     * Executions run in the background on behalf of a user
+     */
+    BACKGROUND,
+    /**
+     * Executions started by the scheduler
+     */
+    SCHEDULED
+  }
+
+  /**
+   * No limit
+   */
+  public static final int DEFAULT_MAX_CONCURRENT = 0;
+
+  public static final int DEFAULT_WEIGHT = 1;
+
+  private static final Priority[] PRIORITIES = Priority.values();
+
+  private static final PdiAdmissionController instance = new PdiAdmissionController();
+
+  private static final PdiAdmissionController threadBudget = new PdiAdmissionController();
+
+  private final Object lock = new Object();
+
+  private final Deque<Waiter>[] queues;
+
+  private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+
+  private int running;
+
+  private final Map<String, Integer> runningByUser = new HashMap<>();
+
+  private Map<String, Integer> roleWeights = Collections.emptyMap();
+
+  private final long[] admittedCount = new long[ PRIORITIES.length ];
+
+  private final long[] waitedCount = new long[ PRIORITIES.length ];
+
+  private final long[] totalWaitNanos = new long[ PRIORITIES.length ];
+
+  private final long[] maxWaitNanos = new long[ PRIORITIES.length ];
+
+  // package-local for test reasons
+  @SuppressWarnings( "unchecked" )
+  PdiAdmissionController() {
+    queues = new Deque[ PRIORITIES.length ];
+    for ( int i = 0; i < queues.length; i++ ) {
+      queues[ i ] = new ArrayDeque<>();
+    }
+  }
+
+  public static PdiAdmissionController getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the server-wide budget of transformation threads, whose limit is a number of threads and where each
+   * transformation costs its thread footprint.
+   *
+   * @return the thread budget
+   */
+  public static PdiAdmissionController getThreadBudget() {
+    return threadBudget;
+  }
+
+  /**
+   * Waits until an execution of the given priority, on behalf of no user in particular, may start.
+   *
+   * @param priority the priority class of the execution
+   * @return the permit of the execution, to be released once it is over
+   * @throws InterruptedException if the thread was interrupted while waiting, in which case it was not admitted
+   */
+  public Permit acquire( Priority priority ) throws InterruptedException {
+    return acquire( priority, null, null );
+  }
+
+  /**
+   * Waits until an execution of the given priority and user may start.
+   *
+   * @param priority the priority class of the execution
+   * @param user     the name of the user the execution runs as, may be <code>null</code>
+   * @param roles    the roles of that user, which give its weight, may be <code>null</code>
+   * @return the permit of the execution, to be released once it is over
+   * @throws InterruptedException if the thread was interrupted while waiting, in which case it was not admitted
+   */
+  public Permit acquire( Priority priority, String user, Collection<String> roles ) throws InterruptedException {
+    return acquire( priority, user, roles, 1 );
+  }
+
+  /**
+   * Waits until an execution of the given priority, user and cost may start.
+   *
+   * @param priority the priority class of the execution
+   * @param user     the name of the user the execution runs as, may be <code>null</code>
+   * @param roles    the roles of that user, which give its weight, may be <code>null</code>
+   * @param cost     the number of units of the limit the execution takes, at least 1
+   * @return the permit of the execution, to be released once it is over
+   * @throws InterruptedException if the thread was interrupted while waiting, in which case it was not admitted
+   */
+  public Permit acquire( Priority priority, String user, Collection<String> roles, int cost )
+    throws InterruptedException {
+    long start = System.nanoTime();
+    String key = StringUtils.defaultString( user );
+    int units = Math.max( cost, 1 );
+    InterruptedException interrupted;
+    synchronized ( lock ) {
+      if ( isQueueEmpty() && hasRoomFor( units ) ) {
+        startRunning( key, units );
+        return recordAdmission( priority, key, units, 0 );
+      }
+
+      Waiter waiter = new Waiter( key, getWeight( roles ), units );
+      Deque<Waiter> queue = queues[ priority.ordinal() ];
+      queue.addLast( waiter );
+      try {
+        while ( !waiter.admitted ) {
+          lock.wait();
+        }
+        return recordAdmission( priority, key, units, System.nanoTime() - start );
+      } catch ( InterruptedException e ) {
+        if ( !waiter.admitted ) {
+          queue.remove( waiter );
+          throw e;
+        }
+        interrupted = e;
+      }
+    }
+    // admitted in the meantime, give the slot to the next one
+    release( key, units );
+    throw interrupted;
+  }
+
+  /**
+   * Admits an execution of the given priority, user and cost without waiting: the returned future completes with its
+   * permit once it may start. Cancelling the future before then takes the execution out of the queue.
+   *
+   * @param priority the priority class of the execution
+   * @param user     the name of the user the execution runs as, may be <code>null</code>
+   * @param roles    the roles of that user, which give its weight, may be <code>null</code>
+   * @param cost     the number of units of the limit the execution takes, at least 1
+   * @return the future permit of the execution, to be released once it is over; it is already completed if the
+   * execution was admitted right away
+   */
+  public CompletableFuture<Permit> acquireAsync( Priority priority, String user, Collection<String> roles,
+                                                 int cost ) {
+    long start = System.nanoTime();
+    String key = StringUtils.defaultString( user );
+    int units = Math.max( cost, 1 );
+    CompletableFuture<Permit> future = new CompletableFuture<>();
+    synchronized ( lock ) {
+      if ( isQueueEmpty() && hasRoomFor( units ) ) {
+        startRunning( key, units );
+        future.complete( recordAdmission( priority, key, units, 0 ) );
+        return future;
+      }
+
+      Waiter waiter = new Waiter( key, getWeight( roles ), units );
+      waiter.priority = priority;
+      waiter.start = start;
+      waiter.future = future;
+      queues[ priority.ordinal() ].addLast( waiter );
+      future.whenComplete( ( permit, error ) -> {
+        if ( future.isCancelled() ) {
+          List<Waiter> admitted;
+          synchronized ( lock ) {
+            removeWaiter( waiter );
+            // the ones behind it may fit now
+            admitted = admitNext();
+          }
+          completeAdmitted( admitted );
+        }
+      } );
+    }
+    return future;
+  }
+
+  /**
+   * Gives the slot of a finished execution to the next waiting execution, if any
+   */
+  private void release( String user, int units ) {
+    List<Waiter> admitted;
+    synchronized ( lock ) {
+      stopRunning( user, units );
+      admitted = admitNext();
+    }
+    completeAdmitted( admitted );
+  }
+
+  /**
+   * Admits the waiting executions that fit, waking up the waiting threads
+   *
+   * @return the admitted executions that are waiting on a future, to complete once the lock is released
+   */
+  private List<Waiter> admitNext() {
+    List<Waiter> admittedAsync = Collections.emptyList();
+    boolean admitted = false;
+    while ( true ) {
+      Waiter next = peekNext();
+      // the next one waits for enough room, the ones behind it do not overtake it
+      if ( next == null || !hasRoomFor( next.cost ) ) {
+        break;
+      }
+      removeWaiter( next );
+      next.admitted = true;
+      startRunning( next.user, next.cost );
+      if ( next.future != null ) {
+        if ( admittedAsync.isEmpty() ) {
+          admittedAsync = new ArrayList<>();
+        }
+        admittedAsync.add( next );
+      } else {
+        admitted = true;
+      }
+    }
+    if ( admitted ) {
+      lock.notifyAll();
+    }
+    return admittedAsync;
+  }
+
+  /**
+   * Completes the futures of the given admitted executions, out of the lock as they go on with the execution
+   */
+  private void completeAdmitted( List<Waiter> admitted ) {
+    for ( Waiter waiter : admitted ) {
+      Permit permit;
+      synchronized ( lock ) {
+        permit = recordAdmission( waiter.priority, waiter.user, waiter.cost, System.nanoTime() - waiter.start );
+      }
+      if ( !waiter.future.complete( permit ) ) {
+        // cancelled in the meantime
+        permit.release();
+      }
+    }
+  }
+
+  /**
+   * Returns the next waiting execution: in the highest priority class with waiting executions, the oldest one of the
+   * user with the fewest running executions for their weight
+   */
+  private Waiter peekNext() {
+    for ( Deque<Waiter> queue : queues ) {
+      Waiter next = null;
+      for ( Waiter waiter : queue ) {
+        if ( next == null || isLessServed( waiter, next ) ) {
+          next = waiter;
+        }
+      }
+      if ( next != null ) {
+        return next;
+      }
+    }
+    return null;
+  }
+
+  private void removeWaiter( Waiter waiter ) {
+    for ( Deque<Waiter> queue : queues ) {
+      if ( queue.remove( waiter ) ) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Compares the running executions of two users relative to their weights, running / weight, without dividing
+   */
+  private boolean isLessServed( Waiter waiter, Waiter other ) {
+    long share = (long) countRunning( waiter.user ) * other.weight;
+    long otherShare = (long) countRunning( other.user ) * waiter.weight;
+    return share < otherShare;
+  }
+
+  private int countRunning( String user ) {
+    Integer count = runningByUser.get( user );
+    return count == null ? 0 : count;
+  }
+
+  private void startRunning( String user, int units ) {
+    running += units;
+    runningByUser.put( user, countRunning( user ) + units );
+  }
+
+  private void stopRunning( String user, int units ) {
+    running = Math.max( running - units, 0 );
+    int count = countRunning( user ) - units;
+    if ( count > 0 ) {
+      runningByUser.put( user, count );
+    } else {
+      runningByUser.remove( user );
+    }
+  }
+
+  /**
+   * @return the highest weight of the given roles, or the default weight if none of them has one
+   */
+  private int getWeight( Collection<String> roles ) {
+    int weight = 0;
+    if ( roles != null ) {
+      for ( String role : roles ) {
+        Integer roleWeight = roleWeights.get( role );
+        if ( roleWeight != null ) {
+          weight = Math.max( weight, roleWeight );
+        }
+      }
+    }
+    return weight > 0 ? weight : DEFAULT_WEIGHT;
+  }
+
+  private Permit recordAdmission( Priority priority, String user, int units, long waitNanos ) {
+    int index = priority.ordinal();
+    admittedCount[ index ]++;
+    if ( waitNanos > 0 ) {
+      waitedCount[ index ]++;
+      totalWaitNanos[ index ] += waitNanos;
+      maxWaitNanos[ index ] = Math.max( maxWaitNanos[ index ], waitNanos );
+    }
+    return new Permit( user, units );
+  }
+
+  /**
+   * An execution may start if it fits within the limit, or if nothing else runs
+   */
+  private boolean hasRoomFor( int units ) {
+    return maxConcurrent <= 0 || running == 0 || running + units <= maxConcurrent;
+  }
+
+  private boolean isQueueEmpty() {
+    for ( Deque<Waiter> queue : queues ) {
+      if ( !queue.isEmpty() ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getMaxConcurrent() {
+    synchronized ( lock ) {
+      return maxConcurrent;
+    }
+  }
+
+  /**
+   * Sets the maximum number of executions running at the same time, or of threads for the thread budget. A value of
+   * zero or less removes the limit.
+   *
+   * @param maxConcurrent the maximum number of executions or threads
+   */
+  public void setMaxConcurrent( int maxConcurrent ) {
+    List<Waiter> admitted;
+    synchronized ( lock ) {
+      this.maxConcurrent = maxConcurrent;
+      admitted = admitNext();
+    }
+    completeAdmitted( admitted );
+  }
+
+  /**
+   * @return the number of running executions, or of their threads for the thread budget
+   */
+  public int getRunning() {
+    synchronized ( lock ) {
+      return running;
+    }
+  }
+
+  /**
+   * @return the number of running executions of the given user, or of their threads for the thread budget
+   */
+  public int getRunning( String user ) {
+    synchronized ( lock ) {
+      return countRunning( StringUtils.defaultString( user ) );
+    }
+  }
+
+  public Map<String, Integer> getRoleWeights() {
+    synchronized ( lock ) {
+      return roleWeights;
+    }
+  }
+
+  /**
+   * Sets the weights of the roles: a user whose highest weight is 2 gets twice as many execution slots as a user of
+   * weight 1 when both have executions waiting. Roles without a weight count as {@link #DEFAULT_WEIGHT}.
+   *
+   * @param roleWeights the weight of each role
+   */
+  public void setRoleWeights( Map<String, Integer> roleWeights ) {
+    synchronized ( lock ) {
+      this.roleWeights = roleWeights != null ? roleWeights : Collections.<String, Integer>emptyMap();
+    }
+  }
+
+  /**
+   * Parses a list of role weights, such as {@code Administrator=4, Report Author=2}. The entries without a positive
+   * numeric weight are ignored.
+   *
+   * @param value the comma separated list of role=weight entries
+   * @return the weight of each role
+   */
+  public static Map<String, Integer> parseRoleWeights( String value ) {
+    Map<String, Integer> weights = new HashMap<>();
+    if ( StringUtils.isBlank( value ) ) {
+      return weights;
+    }
+    for ( String entry : value.split( "," ) ) { //$NON-NLS-1$
+      int separator = entry.lastIndexOf( '=' );
+      if ( separator <= 0 ) {
+        continue;
+      }
+      try {
+        int weight = Integer.parseInt( entry.substring( separator + 1 ).trim() );
+        if ( weight > 0 ) {
+          weights.put( entry.substring( 0, separator ).trim(), weight );
+        }
+      } catch ( NumberFormatException e ) {
+        // ignored
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * @return the number of executions waiting to start
+   */
+  public int getQueueDepth() {
+    synchronized ( lock ) {
+      int depth = 0;
+      for ( Deque<Waiter> queue : queues ) {
+        depth += queue.size();
+      }
+      return depth;
+    }
+  }
+
+  public int getQueueDepth( Priority priority ) {
+    synchronized ( lock ) {
+      return queues[ priority.ordinal() ].size();
+    }
+  }
+
+  /**
+   * @return the number of executions of the given class admitted so far, whether they waited or not
+   */
+  public long getAdmittedCount( Priority priority ) {
+    synchronized ( lock ) {
+      return admittedCount[ priority.ordinal() ];
+    }
+  }
+
+  /**
+   * @return the number of executions of the given class that had to wait before being admitted
+   */
+  public long getWaitedCount( Priority priority ) {
+    synchronized ( lock ) {
+      return waitedCount[ priority.ordinal() ];
+    }
+  }
+
+  /**
+   * @return the average time, in milliseconds, the executions of the given class waited before being admitted
+   */
+  public long getAverageWaitMillis( Priority priority ) {
+    synchronized ( lock ) {
+      int index = priority.ordinal();
+      if ( admittedCount[ index ] == 0 ) {
+        return 0;
+      }
+      return TimeUnit.NANOSECONDS.toMillis( totalWaitNanos[ index ] / admittedCount[ index ] );
+    }
+  }
+
+  /**
+   * @return the longest time, in milliseconds, an execution of the given class waited before being admitted
+   */
+  public long getMaxWaitMillis( Priority priority ) {
+    synchronized ( lock ) {
+      return TimeUnit.NANOSECONDS.toMillis( maxWaitNanos[ priority.ordinal() ] );
+    }
+  }
+
+  /**
+   * The right of an admitted execution to run. It must be released when the execution is over.
+   */
+  public class Permit {
+
+    private final String user;
+
+    private final int units;
+
+    private boolean released;
+
+    private Permit( String user, int units ) {
+      this.user = user;
+      this.units = units;
+    }
+
+    /**
+     * Releases the slot of the execution; releasing it more than once has no effect.
+     */
+    public void release() {
+      synchronized ( lock ) {
+        if ( released ) {
+          return;
+        }
+        released = true;
+      }
+      PdiAdmissionController.this.release( user, units );
+    }
+  }
+
+  private static class Waiter {
+    private final String user;
+    private final int weight;
+    private final int cost;
+    private boolean admitted;
+    // only for the executions admitted through acquireAsync
+    private Priority priority;
+    private long start;
+    private CompletableFuture<Permit> future;
+
+    Waiter( String user, int weight, int cost ) {
+      this.user = user;
+      this.weight = weight;
+      this.cost = cost;
+    }
+  }
+}
@@ -13,11 +13,15 @@
 
 package org.pentaho.platform.plugin.kettle;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.ActionExecutionException;
+import org.pentaho.platform.api.engine.IParameterProvider;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.platform.engine.core.audit.AuditHelper;
@@ -31,6 +35,18 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
 
   private static final long serialVersionUID = 3654713863075785759L;
   private static final Log logger = LogFactory.getLog( PdiContentGenerator.class );
+
+  /**
+   * The request parameter streaming the rows of a transformation in the given format, csv or jsonl, instead of
+   * rendering a status page once it is finished
+   */
+  public static final String OUTPUT_PARAMETER = "output"; //$NON-NLS-1$
+
+  /**
+   * The request parameter naming the step whose rows are streamed
+   */
+  public static final String MONITOR_STEP_PARAMETER = "monitorStep"; //$NON-NLS-1$
+
   private OutputStream out;
   private RepositoryFile repositoryFile;
   private PdiAction pdiComponent;
@@ -39,7 +55,8 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
   final org.pentaho.platform.plugin.kettle.messages.Messages PDI_PLUGIN_MESSAGES = org.pentaho.platform.plugin.kettle.messages.Messages.getInstance();
 
   public String getMimeType( String streamPropertyName ) {
-    return "text/html";
+    RowStreamWriter.Format format = getStreamFormat();
+    return format != null ? format.getMimeType() : "text/html";
   }
 
   public PdiContentGenerator() {
@@ -54,11 +71,15 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
     pdiComponent.setDirectory( FilenameUtils.getPathNoEndSeparator( pdiPath ) );
 
     // see if we are running a transformation or job
+    RowStreamWriter rowStream = null;
     if ( repositoryFile.getName().toLowerCase().endsWith( ".ktr" ) ) { //$NON-NLS-1$
       pdiComponent.setTransformation( FilenameUtils.getBaseName( pdiPath ) );
+      rowStream = createRowStream();
     } else if ( repositoryFile.getName().toLowerCase().endsWith( ".kjb" ) ) { //$NON-NLS-1$
       pdiComponent.setJob( FilenameUtils.getBaseName( pdiPath ) );
     }
+    // the user is waiting for the output, start before the queued background executions
+    pdiComponent.setExecutionPriority( PdiAdmissionController.Priority.INTERACTIVE );
     IPentahoSession session = PentahoSessionHolder.getSession();
     long start = System.currentTimeMillis();
     try {
@@ -66,6 +87,14 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
           MessageTypes.INSTANCE_START, instanceId, "", 0, this ); //$NON-NLS-1$
       // now execute
       pdiComponent.execute();
+      if ( rowStream != null ) {
+        if ( pdiComponent.isExecutionSuccessful() ) {
+          rowStream.finish();
+        } else {
+          // the rows written so far are already sent, tell the client they are incomplete
+          rowStream.fail( getStreamIncompleteMessage( pdiPath ) );
+        }
+      }
       AuditHelper.audit( session.getId(), session.getName(), pdiPath, getObjectName(), this.getClass().getName(),
           MessageTypes.INSTANCE_END, instanceId, "", ( (float) ( System.currentTimeMillis() - start ) / 1000 ), this ); //$NON-NLS-1$
     } catch ( Exception ex ) {
@@ -73,6 +102,7 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
           MessageTypes.INSTANCE_FAILED, instanceId, "", ( (float) ( System.currentTimeMillis() - start ) / 1000 ), this ); // $NON-NLS-1$
       logger.error( ex );
       clearOutputBuffer();
+      failQuietly( rowStream, getStreamIncompleteMessage( pdiPath ) );
       throw ex;
     }
 
@@ -85,6 +115,10 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
           MessageTypes.INSTANCE_FAILED, instanceId, errorMessage,
           ( (float) ( System.currentTimeMillis() - start ) / 1000 ), this ); // $NON-NLS-1$
 
+      if ( rowStream != null ) {
+        // the response ends with an error record, fail it as well rather than let it look complete
+        throw new ActionExecutionException( getStreamIncompleteMessage( pdiPath ) );
+      }
       outputStringBuilder = pdiComponent.isTransPrepareExecutionFailed() ? writeFailureMessage() : writeFinishedWithErrorsMessage();
       out.write( outputStringBuilder.toString().getBytes() );
 
@@ -98,10 +132,71 @@ public class PdiContentGenerator extends FileResourceContentGenerator {
      * display the string "Action Successful" when transformation is executed successfully and display a generic error
      * page in case of exception. The detailed logging will continue to go to the log file
      */
+    if ( rowStream != null ) {
+      return;
+    }
     outputStringBuilder = writeFinishedMessage();
     out.write( outputStringBuilder.toString().getBytes() );
   }
 
+  /**
+   * Returns the format the rows of the transformation are streamed in, as requested.
+   *
+   * @return the format, or <code>null</code> to render the status page
+   */
+  protected RowStreamWriter.Format getStreamFormat() {
+    if ( repositoryFile != null && !repositoryFile.getName().toLowerCase().endsWith( ".ktr" ) ) { //$NON-NLS-1$
+      return null;
+    }
+    String output = getRequestParameter( OUTPUT_PARAMETER );
+    return StringUtils.isBlank( output ) || "html".equalsIgnoreCase( output.trim() ) ? null //$NON-NLS-1$
+      : RowStreamWriter.Format.fromName( output );
+  }
+
+  private String getRequestParameter( String name ) {
+    IParameterProvider requestParams =
+      parameterProviders != null ? parameterProviders.get( IParameterProvider.SCOPE_REQUEST ) : null;
+    return requestParams != null ? requestParams.getStringParameter( name, null ) : null;
+  }
+
+  /**
+   * Streams the rows of the monitored step to the output stream if requested.
+   *
+   * @return the writer of the rows, or <code>null</code> to render the status page
+   */
+  private RowStreamWriter createRowStream() {
+    RowStreamWriter.Format format = getStreamFormat();
+    if ( format == null ) {
+      return null;
+    }
+    String monitorStep = getRequestParameter( MONITOR_STEP_PARAMETER );
+    if ( StringUtils.isBlank( monitorStep ) ) {
+      throw new IllegalArgumentException( PDI_PLUGIN_MESSAGES.getErrorString(
+        "PdiContentGenerator.ERROR_0001_MONITOR_STEP_REQUIRED", MONITOR_STEP_PARAMETER ) ); //$NON-NLS-1$
+    }
+    RowStreamWriter rowStream = new RowStreamWriter( out, format, RowStreamWriter.DEFAULT_CAPACITY );
+    pdiComponent.setMonitorStep( monitorStep.trim() );
+    pdiComponent.setRowStream( rowStream );
+    return rowStream;
+  }
+
+  private String getStreamIncompleteMessage( String pdiPath ) {
+    return PDI_PLUGIN_MESSAGES.getErrorString( "PdiContentGenerator.ERROR_0002_STREAM_INCOMPLETE", pdiPath ); //$NON-NLS-1$
+  }
+
+  /**
+   * Ends the streamed rows with an error record, if any were streamed
+   */
+  private static void failQuietly( RowStreamWriter rowStream, String message ) {
+    if ( rowStream != null ) {
+      try {
+        rowStream.fail( message );
+      } catch ( IOException e ) {
+        logger.debug( e.getMessage(), e );
+      }
+    }
+  }
+
   /**
    * Added for unit testing
    *
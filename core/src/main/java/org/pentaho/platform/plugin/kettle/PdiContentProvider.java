@@ -13,8 +13,16 @@ package org.pentaho.platform.plugin.kettle;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
@@ -26,13 +34,24 @@ import org.pentaho.di.core.parameters.NamedParams;
 import org.pentaho.di.core.parameters.NamedParamsDefault;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.util.IPdiContentProvider;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
 
 public class PdiContentProvider implements IPdiContentProvider {
 
+  /**
+   * The number of threads reading parameters for {@link #getUserParameters(List)}, shared by all requests
+   */
+  public static final int BULK_THREADS = 4;
+
+  private static final AtomicInteger bulkThreadCount = new AtomicInteger();
+
+  private static final ThreadPoolExecutor bulkExecutor = createBulkExecutor();
+
   private Log log = LogFactory.getLog( PdiContentProvider.class );
 
   IUnifiedRepository unifiedRepository;
@@ -72,6 +91,61 @@ public class PdiContentProvider implements IPdiContentProvider {
     return userParams;
   }
 
+  /**
+   * Returns the user parameters of several transformations and jobs at once. The files are read in parallel, on a
+   * bounded pool shared by all the requests.
+   *
+   * @param kettleFilePaths the paths of the .ktr and .kjb files
+   * @return the user parameters of each file, in the order of the given paths
+   * @throws InterruptedException if interrupted while waiting for the files to be read
+   */
+  public Map<String, Map<String, String>> getUserParameters( List<String> kettleFilePaths )
+    throws InterruptedException {
+
+    Map<String, Map<String, String>> userParams = new LinkedHashMap<>();
+    if ( kettleFilePaths == null || kettleFilePaths.isEmpty() ) {
+      return userParams;
+    }
+
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    List<String> paths = new ArrayList<>();
+    List<Callable<Map<String, String>>> reads = new ArrayList<>();
+    for ( String kettleFilePath : kettleFilePaths ) {
+      if ( !userParams.containsKey( kettleFilePath ) ) {
+        // keeps the order of the paths
+        userParams.put( kettleFilePath, null );
+        paths.add( kettleFilePath );
+        reads.add( () -> session == null ? getUserParameters( kettleFilePath )
+          : SecurityHelper.getInstance().runAsUser( session.getName(), () -> getUserParameters( kettleFilePath ) ) );
+      }
+    }
+
+    List<Future<Map<String, String>>> results = bulkExecutor.invokeAll( reads );
+    for ( int i = 0; i < results.size(); i++ ) {
+      Map<String, String> params;
+      try {
+        params = results.get( i ).get();
+      } catch ( ExecutionException e ) {
+        log.error( e.getCause() );
+        params = new HashMap<>();
+      }
+      userParams.put( paths.get( i ), params );
+    }
+    return userParams;
+  }
+
+  private static ThreadPoolExecutor createBulkExecutor() {
+    ThreadPoolExecutor executor =
+      new ThreadPoolExecutor( BULK_THREADS, BULK_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread( runnable, "PdiContentProvider-" + bulkThreadCount.incrementAndGet() ); //$NON-NLS-1$
+          thread.setDaemon( true );
+          return thread;
+        } );
+    executor.allowCoreThreadTimeOut( true );
+    return executor;
+  }
+
   private NamedParams filterUserParameters( NamedParams params ) {
 
     NamedParams userParams = new NamedParamsDefault();
@@ -100,6 +174,15 @@ public class PdiContentProvider implements IPdiContentProvider {
     if ( !StringUtils.isEmpty( kettleFilePath ) ) {
 
       String extension = FilenameUtils.getExtension( kettleFilePath );
+      if ( "ktr".equalsIgnoreCase( extension ) || "kjb".equalsIgnoreCase( extension ) ) {
+        // only the parameters are needed, there is no need to load the whole file
+        try {
+          return PdiParameterCache.getInstance().getParameters( kettleFilePath );
+        } catch ( KettleException e ) {
+          log.debug( "Could not read the parameters of " + kettleFilePath + ", loading the whole file", e );
+        }
+      }
+
       if ( "ktr".equalsIgnoreCase( extension ) ) {
 
         meta = new TransMeta( kettleFilePath );
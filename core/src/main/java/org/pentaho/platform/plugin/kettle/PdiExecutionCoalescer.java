@@ -0,0 +1,218 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Lets identical executions running at the same time share a single run.
+ * <p>
+ * The first execution of a key becomes the leader of a {@link Flight} and runs; the executions of the same key joining
+ * while it runs wait for it and take its outcome instead of running themselves. The flight ends with the leader, so
+ * the next execution of that key runs again. Only the files matching one of the configured paths, see
+ * {@link #setPaths(List)}, are coalesced.
+ */
+public class PdiExecutionCoalescer {
+
+  private static final PdiExecutionCoalescer instance = new PdiExecutionCoalescer();
+
+  private final Map<String, Flight> flights = new HashMap<>();
+
+  private List<String> paths = Collections.emptyList();
+
+  private final AtomicLong leaderCount = new AtomicLong();
+
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  // package-local for test reasons
+  PdiExecutionCoalescer() {
+  }
+
+  public static PdiExecutionCoalescer getInstance() {
+    return instance;
+  }
+
+  /**
+   * Joins the flight of the given key, starting it if none is running.
+   *
+   * @param key the key of the execution, identifying the file version and all the inputs
+   * @return the flight, whose leader must run and then call {@link Flight#complete(PdiAction)} or
+   * {@link Flight#fail(Throwable)}
+   */
+  public Flight join( String key ) {
+    synchronized ( flights ) {
+      Flight flight = flights.get( key );
+      if ( flight != null ) {
+        coalescedCount.incrementAndGet();
+        return new Flight( key, flight.outcome, false );
+      }
+      flight = new Flight( key, new CompletableFuture<>(), true );
+      flights.put( key, flight );
+      leaderCount.incrementAndGet();
+      return flight;
+    }
+  }
+
+  /**
+   * @param path the repository path of a transformation or job
+   * @return <code>true</code> if the executions of this file may be coalesced
+   */
+  public boolean isCoalesced( String path ) {
+    if ( path == null ) {
+      return false;
+    }
+    List<String> configuredPaths = getPaths();
+    for ( String configuredPath : configuredPaths ) {
+      boolean folder = configuredPath.endsWith( "/" ); //$NON-NLS-1$
+      if ( folder ? path.startsWith( configuredPath ) : path.equals( configuredPath ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized List<String> getPaths() {
+    return paths;
+  }
+
+  /**
+   * Sets the files whose executions are coalesced: a path ending with a slash stands for every file in that folder and
+   * its sub-folders.
+   *
+   * @param paths the repository paths of the files and folders
+   */
+  public synchronized void setPaths( List<String> paths ) {
+    this.paths = paths != null ? paths : Collections.<String>emptyList();
+  }
+
+  /**
+   * Parses a comma separated list of paths
+   *
+   * @param value the list of paths
+   * @return the paths
+   */
+  public static List<String> parsePaths( String value ) {
+    List<String> paths = new ArrayList<>();
+    if ( StringUtils.isBlank( value ) ) {
+      return paths;
+    }
+    for ( String path : value.split( "," ) ) { //$NON-NLS-1$
+      if ( !StringUtils.isBlank( path ) ) {
+        paths.add( path.trim() );
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * @return the number of executions that actually ran
+   */
+  public long getLeaderCount() {
+    return leaderCount.get();
+  }
+
+  /**
+   * @return the number of executions that took the outcome of another one
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  public int getRunningCount() {
+    synchronized ( flights ) {
+      return flights.size();
+    }
+  }
+
+  private void end( Flight flight ) {
+    synchronized ( flights ) {
+      flights.remove( flight.key );
+    }
+  }
+
+  /**
+   * An execution taking part in a coalesced run, either as its leader or as a follower
+   */
+  public class Flight {
+
+    private final String key;
+
+    private final CompletableFuture<PdiAction> outcome;
+
+    private final boolean leader;
+
+    private Flight( String key, CompletableFuture<PdiAction> outcome, boolean leader ) {
+      this.key = key;
+      this.outcome = outcome;
+      this.leader = leader;
+    }
+
+    /**
+     * @return <code>true</code> if this execution has to run, <code>false</code> if it has to wait for the leader
+     */
+    public boolean isLeader() {
+      return leader;
+    }
+
+    /**
+     * Ends the run successfully, handing the finished action of the leader to the followers.
+     *
+     * @param action the action that ran
+     */
+    public void complete( PdiAction action ) {
+      end( this );
+      outcome.complete( action );
+    }
+
+    /**
+     * Ends the run with an error, which the followers throw as well.
+     *
+     * @param e the error of the leader
+     */
+    public void fail( Throwable e ) {
+      end( this );
+      outcome.completeExceptionally( e );
+    }
+
+    /**
+     * Waits for the leader to finish.
+     *
+     * @return the action that ran
+     * @throws Exception the error of the leader
+     */
+    public PdiAction await() throws Exception {
+      try {
+        return outcome.get();
+      } catch ( ExecutionException e ) {
+        Throwable cause = e.getCause();
+        if ( cause instanceof Exception ) {
+          throw (Exception) cause;
+        }
+        if ( cause instanceof Error ) {
+          throw (Error) cause;
+        }
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+/**
+ * The outcome of a transformation or job executed by {@link PdiAction#executeAsync()}
+ */
+public class PdiExecutionResult {
+
+  private final String status;
+
+  private final int result;
+
+  private final boolean successful;
+
+  private final int outputRowsCount;
+
+  private final int outputErrorRowsCount;
+
+  private final String logChannelId;
+
+  public PdiExecutionResult( String status, int result, boolean successful, int outputRowsCount,
+                             int outputErrorRowsCount, String logChannelId ) {
+    this.status = status;
+    this.result = result;
+    this.successful = successful;
+    this.outputRowsCount = outputRowsCount;
+    this.outputErrorRowsCount = outputErrorRowsCount;
+    this.logChannelId = logChannelId;
+  }
+
+  /**
+   * @return the status of the transformation or job
+   */
+  public String getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the exit status of the transformation or job
+   */
+  public int getResult() {
+    return result;
+  }
+
+  public boolean isSuccessful() {
+    return successful;
+  }
+
+  public int getOutputRowsCount() {
+    return outputRowsCount;
+  }
+
+  public int getOutputErrorRowsCount() {
+    return outputErrorRowsCount;
+  }
+
+  /**
+   * @return the log channel of the transformation or job, to look its log up in the {@code KettleLogStore}
+   */
+  public String getLogChannelId() {
+    return logChannelId;
+  }
+}
@@ -0,0 +1,77 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the orchestration of the executions on virtual threads, whether started with {@link PdiAction#execute()} or
+ * {@link PdiAction#executeAsync()}: waiting for an execution slot, connecting to the repository, loading the
+ * transformation or job, waiting for it to finish and collecting its log and result. A blocked virtual thread does not hold a platform thread, so a thousand waiting
+ * executions cost a thousand virtual threads but only as many platform threads as the steps actually running need.
+ * <p>
+ * Virtual threads require Java 21 or later; the executor is looked up at runtime so the plugin still runs on older
+ * versions, where {@link #isSupported()} is <code>false</code>.
+ */
+public class PdiOrchestrationExecutor {
+
+  private static final Log log = LogFactory.getLog( PdiOrchestrationExecutor.class );
+
+  private static final PdiOrchestrationExecutor instance = new PdiOrchestrationExecutor();
+
+  private final ExecutorService executor;
+
+  // package-local for test reasons
+  PdiOrchestrationExecutor() {
+    this.executor = createVirtualThreadExecutor();
+  }
+
+  public static PdiOrchestrationExecutor getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return <code>true</code> if this Java version supports virtual threads
+   */
+  public boolean isSupported() {
+    return executor != null;
+  }
+
+  /**
+   * Returns the executor starting a new virtual thread per task.
+   *
+   * @return the executor, or <code>null</code> if virtual threads are not supported
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ); //$NON-NLS-1$
+      return (ExecutorService) factory.invoke( null );
+    } catch ( NoSuchMethodException e ) {
+      // before Java 21
+      return null;
+    } catch ( Exception e ) {
+      log.warn( e.getMessage(), e );
+      return null;
+    }
+  }
+}
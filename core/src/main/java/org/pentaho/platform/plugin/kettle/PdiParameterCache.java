@@ -0,0 +1,168 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.bowl.DefaultBowl;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.parameters.NamedParams;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+/**
+ * Server-wide cache of the named parameters of the transformations and jobs, keyed by file path and version (last
+ * modified time and size).
+ * <p>
+ * The parameters are read with the {@link PdiParameterExtractor}, so listing them never loads the whole file. An entry
+ * is replaced as soon as the file changes. The repository does not tell this plugin when a file is saved, so the first
+ * user to open a changed file reads it again.
+ */
+public class PdiParameterCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private static final PdiParameterCache instance = new PdiParameterCache();
+
+  private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>( 16, 0.75f, true );
+
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  // package-local for test reasons
+  PdiParameterCache() {
+  }
+
+  public static PdiParameterCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the named parameters of the given transformation or job. The returned parameters must not be changed.
+   *
+   * @param kettleFilePath the path of the .ktr or .kjb file
+   * @return the parameters
+   * @throws KettleException if the file cannot be read
+   */
+  public NamedParams getParameters( String kettleFilePath ) throws KettleException {
+    FileObject file = KettleVFS.getInstance( DefaultBowl.getInstance() ).getFileObject( kettleFilePath );
+    String version = getVersion( file );
+
+    if ( version != null ) {
+      synchronized ( entries ) {
+        CacheEntry entry = entries.get( kettleFilePath );
+        if ( entry != null && version.equals( entry.version ) ) {
+          hitCount.incrementAndGet();
+          return entry.params;
+        }
+      }
+    }
+
+    missCount.incrementAndGet();
+    NamedParams params = read( file );
+    if ( version != null && maxEntries > 0 ) {
+      synchronized ( entries ) {
+        entries.put( kettleFilePath, new CacheEntry( version, params ) );
+        evictEldestEntries();
+      }
+    }
+    return params;
+  }
+
+  public void invalidate( String kettleFilePath ) {
+    synchronized ( entries ) {
+      entries.remove( kettleFilePath );
+    }
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+    }
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Sets the maximum number of files whose parameters are cached. A value of zero or less disables the cache.
+   *
+   * @param maxEntries the maximum number of files
+   */
+  public void setMaxEntries( int maxEntries ) {
+    synchronized ( entries ) {
+      this.maxEntries = maxEntries;
+      evictEldestEntries();
+    }
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  private NamedParams read( FileObject file ) throws KettleException {
+    try ( InputStream inputStream = file.getContent().getInputStream() ) {
+      return PdiParameterExtractor.extract( inputStream );
+    } catch ( Exception e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private void evictEldestEntries() {
+    Iterator<CacheEntry> iterator = entries.values().iterator();
+    while ( entries.size() > Math.max( maxEntries, 0 ) && iterator.hasNext() ) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  private static String getVersion( FileObject file ) {
+    try {
+      FileContent content = file.getContent();
+      return content.getLastModifiedTime() + ":" + content.getSize(); //$NON-NLS-1$
+    } catch ( Exception e ) {
+      // not cached
+      return null;
+    }
+  }
+
+  private static class CacheEntry {
+    private final String version;
+    private final NamedParams params;
+
+    CacheEntry( String version, NamedParams params ) {
+      this.version = version;
+      this.params = params;
+    }
+  }
+}
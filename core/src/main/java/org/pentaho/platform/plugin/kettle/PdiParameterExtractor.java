@@ -0,0 +1,169 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.parameters.DuplicateParamException;
+import org.pentaho.di.core.parameters.NamedParams;
+import org.pentaho.di.core.parameters.NamedParamsDefault;
+
+/**
+ * Reads the named parameters of a transformation (.ktr) or job (.kjb) file without loading the whole file.
+ * <p>
+ * Only the {@code transformation/info/parameters} or {@code job/parameters} section is read, with a streaming parser
+ * that stops as soon as that section, or the part of the file where it would be, is over. No step, job entry, plugin
+ * or database is loaded.
+ */
+public class PdiParameterExtractor {
+
+  private static final String TRANSFORMATION = "transformation"; //$NON-NLS-1$
+  private static final String JOB = "job"; //$NON-NLS-1$
+  private static final String INFO = "info"; //$NON-NLS-1$
+  private static final String PARAMETERS = "parameters"; //$NON-NLS-1$
+  private static final String PARAMETER = "parameter"; //$NON-NLS-1$
+  private static final String NAME = "name"; //$NON-NLS-1$
+  private static final String DEFAULT_VALUE = "default_value"; //$NON-NLS-1$
+  private static final String DESCRIPTION = "description"; //$NON-NLS-1$
+
+  // the job parameters are written before these, there is no need to read any further
+  private static final String[] JOB_SECTIONS_AFTER_PARAMETERS = { "entries", "hops", "notepads" }; //$NON-NLS-1$
+
+  private static final XMLInputFactory factory = createFactory();
+
+  private PdiParameterExtractor() {
+  }
+
+  /**
+   * Reads the named parameters from the given transformation or job.
+   *
+   * @param inputStream the contents of the file, which is not closed
+   * @return the parameters, with their default values and descriptions
+   * @throws XMLStreamException if the file is not a transformation or a job, or cannot be parsed
+   */
+  public static NamedParams extract( InputStream inputStream ) throws XMLStreamException {
+    NamedParams params = new NamedParamsDefault();
+    XMLStreamReader reader = factory.createXMLStreamReader( inputStream );
+    try {
+      reader.nextTag();
+      String root = reader.getLocalName();
+      if ( !TRANSFORMATION.equals( root ) && !JOB.equals( root ) ) {
+        throw new XMLStreamException( "Not a transformation or a job: " + root, reader.getLocation() ); //$NON-NLS-1$
+      }
+      // the depth of the parameters section: transformation/info/parameters or job/parameters
+      int parametersDepth = TRANSFORMATION.equals( root ) ? 3 : 2;
+
+      int depth = 1;
+      while ( reader.hasNext() ) {
+        int event = reader.next();
+        if ( event == XMLStreamConstants.START_ELEMENT ) {
+          depth++;
+          String name = reader.getLocalName();
+          if ( depth == parametersDepth && PARAMETERS.equals( name ) ) {
+            readParameters( reader, params );
+            // nothing else to read
+            break;
+          }
+          if ( depth == 2 && isAfterParameters( root, name ) ) {
+            break;
+          }
+        } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+          depth--;
+          if ( depth == 1 && INFO.equals( reader.getLocalName() ) ) {
+            // the transformation info is over
+            break;
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return params;
+  }
+
+  private static boolean isAfterParameters( String root, String name ) {
+    if ( TRANSFORMATION.equals( root ) ) {
+      // anything but the info section comes after the parameters
+      return !INFO.equals( name );
+    }
+    for ( String section : JOB_SECTIONS_AFTER_PARAMETERS ) {
+      if ( section.equals( name ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the parameter elements up to the end of the parameters section
+   */
+  private static void readParameters( XMLStreamReader reader, NamedParams params ) throws XMLStreamException {
+    while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+      if ( !PARAMETER.equals( reader.getLocalName() ) ) {
+        skipElement( reader );
+        continue;
+      }
+
+      String name = null;
+      String defaultValue = null;
+      String description = null;
+      while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+        String element = reader.getLocalName();
+        if ( NAME.equals( element ) ) {
+          name = reader.getElementText();
+        } else if ( DEFAULT_VALUE.equals( element ) ) {
+          defaultValue = reader.getElementText();
+        } else if ( DESCRIPTION.equals( element ) ) {
+          description = reader.getElementText();
+        } else {
+          skipElement( reader );
+        }
+      }
+
+      if ( !StringUtils.isEmpty( name ) ) {
+        try {
+          params.addParameterDefinition( name, StringUtils.defaultString( defaultValue ),
+            StringUtils.defaultString( description ) );
+        } catch ( DuplicateParamException e ) {
+          // same as loading the file: the first definition wins
+        }
+      }
+    }
+  }
+
+  private static void skipElement( XMLStreamReader reader ) throws XMLStreamException {
+    int depth = 1;
+    while ( depth > 0 ) {
+      int event = reader.next();
+      if ( event == XMLStreamConstants.START_ELEMENT ) {
+        depth++;
+      } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+        depth--;
+      }
+    }
+  }
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    xmlInputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+    xmlInputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    return xmlInputFactory;
+  }
+}
@@ -14,6 +14,7 @@
 package org.pentaho.platform.plugin.kettle;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class PdiService {
@@ -80,8 +81,20 @@ public class PdiService {
     result.setStatus(pdiComponent.getStatus());
     result.setResult(pdiComponent.getResult());
     result.setLog(pdiComponent.getLog());
+    // the captured rows are not part of the result
+    pdiComponent.disposeOutputRows();
     return result;
 
   }
 
+  /**
+   * Returns what is left of the transformations and jobs removed from the Carte status pages, the most recent last.
+   *
+   * @return the summaries of the removed runs
+   */
+  public CarteRegistryRetention.Summary[] getCarteSummaries() {
+    List<CarteRegistryRetention.Summary> summaries = CarteRegistryRetention.getInstance().getSummaries();
+    return summaries.toArray(new CarteRegistryRetention.Summary[summaries.size()]);
+  }
+
 }
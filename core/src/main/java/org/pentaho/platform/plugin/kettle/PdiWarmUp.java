@@ -0,0 +1,256 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.scheduler2.IJob;
+import org.pentaho.platform.api.scheduler2.IScheduler;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.pentaho.platform.plugin.action.kettle.KettleSystemListener;
+import org.pentaho.platform.plugin.kettle.messages.Messages;
+import org.pentaho.platform.util.ActionUtil;
+
+/**
+ * Warms the plugin up in the background when it starts, so the first executions after a restart do not pay for the
+ * initialization of the Kettle environment and the loading of the files they run.
+ * <p>
+ * Once the platform is initialized, the Kettle environment is initialized and the {@link #getMaxFiles()} most
+ * frequently scheduled transformations and jobs are loaded, as the owners of their schedules, into the meta cache and
+ * the repository connection pool. Files that fail to load, or that use steps or job entries whose plugin is missing,
+ * are reported. {@link #isReady()} tells whether the warm-up is over.
+ */
+public class PdiWarmUp {
+
+  public static final int DEFAULT_MAX_FILES = 10;
+
+  public static final int DEFAULT_THREADS = 2;
+
+  private static final long INITIALIZATION_POLL_INTERVAL = TimeUnit.SECONDS.toMillis( 1 );
+
+  private static final Log log = LogFactory.getLog( PdiWarmUp.class );
+
+  private boolean enabled;
+
+  private int maxFiles = DEFAULT_MAX_FILES;
+
+  private int threads = DEFAULT_THREADS;
+
+  private volatile boolean ready;
+
+  private ExecutorService executor;
+
+  private final AtomicInteger loadedCount = new AtomicInteger();
+
+  private final AtomicInteger failedCount = new AtomicInteger();
+
+  /**
+   * Starts the warm-up in the background. Does nothing if the warm-up is disabled.
+   */
+  public synchronized void start() {
+    if ( !enabled || executor != null ) {
+      ready = true;
+      return;
+    }
+
+    AtomicInteger threadCount = new AtomicInteger();
+    // one more thread for the warm-up itself, which waits for the loads
+    executor = Executors.newFixedThreadPool( Math.max( threads, 1 ) + 1, runnable -> {
+      Thread thread = new Thread( runnable, "PdiWarmUp-" + threadCount.incrementAndGet() ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    } );
+    executor.submit( this::warmUp );
+  }
+
+  /**
+   * Stops the warm-up, if still running.
+   */
+  public synchronized void stop() {
+    if ( executor != null ) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  public int getLoadedCount() {
+    return loadedCount.get();
+  }
+
+  public int getFailedCount() {
+    return failedCount.get();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled( boolean enabled ) {
+    this.enabled = enabled;
+  }
+
+  public int getMaxFiles() {
+    return maxFiles;
+  }
+
+  /**
+   * Sets the number of scheduled transformations and jobs to load. A value of zero or less only initializes the Kettle
+   * environment.
+   *
+   * @param maxFiles the number of files
+   */
+  public void setMaxFiles( int maxFiles ) {
+    this.maxFiles = maxFiles;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setThreads( int threads ) {
+    this.threads = threads;
+  }
+
+  private void warmUp() {
+    try {
+      while ( !isPlatformInitialized() ) {
+        Thread.sleep( INITIALIZATION_POLL_INTERVAL );
+      }
+
+      List<ScheduledFile> files = initialize();
+
+      List<Callable<Void>> loads = new ArrayList<>();
+      for ( ScheduledFile file : files ) {
+        loads.add( () -> {
+          load( file );
+          return null;
+        } );
+      }
+      executor.invokeAll( loads );
+
+      log.info( Messages.getInstance().getString( "PdiWarmUp.INFO_WARM_UP_DONE", Integer.toString( loadedCount.get() ),
+        Integer.toString( failedCount.get() ) ) );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } catch ( Exception e ) {
+      log.warn( Messages.getInstance().getErrorString( "PdiWarmUp.ERROR_0001_WARM_UP_FAILED" ), e );
+    } finally {
+      ready = true;
+    }
+  }
+
+  @VisibleForTesting
+  boolean isPlatformInitialized() {
+    return PentahoSystem.getInitializedOK();
+  }
+
+  /**
+   * Initializes the Kettle environment and returns the files to load
+   */
+  @VisibleForTesting
+  List<ScheduledFile> initialize() throws Exception {
+    return SecurityHelper.getInstance().runAsSystem( () -> {
+      KettleSystemListener.environmentInit( PentahoSessionHolder.getSession() );
+      return getMostScheduledFiles();
+    } );
+  }
+
+  private void load( ScheduledFile file ) {
+    try {
+      load( file.path, file.userName );
+      loadedCount.incrementAndGet();
+    } catch ( Exception e ) {
+      failedCount.incrementAndGet();
+      log.warn( Messages.getInstance().getErrorString( "PdiWarmUp.ERROR_0002_LOAD_FAILED", file.path ),
+        log.isDebugEnabled() ? e : null );
+    }
+  }
+
+  /**
+   * Loads the given file into the caches, as the given user
+   */
+  @VisibleForTesting
+  void load( String path, String userName ) throws Exception {
+    SecurityHelper.getInstance().runAsUser( userName, () -> {
+      // the same way as the content generator
+      PdiAction action = new PdiAction();
+      action.setDirectory( FilenameUtils.getPathNoEndSeparator( path ) );
+      if ( path.endsWith( ".ktr" ) ) { //$NON-NLS-1$
+        action.setTransformation( FilenameUtils.getBaseName( path ) );
+      } else {
+        action.setJob( FilenameUtils.getBaseName( path ) );
+      }
+      action.warmUp();
+      return null;
+    } );
+  }
+
+  /**
+   * Returns the transformations and jobs with the most schedules, most scheduled first
+   */
+  private List<ScheduledFile> getMostScheduledFiles() throws Exception {
+    List<ScheduledFile> files = new ArrayList<>();
+    IScheduler scheduler = PentahoSystem.get( IScheduler.class, "IScheduler2", null ); //$NON-NLS-1$
+    if ( scheduler == null || maxFiles <= 0 ) {
+      return files;
+    }
+
+    Map<String, ScheduledFile> filesByPath = new LinkedHashMap<>();
+    for ( IJob job : scheduler.getJobs( null ) ) {
+      Object inputFile = job.getJobParams() == null ? null
+        : job.getJobParams().get( ActionUtil.QUARTZ_STREAMPROVIDER_INPUT_FILE );
+      if ( inputFile instanceof String && isPdiFile( (String) inputFile ) ) {
+        filesByPath.computeIfAbsent( (String) inputFile, path -> new ScheduledFile( path, job.getUserName() ) )
+          .scheduleCount++;
+      }
+    }
+
+    files.addAll( filesByPath.values() );
+    files.sort( ( file1, file2 ) -> Integer.compare( file2.scheduleCount, file1.scheduleCount ) );
+    return files.size() > maxFiles ? new ArrayList<>( files.subList( 0, maxFiles ) ) : files;
+  }
+
+  private static boolean isPdiFile( String path ) {
+    return path.endsWith( ".ktr" ) || path.endsWith( ".kjb" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  static class ScheduledFile {
+    private final String path;
+    private final String userName;
+    private int scheduleCount;
+
+    ScheduledFile( String path, String userName ) {
+      this.path = path;
+      this.userName = userName;
+    }
+  }
+}
@@ -0,0 +1,461 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+/**
+ * Keeps transformations prepared ahead of time, so the executions of small and frequently run transformations skip
+ * {@code prepareExecution}: the initialization of the steps and the opening of their connections.
+ * <p>
+ * The prepared transformations are kept per key, which identifies the file version, the user and all the inputs of
+ * the execution. An execution claims one and starts it; the pool then prepares a replacement in the background, as the
+ * same user, from a copy of the transformation of the first execution of that key. Up to {@link #getSize()}
+ * transformations are kept per key, for up to {@link #getMaxKeys()} keys; the transformations of the least recently
+ * used keys are disposed of. A prepared transformation holds the connections of its steps open, so it is disposed of
+ * once it has been idle for longer than {@link #getMaxIdleTime()}, and never handed out past that time.
+ * <p>
+ * The time taken by the claims and by the cold preparations of the same keys is recorded, see
+ * {@link #getAverageClaimMicros()} and {@link #getAverageColdPrepareMicros()}.
+ */
+public class PreparedTransPool {
+
+  public static final int DEFAULT_SIZE = 2;
+
+  public static final int DEFAULT_MAX_KEYS = 20;
+
+  public static final long DEFAULT_MAX_IDLE_TIME = TimeUnit.MINUTES.toMillis( 10 );
+
+  private static final int REFILL_THREADS = 2;
+
+  private static final long SWEEP_PERIOD = TimeUnit.MINUTES.toMillis( 1 );
+
+  private static final Log log = LogFactory.getLog( PreparedTransPool.class );
+
+  private static final PreparedTransPool instance = new PreparedTransPool();
+
+  private static final AtomicInteger refillThreadCount = new AtomicInteger();
+
+  private final Map<String, KeyedPool> pools = new LinkedHashMap<>( 16, 0.75f, true );
+
+  private List<String> paths = Collections.emptyList();
+
+  private int size = DEFAULT_SIZE;
+
+  private int maxKeys = DEFAULT_MAX_KEYS;
+
+  private volatile long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+  private final Executor refillExecutor;
+
+  private ScheduledExecutorService sweeper;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  private final AtomicLong claimNanos = new AtomicLong();
+
+  private final AtomicLong coldPrepareCount = new AtomicLong();
+
+  private final AtomicLong coldPrepareNanos = new AtomicLong();
+
+  private PreparedTransPool() {
+    this( createRefillExecutor() );
+  }
+
+  // package-local for test reasons
+  PreparedTransPool( Executor refillExecutor ) {
+    this.refillExecutor = refillExecutor;
+  }
+
+  private static Executor createRefillExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor( REFILL_THREADS, REFILL_THREADS, 60L, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread( runnable, "PreparedTransPool-refill-" + refillThreadCount.incrementAndGet() ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      } );
+    executor.allowCoreThreadTimeOut( true );
+    return executor;
+  }
+
+  public static PreparedTransPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Claims a prepared transformation of the given key, and has the pool prepare its replacement. The first claim of a
+   * key only has the pool prepare transformations for the next claims.
+   *
+   * @param key       the key of the execution
+   * @param transMeta the populated transformation of the execution, which is copied, not changed
+   * @param user      the user the transformations are prepared as, may be <code>null</code>
+   * @return a prepared transformation, not started yet, or <code>null</code> if none is available
+   */
+  public Trans claim( String key, TransMeta transMeta, String user ) {
+    long start = System.nanoTime();
+    KeyedPool pool;
+    Trans trans = null;
+    List<KeyedPool> evicted = new ArrayList<>();
+    List<Trans> expired = new ArrayList<>();
+    synchronized ( pools ) {
+      pool = pools.get( key );
+      if ( pool == null ) {
+        pool = new KeyedPool( key, (TransMeta) transMeta.realClone( false ), user );
+        pools.put( key, pool );
+        evictEldestKeys( evicted );
+      }
+      // the oldest first, its connections may have been closed by the database meanwhile
+      long now = currentTimeMillis();
+      Prepared prepared;
+      while ( trans == null && ( prepared = pool.idle.pollFirst() ) != null ) {
+        if ( isExpired( prepared, now ) ) {
+          expired.add( prepared.trans );
+        } else {
+          trans = prepared.trans;
+        }
+      }
+    }
+    for ( KeyedPool evictedPool : evicted ) {
+      evictedPool.dispose();
+    }
+    for ( Trans expiredTrans : expired ) {
+      dispose( expiredTrans );
+    }
+    startSweeper();
+
+    if ( trans != null ) {
+      hitCount.incrementAndGet();
+      claimNanos.addAndGet( System.nanoTime() - start );
+    } else {
+      missCount.incrementAndGet();
+    }
+    refill( pool );
+    return trans;
+  }
+
+  /**
+   * Records the time a transformation of a pooled key took to prepare when none was available, to compare with the
+   * time of the claims.
+   *
+   * @param nanos the duration of {@code prepareExecution}
+   */
+  public void recordColdPrepare( long nanos ) {
+    coldPrepareCount.incrementAndGet();
+    coldPrepareNanos.addAndGet( nanos );
+  }
+
+  private void refill( KeyedPool pool ) {
+    int missing;
+    synchronized ( pools ) {
+      missing = Math.max( size - pool.idle.size() - pool.preparing, 0 );
+      pool.preparing += missing;
+    }
+    for ( int i = 0; i < missing; i++ ) {
+      refillExecutor.execute( () -> prepare( pool ) );
+    }
+  }
+
+  private void prepare( KeyedPool pool ) {
+    Trans trans = null;
+    try {
+      trans = StringUtils.isEmpty( pool.user ) ? newPreparedTrans( pool.template )
+        : SecurityHelper.getInstance().runAsUser( pool.user, () -> newPreparedTrans( pool.template ) );
+    } catch ( Exception e ) {
+      failureCount.incrementAndGet();
+      log.warn( "Could not prepare " + pool.template.getName() + " ahead of time", e ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    boolean kept = false;
+    synchronized ( pools ) {
+      pool.preparing--;
+      if ( trans != null && pools.get( pool.key ) == pool && pool.idle.size() < size ) {
+        pool.idle.addLast( new Prepared( trans, currentTimeMillis() ) );
+        kept = true;
+      }
+    }
+    if ( trans != null && !kept ) {
+      dispose( trans );
+    }
+  }
+
+  /**
+   * Creates and prepares a transformation from a copy of the template, the same way an execution does
+   */
+  @VisibleForTesting
+  Trans newPreparedTrans( TransMeta template ) throws Exception {
+    TransMeta transMeta = (TransMeta) template.realClone( false );
+    transMeta.setCarteObjectId( UUID.randomUUID().toString() );
+
+    Trans trans = new Trans( transMeta );
+    trans.setArguments( transMeta.getArguments() );
+    trans.shareVariablesWith( transMeta );
+    trans.setLogLevel( transMeta.getLogLevel() );
+    trans.setSafeModeEnabled( transMeta.isSafeModeEnabled() );
+    trans.setGatheringMetrics( transMeta.isGatheringMetrics() );
+    trans.prepareExecution( transMeta.getArguments() );
+    return trans;
+  }
+
+  /**
+   * Releases the resources of a prepared transformation that will never start, as Kettle does when a preparation fails
+   */
+  private static void dispose( Trans trans ) {
+    try {
+      for ( StepMetaDataCombi combi : trans.getSteps() ) {
+        combi.step.setStopped( true );
+        combi.step.setRunning( false );
+        combi.step.dispose( combi.meta, combi.data );
+        combi.step.markStop();
+      }
+      trans.cleanup();
+    } catch ( Exception e ) {
+      log.warn( e.getMessage(), e );
+    }
+  }
+
+  /**
+   * Disposes of the prepared transformations that have been idle for longer than the maximum idle time.
+   */
+  public void evictIdle() {
+    List<Trans> expired = new ArrayList<>();
+    long now = currentTimeMillis();
+    synchronized ( pools ) {
+      for ( KeyedPool pool : pools.values() ) {
+        Iterator<Prepared> iterator = pool.idle.iterator();
+        while ( iterator.hasNext() ) {
+          Prepared prepared = iterator.next();
+          if ( isExpired( prepared, now ) ) {
+            iterator.remove();
+            expired.add( prepared.trans );
+          }
+        }
+      }
+    }
+    for ( Trans trans : expired ) {
+      dispose( trans );
+    }
+  }
+
+  private boolean isExpired( Prepared prepared, long now ) {
+    return maxIdleTime > 0 && now - prepared.time > maxIdleTime;
+  }
+
+  @VisibleForTesting
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private synchronized void startSweeper() {
+    if ( sweeper == null ) {
+      sweeper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "PreparedTransPool-sweeper" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      } );
+      sweeper.scheduleWithFixedDelay( this::evictIdle, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  private void evictEldestKeys( List<KeyedPool> evicted ) {
+    Iterator<KeyedPool> iterator = pools.values().iterator();
+    while ( pools.size() > Math.max( maxKeys, 0 ) && iterator.hasNext() ) {
+      evicted.add( iterator.next() );
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Disposes of all the prepared transformations
+   */
+  public void clear() {
+    List<KeyedPool> evicted;
+    synchronized ( pools ) {
+      evicted = new ArrayList<>( pools.values() );
+      pools.clear();
+    }
+    for ( KeyedPool pool : evicted ) {
+      pool.dispose();
+    }
+  }
+
+  /**
+   * @param path the repository path of a transformation
+   * @return <code>true</code> if the transformation is kept prepared
+   */
+  public boolean isPooled( String path ) {
+    if ( path == null || size <= 0 ) {
+      return false;
+    }
+    for ( String configuredPath : getPaths() ) {
+      boolean folder = configuredPath.endsWith( "/" ); //$NON-NLS-1$
+      if ( folder ? path.startsWith( configuredPath ) : path.equals( configuredPath ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized List<String> getPaths() {
+    return paths;
+  }
+
+  /**
+   * Sets the transformations kept prepared: a path ending with a slash stands for every transformation in that folder
+   * and its sub-folders.
+   *
+   * @param paths the repository paths of the transformations and folders
+   */
+  public synchronized void setPaths( List<String> paths ) {
+    this.paths = paths != null ? paths : Collections.<String>emptyList();
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Sets the number of prepared transformations kept per key. A value of zero or less disables the pool.
+   *
+   * @param size the number of transformations
+   */
+  public void setSize( int size ) {
+    this.size = size;
+  }
+
+  public int getMaxKeys() {
+    return maxKeys;
+  }
+
+  public void setMaxKeys( int maxKeys ) {
+    List<KeyedPool> evicted = new ArrayList<>();
+    synchronized ( pools ) {
+      this.maxKeys = maxKeys;
+      evictEldestKeys( evicted );
+    }
+    for ( KeyedPool pool : evicted ) {
+      pool.dispose();
+    }
+  }
+
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  /**
+   * Sets how long a prepared transformation is kept unclaimed before it is disposed of. A value of zero or less keeps
+   * it until its key is evicted.
+   *
+   * @param maxIdleTime the maximum idle time, in milliseconds
+   */
+  public void setMaxIdleTime( long maxIdleTime ) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * @return the average time, in microseconds, of the claims that got a prepared transformation
+   */
+  public long getAverageClaimMicros() {
+    long hits = hitCount.get();
+    return hits == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros( claimNanos.get() / hits );
+  }
+
+  /**
+   * @return the average time, in microseconds, the transformations of the pooled keys took to prepare when none was
+   * available
+   */
+  public long getAverageColdPrepareMicros() {
+    long count = coldPrepareCount.get();
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros( coldPrepareNanos.get() / count );
+  }
+
+  private class KeyedPool {
+    private final String key;
+    private final TransMeta template;
+    private final String user;
+    // the oldest first
+    private final Deque<Prepared> idle = new ArrayDeque<>();
+    private int preparing;
+
+    KeyedPool( String key, TransMeta template, String user ) {
+      this.key = key;
+      this.template = template;
+      this.user = user;
+    }
+
+    void dispose() {
+      List<Prepared> preparedList;
+      synchronized ( pools ) {
+        preparedList = new ArrayList<>( idle );
+        idle.clear();
+      }
+      for ( Prepared prepared : preparedList ) {
+        PreparedTransPool.dispose( prepared.trans );
+      }
+    }
+  }
+
+  /**
+   * A prepared transformation and when it was prepared
+   */
+  private static class Prepared {
+    private final Trans trans;
+    private final long time;
+
+    Prepared( Trans trans, long time ) {
+      this.trans = trans;
+      this.time = time;
+    }
+  }
+}
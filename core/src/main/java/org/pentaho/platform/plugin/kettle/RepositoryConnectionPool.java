@@ -0,0 +1,454 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.platform.plugin.kettle.messages.Messages;
+
+/**
+ * Server-wide pool of PDI repository connections, keyed by repository name and session user.
+ * <p>
+ * Connections are validated when borrowed, returned to the pool instead of being disconnected and disconnected
+ * once they have been idle for too long. Each key holds at most {@link #getMaxSize()} connections; when all of them
+ * are in use, borrowers wait up to {@link #getBorrowTimeout()} for one to be released, and then open a connection of
+ * their own, which is disconnected when it is released, as if there was no pool.
+ * <p>
+ * {@link Repository#isConnected()} does not tell whether the session is still alive on the server, so a connection
+ * that failed to load a file is {@link #discard(Repository) discarded} rather than handed to the next execution.
+ */
+public class RepositoryConnectionPool {
+
+  public static final int DEFAULT_MAX_SIZE = 8;
+
+  public static final long DEFAULT_MAX_IDLE_TIME = TimeUnit.MINUTES.toMillis( 5 );
+
+  public static final long DEFAULT_BORROW_TIMEOUT = 0;
+
+  private static final Log log = LogFactory.getLog( RepositoryConnectionPool.class );
+
+  private static final RepositoryConnectionPool instance = new RepositoryConnectionPool();
+
+  /**
+   * Opens a new connection to the repository
+   */
+  public interface RepositoryConnector {
+    Repository connect() throws KettleException;
+  }
+
+  private final ConcurrentMap<String, KeyedPool> pools = new ConcurrentHashMap<>();
+
+  private final Map<Repository, KeyedPool> borrowed = new IdentityHashMap<>();
+
+  private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+  private volatile long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+  private volatile long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+
+  private ScheduledExecutorService evictor;
+
+  private final AtomicLong borrowCount = new AtomicLong();
+
+  private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+  private final AtomicLong createdCount = new AtomicLong();
+
+  private final AtomicLong destroyedCount = new AtomicLong();
+
+  private final AtomicLong overflowCount = new AtomicLong();
+
+  // package-local for test reasons
+  RepositoryConnectionPool() {
+  }
+
+  public static RepositoryConnectionPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Borrows a connection for the given repository and user, opening a new one with the given connector if none is
+   * idle. If the pool stays full, the new connection is not pooled. The connection must be given back with
+   * {@link #release(Repository)}.
+   *
+   * @param repositoryName the repository name
+   * @param userName       the session user
+   * @param connector      opens a new connection
+   * @return a connected repository, or <code>null</code> if the connector did not provide one
+   * @throws KettleException if the connection could not be opened
+   */
+  public Repository borrow( String repositoryName, String userName, RepositoryConnector connector )
+    throws KettleException {
+    if ( !isEnabled() ) {
+      return connector.connect();
+    }
+
+    KeyedPool pool = pools.computeIfAbsent( repositoryName + "/" + userName, KeyedPool::new );
+    long start = System.nanoTime();
+
+    IdleConnection taken = pool.take( start, borrowTimeout );
+    recordBorrowWait( System.nanoTime() - start );
+
+    if ( taken == null ) {
+      // still full, rather than failing the execution, connect as if there was no pool
+      overflowCount.incrementAndGet();
+      return connector.connect();
+    }
+    return borrowed( pool, taken, connector );
+  }
+
+  /**
+   * Borrows a connection for the given repository and user only if one is idle or the pool is not full, without
+   * waiting and without opening a connection outside of the pool. The connection must be given back with
+   * {@link #release(Repository)}.
+   *
+   * @param repositoryName the repository name
+   * @param userName       the session user
+   * @param connector      opens a new connection
+   * @return a connected repository, or <code>null</code> if none is available
+   * @throws KettleException if the connection could not be opened
+   */
+  public Repository borrowIfAvailable( String repositoryName, String userName, RepositoryConnector connector )
+    throws KettleException {
+    if ( !isEnabled() ) {
+      return null;
+    }
+
+    KeyedPool pool = pools.computeIfAbsent( repositoryName + "/" + userName, KeyedPool::new );
+    IdleConnection taken = pool.take( System.nanoTime(), 0 );
+    return taken != null ? borrowed( pool, taken, connector ) : null;
+  }
+
+  private Repository borrowed( KeyedPool pool, IdleConnection taken, RepositoryConnector connector )
+    throws KettleException {
+    Repository repository = taken.repository;
+    if ( taken == RESERVED ) {
+      // a slot was reserved for a new connection
+      try {
+        repository = connector.connect();
+      } finally {
+        if ( repository == null ) {
+          pool.free();
+        }
+      }
+      if ( repository == null ) {
+        return null;
+      }
+      createdCount.incrementAndGet();
+      startEvictor();
+    }
+
+    synchronized ( borrowed ) {
+      borrowed.put( repository, pool );
+    }
+    return repository;
+  }
+
+  /**
+   * Gives a borrowed connection back to the pool. Connections that were not borrowed from this pool are disconnected.
+   *
+   * @param repository the connection
+   */
+  public void release( Repository repository ) {
+    if ( repository == null ) {
+      return;
+    }
+
+    KeyedPool pool;
+    synchronized ( borrowed ) {
+      pool = borrowed.remove( repository );
+    }
+
+    if ( pool == null || !isEnabled() || !isValid( repository ) ) {
+      if ( pool != null ) {
+        pool.free();
+      }
+      destroy( repository );
+    } else {
+      pool.giveBack( repository );
+    }
+  }
+
+  /**
+   * Disconnects a borrowed connection when it is released instead of giving it back to the pool, and frees its slot
+   * right away. Used when the connection failed, as its session may be gone.
+   *
+   * @param repository the connection
+   */
+  public void discard( Repository repository ) {
+    if ( repository == null ) {
+      return;
+    }
+
+    KeyedPool pool;
+    synchronized ( borrowed ) {
+      pool = borrowed.remove( repository );
+    }
+    if ( pool != null ) {
+      pool.free();
+    }
+  }
+
+  /**
+   * Disconnects the connections that have been idle for longer than {@link #getMaxIdleTime()}.
+   */
+  public void evictIdleConnections() {
+    for ( KeyedPool pool : pools.values() ) {
+      for ( Repository repository : pool.takeIdle( System.currentTimeMillis() - maxIdleTime ) ) {
+        destroy( repository );
+      }
+    }
+  }
+
+  /**
+   * Disconnects all the idle connections. Borrowed connections are disconnected when they are released.
+   */
+  public void clear() {
+    for ( KeyedPool pool : pools.values() ) {
+      for ( Repository repository : pool.takeIdle( Long.MAX_VALUE ) ) {
+        destroy( repository );
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Sets the maximum number of connections per repository and user. A value of zero or less disables the pool.
+   *
+   * @param maxSize the maximum number of connections
+   */
+  public void setMaxSize( int maxSize ) {
+    this.maxSize = maxSize;
+  }
+
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  public void setMaxIdleTime( long maxIdleTime ) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  public long getBorrowTimeout() {
+    return borrowTimeout;
+  }
+
+  public void setBorrowTimeout( long borrowTimeout ) {
+    this.borrowTimeout = borrowTimeout;
+  }
+
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  /**
+   * @return the average time spent waiting for a connection, in milliseconds
+   */
+  public double getAverageBorrowWaitTime() {
+    long count = borrowCount.get();
+    return count == 0 ? 0 : borrowWaitNanos.get() / (double) count / TimeUnit.MILLISECONDS.toNanos( 1 );
+  }
+
+  /**
+   * @return the longest time spent waiting for a connection, in milliseconds
+   */
+  public long getMaxBorrowWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis( maxBorrowWaitNanos.get() );
+  }
+
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  public long getDestroyedCount() {
+    return destroyedCount.get();
+  }
+
+  /**
+   * @return the number of connections opened outside of the pool because it was full
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
+  }
+
+  private void recordBorrowWait( long waitNanos ) {
+    borrowCount.incrementAndGet();
+    borrowWaitNanos.addAndGet( waitNanos );
+    maxBorrowWaitNanos.accumulateAndGet( waitNanos, Math::max );
+  }
+
+  private boolean isValid( Repository repository ) {
+    try {
+      return repository.isConnected();
+    } catch ( RuntimeException e ) {
+      return false;
+    }
+  }
+
+  private void destroy( Repository repository ) {
+    destroyedCount.incrementAndGet();
+    try {
+      repository.disconnect();
+    } catch ( RuntimeException e ) {
+      log.warn( Messages.getInstance().getErrorString( "RepositoryConnectionPool.ERROR_0002_DISCONNECT_FAILED" ), e );
+    }
+  }
+
+  private synchronized void startEvictor() {
+    if ( evictor == null ) {
+      evictor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "RepositoryConnectionPool-evictor" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      } );
+      long period = Math.max( maxIdleTime / 2, TimeUnit.SECONDS.toMillis( 1 ) );
+      evictor.scheduleWithFixedDelay( this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  private class KeyedPool {
+    private final String key;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private int size;
+
+    KeyedPool( String key ) {
+      this.key = key;
+    }
+
+    /**
+     * Returns a valid idle connection, or {@link #RESERVED} after reserving a slot for a new one, or <code>null</code>
+     * if the pool stayed full for the given timeout
+     */
+    IdleConnection take( long start, long timeout ) throws KettleException {
+      List<Repository> invalid = new ArrayList<>();
+      lock.lock();
+      try {
+        while ( true ) {
+          // most recently used first, the oldest ones are left to expire
+          IdleConnection connection;
+          while ( ( connection = idle.pollFirst() ) != null ) {
+            if ( isValid( connection.repository ) ) {
+              return connection;
+            }
+            size--;
+            invalid.add( connection.repository );
+          }
+
+          if ( size < maxSize ) {
+            size++;
+            return RESERVED;
+          }
+
+          long remaining = timeout - TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+          if ( remaining <= 0 || !released.await( remaining, TimeUnit.MILLISECONDS ) ) {
+            if ( log.isDebugEnabled() ) {
+              log.debug( "No connection to " + key + " was released within " + timeout + " ms" ); //$NON-NLS-1$
+            }
+            return null;
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new KettleException( e );
+      } finally {
+        lock.unlock();
+        invalid.forEach( RepositoryConnectionPool.this::destroy );
+      }
+    }
+
+    void giveBack( Repository repository ) {
+      lock.lock();
+      try {
+        idle.addFirst( new IdleConnection( repository, System.currentTimeMillis() ) );
+        released.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void free() {
+      lock.lock();
+      try {
+        size--;
+        released.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    List<Repository> takeIdle( long idleSince ) {
+      List<Repository> expired = new ArrayList<>();
+      lock.lock();
+      try {
+        Iterator<IdleConnection> iterator = idle.descendingIterator();
+        while ( iterator.hasNext() ) {
+          IdleConnection connection = iterator.next();
+          if ( connection.idleSince <= idleSince ) {
+            iterator.remove();
+            size--;
+            expired.add( connection.repository );
+          }
+        }
+        if ( !expired.isEmpty() ) {
+          released.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+      return expired;
+    }
+  }
+
+  // no idle connection, a slot was reserved for a new one
+  private static final IdleConnection RESERVED = new IdleConnection( null, 0 );
+
+  private static class IdleConnection {
+    private final Repository repository;
+    private final long idleSince;
+
+    IdleConnection( Repository repository, long idleSince ) {
+      this.repository = repository;
+      this.idleSince = idleSince;
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.repository.IUser;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+
+/**
+ * Server-wide index of the repository directories resolved by {@link EngineMetaLoader}, shared by the executions of
+ * the same user on the same repository: the directories are loaded with the permissions of that user.
+ * <p>
+ * Paths are resolved lazily: a lookup starts from the deepest ancestor that is already indexed and only walks the
+ * missing segments, indexing each of them on the way. The repository directory tree itself is only loaded when no
+ * ancestor is known. Invalidating a folder only drops that folder and its descendants, and the folder is looked up
+ * again on its own in the repository the next time it is resolved; the rest of the index is kept.
+ * <p>
+ * The plugin is not told when folders change outside of its own executions, so the indexed directories also expire
+ * after a while. An expired folder is resolved again from its deepest ancestor that is still fresh, and the directory
+ * tree is loaded again once it has expired as well.
+ */
+public class RepositoryDirectoryIndex {
+
+  /**
+   * Minimum time between two lookups in the repository of a path that cannot be resolved from the index
+   */
+  public static final long DEFAULT_REFRESH_INTERVAL = 10000L;
+
+  /**
+   * Time after which an indexed directory is resolved again in the repository
+   */
+  public static final long DEFAULT_TIME_TO_LIVE = 300000L;
+
+  private static final String SEPARATOR = "/"; //$NON-NLS-1$
+
+  private static final Log log = LogFactory.getLog( RepositoryDirectoryIndex.class );
+
+  private static final RepositoryDirectoryIndex instance = new RepositoryDirectoryIndex();
+
+  private final ConcurrentMap<String, RepositoryIndex> indexes = new ConcurrentHashMap<>();
+
+  private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+  private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+  // package-local for test reasons
+  RepositoryDirectoryIndex() {
+  }
+
+  public static RepositoryDirectoryIndex getInstance() {
+    return instance;
+  }
+
+  /**
+   * Finds the directory with the given path in the given repository.
+   *
+   * @param repository the repository
+   * @param path       the directory path
+   * @return the directory, or <code>null</code> if it does not exist
+   * @throws KettleException if the repository directory tree could not be loaded
+   */
+  public RepositoryDirectoryInterface findDirectory( Repository repository, String path ) throws KettleException {
+    String normalizedPath = normalize( path );
+    RepositoryIndex index = getIndex( repository );
+
+    IndexedDirectory indexed = getIndexed( index, normalizedPath );
+    if ( indexed != null ) {
+      return indexed.directory;
+    }
+
+    RepositoryDirectoryInterface directory;
+    try {
+      directory = resolve( repository, index, normalizedPath );
+      long now = System.currentTimeMillis();
+      if ( directory == null && now - index.refreshedAt > refreshInterval ) {
+        // the folder may have been created after its parent was indexed
+        index.refreshedAt = now;
+        indexed = refresh( repository, index, normalizedPath );
+        directory = indexed == null ? null : indexed.directory;
+      }
+    } catch ( RuntimeException e ) {
+      // the indexed directories of that branch may be bound to a connection that is no longer usable
+      if ( log.isDebugEnabled() ) {
+        log.debug( "Failed to resolve " + normalizedPath + " from the index, looking it up again", e );
+      }
+      invalidate( index, normalizedPath );
+      directory = resolve( repository, index, normalizedPath );
+    }
+
+    return directory;
+  }
+
+  /**
+   * Drops the given folder and its descendants from the index of the given repository, so that the folder is looked
+   * up again in the repository on the next lookup. The parent folder is dropped as well, as its children have changed.
+   *
+   * @param repository the repository
+   * @param path       the path of the folder that was created, renamed, moved or deleted
+   */
+  public void invalidate( Repository repository, String path ) {
+    RepositoryIndex index = repository == null ? null : indexes.get( getKey( repository ) );
+    if ( index != null ) {
+      invalidate( index, normalize( path ) );
+    }
+  }
+
+  private void invalidate( RepositoryIndex index, String normalizedPath ) {
+    if ( SEPARATOR.equals( normalizedPath ) ) {
+      index.reset();
+      return;
+    }
+
+    String descendantsPrefix = normalizedPath + SEPARATOR;
+    index.directories.keySet().removeIf( key -> key.equals( normalizedPath ) || key.startsWith( descendantsPrefix ) );
+    index.directories.remove( getParentPath( normalizedPath ) );
+    // the indexed ancestors still hold the old folder, it must not be reached through them
+    index.stalePaths.add( normalizedPath );
+  }
+
+  public void clear() {
+    indexes.clear();
+  }
+
+  public void setRefreshInterval( long refreshInterval ) {
+    this.refreshInterval = refreshInterval;
+  }
+
+  public long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * Sets for how long, in milliseconds, an indexed directory is used before it is resolved again in the repository.
+   *
+   * @param timeToLive the time to live of the indexed directories, in milliseconds
+   */
+  public void setTimeToLive( long timeToLive ) {
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * Returns the number of indexed directories for the given repository.
+   */
+  public int size( Repository repository ) {
+    RepositoryIndex index = indexes.get( getKey( repository ) );
+    return index == null ? 0 : index.directories.size();
+  }
+
+  private RepositoryDirectoryInterface resolve( Repository repository, RepositoryIndex index, String path )
+    throws KettleException {
+
+    // a folder that was invalidated is looked up on its own, never through its stale ancestors
+    String stalePath = index.getStaleAncestor( path );
+    String topPath = stalePath != null ? stalePath : SEPARATOR;
+
+    // find the deepest indexed ancestor below the stale folder, if any
+    String ancestorPath = path;
+    IndexedDirectory ancestor = null;
+    while ( ancestor == null && !topPath.equals( ancestorPath ) ) {
+      ancestorPath = getParentPath( ancestorPath );
+      ancestor = getIndexed( index, ancestorPath );
+    }
+
+    if ( ancestor == null ) {
+      ancestor = stalePath != null ? refresh( repository, index, stalePath ) : index.getRoot( repository, timeToLive );
+      if ( ancestor == null || topPath.equals( path ) ) {
+        return ancestor == null ? null : ancestor.directory;
+      }
+    }
+
+    // walk only the segments that are not indexed yet, they are as old as the ancestor they are found in
+    RepositoryDirectoryInterface directory = ancestor.directory;
+    String currentPath = SEPARATOR.equals( ancestorPath ) ? "" : ancestorPath;
+    for ( String segment : path.substring( currentPath.length() + 1 ).split( SEPARATOR ) ) {
+      directory = directory.findChild( segment );
+      if ( directory == null ) {
+        return null;
+      }
+      currentPath = currentPath + SEPARATOR + segment;
+      index.directories.put( currentPath, new IndexedDirectory( directory, ancestor.indexedAt ) );
+    }
+
+    return directory;
+  }
+
+  /**
+   * Looks a single folder up in the repository, without loading the directory tree
+   */
+  private static IndexedDirectory refresh( Repository repository, RepositoryIndex index, String path )
+    throws KettleException {
+    RepositoryDirectoryInterface directory = repository.findDirectory( path );
+    if ( directory == null ) {
+      return null;
+    }
+    IndexedDirectory indexed = new IndexedDirectory( directory, System.currentTimeMillis() );
+    index.directories.put( path, indexed );
+    index.stalePaths.remove( path );
+    return indexed;
+  }
+
+  /**
+   * Returns the indexed directory with the given path, dropping it if it has expired
+   */
+  private IndexedDirectory getIndexed( RepositoryIndex index, String path ) {
+    IndexedDirectory indexed = index.directories.get( path );
+    if ( indexed == null ) {
+      return null;
+    }
+    if ( System.currentTimeMillis() - indexed.indexedAt > timeToLive ) {
+      index.directories.remove( path, indexed );
+      return null;
+    }
+    return indexed;
+  }
+
+  private RepositoryIndex getIndex( Repository repository ) {
+    return indexes.computeIfAbsent( getKey( repository ), key -> new RepositoryIndex() );
+  }
+
+  /**
+   * The directories are loaded with the permissions of the user of the connection, so each user has an index
+   */
+  private static String getKey( Repository repository ) {
+    String name = repository.getName() == null ? "" : repository.getName();
+    IUser user = repository.getUserInfo();
+    return user == null || user.getLogin() == null ? name : name + "|" + user.getLogin(); //$NON-NLS-1$
+  }
+
+  // package-local for test reasons
+  static String normalize( String path ) {
+    if ( path == null ) {
+      return SEPARATOR;
+    }
+
+    StringBuilder normalized = new StringBuilder();
+    for ( String segment : path.replace( '\\', '/' ).split( SEPARATOR ) ) {
+      if ( !segment.isEmpty() ) {
+        normalized.append( SEPARATOR ).append( segment );
+      }
+    }
+
+    return normalized.length() == 0 ? SEPARATOR : normalized.toString();
+  }
+
+  private static String getParentPath( String path ) {
+    int lastSeparator = path.lastIndexOf( SEPARATOR );
+    return lastSeparator <= 0 ? SEPARATOR : path.substring( 0, lastSeparator );
+  }
+
+  private static class RepositoryIndex {
+    private final ConcurrentMap<String, IndexedDirectory> directories = new ConcurrentHashMap<>();
+    private final Set<String> stalePaths = ConcurrentHashMap.newKeySet();
+    private volatile IndexedDirectory root;
+    private volatile long refreshedAt;
+
+    private synchronized IndexedDirectory getRoot( Repository repository, long timeToLive ) throws KettleException {
+      long now = System.currentTimeMillis();
+      if ( root == null || now - root.indexedAt > timeToLive ) {
+        RepositoryDirectoryInterface tree = repository.loadRepositoryDirectoryTree();
+        root = tree == null ? null : new IndexedDirectory( tree, now );
+        refreshedAt = now;
+      }
+      return root;
+    }
+
+    /**
+     * Returns the highest invalidated folder holding the given path, or <code>null</code>
+     */
+    private String getStaleAncestor( String path ) {
+      String staleAncestor = null;
+      for ( String stalePath : stalePaths ) {
+        if ( ( path.equals( stalePath ) || path.startsWith( stalePath + SEPARATOR ) )
+          && ( staleAncestor == null || stalePath.length() < staleAncestor.length() ) ) {
+          staleAncestor = stalePath;
+        }
+      }
+      return staleAncestor;
+    }
+
+    private synchronized void reset() {
+      directories.clear();
+      stalePaths.clear();
+      root = null;
+    }
+  }
+
+  private static class IndexedDirectory {
+    private final RepositoryDirectoryInterface directory;
+    private final long indexedAt;
+
+    IndexedDirectory( RepositoryDirectoryInterface directory, long indexedAt ) {
+      this.directory = directory;
+      this.indexedAt = indexedAt;
+    }
+  }
+}
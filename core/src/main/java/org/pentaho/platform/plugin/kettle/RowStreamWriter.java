@@ -0,0 +1,451 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBase;
+
+/**
+ * Writes the rows of a step to an output stream while the transformation runs, instead of keeping them in memory
+ * until it is finished.
+ * <p>
+ * The step thread serializes each row and hands it over through a queue of {@link #DEFAULT_CAPACITY} rows to a thread
+ * of its own, which writes it and flushes the stream whenever it has caught up with the step, so the first rows reach
+ * the client right away. The step waits while the queue is full: a slow client slows the transformation down, and the
+ * memory used stays the same however many rows are written. If the stream fails, the client is gone, and the step
+ * fails on its next row.
+ * <p>
+ * If the transformation fails after rows were sent, the stream ends with an error record, so that the client does not
+ * take the rows it got for all of them: a JSON object whose only member is {@link #ERROR_FIELD}, or a CSV record whose
+ * only field starts with {@link #ERROR_MARKER}.
+ */
+public class RowStreamWriter {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The name of the member of the JSON error record
+   */
+  public static final String ERROR_FIELD = "$error"; //$NON-NLS-1$
+
+  /**
+   * The beginning of the field of the CSV error record
+   */
+  public static final String ERROR_MARKER = "#ERROR"; //$NON-NLS-1$
+
+  private static final byte[] END = new byte[ 0 ];
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  /**
+   * The serializations of the rows
+   */
+  public enum Format {
+    /**
+     * Comma separated values, with a header line, as described by RFC 4180
+     */
+    CSV( "text/csv" ), //$NON-NLS-1$
+
+    /**
+     * One JSON object per line, named after the fields
+     */
+    JSONL( "application/x-ndjson" ); //$NON-NLS-1$
+
+    private final String mimeType;
+
+    Format( String mimeType ) {
+      this.mimeType = mimeType;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    /**
+     * @param name the name of the format, case insensitive; ndjson is accepted for JSON Lines
+     * @return the format, or <code>null</code> if there is none of that name
+     */
+    public static Format fromName( String name ) {
+      if ( name == null ) {
+        return null;
+      }
+      String trimmed = name.trim();
+      if ( "ndjson".equalsIgnoreCase( trimmed ) ) { //$NON-NLS-1$
+        return JSONL;
+      }
+      for ( Format format : values() ) {
+        if ( format.name().equalsIgnoreCase( trimmed ) ) {
+          return format;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final OutputStream out;
+
+  private final Format format;
+
+  private final BlockingQueue<byte[]> queue;
+
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat( ValueMetaBase.DEFAULT_DATE_FORMAT_MASK );
+
+  private String[] fieldNames;
+
+  private byte[] header;
+
+  private Thread writer;
+
+  private volatile IOException failure;
+
+  // written last, once the queue is drained
+  private volatile byte[] errorRecord;
+
+  private volatile int rowCount;
+
+  private int writtenRowCount;
+
+  /**
+   * @param out      the stream to write to
+   * @param format   the serialization of the rows
+   * @param capacity the number of rows waiting to be written above which the step waits
+   */
+  public RowStreamWriter( OutputStream out, Format format, int capacity ) {
+    this.out = new BufferedOutputStream( out );
+    this.format = format;
+    this.queue = new ArrayBlockingQueue<>( capacity );
+  }
+
+  /**
+   * Starts writing, with the header line of the format.
+   *
+   * @param fieldNames the names of the fields of the rows
+   */
+  public synchronized void start( String[] fieldNames ) {
+    if ( writer != null ) {
+      return;
+    }
+    this.fieldNames = fieldNames;
+    if ( format == Format.CSV ) {
+      StringBuilder header = new StringBuilder();
+      for ( int field = 0; field < fieldNames.length; field++ ) {
+        if ( field > 0 ) {
+          header.append( ',' );
+        }
+        appendCsv( header, fieldNames[ field ] );
+      }
+      this.header = header.append( "\r\n" ).toString().getBytes( StandardCharsets.UTF_8 ); //$NON-NLS-1$
+    }
+    writer = new Thread( this::run, "RowStreamWriter-" + threadCount.incrementAndGet() ); //$NON-NLS-1$
+    writer.setDaemon( true );
+    writer.start();
+  }
+
+  /**
+   * Queues a row written by the step, waiting while the queue is full.
+   *
+   * @param rowMeta the metadata of the row
+   * @param row     the row
+   * @throws KettleStepException if the row cannot be converted, or the stream failed
+   */
+  public void write( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    byte[] line;
+    try {
+      line = serialize( rowMeta, row );
+    } catch ( KettleValueException e ) {
+      throw new KettleStepException( e );
+    }
+    try {
+      while ( !queue.offer( line, 100, TimeUnit.MILLISECONDS ) ) {
+        checkFailure();
+      }
+      checkFailure();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleStepException( e );
+    }
+    rowCount++;
+  }
+
+  private void checkFailure() throws KettleStepException {
+    if ( failure != null ) {
+      throw new KettleStepException( failure );
+    }
+  }
+
+  /**
+   * Waits for the queued rows to be written, and then ends the stream with an error record telling the client that the
+   * rows it got are incomplete. Nothing is written if the stream was not started.
+   *
+   * @param message the error
+   * @throws IOException if the stream failed
+   */
+  public void fail( String message ) throws IOException {
+    synchronized ( this ) {
+      if ( writer == null ) {
+        return;
+      }
+    }
+    StringBuilder record = new StringBuilder();
+    if ( format == Format.JSONL ) {
+      record.append( '{' );
+      appendJson( record, ERROR_FIELD );
+      record.append( ':' );
+      appendJson( record, message != null ? message : "" ); //$NON-NLS-1$
+      record.append( "}\n" ); //$NON-NLS-1$
+    } else {
+      appendCsv( record, message != null ? ERROR_MARKER + " " + message : ERROR_MARKER ); //$NON-NLS-1$
+      record.append( "\r\n" ); //$NON-NLS-1$
+    }
+    errorRecord = record.toString().getBytes( StandardCharsets.UTF_8 );
+    finish();
+  }
+
+  /**
+   * Waits for the queued rows to be written.
+   *
+   * @throws IOException if the stream failed
+   */
+  public void finish() throws IOException {
+    Thread thread;
+    synchronized ( this ) {
+      thread = writer;
+    }
+    if ( thread == null ) {
+      return;
+    }
+    try {
+      while ( thread.isAlive() && !queue.offer( END, 100, TimeUnit.MILLISECONDS ) ) {
+        // the writer is still catching up
+      }
+      thread.join();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    if ( failure != null ) {
+      throw failure;
+    }
+  }
+
+  private void run() {
+    try {
+      if ( header != null ) {
+        out.write( header );
+      }
+      int unflushed = 0;
+      byte[] line = queue.poll();
+      while ( line != END ) {
+        if ( line == null ) {
+          // caught up with the step, send what was written so far
+          out.flush();
+          unflushed = addWritten( unflushed );
+          line = queue.take();
+          continue;
+        }
+        out.write( line );
+        unflushed++;
+        line = queue.poll();
+      }
+      byte[] record = errorRecord;
+      if ( record != null ) {
+        out.write( record );
+      }
+      out.flush();
+      addWritten( unflushed );
+    } catch ( IOException e ) {
+      failure = e;
+      // unblock the step, it fails on its next row
+      queue.clear();
+    } catch ( InterruptedException e ) {
+      failure = new InterruptedIOException();
+      queue.clear();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Counts the rows that reached the client
+   *
+   * @return zero, the rows left to count
+   */
+  private synchronized int addWritten( int rows ) {
+    writtenRowCount += rows;
+    notifyAll();
+    return 0;
+  }
+
+  private byte[] serialize( RowMetaInterface rowMeta, Object[] row ) throws KettleValueException {
+    StringBuilder line = new StringBuilder();
+    if ( format == Format.JSONL ) {
+      line.append( '{' );
+    }
+    for ( int field = 0; field < fieldNames.length; field++ ) {
+      if ( field > 0 ) {
+        line.append( ',' );
+      }
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( field );
+      Object value = getValue( rowMeta, valueMeta, row, field );
+      if ( format == Format.JSONL ) {
+        appendJson( line, fieldNames[ field ] );
+        line.append( ':' );
+        if ( value == null ) {
+          line.append( "null" ); //$NON-NLS-1$
+        } else if ( value instanceof Boolean || value instanceof Long || value instanceof BigDecimal
+          || value instanceof Double && !( (Double) value ).isNaN() && !( (Double) value ).isInfinite() ) {
+          line.append( toString( value ) );
+        } else {
+          appendJson( line, toString( value ) );
+        }
+      } else if ( value != null ) {
+        appendCsv( line, toString( value ) );
+      }
+    }
+    line.append( format == Format.JSONL ? "}\n" : "\r\n" ); //$NON-NLS-1$ //$NON-NLS-2$
+    return line.toString().getBytes( StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Returns the value of a field with the same type as the rows captured by {@link PdiAction}
+   */
+  private static Object getValue( RowMetaInterface rowMeta, ValueMetaInterface valueMeta, Object[] row, int field )
+    throws KettleValueException {
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_BIGNUMBER:
+        return rowMeta.getBigNumber( row, field );
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return rowMeta.getBoolean( row, field );
+      case ValueMetaInterface.TYPE_DATE:
+        return rowMeta.getDate( row, field );
+      case ValueMetaInterface.TYPE_INTEGER:
+        return rowMeta.getInteger( row, field );
+      case ValueMetaInterface.TYPE_NUMBER:
+        return rowMeta.getNumber( row, field );
+      default:
+        return rowMeta.getString( row, field );
+    }
+  }
+
+  private String toString( Object value ) {
+    if ( value instanceof Date ) {
+      return dateFormat.format( (Date) value );
+    }
+    if ( value instanceof BigDecimal ) {
+      return ( (BigDecimal) value ).toPlainString();
+    }
+    return value.toString();
+  }
+
+  private static void appendCsv( StringBuilder line, String value ) {
+    boolean quoted = false;
+    for ( int i = 0; i < value.length() && !quoted; i++ ) {
+      char c = value.charAt( i );
+      quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+    }
+    if ( !quoted ) {
+      line.append( value );
+      return;
+    }
+    line.append( '"' );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      if ( c == '"' ) {
+        line.append( '"' );
+      }
+      line.append( c );
+    }
+    line.append( '"' );
+  }
+
+  private static void appendJson( StringBuilder line, String value ) {
+    line.append( '"' );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      switch ( c ) {
+        case '"':
+          line.append( "\\\"" ); //$NON-NLS-1$
+          break;
+        case '\\':
+          line.append( "\\\\" ); //$NON-NLS-1$
+          break;
+        case '\n':
+          line.append( "\\n" ); //$NON-NLS-1$
+          break;
+        case '\r':
+          line.append( "\\r" ); //$NON-NLS-1$
+          break;
+        case '\t':
+          line.append( "\\t" ); //$NON-NLS-1$
+          break;
+        default:
+          if ( c < 0x20 ) {
+            line.append( String.format( "\\u%04x", (int) c ) ); //$NON-NLS-1$
+          } else {
+            line.append( c );
+          }
+      }
+    }
+    line.append( '"' );
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * @return the number of rows queued so far
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the number of rows written to the stream so far
+   */
+  public synchronized int getWrittenRowCount() {
+    return writtenRowCount;
+  }
+
+  /**
+   * Waits for the rows queued so far to be written, without ending the stream.
+   *
+   * @return the number of rows written to the stream, less than the queued ones if it failed
+   */
+  public synchronized int awaitWrittenRowCount() {
+    try {
+      while ( writtenRowCount < rowCount && failure == null && writer != null && writer.isAlive() ) {
+        wait( 100 );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    return writtenRowCount;
+  }
+}
@@ -0,0 +1,537 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Result set holding the first rows captured from a step in a {@link ColumnarResultSet}, and the rows beyond a
+ * threshold in temporary files on the disk, so that a step writing more rows than fit in the heap does not bring the
+ * server down. The result set reads the rows from memory or from the disk transparently, one at a time: as a
+ * {@link MemoryResultSet}, it is handed as is to the callers expecting one, without reading the spilled rows back into
+ * the heap. Rows cannot be added to it as boxed values.
+ * <p>
+ * The spilled rows are written one after the other to segments of {@link #DEFAULT_SEGMENT_SIZE} bytes, each a
+ * memory-mapped file: a bitmap of the nulls, then the values, eight bytes for integers, numbers and dates, one for
+ * booleans and the UTF-8 bytes prefixed by their length for the others. The offset of one row in
+ * {@link #INDEX_INTERVAL} is kept in the heap, so a row is found by decoding at most as many rows from the closest one;
+ * the rows read one after the other are not decoded twice.
+ * <p>
+ * The files are deleted once this result set and all its copies are disposed, or no longer referenced.
+ */
+public class SpillingResultSet extends MemoryResultSet {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  static final int INDEX_INTERVAL = 64;
+
+  private static final Log log = LogFactory.getLog( SpillingResultSet.class );
+
+  private static final Cleaner cleaner = Cleaner.create();
+
+  private final int memoryThreshold;
+
+  private final File directory;
+
+  private final int segmentSize;
+
+  private ColumnarResultSet memory;
+
+  private Spill spill;
+
+  private Cleaner.Cleanable cleanable;
+
+  private int rowCount;
+
+  private int rowIterator;
+
+  // the position of the row decoded next, to read the rows one after the other
+  private Segment readSegment;
+
+  private ByteBuffer readBuffer;
+
+  private int readRow = -1;
+
+  /**
+   * @param metaData        the names of the columns
+   * @param memoryThreshold the number of rows kept in memory
+   * @param directory       the directory of the temporary files
+   */
+  public SpillingResultSet( IPentahoMetaData metaData, int memoryThreshold, File directory ) {
+    this( metaData, memoryThreshold, directory, DEFAULT_SEGMENT_SIZE );
+  }
+
+  // package-local for test reasons
+  SpillingResultSet( IPentahoMetaData metaData, int memoryThreshold, File directory, int segmentSize ) {
+    super( metaData );
+    this.memoryThreshold = memoryThreshold;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.memory = new ColumnarResultSet( metaData );
+  }
+
+  private SpillingResultSet( SpillingResultSet rows ) {
+    super( rows.getMetaData() );
+    this.memoryThreshold = rows.memoryThreshold;
+    this.directory = rows.directory;
+    this.segmentSize = rows.segmentSize;
+    this.memory = rows.memory != null ? (ColumnarResultSet) rows.memory.memoryCopy() : null;
+    this.rowCount = rows.rowCount;
+    if ( rows.spill != null ) {
+      rows.spill.retain();
+      setSpill( rows.spill );
+    }
+  }
+
+  private void setSpill( Spill spill ) {
+    this.spill = spill;
+    // the action must not reference this result set, or it would never become unreachable
+    this.cleanable = cleaner.register( this, spill::release );
+  }
+
+  /**
+   * Appends a row written by a step, in memory until the threshold is reached and on the disk after that.
+   *
+   * @param rowMeta the metadata of the row
+   * @param row     the row
+   * @throws KettleValueException if a value cannot be converted
+   * @throws IOException          if the row cannot be written to the disk
+   */
+  public void addRow( RowMetaInterface rowMeta, Object[] row ) throws KettleValueException, IOException {
+    if ( rowCount < memoryThreshold ) {
+      memory.addRow( rowMeta, row );
+    } else {
+      if ( spill == null ) {
+        setSpill( new Spill( directory, segmentSize, rowMeta, getColumnCount() ) );
+      }
+      spill.append( rowMeta, row );
+    }
+    rowCount++;
+  }
+
+  /**
+   * Not supported, the rows are captured with {@link #addRow(RowMetaInterface, Object[])}.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public int addRow( Object[] row ) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the number of rows written to the disk
+   */
+  public int getSpilledRowCount() {
+    return spill != null ? spill.rowCount : 0;
+  }
+
+  /**
+   * @return the temporary files holding the rows written to the disk
+   */
+  public List<File> getSpillFiles() {
+    List<File> files = new ArrayList<>();
+    if ( spill != null ) {
+      for ( Segment segment : spill.segments ) {
+        files.add( segment.file );
+      }
+    }
+    return files;
+  }
+
+  @Override
+  public boolean isScrollable() {
+    return true;
+  }
+
+  @Override
+  public Object getValueAt( int row, int column ) {
+    if ( row < 0 || row >= rowCount ) {
+      return null;
+    }
+    if ( row < memoryThreshold ) {
+      return memory.getValueAt( row, column );
+    }
+    return getDataRow( row )[ column ];
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return getMetaData().getColumnCount();
+  }
+
+  @Override
+  public Object[] next() {
+    if ( rowIterator >= rowCount ) {
+      return null;
+    }
+    return getDataRow( rowIterator++ );
+  }
+
+  @Override
+  public void beforeFirst() {
+    rowIterator = 0;
+  }
+
+  @Override
+  public void close() {
+    // nothing to close
+  }
+
+  @Override
+  public void closeConnection() {
+    // nothing to close
+  }
+
+  /**
+   * Releases the rows, deleting the temporary files if no copy of this result set uses them anymore.
+   */
+  @Override
+  public void dispose() {
+    if ( memory != null ) {
+      memory.dispose();
+      memory = null;
+    }
+    if ( cleanable != null ) {
+      cleanable.clean();
+      cleanable = null;
+    }
+    spill = null;
+    readSegment = null;
+    readBuffer = null;
+    readRow = -1;
+    rowCount = 0;
+    rowIterator = 0;
+  }
+
+  /**
+   * Returns a result set sharing the captured rows with this one, with its own position. Rows must no longer be
+   * appended to this one.
+   */
+  @Override
+  public IPentahoResultSet memoryCopy() {
+    return new SpillingResultSet( this );
+  }
+
+  @Override
+  public Object[] getDataColumn( int column ) {
+    Object[] values = new Object[ rowCount ];
+    for ( int row = 0; row < rowCount; row++ ) {
+      values[ row ] = row < memoryThreshold ? memory.getValueAt( row, column ) : getDataRow( row )[ column ];
+    }
+    return values;
+  }
+
+  @Override
+  public Object[] getDataRow( int row ) {
+    if ( row < 0 || row >= rowCount ) {
+      return null;
+    }
+    if ( row < memoryThreshold ) {
+      return memory.getDataRow( row );
+    }
+    int spilledRow = row - memoryThreshold;
+    if ( spilledRow != readRow || readSegment == null || spilledRow >= readSegment.firstRow + readSegment.rowCount ) {
+      seek( spilledRow );
+    }
+    Object[] values = spill.decode( readBuffer );
+    readRow = spilledRow + 1;
+    return values;
+  }
+
+  /**
+   * Positions the reader on a spilled row, from the closest indexed one
+   */
+  private void seek( int spilledRow ) {
+    Segment segment = spill.findSegment( spilledRow );
+    if ( segment != readSegment ) {
+      readSegment = segment;
+      readBuffer = segment.buffer.duplicate();
+    }
+    int relativeRow = spilledRow - segment.firstRow;
+    readBuffer.position( segment.index[ relativeRow / INDEX_INTERVAL ] );
+    for ( int skipped = relativeRow - relativeRow % INDEX_INTERVAL; skipped < relativeRow; skipped++ ) {
+      spill.decode( readBuffer );
+    }
+    readRow = spilledRow;
+  }
+
+  /**
+   * A memory-mapped file holding consecutive spilled rows
+   */
+  private static class Segment {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int firstRow;
+    private int rowCount;
+    // the offset of every INDEX_INTERVAL-th row
+    private int[] index = new int[ 16 ];
+
+    Segment( File file, MappedByteBuffer buffer, int firstRow ) {
+      this.file = file;
+      this.buffer = buffer;
+      this.firstRow = firstRow;
+    }
+  }
+
+  /**
+   * The rows written to the disk, shared by the copies of the result set
+   */
+  private static class Spill {
+    private final File directory;
+    private final int segmentSize;
+    private final int[] types;
+    private final List<Segment> segments = new ArrayList<>();
+    private ByteBuffer scratch = ByteBuffer.allocate( 4096 );
+    private int rowCount;
+    private int references = 1;
+
+    Spill( File directory, int segmentSize, RowMetaInterface rowMeta, int columnCount ) {
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      this.types = new int[ columnCount ];
+      for ( int columnNo = 0; columnNo < columnCount; columnNo++ ) {
+        types[ columnNo ] = rowMeta.getValueMeta( columnNo ).getType();
+      }
+    }
+
+    void append( RowMetaInterface rowMeta, Object[] row ) throws KettleValueException, IOException {
+      ByteBuffer encoded = encode( rowMeta, row );
+      Segment segment = segments.isEmpty() ? null : segments.get( segments.size() - 1 );
+      if ( segment == null || segment.buffer.remaining() < encoded.remaining() ) {
+        segment = newSegment( Math.max( segmentSize, encoded.remaining() ) );
+      }
+      int relativeRow = rowCount - segment.firstRow;
+      if ( relativeRow % INDEX_INTERVAL == 0 ) {
+        int slot = relativeRow / INDEX_INTERVAL;
+        if ( slot >= segment.index.length ) {
+          segment.index = Arrays.copyOf( segment.index, segment.index.length * 2 );
+        }
+        segment.index[ slot ] = segment.buffer.position();
+      }
+      segment.buffer.put( encoded );
+      segment.rowCount++;
+      rowCount++;
+    }
+
+    private Segment newSegment( int size ) throws IOException {
+      Files.createDirectories( directory.toPath() );
+      File file = Files.createTempFile( directory.toPath(), "pdi-rows-", ".bin" ).toFile(); //$NON-NLS-1$ //$NON-NLS-2$
+      MappedByteBuffer buffer;
+      try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE ) ) {
+        // the mapping stays valid once the channel is closed
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+      } catch ( IOException e ) {
+        Files.deleteIfExists( file.toPath() );
+        throw e;
+      }
+      Segment segment = new Segment( file, buffer, rowCount );
+      segments.add( segment );
+      return segment;
+    }
+
+    Segment findSegment( int row ) {
+      int low = 0;
+      int high = segments.size() - 1;
+      while ( low < high ) {
+        int middle = ( low + high + 1 ) >>> 1;
+        if ( segments.get( middle ).firstRow <= row ) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return segments.get( low );
+    }
+
+    private ByteBuffer encode( RowMetaInterface rowMeta, Object[] row ) throws KettleValueException {
+      scratch.clear();
+      int nullsPosition = scratch.position();
+      byte[] nulls = new byte[ ( types.length + 7 ) >>> 3 ];
+      ensureCapacity( nulls.length );
+      scratch.put( nulls );
+      for ( int columnNo = 0; columnNo < types.length; columnNo++ ) {
+        ensureCapacity( 9 );
+        switch ( types[ columnNo ] ) {
+          case ValueMetaInterface.TYPE_INTEGER:
+            Long integer = rowMeta.getInteger( row, columnNo );
+            if ( integer != null ) {
+              scratch.putLong( integer );
+              continue;
+            }
+            break;
+          case ValueMetaInterface.TYPE_NUMBER:
+            Double number = rowMeta.getNumber( row, columnNo );
+            if ( number != null ) {
+              scratch.putDouble( number );
+              continue;
+            }
+            break;
+          case ValueMetaInterface.TYPE_DATE:
+            Date date = rowMeta.getDate( row, columnNo );
+            if ( date != null ) {
+              scratch.putLong( date.getTime() );
+              continue;
+            }
+            break;
+          case ValueMetaInterface.TYPE_BOOLEAN:
+            Boolean bool = rowMeta.getBoolean( row, columnNo );
+            if ( bool != null ) {
+              scratch.put( bool ? (byte) 1 : (byte) 0 );
+              continue;
+            }
+            break;
+          case ValueMetaInterface.TYPE_BIGNUMBER:
+            BigDecimal bigNumber = rowMeta.getBigNumber( row, columnNo );
+            if ( bigNumber != null ) {
+              putString( bigNumber.toString() );
+              continue;
+            }
+            break;
+          default:
+            String string = rowMeta.getString( row, columnNo );
+            if ( string != null ) {
+              putString( string );
+              continue;
+            }
+        }
+        nulls[ columnNo >>> 3 ] |= (byte) ( 1 << ( columnNo & 7 ) );
+      }
+      int end = scratch.position();
+      scratch.position( nullsPosition );
+      scratch.put( nulls );
+      scratch.position( end );
+      scratch.flip();
+      return scratch;
+    }
+
+    private void putString( String value ) {
+      byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+      ensureCapacity( 5 + bytes.length );
+      // the length as a variable-length integer, one byte for the short strings
+      int length = bytes.length;
+      while ( ( length & ~0x7F ) != 0 ) {
+        scratch.put( (byte) ( ( length & 0x7F ) | 0x80 ) );
+        length >>>= 7;
+      }
+      scratch.put( (byte) length );
+      scratch.put( bytes );
+    }
+
+    private void ensureCapacity( int size ) {
+      if ( scratch.remaining() < size ) {
+        ByteBuffer larger = ByteBuffer.allocate( Math.max( scratch.capacity() * 2, scratch.position() + size ) );
+        scratch.flip();
+        larger.put( scratch );
+        scratch = larger;
+      }
+    }
+
+    Object[] decode( ByteBuffer buffer ) {
+      byte[] nulls = new byte[ ( types.length + 7 ) >>> 3 ];
+      buffer.get( nulls );
+      Object[] values = new Object[ types.length ];
+      for ( int columnNo = 0; columnNo < types.length; columnNo++ ) {
+        if ( ( nulls[ columnNo >>> 3 ] & ( 1 << ( columnNo & 7 ) ) ) != 0 ) {
+          continue;
+        }
+        switch ( types[ columnNo ] ) {
+          case ValueMetaInterface.TYPE_INTEGER:
+            values[ columnNo ] = buffer.getLong();
+            break;
+          case ValueMetaInterface.TYPE_NUMBER:
+            values[ columnNo ] = buffer.getDouble();
+            break;
+          case ValueMetaInterface.TYPE_DATE:
+            values[ columnNo ] = new Date( buffer.getLong() );
+            break;
+          case ValueMetaInterface.TYPE_BOOLEAN:
+            values[ columnNo ] = buffer.get() != 0;
+            break;
+          case ValueMetaInterface.TYPE_BIGNUMBER:
+            values[ columnNo ] = new BigDecimal( getString( buffer ) );
+            break;
+          default:
+            values[ columnNo ] = getString( buffer );
+        }
+      }
+      return values;
+    }
+
+    private static String getString( ByteBuffer buffer ) {
+      int length = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer.get();
+        length |= ( b & 0x7F ) << shift;
+        shift += 7;
+      } while ( ( b & 0x80 ) != 0 );
+      byte[] bytes = new byte[ length ];
+      buffer.get( bytes );
+      return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    synchronized void retain() {
+      references++;
+    }
+
+    /**
+     * Deletes the files once the last result set using them is released
+     */
+    synchronized void release() {
+      if ( --references > 0 ) {
+        return;
+      }
+      for ( Segment segment : segments ) {
+        try {
+          Files.deleteIfExists( segment.file.toPath() );
+        } catch ( IOException e ) {
+          // still mapped on some platforms
+          log.warn( "Could not delete " + segment.file + ", deleting it on exit", e ); //$NON-NLS-1$ //$NON-NLS-2$
+          segment.file.deleteOnExit();
+        }
+      }
+      segments.clear();
+    }
+  }
+}
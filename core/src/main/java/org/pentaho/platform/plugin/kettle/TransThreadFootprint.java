@@ -0,0 +1,94 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * Computes how many threads a transformation starts: one per copy of each step, plus the threads of the
+ * transformations its steps run, such as mappings and transformation executors, when they can be loaded.
+ */
+public class TransThreadFootprint {
+
+  /**
+   * How deep the referenced transformations are followed
+   */
+  public static final int MAX_DEPTH = 3;
+
+  private static final Log log = LogFactory.getLog( TransThreadFootprint.class );
+
+  private TransThreadFootprint() {
+  }
+
+  /**
+   * Returns the thread footprint of the given transformation.
+   *
+   * @param transMeta  the transformation
+   * @param repository the repository to load the referenced transformations from, may be <code>null</code>
+   * @return the number of threads, at least 1
+   */
+  public static int of( TransMeta transMeta, Repository repository ) {
+    return Math.max( of( transMeta, repository, 0 ), 1 );
+  }
+
+  private static int of( TransMeta transMeta, Repository repository, int depth ) {
+    int threads = 0;
+    for ( StepMeta stepMeta : transMeta.getSteps() ) {
+      int copies = Math.max( stepMeta.getCopies(), 1 );
+      threads += copies * ( 1 + getReferencedThreads( transMeta, stepMeta, repository, depth ) );
+    }
+    return threads;
+  }
+
+  /**
+   * Returns the threads of the transformations referenced by a step, 0 if there are none or they cannot be loaded
+   */
+  private static int getReferencedThreads( TransMeta transMeta, StepMeta stepMeta, Repository repository,
+                                           int depth ) {
+    StepMetaInterface stepMetaInterface = stepMeta.getStepMetaInterface();
+    if ( depth >= MAX_DEPTH || stepMetaInterface == null ) {
+      return 0;
+    }
+    String[] references = stepMetaInterface.getReferencedObjectDescriptions();
+    boolean[] enabled = stepMetaInterface.isReferencedObjectEnabled();
+    if ( references == null || enabled == null ) {
+      return 0;
+    }
+
+    int threads = 0;
+    for ( int i = 0; i < references.length && i < enabled.length; i++ ) {
+      if ( !enabled[ i ] ) {
+        continue;
+      }
+      try {
+        Object referenced =
+          stepMetaInterface.loadReferencedObject( i, repository, transMeta.getMetaStore(), transMeta );
+        if ( referenced instanceof TransMeta ) {
+          threads += of( (TransMeta) referenced, repository, depth + 1 );
+        }
+      } catch ( Exception e ) {
+        // not resolvable, only the step itself counts
+        if ( log.isDebugEnabled() ) {
+          log.debug( "Could not load the transformation referenced by step " + stepMeta.getName(), e ); //$NON-NLS-1$
+        }
+      }
+    }
+    return threads;
+  }
+}
@@ -0,0 +1,44 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import java.io.IOException;
+
+/**
+ * Keeps the high-water marks of the incremental executions between their runs: the last value a transformation or job
+ * processed, from which its next run starts.
+ *
+ * @see FileWatermarkStore
+ * @see JdbcWatermarkStore
+ */
+public interface WatermarkStore {
+
+  /**
+   * Returns the last committed watermark.
+   *
+   * @param key the key of the watermark
+   * @return the watermark, or <code>null</code> if none was committed
+   * @throws IOException if the store cannot be read
+   */
+  String get( String key ) throws IOException;
+
+  /**
+   * Commits a new watermark, replacing the previous one.
+   *
+   * @param key   the key of the watermark
+   * @param value the watermark
+   * @throws IOException if the store cannot be written
+   */
+  void commit( String key, String value ) throws IOException;
+}
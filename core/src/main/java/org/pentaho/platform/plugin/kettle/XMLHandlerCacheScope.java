@@ -0,0 +1,98 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.pentaho.di.core.xml.XMLHandlerCache;
+
+/**
+ * Tracks the executions using the process-wide {@link XMLHandlerCache} so it is not cleared under the feet of the
+ * executions that are still parsing.
+ * <p>
+ * The entries of the cache are keyed by the XML nodes of the documents parsed by each execution, so they are of no use
+ * once that execution is over; the cache neither allows removing the entries of one execution nor tells its size
+ * though. Instead, the cache is cleared when the last running execution finishes, and, so that it does not grow without
+ * bound on a server that is never idle, after {@link #getMaxExecutions()} executions have finished. The executions
+ * still running then lose their cached nodes and parse more slowly.
+ */
+public class XMLHandlerCacheScope {
+
+  public static final int DEFAULT_MAX_EXECUTIONS = 100;
+
+  private static final XMLHandlerCacheScope instance = new XMLHandlerCacheScope();
+
+  private int activeExecutions;
+
+  private int finishedExecutions;
+
+  private int maxExecutions = DEFAULT_MAX_EXECUTIONS;
+
+  private long clearCount;
+
+  // package-local for test reasons
+  XMLHandlerCacheScope() {
+  }
+
+  public static XMLHandlerCacheScope getInstance() {
+    return instance;
+  }
+
+  /**
+   * Marks the start of an execution. Every call must be followed by a call to {@link #exit()}.
+   */
+  public synchronized void enter() {
+    activeExecutions++;
+  }
+
+  /**
+   * Marks the end of an execution, clearing the cache if no other execution is running or if too many executions
+   * finished since the last time it was cleared.
+   *
+   * @return <code>true</code> if the cache was cleared
+   */
+  public synchronized boolean exit() {
+    activeExecutions = Math.max( activeExecutions - 1, 0 );
+    finishedExecutions++;
+
+    if ( activeExecutions > 0 && ( maxExecutions <= 0 || finishedExecutions < maxExecutions ) ) {
+      return false;
+    }
+
+    XMLHandlerCache.getInstance().clear();
+    finishedExecutions = 0;
+    clearCount++;
+    return true;
+  }
+
+  public synchronized int getActiveExecutions() {
+    return activeExecutions;
+  }
+
+  public synchronized int getMaxExecutions() {
+    return maxExecutions;
+  }
+
+  /**
+   * Sets after how many finished executions the cache is cleared even though other executions are running. A value
+   * of zero or less only clears it when no execution is running, letting it grow as long as the server is busy.
+   *
+   * @param maxExecutions the number of executions
+   */
+  public synchronized void setMaxExecutions( int maxExecutions ) {
+    this.maxExecutions = maxExecutions;
+  }
+
+  public synchronized long getClearCount() {
+    return clearCount;
+  }
+}
@@ -0,0 +1,137 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.www.CarteObjectEntry;
+import org.pentaho.di.www.CarteSingleton;
+import org.pentaho.di.www.TransformationMap;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class CarteRegistryRetentionTest {
+
+  private CarteRegistryRetention retention;
+
+  @Before
+  public void setUp() {
+    KettleLogStore.init();
+    retention = new CarteRegistryRetention();
+    retention.setMaxEntries( 2 );
+    retention.setTtl( 0 );
+  }
+
+  @Test
+  public void testOldestFinishedRunsAreEvicted() {
+    String running = register( false, null );
+    String oldest = register( true, null );
+    String newest = register( true, null );
+
+    assertEquals( 2, retention.size() );
+    assertNotNull( getTrans( running ) );
+    assertNull( getTrans( oldest ) );
+    assertNotNull( getTrans( newest ) );
+
+    List<CarteRegistryRetention.Summary> summaries = retention.getSummaries();
+    assertEquals( 1, summaries.size() );
+    assertEquals( oldest, summaries.get( 0 ).getCarteObjectId() );
+    assertEquals( CarteRegistryRetention.Summary.TRANSFORMATION, summaries.get( 0 ).getType() );
+    assertEquals( 42, summaries.get( 0 ).getLinesWritten() );
+    assertEquals( 1, retention.getEvictionCount() );
+  }
+
+  @Test
+  public void testStatusPageAfterThousandsOfRuns() {
+    retention.setMaxEntries( 100 );
+    retention.setMaxSummaries( 1000 );
+    String running = register( "history", false, null );
+    String last = null;
+    for ( int i = 0; i < 5000; i++ ) {
+      last = register( "history", true, null );
+    }
+
+    // the status page lists the running one and the most recent finished ones only
+    TransformationMap transformationMap = CarteSingleton.getInstance().getTransformationMap();
+    int listed = 0;
+    for ( CarteObjectEntry entry : transformationMap.getTransformationObjects() ) {
+      if ( "history".equals( entry.getName() ) ) {
+        assertNotNull( transformationMap.getTransformation( entry ) );
+        listed++;
+      }
+    }
+    assertEquals( 100, listed );
+    assertEquals( 100, retention.size() );
+    assertNotNull( getTrans( "history", running ) );
+    assertNotNull( getTrans( "history", last ) );
+
+    // the history is bounded as well, the most recent removals last
+    List<CarteRegistryRetention.Summary> summaries = retention.getSummaries();
+    assertEquals( 1000, summaries.size() );
+    assertEquals( 4901, retention.getEvictionCount() );
+    assertEquals( "history", summaries.get( summaries.size() - 1 ).getName() );
+    assertNull( getTrans( "history", summaries.get( summaries.size() - 1 ).getCarteObjectId() ) );
+  }
+
+  @Test
+  public void testExpiredRunsAreEvicted() {
+    retention.setMaxEntries( 0 );
+    retention.setTtl( 1000 );
+    String expired = register( true, new Date( System.currentTimeMillis() - 2000 ) );
+    String recent = register( true, new Date() );
+
+    assertNull( getTrans( expired ) );
+    assertNotNull( getTrans( recent ) );
+    assertEquals( 1, retention.getEvictionCount() );
+  }
+
+  private String register( boolean finished, Date endDate ) {
+    return register( "test", finished, endDate );
+  }
+
+  private String register( String name, boolean finished, Date endDate ) {
+    String carteObjectId = UUID.randomUUID().toString();
+    Result result = new Result();
+    result.setNrLinesWritten( 42 );
+    Trans trans = mock( Trans.class );
+    doReturn( finished ).when( trans ).isFinishedOrStopped();
+    doReturn( endDate ).when( trans ).getExecutionEndDate();
+    doReturn( result ).when( trans ).getResult();
+    doReturn( carteObjectId ).when( trans ).getLogChannelId();
+
+    CarteSingleton.getInstance().getTransformationMap().addTransformation( name, carteObjectId, trans, null );
+    retention.register( name, carteObjectId, trans );
+    return carteObjectId;
+  }
+
+  private static Trans getTrans( String carteObjectId ) {
+    return getTrans( "test", carteObjectId );
+  }
+
+  private static Trans getTrans( String name, String carteObjectId ) {
+    return CarteSingleton.getInstance().getTransformationMap()
+      .getTransformation( new CarteObjectEntry( name, carteObjectId ) );
+  }
+}
@@ -0,0 +1,42 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Test;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class ClusteredTransExecutionTest {
+
+  @Test
+  public void testIsClustered() {
+    StepMeta localStep = mock( StepMeta.class );
+    StepMeta clusteredStep = mock( StepMeta.class );
+    doReturn( true ).when( clusteredStep ).isClustered();
+
+    TransMeta transMeta = mock( TransMeta.class );
+    doReturn( Arrays.asList( localStep ) ).when( transMeta ).getSteps();
+    assertFalse( ClusteredTransExecution.isClustered( transMeta ) );
+
+    doReturn( Arrays.asList( localStep, clusteredStep ) ).when( transMeta ).getSteps();
+    assertTrue( ClusteredTransExecution.isClustered( transMeta ) );
+  }
+}
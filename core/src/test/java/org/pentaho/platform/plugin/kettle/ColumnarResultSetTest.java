@@ -0,0 +1,149 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarResultSetTest {
+
+  private static final String[][] COLUMNS = { { "id", "amount", "created", "valid", "region" } };
+
+  @Test
+  @SuppressWarnings( "deprecation" )
+  public void testSameValuesAsMemoryResultSet() throws Exception {
+    RowMetaInterface rowMeta = newRowMeta();
+    ColumnarResultSet columnar = new ColumnarResultSet( new MemoryMetaData( COLUMNS, null ) );
+    MemoryResultSet memory = new MemoryResultSet( new MemoryMetaData( COLUMNS, null ) );
+    PdiAction action = new PdiAction();
+
+    int rows = ColumnarResultSet.CHUNK_SIZE * 2 + 7;
+    for ( int i = 0; i < rows; i++ ) {
+      Object[] row = newRow( i );
+      columnar.addRow( rowMeta, row );
+      action.processRow( memory, rowMeta, row );
+    }
+
+    assertEquals( memory.getRowCount(), columnar.getRowCount() );
+    for ( int i = 0; i < rows; i++ ) {
+      assertArrayEquals( memory.getDataRow( i ), columnar.getDataRow( i ) );
+    }
+    assertArrayEquals( memory.getDataColumn( 2 ), columnar.getDataColumn( 2 ) );
+
+    IPentahoResultSet copy = columnar.memoryCopy();
+    int count = 0;
+    while ( copy.next() != null ) {
+      count++;
+    }
+    assertEquals( rows, count );
+    assertArrayEquals( memory.getDataRow( 0 ), columnar.next() );
+    assertNull( columnar.getValueAt( rows, 0 ) );
+  }
+
+  @Test
+  public void testManyDistinctStrings() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    ColumnarResultSet columnar = new ColumnarResultSet( new MemoryMetaData( new String[][] { { "name" } }, null ) );
+
+    int rows = ColumnarResultSet.MAX_DICTIONARY_SIZE + 100;
+    for ( int i = 0; i < rows; i++ ) {
+      columnar.addRow( rowMeta, new Object[] { i % 3 == 0 ? null : "name" + i } );
+    }
+    for ( int i = 0; i < rows; i++ ) {
+      assertEquals( i % 3 == 0 ? null : "name" + i, columnar.getValueAt( i, 0 ) );
+    }
+  }
+
+  /**
+   * Compares the heap retained per row and the append throughput of both result sets
+   */
+  @Test
+  @SuppressWarnings( "deprecation" )
+  public void testHeapAndThroughput() throws Exception {
+    int rows = 500000;
+    RowMetaInterface rowMeta = newRowMeta();
+    PdiAction action = new PdiAction();
+
+    long memoryHeap = usedHeap();
+    long start = System.nanoTime();
+    MemoryResultSet memory = new MemoryResultSet( new MemoryMetaData( COLUMNS, null ) );
+    for ( int i = 0; i < rows; i++ ) {
+      action.processRow( memory, rowMeta, newRow( i ) );
+    }
+    long memoryNanos = System.nanoTime() - start;
+    memoryHeap = usedHeap() - memoryHeap;
+    assertEquals( rows, memory.getRowCount() );
+    memory = null;
+
+    long columnarHeap = usedHeap();
+    start = System.nanoTime();
+    ColumnarResultSet columnar = new ColumnarResultSet( new MemoryMetaData( COLUMNS, null ) );
+    for ( int i = 0; i < rows; i++ ) {
+      columnar.addRow( rowMeta, newRow( i ) );
+    }
+    long columnarNanos = System.nanoTime() - start;
+    columnarHeap = usedHeap() - columnarHeap;
+    assertEquals( rows, columnar.getRowCount() );
+
+    System.out.println( "MemoryResultSet: " + memoryHeap / rows + " bytes per row, "
+      + rows * 1000000000L / Math.max( memoryNanos, 1 ) + " rows per second" );
+    System.out.println( "ColumnarResultSet: " + columnarHeap / rows + " bytes per row, "
+      + rows * 1000000000L / Math.max( columnarNanos, 1 ) + " rows per second" );
+    assertTrue( columnarHeap < memoryHeap / 2 );
+  }
+
+  private static RowMetaInterface newRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "created" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "valid" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "region" ) );
+    return rowMeta;
+  }
+
+  private static Object[] newRow( int i ) {
+    return new Object[] {
+      i % 11 == 0 ? null : 1000000L + i,
+      i % 13 == 0 ? null : i * 1.5d,
+      new Date( 1700000000000L + i * 1000L ),
+      i % 2 == 0,
+      "region" + i % 20 };
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for ( int i = 0; i < 3; i++ ) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
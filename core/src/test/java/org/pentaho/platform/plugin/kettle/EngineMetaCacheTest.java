@@ -0,0 +1,156 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class EngineMetaCacheTest {
+
+  private EngineMetaCache metaCache;
+
+  @Before
+  public void setUp() {
+    metaCache = new EngineMetaCache();
+  }
+
+  @Test
+  public void testEachLookupGetsItsOwnCopy() {
+    RepositoryFile file = mockFile( "id1", "1.0" );
+    TransMeta transMeta = newTransMeta( "trans1" );
+    Repository repository = mock( Repository.class );
+
+    assertNull( metaCache.getTransMeta( file, repository, null ) );
+    metaCache.put( file, transMeta );
+
+    TransMeta first = metaCache.getTransMeta( file, repository, null );
+    TransMeta second = metaCache.getTransMeta( file, repository, null );
+
+    assertNotNull( first );
+    assertNotNull( second );
+    assertNotSame( transMeta, first );
+    assertNotSame( first, second );
+    assertEquals( "trans1", first.getName() );
+    assertSame( repository, first.getRepository() );
+    assertEquals( 2, metaCache.getHitCount() );
+    assertEquals( 1, metaCache.getMissCount() );
+  }
+
+  @Test
+  public void testNewVersionInvalidatesEntry() {
+    metaCache.put( mockFile( "id1", "1.0" ), newTransMeta( "trans1" ) );
+
+    assertNull( metaCache.getTransMeta( mockFile( "id1", "1.1" ), null, null ) );
+    assertEquals( 0, metaCache.size() );
+  }
+
+  @Test
+  public void testParentVariablesDoNotLeakBetweenExecutions() {
+    RepositoryFile file = mockFile( "id1", "1.0" );
+    TransMeta transMeta = newTransMeta( "trans1" );
+    transMeta.setVariable( "customVariable", "customVariableValue" );
+    metaCache.put( file, transMeta );
+
+    VariableSpace parent = new Variables();
+    parent.setVariable( "parentVariable", "parentVariableValue" );
+
+    TransMeta copy = metaCache.getTransMeta( file, null, parent );
+    assertEquals( "parentVariableValue", copy.getVariable( "parentVariable" ) );
+    assertNull( copy.getVariable( "customVariable" ) );
+
+    copy.setVariable( "parentVariable", "changed" );
+    assertNull( metaCache.getTransMeta( file, null, new Variables() ).getVariable( "parentVariable" ) );
+  }
+
+  @Test
+  public void testThreadFootprintIsKeptPerVersion() {
+    RepositoryFile file = mockFile( "id1", "1.0" );
+    metaCache.putThreadFootprint( file, 12 );
+    // nothing cached to keep it with
+    assertEquals( 0, metaCache.getThreadFootprint( file ) );
+
+    metaCache.put( file, newTransMeta( "trans1" ) );
+    metaCache.putThreadFootprint( file, 12 );
+    assertEquals( 12, metaCache.getThreadFootprint( mockFile( "id1", "1.0" ) ) );
+    assertEquals( 0, metaCache.getThreadFootprint( mockFile( "id1", "1.1" ) ) );
+
+    // loaded again
+    metaCache.put( file, newTransMeta( "trans1" ) );
+    assertEquals( 0, metaCache.getThreadFootprint( file ) );
+  }
+
+  @Test
+  public void testMetaTypeMustMatch() {
+    RepositoryFile file = mockFile( "id1", "1.0" );
+    metaCache.put( file, newTransMeta( "trans1" ) );
+
+    assertNull( metaCache.getJobMeta( file, null, null ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    metaCache.setMaxEntries( 2 );
+    RepositoryFile file1 = mockFile( "id1", "1.0" );
+    RepositoryFile file2 = mockFile( "id2", "1.0" );
+    RepositoryFile file3 = mockFile( "id3", "1.0" );
+
+    metaCache.put( file1, newTransMeta( "trans1" ) );
+    metaCache.put( file2, new JobMeta() );
+    assertNotNull( metaCache.getTransMeta( file1, null, null ) );
+    metaCache.put( file3, newTransMeta( "trans3" ) );
+
+    assertEquals( 2, metaCache.size() );
+    assertEquals( 1, metaCache.getEvictionCount() );
+    assertNotNull( metaCache.getTransMeta( file1, null, null ) );
+    assertNull( metaCache.getJobMeta( file2, null, null ) );
+  }
+
+  @Test
+  public void testDisabledCache() {
+    metaCache.setMaxEntries( 0 );
+    RepositoryFile file = mockFile( "id1", "1.0" );
+    metaCache.put( file, newTransMeta( "trans1" ) );
+
+    assertEquals( 0, metaCache.size() );
+    assertNull( metaCache.getTransMeta( file, null, null ) );
+  }
+
+  private RepositoryFile mockFile( String id, String version ) {
+    RepositoryFile file = mock( RepositoryFile.class );
+    doReturn( id ).when( file ).getId();
+    doReturn( version ).when( file ).getVersionId();
+    doReturn( "/public/" + id ).when( file ).getPath();
+    return file;
+  }
+
+  private TransMeta newTransMeta( String name ) {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( name );
+    return transMeta;
+  }
+}
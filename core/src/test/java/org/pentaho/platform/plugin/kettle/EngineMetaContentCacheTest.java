@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.trans.TransMeta;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class EngineMetaContentCacheTest {
+
+  private EngineMetaContentCache contentCache;
+
+  @Before
+  public void setUp() {
+    contentCache = new EngineMetaContentCache();
+  }
+
+  @Test
+  public void testContentIsReadOnce() throws Exception {
+    byte[] bytes = "<transformation/>".getBytes( StandardCharsets.UTF_8 );
+    EngineMetaContentCache.Content content = EngineMetaContentCache.read( new ByteArrayInputStream( bytes ) );
+
+    assertEquals( bytes.length, content.getLength() );
+    assertArrayEquals( bytes, IOUtils.toByteArray( content.getInputStream() ) );
+    assertEquals( content.getDigest(), read( "<transformation/>" ).getDigest() );
+    assertNotEquals( content.getDigest(), read( "<transformation></transformation>" ).getDigest() );
+  }
+
+  @Test
+  public void testSameContentHits() throws Exception {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( "trans1" );
+
+    assertNull( contentCache.getTransMeta( read( "trans1" ), null, null ) );
+    contentCache.put( read( "trans1" ), transMeta );
+
+    TransMeta cached = contentCache.getTransMeta( read( "trans1" ), null, null );
+    assertNotNull( cached );
+    assertNotSame( transMeta, cached );
+    assertEquals( "trans1", cached.getName() );
+    assertNull( contentCache.getTransMeta( read( "trans2" ), null, null ) );
+    assertNull( contentCache.getJobMeta( read( "trans1" ), null, null ) );
+    assertEquals( 0.25, contentCache.getHitRate(), 0.0 );
+  }
+
+  @Test
+  public void testCacheIsBoundedByBytes() throws Exception {
+    contentCache.setMaxBytes( 10 );
+    contentCache.put( read( "12345" ), new TransMeta() );
+    contentCache.put( read( "67890" ), new TransMeta() );
+    contentCache.put( read( "abcde" ), new TransMeta() );
+
+    assertEquals( 2, contentCache.size() );
+    assertEquals( 10, contentCache.getBytes() );
+    assertEquals( 1, contentCache.getEvictionCount() );
+    assertNull( contentCache.getTransMeta( read( "12345" ), null, null ) );
+
+    // larger than the whole cache
+    contentCache.put( read( "0123456789a" ), new TransMeta() );
+    assertEquals( 2, contentCache.size() );
+  }
+
+  private static EngineMetaContentCache.Content read( String content ) throws Exception {
+    return EngineMetaContentCache.read( new ByteArrayInputStream( content.getBytes( StandardCharsets.UTF_8 ) ) );
+  }
+}
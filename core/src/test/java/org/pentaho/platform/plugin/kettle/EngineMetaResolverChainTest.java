@@ -0,0 +1,169 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class EngineMetaResolverChainTest {
+
+  private EngineMetaResolver first;
+  private EngineMetaResolver second;
+  private EngineMetaResolverChain chain;
+
+  @Before
+  public void setUp() {
+    first = mock( EngineMetaResolver.class );
+    second = mock( EngineMetaResolver.class );
+    chain = new EngineMetaResolverChain( first, second );
+  }
+
+  @After
+  public void tearDown() {
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testSuccessfulResolverIsRemembered() throws Exception {
+    TransMeta transMeta = new TransMeta();
+    doThrow( new KettleException() ).when( first ).resolve( any(), any(), any(), any(), any() );
+    doReturn( transMeta ).when( second ).resolve( any(), any(), any(), any(), any() );
+
+    assertSame( transMeta, chain.resolve( TransMeta.class, null, "/dir", "file", null ) );
+    assertSame( transMeta, chain.resolve( TransMeta.class, null, "/dir", "file", null ) );
+
+    verify( first, times( 1 ) ).resolve( any(), any(), any(), any(), any() );
+    verify( second, times( 2 ) ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testFallbackWhenRememberedResolverFails() throws Exception {
+    TransMeta transMeta = new TransMeta();
+    doReturn( transMeta ).when( second ).resolve( any(), any(), any(), any(), any() );
+    chain.resolve( TransMeta.class, null, "/dir", "file", null );
+
+    doThrow( new KettleException() ).when( second ).resolve( any(), any(), any(), any(), any() );
+    doReturn( transMeta ).when( first ).resolve( any(), any(), any(), any(), any() );
+
+    assertSame( transMeta, chain.resolve( TransMeta.class, null, "/dir", "file", null ) );
+  }
+
+  @Test
+  public void testMissIsCached() throws Exception {
+    assertNotFound();
+    assertNotFound();
+
+    verify( first, times( 1 ) ).resolve( any(), any(), any(), any(), any() );
+    verify( second, times( 1 ) ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testMissCacheDisabled() throws Exception {
+    chain.setMissTtl( 0 );
+    assertNotFound();
+    reset( first, second );
+    assertNotFound();
+
+    verify( first ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testClearForgetsMisses() throws Exception {
+    assertNotFound();
+    chain.clear();
+    reset( first, second );
+
+    TransMeta transMeta = new TransMeta();
+    doReturn( transMeta ).when( first ).resolve( any(), any(), any(), any(), any() );
+    assertSame( transMeta, chain.resolve( TransMeta.class, null, "/dir", "file", null ) );
+    verify( second, never() ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testMissIsKeptPerUser() throws Exception {
+    PentahoSessionHolder.setSession( new StandaloneSession( "alice" ) );
+    assertNotFound();
+
+    // granted to another user
+    TransMeta transMeta = new TransMeta();
+    doReturn( transMeta ).when( first ).resolve( any(), any(), any(), any(), any() );
+    PentahoSessionHolder.setSession( new StandaloneSession( "bob" ) );
+    assertSame( transMeta, chain.resolve( TransMeta.class, null, "/dir", "file", null ) );
+
+    PentahoSessionHolder.setSession( new StandaloneSession( "alice" ) );
+    assertNotFound();
+    verify( first, times( 2 ) ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testEntriesAreBounded() throws Exception {
+    chain.setMaxEntries( 10 );
+    doReturn( new TransMeta() ).when( first ).resolve( any(), any(), any(), eq( "found" ), any() );
+    for ( int i = 0; i < 100; i++ ) {
+      chain.resolve( TransMeta.class, null, "/dir" + i, "found", null );
+      assertNotFound( "/dir" + i );
+    }
+    assertEquals( 20, chain.size() );
+
+    // the most recent ones are still remembered
+    reset( first, second );
+    assertNotFound( "/dir99" );
+    verify( first, never() ).resolve( any(), any(), any(), any(), any() );
+  }
+
+  @Test
+  public void testExpiredMissesAreSwept() throws Exception {
+    chain.setMissTtl( 1 );
+    for ( int i = 0; i < 100; i++ ) {
+      assertNotFound( "/dir" + i );
+    }
+    Thread.sleep( 10 );
+
+    assertNotFound( "/another" );
+    assertEquals( 1, chain.size() );
+  }
+
+  private void assertNotFound() {
+    assertNotFound( "/dir" );
+  }
+
+  private void assertNotFound( String directory ) {
+    try {
+      chain.resolve( TransMeta.class, null, directory, "file", null );
+      fail();
+    } catch ( FileNotFoundException e ) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionDeadlineTimerTest {
+
+  private final ExecutionDeadlineTimer timer = new ExecutionDeadlineTimer( 10 );
+
+  @Test
+  public void testDeadlineFires() throws Exception {
+    CountDownLatch fired = new CountDownLatch( 1 );
+    long start = System.currentTimeMillis();
+
+    timer.schedule( 100, fired::countDown );
+
+    assertTrue( fired.await( 10, TimeUnit.SECONDS ) );
+    assertTrue( System.currentTimeMillis() - start >= 100 );
+    assertEquals( 1, timer.getFiredCount() );
+  }
+
+  @Test
+  public void testCancelledDeadlineDoesNotFire() throws Exception {
+    AtomicBoolean cancelledFired = new AtomicBoolean();
+    CountDownLatch fired = new CountDownLatch( 1 );
+
+    timer.schedule( 50, () -> cancelledFired.set( true ) ).cancel();
+    timer.schedule( 100, fired::countDown );
+
+    assertTrue( fired.await( 10, TimeUnit.SECONDS ) );
+    assertFalse( cancelledFired.get() );
+  }
+
+  @Test
+  public void testDeadlineBeyondOneTurnOfTheWheel() throws Exception {
+    CountDownLatch fired = new CountDownLatch( 1 );
+    long delay = 10L * ExecutionDeadlineTimer.WHEEL_SIZE + 200;
+    long start = System.currentTimeMillis();
+
+    timer.schedule( delay, fired::countDown );
+
+    assertTrue( fired.await( 30, TimeUnit.SECONDS ) );
+    assertTrue( System.currentTimeMillis() - start >= delay );
+  }
+}
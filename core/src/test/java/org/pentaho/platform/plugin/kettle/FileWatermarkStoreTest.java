@@ -0,0 +1,44 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileWatermarkStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCommittedWatermarksAreKept() throws Exception {
+    File file = new File( folder.getRoot(), "watermarks/pdi-watermarks.properties" );
+    FileWatermarkStore store = new FileWatermarkStore( file );
+    assertNull( store.get( "/public/etl/orders.ktr#LAST_ID" ) );
+
+    store.commit( "/public/etl/orders.ktr#LAST_ID", "41" );
+    store.commit( "/public/etl/customers.ktr#LAST_UPDATE", "2024/01/02 03:04:05.000" );
+    store.commit( "/public/etl/orders.ktr#LAST_ID", "42" );
+
+    FileWatermarkStore reopened = new FileWatermarkStore( file );
+    assertEquals( "42", reopened.get( "/public/etl/orders.ktr#LAST_ID" ) );
+    assertEquals( "2024/01/02 03:04:05.000", reopened.get( "/public/etl/customers.ktr#LAST_UPDATE" ) );
+  }
+}
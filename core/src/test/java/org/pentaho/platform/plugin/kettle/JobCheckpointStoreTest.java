@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.job.JobEntryListener;
+import org.pentaho.di.job.entry.JobEntryCopy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class JobCheckpointStoreTest {
+
+  private static final String KEY = "/public/etl/load.kjb@1.0|parameters={DAY=2024-01-01}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private JobCheckpointStore store;
+
+  @Before
+  public void setUp() {
+    store = new JobCheckpointStore( folder.getRoot() );
+  }
+
+  @Test
+  public void testResumesFromTheFailedEntry() {
+    JobEntryListener recorder = store.newRecorder( new JobCheckpointStore.Checkpoint( KEY, "load" ) );
+    run( recorder, entry( "START" ), true );
+    run( recorder, entry( "extract" ), true );
+    run( recorder, entry( "transform" ), false );
+
+    JobCheckpointStore.Checkpoint checkpoint = store.load( KEY );
+    assertEquals( "load", checkpoint.getJobName() );
+    assertEquals( "transform", checkpoint.getResumeEntryName() );
+    assertEquals( 2, checkpoint.getCompletedEntries().size() );
+    assertEquals( "extract", checkpoint.getCompletedEntries().get( 1 ).getName() );
+    assertEquals( 42, checkpoint.getCompletedEntries().get( 1 ).getResult().getNrLinesWritten() );
+  }
+
+  @Test
+  public void testErrorHandlingDoesNotMoveTheResumeEntry() {
+    JobEntryListener recorder = store.newRecorder( new JobCheckpointStore.Checkpoint( KEY, "load" ) );
+    run( recorder, entry( "extract" ), true );
+    run( recorder, entry( "transform" ), false );
+    // on the failure hop
+    run( recorder, entry( "mail" ), true );
+    run( recorder, entry( "abort" ), false );
+
+    JobCheckpointStore.Checkpoint checkpoint = store.load( KEY );
+    assertEquals( "transform", checkpoint.getResumeEntryName() );
+    assertEquals( 2, checkpoint.getCompletedEntries().size() );
+  }
+
+  @Test
+  public void testResumesFromTheInterruptedEntry() {
+    JobEntryListener recorder = store.newRecorder( new JobCheckpointStore.Checkpoint( KEY, "load" ) );
+    run( recorder, entry( "extract" ), true );
+    // stopped while running
+    recorder.beforeExecution( null, entry( "transform" ), null );
+
+    assertEquals( "transform", store.load( KEY ).getResumeEntryName() );
+  }
+
+  @Test
+  public void testDelete() {
+    JobEntryListener recorder = store.newRecorder( new JobCheckpointStore.Checkpoint( KEY, "load" ) );
+    run( recorder, entry( "extract" ), true );
+    store.delete( KEY );
+
+    assertNull( store.load( KEY ) );
+    assertNull( store.load( "another key" ) );
+  }
+
+  private static void run( JobEntryListener recorder, JobEntryCopy entry, boolean success ) {
+    Result result = new Result();
+    result.setResult( success );
+    result.setNrLinesWritten( 42 );
+    recorder.beforeExecution( null, entry, null );
+    recorder.afterExecution( null, entry, null, result );
+  }
+
+  private static JobEntryCopy entry( String name ) {
+    JobEntryCopy entry = mock( JobEntryCopy.class );
+    doReturn( name ).when( entry ).getName();
+    doReturn( 0 ).when( entry ).getNr();
+    return entry;
+  }
+}
@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.trans.JobEntryTrans;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class JobMetaPrefetcherTest {
+
+  private static final RepositoryFile CHILD =
+    new RepositoryFile.Builder( "child-id", "child.ktr" ).path( "/public/child.ktr" ).versionId( "1" ).build();
+
+  private EngineMetaCache metaCache;
+
+  private JobMetaPrefetcher prefetcher;
+
+  private Repository lentRepository;
+
+  private AtomicInteger borrowed;
+
+  private AtomicInteger released;
+
+  private JobMetaPrefetcher.Connections connections;
+
+  @Before
+  public void setUp() throws Exception {
+    KettleLogStore.init();
+    metaCache = new EngineMetaCache();
+    prefetcher = new JobMetaPrefetcher( metaCache, Runnable::run ) {
+      @Override
+      RepositoryFile getRepositoryFile( String path, Serializable id ) {
+        return "/public/child.ktr".equals( path ) ? CHILD : null;
+      }
+    };
+    prefetcher.setMaxThreads( 2 );
+
+    lentRepository = newRepository();
+    borrowed = new AtomicInteger();
+    released = new AtomicInteger();
+    connections = new JobMetaPrefetcher.Connections() {
+      @Override
+      public Repository borrow() {
+        borrowed.incrementAndGet();
+        return lentRepository;
+      }
+
+      @Override
+      public void release( Repository repository ) {
+        assertSame( lentRepository, repository );
+        released.incrementAndGet();
+      }
+    };
+  }
+
+  @Test
+  public void testReferencedTransformationIsCached() throws Exception {
+    prefetcher.prefetch( newJobMeta(), connections );
+
+    // loaded over a connection of its own
+    verify( lentRepository ).loadTransformation( eq( "child" ), any(), any(), anyBoolean(), any() );
+    assertEquals( 1, borrowed.get() );
+    assertEquals( 1, released.get() );
+    assertTrue( metaCache.contains( CHILD ) );
+    assertNotNull( metaCache.getTransMeta( CHILD, null, null ) );
+
+    // already cached, a later execution does not load it again
+    prefetcher.prefetch( newJobMeta(), connections );
+    verify( lentRepository, times( 1 ) ).loadTransformation( eq( "child" ), any(), any(), anyBoolean(), any() );
+    assertEquals( 1, borrowed.get() );
+  }
+
+  @Test
+  public void testNothingLoadedWithoutAnIdleConnection() throws Exception {
+    prefetcher.prefetch( newJobMeta(), new JobMetaPrefetcher.Connections() {
+      @Override
+      public Repository borrow() {
+        borrowed.incrementAndGet();
+        return null;
+      }
+
+      @Override
+      public void release( Repository repository ) {
+        released.incrementAndGet();
+      }
+    } );
+
+    assertEquals( 1, borrowed.get() );
+    assertEquals( 0, released.get() );
+    assertFalse( metaCache.contains( CHILD ) );
+  }
+
+  @Test
+  public void testNothingPrefetchedWhenDisabled() throws Exception {
+    prefetcher.setMaxThreads( 0 );
+
+    prefetcher.prefetch( newJobMeta(), connections );
+
+    assertEquals( 0, borrowed.get() );
+    assertFalse( metaCache.contains( CHILD ) );
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() throws Exception {
+    doAnswer( invocation -> {
+      throw new KettleException( "not found" );
+    } ).when( lentRepository ).loadTransformation( eq( "child" ), any(), any(), anyBoolean(), any() );
+
+    prefetcher.prefetch( newJobMeta(), connections );
+
+    assertEquals( 1, released.get() );
+    assertFalse( metaCache.contains( CHILD ) );
+  }
+
+  private static JobMeta newJobMeta() {
+    JobEntryTrans entry = new JobEntryTrans( "child" );
+    entry.setSpecificationMethod( ObjectLocationSpecificationMethod.REPOSITORY_BY_NAME );
+    entry.setDirectory( "/public" );
+    entry.setTransname( "child" );
+
+    JobMeta jobMeta = new JobMeta();
+    jobMeta.addJobEntry( new JobEntryCopy( entry ) );
+    return jobMeta;
+  }
+
+  private static Repository newRepository() throws KettleException {
+    Repository repository = mock( Repository.class );
+    RepositoryDirectoryInterface directory = mock( RepositoryDirectoryInterface.class );
+    doReturn( "/public" ).when( directory ).getPath();
+    doReturn( directory ).when( repository ).findDirectory( "/public" );
+    doAnswer( invocation -> new TransMeta() ).when( repository )
+      .loadTransformation( eq( "child" ), any(), any(), anyBoolean(), any() );
+    return repository;
+  }
+}
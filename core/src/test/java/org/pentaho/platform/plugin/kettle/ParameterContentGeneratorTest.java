@@ -0,0 +1,151 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IParameterProvider;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.util.IPdiContentProvider;
+import org.pentaho.platform.engine.core.solution.SimpleParameterProvider;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.test.platform.engine.core.MicroPlatform;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class ParameterContentGeneratorTest {
+
+  private static final String SOLUTION_REPOSITORY = "target/test-classes/solution";
+
+  private MicroPlatform mp = new MicroPlatform( SOLUTION_REPOSITORY );
+
+  private IPluginManager pluginManager;
+
+  private ParameterContentGenerator generator;
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty( "PENTAHO_SYS_CFG_PATH", new File( SOLUTION_REPOSITORY + "/pentaho.xml" ).getAbsolutePath() );
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy" ) );
+
+    IUnifiedRepository repository = mock( IUnifiedRepository.class );
+    doReturn( newFile( "/public/sales.ktr", false ) ).when( repository ).getFile( "/public/sales.ktr" );
+    doReturn( newFile( "/public/load.kjb", false ) ).when( repository ).getFile( "/public/load.kjb" );
+    doReturn( newFile( "/public/reports", true ) ).when( repository ).getFile( "/public/reports" );
+    pluginManager = mock( IPluginManager.class );
+
+    mp.defineInstance( IUnifiedRepository.class, repository );
+    mp.defineInstance( IPluginManager.class, pluginManager );
+    mp.start();
+
+    generator = new ParameterContentGenerator();
+    SimpleParameterProvider requestParams = new SimpleParameterProvider();
+    requestParams.setParameter( "mode", "bulk" );
+    // by id and by path, a missing file and a folder
+    requestParams.setParameter( "path",
+      new String[] { ":public:sales.ktr", "/public/missing.ktr", "/public/reports", "%2Fpublic%2Fload.kjb" } );
+    generator.setParameterProviders(
+      Collections.<String, IParameterProvider>singletonMap( IParameterProvider.SCOPE_REQUEST, requestParams ) );
+  }
+
+  @After
+  public void tearDown() {
+    mp.stop();
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testBulkContent() throws Exception {
+    IPdiContentProvider provider = mock( IPdiContentProvider.class );
+    doReturn( provider ).when( pluginManager ).getBean( IPdiContentProvider.class.getSimpleName() );
+    Map<String, String> salesParams = new LinkedHashMap<>();
+    salesParams.put( "region", "" );
+    salesParams.put( "year", "" );
+    doReturn( salesParams ).when( provider ).getUserParameters( "/public/sales.ktr" );
+    doReturn( Collections.emptyMap() ).when( provider ).getUserParameters( "/public/load.kjb" );
+
+    Element files = createContent();
+
+    assertEquals( "files", files.getTagName() );
+    NodeList fileElements = files.getElementsByTagName( "file" );
+    assertEquals( 2, fileElements.getLength() );
+    assertFile( (Element) fileElements.item( 0 ), "/public/sales.ktr", "region", "year" );
+    assertFile( (Element) fileElements.item( 1 ), "/public/load.kjb" );
+    verify( provider, never() ).getUserParameters( "/public/reports" );
+  }
+
+  @Test
+  public void testBulkContentReadsTheFilesAtOnce() throws Exception {
+    PdiContentProvider provider = mock( PdiContentProvider.class );
+    doReturn( provider ).when( pluginManager ).getBean( IPdiContentProvider.class.getSimpleName() );
+    Map<String, Map<String, String>> userParams = new LinkedHashMap<>();
+    userParams.put( "/public/sales.ktr", Collections.singletonMap( "region", "" ) );
+    userParams.put( "/public/load.kjb", Collections.<String, String>emptyMap() );
+    doReturn( userParams ).when( provider ).getUserParameters( anyList() );
+
+    Element files = createContent();
+
+    verify( provider ).getUserParameters( Arrays.asList( "/public/sales.ktr", "/public/load.kjb" ) );
+    verify( provider, never() ).getUserParameters( any( String.class ) );
+    NodeList fileElements = files.getElementsByTagName( "file" );
+    assertEquals( 2, fileElements.getLength() );
+    assertFile( (Element) fileElements.item( 0 ), "/public/sales.ktr", "region" );
+    assertFile( (Element) fileElements.item( 1 ), "/public/load.kjb" );
+  }
+
+  private Element createContent() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.createContent( out );
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+      .parse( new ByteArrayInputStream( out.toByteArray() ) );
+    return document.getDocumentElement();
+  }
+
+  private static void assertFile( Element file, String path, String... parameterNames ) {
+    assertEquals( path, file.getAttribute( "path" ) );
+    assertEquals( Boolean.toString( parameterNames.length > 0 ), file.getAttribute( "has-parameters" ) );
+    NodeList parameters = file.getElementsByTagName( "parameter" );
+    assertEquals( parameterNames.length, parameters.getLength() );
+    for ( int i = 0; i < parameterNames.length; i++ ) {
+      assertEquals( parameterNames[ i ], ( (Element) parameters.item( i ) ).getAttribute( "name" ) );
+    }
+  }
+
+  private static RepositoryFile newFile( String path, boolean folder ) {
+    String name = path.substring( path.lastIndexOf( '/' ) + 1 );
+    return new RepositoryFile.Builder( name ).path( path ).folder( folder ).build();
+  }
+}
@@ -17,7 +17,9 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.memory.MemoryMetaData;
 import org.pentaho.commons.connection.memory.MemoryResultSet;
@@ -31,6 +33,7 @@ import org.pentaho.di.repository.filerep.KettleFileRepositoryMeta;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.platform.api.engine.ActionExecutionException;
 import org.pentaho.platform.api.engine.IAuthorizationPolicy;
 import org.pentaho.platform.api.engine.IPentahoSession;
@@ -52,21 +55,39 @@ import org.pentaho.test.platform.engine.core.MicroPlatform;
 import org.springframework.security.core.userdetails.UserDetailsService;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 public class PdiActionTest {
@@ -86,6 +107,9 @@ public class PdiActionTest {
 
   MicroPlatform mp = new MicroPlatform( SOLUTION_REPOSITORY );
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Before
   public void init() throws SchedulerException, PlatformInitializationException {
     System.setProperty( "java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory" );
@@ -191,6 +215,36 @@ public class PdiActionTest {
     component.execute();
   }
 
+  @Test
+  public void testFailedJobIsResumedWithTheSameInputs() throws Exception {
+    File checkpoints = temporaryFolder.newFolder();
+    PdiAction failed = getCheckpointedJobAction( checkpoints, "lineage-1", false );
+    failed.execute();
+
+    assertFalse( failed.isExecutionSuccessful() );
+    File[] files = checkpoints.listFiles();
+    assertEquals( 1, files.length );
+    Properties checkpoint = new Properties();
+    try ( InputStream inputStream = new FileInputStream( files[ 0 ] ) ) {
+      checkpoint.load( inputStream );
+    }
+    assertEquals( "Ping a host", checkpoint.getProperty( "resume.name" ) );
+
+    // move the resume entry past the failing one, to tell a resumed execution from one starting over
+    checkpoint.setProperty( "resume.name", "Success" );
+    try ( OutputStream outputStream = new FileOutputStream( files[ 0 ] ) ) {
+      checkpoint.store( outputStream, null );
+    }
+
+    // scheduled again: its bookkeeping arguments differ, its inputs do not
+    PdiAction resumed = getCheckpointedJobAction( checkpoints, "lineage-2", true );
+    resumed.execute();
+
+    assertTrue( resumed.isExecutionSuccessful() );
+    // went all the way through, there is nothing left to resume
+    assertEquals( 0, checkpoints.listFiles().length );
+  }
+
   @Test
   public void testTransformationInjector() throws Exception {
 
@@ -216,7 +270,7 @@ public class PdiActionTest {
     assertEquals( 1, component.getTransformationOutputRowsCount() );
     assertEquals( 0, component.getTransformationOutputErrorRowsCount() );
 
-    IPentahoResultSet rows = component.getTransformationOutputRows();
+    IPentahoResultSet rows = component.getTransformationOutputResultSet();
     assertNotNull( rows );
     assertEquals( 1, rows.getRowCount() );
 
@@ -224,9 +278,12 @@ public class PdiActionTest {
     assertEquals( "Sales", rows.getValueAt( 0, 1 ) );
     assertEquals( "test title", rows.getValueAt( 0, 2 ) );
     assertEquals( "Hello, test title", rows.getValueAt( 0, 3 ) );
+    // the same rows through the accessor returning a MemoryResultSet, not copied
+    assertSame( rows, component.getTransformationOutputRows() );
 
-    rows = component.getTransformationOutputErrorRows();
+    rows = component.getTransformationOutputErrorResultSet();
     assertNotNull( rows );
+    assertNotNull( component.getTransformationOutputErrorRows() );
 
     String log = component.getLog();
     assertTrue( log.contains( "Injector" ) );
@@ -363,6 +420,88 @@ public class PdiActionTest {
     }
   }
 
+  @Test
+  public void testWatermark() throws Exception {
+    File watermarks = new File( temporaryFolder.getRoot(), "watermarks.properties" );
+    String success = "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_success.ktr";
+    String failure = "/org/pentaho/platform/plugin/kettle/PdiActionTest_testTransformationExecutionFailure.ktr";
+    FileWatermarkStore store = new FileWatermarkStore( watermarks );
+    List<Trans> started = new ArrayList<>();
+
+    // committed once the execution succeeded
+    getWatermarkPdiAction( watermarks, success, "10", started ).execute();
+    assertEquals( "10", store.get( success + "#LAST_ID" ) );
+
+    // injected into the next execution
+    getWatermarkPdiAction( watermarks, success, null, started ).execute();
+    assertEquals( "10", started.get( 1 ).getVariable( "LAST_ID" ) );
+
+    // before the inputs, a value passed explicitly wins
+    getWatermarkPdiAction( watermarks, success, "20", started ).execute();
+    assertEquals( "20", started.get( 2 ).getVariable( "LAST_ID" ) );
+    assertEquals( "20", store.get( success + "#LAST_ID" ) );
+
+    // not committed when the execution failed
+    PdiAction failed = getWatermarkPdiAction( watermarks, failure, "99", started );
+    failed.execute();
+    assertFalse( failed.isExecutionSuccessful() );
+    assertNull( store.get( failure + "#LAST_ID" ) );
+  }
+
+  @Test
+  public void testGetHighestValue() {
+    MemoryResultSet rows = new MemoryResultSet( new MemoryMetaData( new String[][] { { "id", "updated" } }, null ) );
+    assertNull( PdiAction.getHighestValue( rows, "id" ) );
+
+    rows.addRow( new Object[] { 3L, "2024-01-02" } );
+    rows.addRow( new Object[] { 12L, "2024-01-03" } );
+    rows.addRow( new Object[] { null, "2024-01-01" } );
+    rows.addRow( new Object[] { 7L, null } );
+
+    assertEquals( "12", PdiAction.getHighestValue( rows, "id" ) );
+    assertEquals( "2024-01-03", PdiAction.getHighestValue( rows, "updated" ) );
+    assertNull( PdiAction.getHighestValue( rows, "missing" ) );
+  }
+
+  @Test
+  public void testSpilledRowsAreDeletedOnceTheActionIsReleased() throws Exception {
+    File spillDirectory = temporaryFolder.newFolder();
+    List<Trans> started = new ArrayList<>();
+    executeSpillingPdiAction( spillDirectory, started );
+
+    // the transformation is still in Carte, without the action as a row listener
+    for ( StepMetaDataCombi step : started.get( 0 ).getSteps() ) {
+      assertTrue( step.step.getRowListeners().isEmpty() );
+    }
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( 30 );
+    while ( spillDirectory.listFiles().length > 0 && System.currentTimeMillis() < deadline ) {
+      System.gc();
+      Thread.sleep( 100 );
+    }
+    assertEquals( 0, spillDirectory.listFiles().length );
+  }
+
+  @Test
+  public void testSpilledRowsAreDeletedWhenTheActionIsExecutedAgainOrDisposed() throws Exception {
+    File spillDirectory = temporaryFolder.newFolder();
+    PdiAction action = executeSpillingPdiAction( spillDirectory, new ArrayList<>() );
+    File[] firstRun = spillDirectory.listFiles();
+
+    // handed as they are, the spilled rows are not read back into memory
+    assertSame( action.getTransformationOutputResultSet(), action.getTransformationOutputRows() );
+    assertTrue( action.getTransformationOutputRows() instanceof SpillingResultSet );
+
+    action.execute();
+    for ( File file : firstRun ) {
+      assertFalse( file.exists() );
+    }
+    assertTrue( spillDirectory.listFiles().length > 0 );
+
+    action.disposeOutputRows();
+    assertEquals( 0, spillDirectory.listFiles().length );
+    assertNull( action.getTransformationOutputRows() );
+  }
+
   @Test
   public void testSetParamsIntoExecuteConfigInExecuteTrans() throws ActionExecutionException {
     PdiAction action = getSpyPdiAction();
@@ -474,6 +613,249 @@ public class PdiActionTest {
     verify( jobExecutionConfiguration ).setStartCopyName( TEST_START_COPY_NAME_PARAM );
   }
 
+  @Test
+  public void testExecuteAsyncCompletesWhenTheTransformationFinishes() throws Exception {
+    Repository repository = mock( Repository.class );
+    PdiAction action = getAsyncPdiAction( repository );
+    List<String> releasingThreads = new ArrayList<>();
+    doAnswer( invocation -> {
+      releasingThreads.add( Thread.currentThread().getName() );
+      return null;
+    } ).when( action ).releaseRepository( any() );
+    int running = PdiAdmissionController.getInstance().getRunning();
+    long clearCount = XMLHandlerCacheScope.getInstance().getClearCount();
+
+    PdiExecutionResult result = action.executeAsync().get( 30, TimeUnit.SECONDS );
+
+    assertTrue( result.isSuccessful() );
+    assertTrue( result.getOutputRowsCount() >= 0 );
+    // completed by the listener of the transformation, not by the caller
+    assertEquals( 1, releasingThreads.size() );
+    assertTrue( releasingThreads.get( 0 ).startsWith( "PdiAction-completion-" ) );
+    verify( action, times( 1 ) ).releaseRepository( repository );
+    assertReleasedOnce( running, clearCount );
+  }
+
+  @Test
+  public void testExecuteAsyncFailsWhenTheTransformationCannotStart() throws Exception {
+    Repository repository = mock( Repository.class );
+    PdiAction action = getAsyncPdiAction( repository );
+    doThrow( new IllegalStateException( "cannot start" ) ).when( action ).newTrans( any() );
+    int running = PdiAdmissionController.getInstance().getRunning();
+    long clearCount = XMLHandlerCacheScope.getInstance().getClearCount();
+
+    CompletableFuture<PdiExecutionResult> future = action.executeAsync();
+    try {
+      future.get( 30, TimeUnit.SECONDS );
+      fail();
+    } catch ( ExecutionException e ) {
+      assertTrue( e.getCause() instanceof ActionExecutionException );
+      assertEquals( "cannot start", e.getCause().getCause().getMessage() );
+    }
+
+    verify( action, times( 1 ) ).releaseRepository( repository );
+    assertReleasedOnce( running, clearCount );
+  }
+
+  @Test
+  public void testExecuteAsyncDoesNotWaitForAnExecutionSlot() throws Exception {
+    Repository repository = mock( Repository.class );
+    PdiAction action = getAsyncPdiAction( repository );
+    PdiAdmissionController admissionController = PdiAdmissionController.getInstance();
+    int running = admissionController.getRunning();
+    // every slot is taken
+    doReturn( String.valueOf( running + 1 ) ).when( action.getPluginSettings() )
+      .getProperty( PdiAction.MAX_CONCURRENT_EXECUTIONS_PROPERTY );
+    admissionController.setMaxConcurrent( running + 1 );
+    PdiAdmissionController.Permit taken = admissionController.acquire( PdiAdmissionController.Priority.INTERACTIVE );
+    long clearCount = XMLHandlerCacheScope.getInstance().getClearCount();
+
+    CompletableFuture<PdiExecutionResult> future = action.executeAsync();
+
+    assertFalse( future.isDone() );
+    assertEquals( 1, admissionController.getQueueDepth() );
+    verify( action, never() ).connectToRepository();
+
+    taken.release();
+    assertTrue( future.get( 30, TimeUnit.SECONDS ).isSuccessful() );
+    verify( action, times( 1 ) ).releaseRepository( repository );
+    assertReleasedOnce( running, clearCount );
+  }
+
+  @Test
+  public void testExecuteOnVirtualThreads() throws Exception {
+    assumeTrue( PdiOrchestrationExecutor.getInstance().isSupported() );
+    Repository repository = mock( Repository.class );
+    PdiAction action = getAsyncPdiAction( repository );
+    doReturn( "true" ).when( action.getPluginSettings() ).getProperty( PdiAction.VIRTUAL_THREADS_PROPERTY );
+    List<Thread> connectingThreads = new ArrayList<>();
+    List<String> connectingUsers = new ArrayList<>();
+    doAnswer( invocation -> {
+      connectingThreads.add( Thread.currentThread() );
+      connectingUsers.add( PentahoSessionHolder.getSession().getName() );
+      return repository;
+    } ).when( action ).connectToRepository();
+    int running = PdiAdmissionController.getInstance().getRunning();
+    long clearCount = XMLHandlerCacheScope.getInstance().getClearCount();
+
+    action.execute();
+
+    assertTrue( action.getExecutionResult().isSuccessful() );
+    assertEquals( 1, connectingThreads.size() );
+    assertTrue( isVirtual( connectingThreads.get( 0 ) ) );
+    assertEquals( TEST_USER, connectingUsers.get( 0 ) );
+    verify( action, times( 1 ) ).releaseRepository( repository );
+    assertReleasedOnce( running, clearCount );
+
+    // and so do the asynchronous executions
+    assertTrue( action.executeAsync().get( 30, TimeUnit.SECONDS ).isSuccessful() );
+    assertEquals( 2, connectingThreads.size() );
+    assertTrue( isVirtual( connectingThreads.get( 1 ) ) );
+  }
+
+  @Test
+  public void testExecutionsOfTwoUsersAreNeverCoalesced() throws Exception {
+    PdiAction action = getAsyncPdiAction( mock( Repository.class ) );
+    doReturn( "/" ).when( action.getPluginSettings() ).getProperty( PdiAction.COALESCED_PATHS_PROPERTY );
+    PdiExecutionCoalescer coalescer = PdiExecutionCoalescer.getInstance();
+
+    String key = action.getCoalescingKey();
+    assertNotNull( key );
+    assertEquals( key, action.getCoalescingKey() );
+
+    SecurityHelper.getInstance().becomeUser( "OtherUser" );
+    String otherKey = action.getCoalescingKey();
+    assertNotNull( otherKey );
+    assertNotEquals( key, otherKey );
+
+    // the same inputs, yet each user runs its own execution
+    PdiExecutionCoalescer.Flight flight = coalescer.join( key );
+    PdiExecutionCoalescer.Flight otherFlight = coalescer.join( otherKey );
+    try {
+      assertTrue( flight.isLeader() );
+      assertTrue( otherFlight.isLeader() );
+    } finally {
+      flight.complete( action );
+      otherFlight.complete( action );
+      coalescer.setPaths( null );
+    }
+  }
+
+  private static boolean isVirtual( Thread thread ) throws Exception {
+    // Java 21 or later
+    return (Boolean) Thread.class.getMethod( "isVirtual" ).invoke( thread );
+  }
+
+  /**
+   * Returns a PdiAction running the successful transformation of the content generator tests over the given repository
+   */
+  private PdiAction getAsyncPdiAction( Repository repository ) throws Exception {
+    String transformation = "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_success.ktr";
+    PdiAction action = getSpyPdiAction();
+    action.setRepositoryName( KettleFileRepositoryMeta.REPOSITORY_TYPE_ID );
+    action.setDirectory( SOLUTION_REPOSITORY );
+    action.setTransformation( transformation );
+
+    EngineMetaCache metaCache = mock( EngineMetaCache.class );
+    doAnswer( invocation -> new TransMeta( SOLUTION_REPOSITORY + transformation ) ).when( metaCache )
+      .getTransMeta( any(), any(), any() );
+    doReturn( metaCache ).when( action ).getMetaCache();
+    doReturn( repository ).when( action ).connectToRepository();
+    doNothing().when( action ).releaseRepository( any() );
+    return action;
+  }
+
+  /**
+   * Asserts that the execution slot and the XML node cache scope were given back once
+   */
+  private static void assertReleasedOnce( int running, long clearCount ) {
+    assertEquals( running, PdiAdmissionController.getInstance().getRunning() );
+    assertEquals( 0, XMLHandlerCacheScope.getInstance().getActiveExecutions() );
+    // the cache is cleared each time the scope is exited with no execution left
+    assertEquals( clearCount + 1, XMLHandlerCacheScope.getInstance().getClearCount() );
+  }
+
+  /**
+   * Executes a transformation writing the rows of its monitored step to the given folder, recording the transformation
+   * it starts. The action is not a spy, Mockito would keep it from being released.
+   */
+  private PdiAction executeSpillingPdiAction( File spillDirectory, List<Trans> started ) throws Exception {
+    Properties settings = new Properties();
+    settings.setProperty( PdiAction.OUTPUT_ROWS_MEMORY_THRESHOLD_PROPERTY, "1" );
+    settings.setProperty( PdiAction.OUTPUT_ROWS_SPILL_DIR_PROPERTY, spillDirectory.getAbsolutePath() );
+    PdiAction action = new PdiAction() {
+      @Override
+      Properties getPluginSettings() {
+        return settings;
+      }
+
+      @Override
+      Trans newTrans( TransMeta transMeta ) {
+        Trans trans = super.newTrans( transMeta );
+        started.add( trans );
+        return trans;
+      }
+    };
+    action.setRepositoryName( KettleFileRepositoryMeta.REPOSITORY_TYPE_ID );
+    action.setDirectory( SOLUTION_REPOSITORY );
+    action.setTransformation( "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_success.ktr" );
+    action.setMonitorStep( "result" );
+
+    action.execute();
+
+    assertTrue( action.isExecutionSuccessful() );
+    assertTrue( action.getTransformationOutputRowsCount() > 1 );
+    assertTrue( spillDirectory.listFiles().length > 0 );
+    return action;
+  }
+
+  /**
+   * Returns a PdiAction running the given transformation with the LAST_ID watermark kept in the given file, recording
+   * the transformations it starts
+   */
+  private PdiAction getWatermarkPdiAction( File watermarks, String transformation, String lastId, List<Trans> started ) {
+    PdiAction action = getSpyPdiAction();
+    doReturn( watermarks.getAbsolutePath() ).when( action.getPluginSettings() )
+      .getProperty( PdiAction.WATERMARK_FILE_PROPERTY );
+    action.setRepositoryName( KettleFileRepositoryMeta.REPOSITORY_TYPE_ID );
+    action.setDirectory( SOLUTION_REPOSITORY );
+    action.setTransformation( transformation );
+    action.setWatermarkVariable( "LAST_ID" );
+    if ( lastId != null ) {
+      action.setVariables( Collections.singletonMap( "LAST_ID", lastId ) );
+    }
+    doAnswer( invocation -> {
+      Trans trans = (Trans) invocation.callRealMethod();
+      started.add( trans );
+      return trans;
+    } ).when( action ).newTrans( any() );
+    return action;
+  }
+
+  /**
+   * Returns a PdiAction running the failing job of the content generator tests, recording its progress in the given
+   * folder, as scheduled with the given lineage
+   */
+  private PdiAction getCheckpointedJobAction( File checkpoints, String lineageId, boolean resume ) {
+    PdiAction action = getSpyPdiAction();
+    Properties settings = action.getPluginSettings();
+    doReturn( "true" ).when( settings ).getProperty( PdiAction.JOB_CHECKPOINTS_PROPERTY );
+    doReturn( checkpoints.getAbsolutePath() ).when( settings ).getProperty( PdiAction.JOB_CHECKPOINT_DIR_PROPERTY );
+    action.setRepositoryName( KettleFileRepositoryMeta.REPOSITORY_TYPE_ID );
+    action.setDirectory( SOLUTION_REPOSITORY );
+    action.setJob( "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_fail.kjb" );
+    Map<String, Object> varArgs = new HashMap<>();
+    varArgs.put( "lineage-id", lineageId );
+    varArgs.put( "ActionAdapterQuartzJob-ActionUser", TEST_USER );
+    if ( resume ) {
+      // set from the parameters of the schedule, which also end up in the arguments
+      varArgs.put( "resume", "true" );
+      action.setResume( "true" );
+    }
+    action.setVarArgs( varArgs );
+    return action;
+  }
+
   public class TestAuthorizationPolicy implements IAuthorizationPolicy {
 
     List<String> allowedActions = new ArrayList<>();
@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.plugin.kettle.PdiAdmissionController.Permit;
+import org.pentaho.platform.plugin.kettle.PdiAdmissionController.Priority;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PdiAdmissionControllerTest {
+
+  private PdiAdmissionController admissionController;
+
+  @Before
+  public void setUp() {
+    admissionController = new PdiAdmissionController();
+    admissionController.setMaxConcurrent( 1 );
+  }
+
+  @Test
+  public void testUnlimited() throws Exception {
+    admissionController.setMaxConcurrent( 0 );
+
+    admissionController.acquire( Priority.SCHEDULED );
+    admissionController.acquire( Priority.SCHEDULED );
+
+    assertEquals( 2, admissionController.getRunning() );
+    assertEquals( 0, admissionController.getQueueDepth() );
+  }
+
+  @Test
+  public void testReleaseTwice() throws Exception {
+    admissionController.setMaxConcurrent( 2 );
+    Permit permit = admissionController.acquire( Priority.SCHEDULED );
+    admissionController.acquire( Priority.SCHEDULED );
+
+    permit.release();
+    permit.release();
+
+    assertEquals( 1, admissionController.getRunning() );
+  }
+
+  @Test
+  public void testInteractiveExecutionsGoFirst() throws Exception {
+    Permit running = admissionController.acquire( Priority.SCHEDULED );
+    List<String> order = new CopyOnWriteArrayList<>();
+
+    Thread scheduled1 = start( Priority.SCHEDULED, "scheduled1", order );
+    Thread scheduled2 = start( Priority.SCHEDULED, "scheduled2", order );
+    Thread background = start( Priority.BACKGROUND, "background", order );
+    Thread interactive = start( Priority.INTERACTIVE, "interactive", order );
+    assertEquals( 4, admissionController.getQueueDepth() );
+    assertEquals( 2, admissionController.getQueueDepth( Priority.SCHEDULED ) );
+
+    running.release();
+    for ( Thread thread : new Thread[] { scheduled1, scheduled2, background, interactive } ) {
+      thread.join( TimeUnit.SECONDS.toMillis( 10 ) );
+    }
+
+    assertEquals( "[interactive, background, scheduled1, scheduled2]", order.toString() );
+    assertEquals( 0, admissionController.getRunning() );
+    assertEquals( 3, admissionController.getAdmittedCount( Priority.SCHEDULED ) );
+    assertEquals( 2, admissionController.getWaitedCount( Priority.SCHEDULED ) );
+    assertTrue( admissionController.getMaxWaitMillis( Priority.SCHEDULED ) >= 0 );
+  }
+
+  @Test
+  public void testSlotsAreSharedBetweenUsers() throws Exception {
+    admissionController.setMaxConcurrent( 2 );
+    admissionController.acquire( Priority.SCHEDULED, "heavy", null );
+    Permit other = admissionController.acquire( Priority.SCHEDULED, "other", null );
+    List<String> order = new CopyOnWriteArrayList<>();
+
+    Thread heavy1 = start( Priority.SCHEDULED, "heavy", "heavy1", order );
+    Thread heavy2 = start( Priority.SCHEDULED, "heavy", "heavy2", order );
+    Thread light = start( Priority.SCHEDULED, "light", "light", order );
+
+    other.release();
+    light.join( TimeUnit.SECONDS.toMillis( 10 ) );
+    heavy1.join( TimeUnit.SECONDS.toMillis( 10 ) );
+    heavy2.join( TimeUnit.SECONDS.toMillis( 10 ) );
+
+    // the light user has no running execution, the heavy user has one
+    assertEquals( "[light, heavy1, heavy2]", order.toString() );
+    assertEquals( 1, admissionController.getRunning( "heavy" ) );
+  }
+
+  @Test
+  public void testCost() throws Exception {
+    admissionController.setMaxConcurrent( 10 );
+    Permit big = admissionController.acquire( Priority.SCHEDULED, null, null, 8 );
+    List<String> order = new CopyOnWriteArrayList<>();
+
+    Thread waiting = start( Priority.SCHEDULED, null, 4, "waiting", order );
+    assertEquals( 1, admissionController.getQueueDepth() );
+    big.release();
+    waiting.join( TimeUnit.SECONDS.toMillis( 10 ) );
+
+    assertEquals( "[waiting]", order.toString() );
+    // more than the whole limit, runs alone
+    admissionController.acquire( Priority.SCHEDULED, null, null, 20 );
+    assertEquals( 20, admissionController.getRunning() );
+  }
+
+  @Test
+  public void testRoleWeights() {
+    Map<String, Integer> weights = PdiAdmissionController.parseRoleWeights( "Administrator=4, Power User = 2,bad=x,=3" );
+
+    assertEquals( 2, weights.size() );
+    assertEquals( Integer.valueOf( 4 ), weights.get( "Administrator" ) );
+    assertEquals( Integer.valueOf( 2 ), weights.get( "Power User" ) );
+  }
+
+  @Test
+  public void testInterruptedWhileWaiting() throws Exception {
+    admissionController.acquire( Priority.SCHEDULED );
+    Thread waiting = start( Priority.SCHEDULED, "waiting", new CopyOnWriteArrayList<>() );
+
+    waiting.interrupt();
+    waiting.join( TimeUnit.SECONDS.toMillis( 10 ) );
+
+    assertEquals( 0, admissionController.getQueueDepth() );
+    assertEquals( 1, admissionController.getRunning() );
+  }
+
+  @Test
+  public void testAcquireAsync() throws Exception {
+    CompletableFuture<Permit> first = admissionController.acquireAsync( Priority.SCHEDULED, null, null, 1 );
+    assertTrue( first.isDone() );
+
+    CompletableFuture<Permit> second = admissionController.acquireAsync( Priority.SCHEDULED, null, null, 1 );
+    assertFalse( second.isDone() );
+    assertEquals( 1, admissionController.getQueueDepth() );
+
+    first.get().release();
+    assertTrue( second.isDone() );
+    assertEquals( 0, admissionController.getQueueDepth() );
+    assertEquals( 1, admissionController.getRunning() );
+    assertEquals( 1, admissionController.getWaitedCount( Priority.SCHEDULED ) );
+
+    second.get().release();
+    assertEquals( 0, admissionController.getRunning() );
+  }
+
+  @Test
+  public void testAcquireAsyncCancelled() throws Exception {
+    admissionController.setMaxConcurrent( 10 );
+    Permit running = admissionController.acquire( Priority.SCHEDULED, null, null, 8 );
+    CompletableFuture<Permit> big = admissionController.acquireAsync( Priority.INTERACTIVE, null, null, 4 );
+    CompletableFuture<Permit> small = admissionController.acquireAsync( Priority.SCHEDULED, null, null, 2 );
+    assertEquals( 2, admissionController.getQueueDepth() );
+
+    big.cancel( false );
+    // no longer held back by the cancelled one
+    assertEquals( 0, admissionController.getQueueDepth() );
+    assertTrue( small.isDone() && !small.isCancelled() );
+    assertEquals( 10, admissionController.getRunning() );
+
+    running.release();
+    small.get().release();
+    assertEquals( 0, admissionController.getRunning() );
+  }
+
+  /**
+   * Starts a thread that waits to be admitted, records its name and releases its permit right away
+   */
+  private Thread start( Priority priority, String name, List<String> order ) throws InterruptedException {
+    return start( priority, null, name, order );
+  }
+
+  private Thread start( Priority priority, String user, String name, List<String> order )
+    throws InterruptedException {
+    return start( priority, user, 1, name, order );
+  }
+
+  private Thread start( Priority priority, String user, int cost, String name, List<String> order )
+    throws InterruptedException {
+    int depth = admissionController.getQueueDepth();
+    Thread thread = new Thread( () -> {
+      try {
+        Permit permit = admissionController.acquire( priority, user, null, cost );
+        order.add( name );
+        permit.release();
+      } catch ( InterruptedException e ) {
+        // not admitted
+      }
+    } );
+    thread.start();
+    // make sure it is queued before starting the next one
+    while ( admissionController.getQueueDepth() == depth ) {
+      Thread.sleep( 10 );
+    }
+    return thread;
+  }
+}
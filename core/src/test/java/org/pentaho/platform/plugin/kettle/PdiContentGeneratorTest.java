@@ -16,13 +16,18 @@ package org.pentaho.platform.plugin.kettle;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -32,6 +37,7 @@ import org.pentaho.platform.plugin.kettle.messages.Messages;
 import org.pentaho.test.platform.engine.core.MicroPlatform;
 import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.pentaho.platform.api.engine.ActionExecutionException;
 import org.pentaho.platform.api.engine.IAuthorizationPolicy;
 import org.pentaho.platform.api.engine.ISolutionEngine;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
@@ -39,7 +45,9 @@ import org.pentaho.platform.repository2.unified.fs.FileSystemBackedUnifiedReposi
 import org.pentaho.platform.engine.services.solution.SolutionEngine;
 //import org.pentaho.platform.scheduler2.quartz.QuartzScheduler;
 import org.pentaho.platform.api.scheduler2.IScheduler;
+import org.pentaho.platform.api.engine.IParameterProvider;
 import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.solution.SimpleParameterProvider;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
 
@@ -111,6 +119,68 @@ public class PdiContentGeneratorTest {
     assertTrue( output.contains( Messages.getInstance().getString( "PdiAction.STATUS_SUCCESS_HEADING" ) ) );
   }
 
+  @Test
+  public void testExecuteStreaming_KTR() throws Exception {
+    ByteArrayOutputStream out = setStreamingRequest( "result" );
+
+    assertEquals( "application/x-ndjson", pdiContentGenerator.getMimeType( null ) );
+    pdiContentGenerator.execute();
+
+    assertTrue( pdiAction.getTransformationOutputRowsCount() > 0 );
+    String[] lines = new String( out.toByteArray(), StandardCharsets.UTF_8 ).split( "\n" );
+    assertEquals( pdiAction.getTransformationOutputRowsCount(), lines.length );
+    for ( String line : lines ) {
+      assertTrue( line.startsWith( "{" ) && line.endsWith( "}" ) );
+    }
+    // streamed, not kept in memory
+    assertNull( pdiAction.getTransformationOutputRows() );
+    assertNull( pdiAction.getTransformationOutputErrorRows() );
+  }
+
+  @Test
+  public void testExecuteStreamingFailureEndsWithAnErrorRecord_KTR() throws Exception {
+    ByteArrayOutputStream out = setStreamingRequest( "result" );
+    // the rows are streamed, then the run is reported as failed
+    doReturn( false ).when( pdiAction ).isExecutionSuccessful();
+
+    try {
+      pdiContentGenerator.execute();
+      fail();
+    } catch ( ActionExecutionException ex ) {
+      // the response fails as well
+    }
+    String[] lines = new String( out.toByteArray(), StandardCharsets.UTF_8 ).split( "\n" );
+    assertEquals( pdiAction.getTransformationOutputRowsCount() + 1, lines.length );
+    assertTrue( lines[ lines.length - 2 ].startsWith( "{\"" ) );
+    assertTrue( lines[ lines.length - 1 ].startsWith( "{\"" + RowStreamWriter.ERROR_FIELD + "\":" ) );
+  }
+
+  @Test
+  public void testExecuteStreamingUnknownStep_KTR() throws Exception {
+    ByteArrayOutputStream out = setStreamingRequest( "unknown" );
+
+    try {
+      pdiContentGenerator.execute();
+      fail();
+    } catch ( Exception ex ) {
+      // an empty response would look complete
+    }
+    assertEquals( 0, out.size() );
+  }
+
+  private ByteArrayOutputStream setStreamingRequest( String monitorStep ) {
+    when( repositoryFile.getPath() ).thenReturn( "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_success.ktr" );
+    when( repositoryFile.getName() ).thenReturn( "PdiContentGeneratorTest_success.ktr" );
+    SimpleParameterProvider requestParams = new SimpleParameterProvider();
+    requestParams.setParameter( PdiContentGenerator.OUTPUT_PARAMETER, "jsonl" );
+    requestParams.setParameter( PdiContentGenerator.MONITOR_STEP_PARAMETER, monitorStep );
+    pdiContentGenerator.setParameterProviders(
+      Collections.<String, IParameterProvider>singletonMap( IParameterProvider.SCOPE_REQUEST, requestParams ) );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pdiContentGenerator.setOutputStream( out );
+    return out;
+  }
+
   @Test
   public void testExecuteFailure_KTR() {
     testExecuteFailure( "/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_fail.ktr", "PdiContentGeneratorTest_fail.ktr" );
@@ -0,0 +1,73 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class PdiExecutionCoalescerTest {
+
+  private PdiExecutionCoalescer coalescer;
+
+  @Before
+  public void setUp() {
+    coalescer = new PdiExecutionCoalescer();
+    coalescer.setPaths( PdiExecutionCoalescer.parsePaths( " /public/dashboards/ , /public/sales.ktr," ) );
+  }
+
+  @Test
+  public void testIsCoalesced() {
+    assertTrue( coalescer.isCoalesced( "/public/dashboards/kpi/daily.ktr" ) );
+    assertTrue( coalescer.isCoalesced( "/public/sales.ktr" ) );
+    assertFalse( coalescer.isCoalesced( "/public/sales.kjb" ) );
+    assertFalse( coalescer.isCoalesced( "/public/dashboards.ktr" ) );
+    assertFalse( coalescer.isCoalesced( null ) );
+  }
+
+  @Test
+  public void testFollowersGetTheOutcomeOfTheLeader() throws Exception {
+    PdiAction action = mock( PdiAction.class );
+
+    PdiExecutionCoalescer.Flight leader = coalescer.join( "key" );
+    PdiExecutionCoalescer.Flight follower = coalescer.join( "key" );
+    PdiExecutionCoalescer.Flight other = coalescer.join( "other" );
+    assertTrue( leader.isLeader() );
+    assertFalse( follower.isLeader() );
+    assertTrue( other.isLeader() );
+
+    leader.complete( action );
+
+    assertSame( action, follower.await() );
+    assertEquals( 1, coalescer.getCoalescedCount() );
+    assertEquals( 1, coalescer.getRunningCount() );
+    // the flight is over, the next execution runs again
+    assertTrue( coalescer.join( "key" ).isLeader() );
+  }
+
+  @Test( expected = IllegalStateException.class )
+  public void testFollowersGetTheErrorOfTheLeader() throws Exception {
+    PdiExecutionCoalescer.Flight leader = coalescer.join( "key" );
+    PdiExecutionCoalescer.Flight follower = coalescer.join( "key" );
+
+    leader.fail( new IllegalStateException() );
+
+    follower.await();
+  }
+}
@@ -0,0 +1,85 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load test of the orchestration on virtual threads: a thousand executions waiting for their end at the same time.
+ * Only runs on Java 21 or later.
+ */
+public class PdiOrchestrationExecutorTest {
+
+  private static final int EXECUTIONS = 1000;
+
+  private static final long EXECUTION_MILLIS = 2000;
+
+  private PdiOrchestrationExecutor orchestrationExecutor;
+
+  @Before
+  public void setUp() {
+    orchestrationExecutor = new PdiOrchestrationExecutor();
+    assumeTrue( orchestrationExecutor.isSupported() );
+  }
+
+  @Test
+  public void testWaitingExecutionsDoNotHoldPlatformThreads() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    int platformThreadsBefore = threads.getThreadCount();
+    ExecutorService executor = orchestrationExecutor.getExecutor();
+    CountDownLatch waiting = new CountDownLatch( EXECUTIONS );
+    CountDownLatch finished = new CountDownLatch( EXECUTIONS );
+    AtomicInteger completed = new AtomicInteger();
+
+    long start = System.nanoTime();
+    for ( int i = 0; i < EXECUTIONS; i++ ) {
+      executor.execute( () -> {
+        waiting.countDown();
+        try {
+          // stands for waitUntilFinished() on a long running job
+          Thread.sleep( EXECUTION_MILLIS );
+          completed.incrementAndGet();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        } finally {
+          finished.countDown();
+        }
+      } );
+    }
+
+    assertTrue( waiting.await( 30, TimeUnit.SECONDS ) );
+    // virtual threads are not counted, only their few carrier threads
+    int platformThreadsWhileWaiting = threads.getThreadCount();
+    assertTrue( finished.await( 60, TimeUnit.SECONDS ) );
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+    assertEquals( EXECUTIONS, completed.get() );
+    assertTrue( "platform threads: " + platformThreadsBefore + " -> " + platformThreadsWhileWaiting,
+      platformThreadsWhileWaiting - platformThreadsBefore < 2 * Runtime.getRuntime().availableProcessors() + 10 );
+    // all the executions waited at the same time: the throughput is bound by their duration, not by a thread pool
+    assertTrue( "elapsed: " + elapsedMillis + " ms", elapsedMillis < 5 * EXECUTION_MILLIS );
+  }
+}
@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Test;
+import org.pentaho.di.core.parameters.NamedParams;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PdiParameterExtractorTest {
+
+  private static final String SOLUTION_FOLDER = "target/test-classes/solution/org/pentaho/platform/plugin/kettle/";
+
+  @Test
+  public void testTransformationParameters() throws Exception {
+    NamedParams params = extract( SOLUTION_FOLDER + "UserParametersTest.ktr" );
+
+    assertArrayEquals( new String[] { "_protected", "myRadius", "myZip", "public" }, params.listParameters() );
+  }
+
+  @Test
+  public void testJobParameters() throws Exception {
+    NamedParams params = extract( SOLUTION_FOLDER + "UserParametersTest.kjb" );
+
+    assertArrayEquals( new String[] { "_protected", "public" }, params.listParameters() );
+    assertEquals( "visible", params.getParameterDefault( "public" ) );
+  }
+
+  @Test
+  public void testNestedParametersAreIgnored() throws Exception {
+    NamedParams params = extract( "<job><name>job</name><entries><entry><parameters><parameter><name>nested</name>"
+      + "</parameter></parameters></entry></entries><parameters><parameter><name>late</name></parameter>"
+      + "</parameters></job>" );
+
+    assertEquals( 0, params.listParameters().length );
+  }
+
+  @Test( expected = XMLStreamException.class )
+  public void testNotAKettleFile() throws Exception {
+    extract( "<report/>" );
+  }
+
+  private static NamedParams extract( String fileOrXml ) throws Exception {
+    try ( InputStream inputStream = fileOrXml.startsWith( "<" )
+      ? new ByteArrayInputStream( fileOrXml.getBytes( StandardCharsets.UTF_8 ) )
+      : new FileInputStream( fileOrXml ) ) {
+      return PdiParameterExtractor.extract( inputStream );
+    }
+  }
+}
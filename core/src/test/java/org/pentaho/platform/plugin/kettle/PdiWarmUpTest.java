@@ -0,0 +1,105 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class PdiWarmUpTest {
+
+  private PdiWarmUp warmUp;
+
+  @Before
+  public void setUp() throws Exception {
+    warmUp = spy( new PdiWarmUp() );
+    warmUp.setEnabled( true );
+    doReturn( true ).when( warmUp ).isPlatformInitialized();
+    doReturn( Arrays.asList(
+      new PdiWarmUp.ScheduledFile( "/public/load.ktr", "admin" ),
+      new PdiWarmUp.ScheduledFile( "/public/missing.ktr", "admin" ),
+      new PdiWarmUp.ScheduledFile( "/public/run.kjb", "suzy" ) ) ).when( warmUp ).initialize();
+  }
+
+  @After
+  public void tearDown() {
+    warmUp.stop();
+  }
+
+  @Test
+  public void testReadyOnceEveryFileIsLoadedOrFailed() throws Exception {
+    CountDownLatch loading = new CountDownLatch( 1 );
+    CountDownLatch release = new CountDownLatch( 1 );
+    doAnswer( invocation -> {
+      loading.countDown();
+      release.await();
+      return null;
+    } ).when( warmUp ).load( "/public/load.ktr", "admin" );
+    doThrow( new KettleException( "not found" ) ).when( warmUp ).load( "/public/missing.ktr", "admin" );
+    doNothing().when( warmUp ).load( "/public/run.kjb", "suzy" );
+
+    warmUp.start();
+    assertTrue( loading.await( 10, TimeUnit.SECONDS ) );
+    assertFalse( warmUp.isReady() );
+
+    release.countDown();
+    awaitReady();
+    assertEquals( 2, warmUp.getLoadedCount() );
+    assertEquals( 1, warmUp.getFailedCount() );
+  }
+
+  @Test
+  public void testReadyWhenTheWarmUpFails() throws Exception {
+    doThrow( new IllegalStateException( "no scheduler" ) ).when( warmUp ).initialize();
+
+    warmUp.start();
+    awaitReady();
+    assertEquals( 0, warmUp.getLoadedCount() );
+    assertEquals( 0, warmUp.getFailedCount() );
+  }
+
+  @Test
+  public void testReadyRightAwayWhenDisabled() throws Exception {
+    warmUp.setEnabled( false );
+
+    warmUp.start();
+    assertTrue( warmUp.isReady() );
+    verify( warmUp, never() ).load( anyString(), anyString() );
+  }
+
+  private void awaitReady() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( 10 );
+    while ( !warmUp.isReady() && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( warmUp.isReady() );
+  }
+}
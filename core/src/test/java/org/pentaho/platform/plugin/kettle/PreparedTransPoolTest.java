@@ -0,0 +1,190 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class PreparedTransPoolTest {
+
+  private final List<Trans> prepared = new CopyOnWriteArrayList<>();
+
+  private final AtomicLong now = new AtomicLong();
+
+  private PreparedTransPool pool;
+
+  private TransMeta transMeta;
+
+  @Before
+  public void setUp() {
+    // prepares the replacements right away, on the claiming thread
+    pool = new PreparedTransPool( Runnable::run ) {
+      @Override
+      Trans newPreparedTrans( TransMeta template ) {
+        Trans trans = mock( Trans.class );
+        prepared.add( trans );
+        return trans;
+      }
+
+      @Override
+      long currentTimeMillis() {
+        return now.get();
+      }
+    };
+    pool.setPaths( Collections.singletonList( "/public/dashboards/" ) );
+    transMeta = mock( TransMeta.class );
+    doReturn( transMeta ).when( transMeta ).realClone( false );
+  }
+
+  @Test
+  public void testIsPooled() {
+    assertTrue( pool.isPooled( "/public/dashboards/sales.ktr" ) );
+    assertFalse( pool.isPooled( "/public/other.ktr" ) );
+
+    pool.setSize( 0 );
+    assertFalse( pool.isPooled( "/public/dashboards/sales.ktr" ) );
+  }
+
+  @Test
+  public void testClaimedTransformationsAreReplaced() {
+    assertNull( pool.claim( "key", transMeta, null ) );
+    assertEquals( 2, prepared.size() );
+
+    Trans first = pool.claim( "key", transMeta, null );
+    Trans second = pool.claim( "key", transMeta, null );
+    assertSame( prepared.get( 0 ), first );
+    assertSame( prepared.get( 1 ), second );
+    assertNotSame( first, second );
+    assertEquals( 2, pool.getHitCount() );
+    assertEquals( 1, pool.getMissCount() );
+
+    // both replaced
+    assertEquals( 4, prepared.size() );
+    assertNotNull( pool.claim( "key", transMeta, null ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedKeysAreEvicted() throws Exception {
+    pool.setMaxKeys( 1 );
+    pool.claim( "first", transMeta, null );
+    pool.claim( "second", transMeta, null );
+
+    verify( prepared.get( 0 ) ).cleanup();
+    verify( prepared.get( 1 ) ).cleanup();
+    assertNull( pool.claim( "first", transMeta, null ) );
+    assertEquals( 0, pool.getHitCount() );
+  }
+
+  @Test
+  public void testIdleTransformationsAreDisposed() throws Exception {
+    pool.setMaxIdleTime( TimeUnit.MINUTES.toMillis( 10 ) );
+    pool.claim( "key", transMeta, null );
+
+    now.set( TimeUnit.MINUTES.toMillis( 10 ) );
+    pool.evictIdle();
+    verify( prepared.get( 0 ), never() ).cleanup();
+
+    // never handed out once too old, even before it is swept
+    now.set( TimeUnit.MINUTES.toMillis( 10 ) + 1 );
+    assertNull( pool.claim( "key", transMeta, null ) );
+    verify( prepared.get( 0 ) ).cleanup();
+    verify( prepared.get( 1 ) ).cleanup();
+    assertEquals( 4, prepared.size() );
+
+    now.set( TimeUnit.MINUTES.toMillis( 30 ) );
+    pool.evictIdle();
+    verify( prepared.get( 2 ) ).cleanup();
+    verify( prepared.get( 3 ) ).cleanup();
+    assertNull( pool.claim( "key", transMeta, null ) );
+  }
+
+  @Test
+  public void testClaimAndColdPreparationTimes() {
+    assertEquals( 0, pool.getAverageClaimMicros() );
+    assertEquals( 0, pool.getAverageColdPrepareMicros() );
+
+    pool.recordColdPrepare( TimeUnit.MILLISECONDS.toNanos( 2 ) );
+    pool.recordColdPrepare( TimeUnit.MILLISECONDS.toNanos( 4 ) );
+    assertEquals( 3000, pool.getAverageColdPrepareMicros() );
+
+    pool.claim( "key", transMeta, null );
+    assertNotNull( pool.claim( "key", transMeta, null ) );
+    assertEquals( 1, pool.getHitCount() );
+    assertTrue( pool.getAverageClaimMicros() >= 0 );
+  }
+
+  @Test
+  public void testClaimIsFasterThanColdPreparation() throws Exception {
+    KettleEnvironment.init( false );
+    TransMeta template = new TransMeta(
+      "target/test-classes/solution/org/pentaho/platform/plugin/kettle/PdiContentGeneratorTest_success.ktr" );
+    // the replacements are prepared after each claim is timed, as the refill threads would
+    List<Runnable> refills = new ArrayList<>();
+    PreparedTransPool transPool = new PreparedTransPool( refills::add );
+    int runs = 50;
+
+    long coldNanos = 0;
+    for ( int i = 0; i < runs; i++ ) {
+      long start = System.nanoTime();
+      Trans trans = transPool.newPreparedTrans( template );
+      coldNanos += System.nanoTime() - start;
+      trans.cleanup();
+    }
+
+    transPool.claim( "key", template, null );
+    long claimNanos = 0;
+    for ( int i = 0; i < runs; i++ ) {
+      runRefills( refills );
+      long start = System.nanoTime();
+      Trans trans = transPool.claim( "key", template, null );
+      claimNanos += System.nanoTime() - start;
+      assertNotNull( trans );
+      trans.cleanup();
+    }
+    runRefills( refills );
+    transPool.clear();
+
+    System.out.println( "Cold preparation: " + coldNanos / runs / 1000 + " us" );
+    System.out.println( "Claim: " + claimNanos / runs / 1000 + " us" );
+    assertTrue( claimNanos < coldNanos );
+  }
+
+  private static void runRefills( List<Runnable> refills ) {
+    List<Runnable> pending = new ArrayList<>( refills );
+    refills.clear();
+    pending.forEach( Runnable::run );
+  }
+}
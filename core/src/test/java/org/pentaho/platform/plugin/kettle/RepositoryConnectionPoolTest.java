@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.repository.Repository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class RepositoryConnectionPoolTest {
+
+  private RepositoryConnectionPool pool;
+  private AtomicInteger connections;
+
+  @Before
+  public void setUp() {
+    pool = new RepositoryConnectionPool();
+    connections = new AtomicInteger();
+  }
+
+  @Test
+  public void testConnectionIsReused() throws Exception {
+    Repository first = pool.borrow( "repo", "user", this::connect );
+    pool.release( first );
+    Repository second = pool.borrow( "repo", "user", this::connect );
+
+    assertSame( first, second );
+    assertEquals( 1, connections.get() );
+    verify( first, never() ).disconnect();
+    assertEquals( 2, pool.getBorrowCount() );
+  }
+
+  @Test
+  public void testConnectionsAreKeptPerUser() throws Exception {
+    Repository first = pool.borrow( "repo", "user1", this::connect );
+    pool.release( first );
+
+    assertNotSame( first, pool.borrow( "repo", "user2", this::connect ) );
+    assertEquals( 2, connections.get() );
+  }
+
+  @Test
+  public void testInvalidConnectionIsDiscarded() throws Exception {
+    Repository first = pool.borrow( "repo", "user", this::connect );
+    pool.release( first );
+    doReturn( false ).when( first ).isConnected();
+
+    assertNotSame( first, pool.borrow( "repo", "user", this::connect ) );
+    verify( first ).disconnect();
+    assertEquals( 1, pool.getDestroyedCount() );
+  }
+
+  @Test
+  public void testFullPoolOpensAnUnpooledConnection() throws Exception {
+    pool.setMaxSize( 1 );
+    pool.setBorrowTimeout( 10 );
+    Repository pooled = pool.borrow( "repo", "user", this::connect );
+
+    Repository unpooled = pool.borrow( "repo", "user", this::connect );
+    assertNotSame( pooled, unpooled );
+    assertEquals( 2, connections.get() );
+    assertEquals( 1, pool.getOverflowCount() );
+
+    pool.release( unpooled );
+    verify( unpooled ).disconnect();
+    pool.release( pooled );
+    verify( pooled, never() ).disconnect();
+  }
+
+  @Test
+  public void testBorrowIfAvailableDoesNotWaitNorOverflow() throws Exception {
+    pool.setMaxSize( 1 );
+    pool.setBorrowTimeout( 60000 );
+    Repository pooled = pool.borrowIfAvailable( "repo", "user", this::connect );
+    assertNotNull( pooled );
+
+    assertNull( pool.borrowIfAvailable( "repo", "user", this::connect ) );
+    assertEquals( 1, connections.get() );
+    assertEquals( 0, pool.getOverflowCount() );
+
+    pool.release( pooled );
+    assertSame( pooled, pool.borrowIfAvailable( "repo", "user", this::connect ) );
+  }
+
+  @Test
+  public void testDiscardedConnectionIsDisconnected() throws Exception {
+    pool.setMaxSize( 1 );
+    Repository first = pool.borrow( "repo", "user", this::connect );
+    pool.discard( first );
+
+    // the slot is freed right away
+    Repository second = pool.borrow( "repo", "user", this::connect );
+    assertEquals( 0, pool.getOverflowCount() );
+
+    pool.release( first );
+    verify( first ).disconnect();
+    pool.release( second );
+    assertSame( second, pool.borrow( "repo", "user", this::connect ) );
+  }
+
+  @Test
+  public void testIdleConnectionsAreEvicted() throws Exception {
+    Repository repository = pool.borrow( "repo", "user", this::connect );
+    pool.release( repository );
+
+    pool.setMaxIdleTime( 0 );
+    pool.evictIdleConnections();
+
+    verify( repository ).disconnect();
+    assertNotSame( repository, pool.borrow( "repo", "user", this::connect ) );
+  }
+
+  @Test
+  public void testDisabledPoolDisconnects() throws Exception {
+    pool.setMaxSize( 0 );
+    Repository repository = pool.borrow( "repo", "user", this::connect );
+    pool.release( repository );
+
+    verify( repository ).disconnect();
+  }
+
+  @Test
+  public void testNoRepository() throws Exception {
+    pool.setMaxSize( 1 );
+    assertNull( pool.borrow( "repo", "user", () -> null ) );
+    // the slot is freed
+    pool.borrow( "repo", "user", this::connect );
+    assertEquals( 0, pool.getOverflowCount() );
+  }
+
+  private Repository connect() {
+    connections.incrementAndGet();
+    Repository repository = mock( Repository.class );
+    doReturn( true ).when( repository ).isConnected();
+    return repository;
+  }
+}
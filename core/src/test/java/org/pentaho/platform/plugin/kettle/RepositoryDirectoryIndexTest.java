@@ -0,0 +1,215 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.repository.IUser;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryDirectory;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RepositoryDirectoryIndexTest {
+
+  private RepositoryDirectoryIndex directoryIndex;
+  private Repository repository;
+  private RepositoryDirectoryInterface root;
+  private RepositoryDirectoryInterface publicDir;
+  private RepositoryDirectoryInterface salesDir;
+  private RepositoryDirectoryInterface hrDir;
+
+  @Before
+  public void setUp() throws Exception {
+    directoryIndex = new RepositoryDirectoryIndex();
+
+    root = mock( RepositoryDirectoryInterface.class );
+    publicDir = mock( RepositoryDirectoryInterface.class );
+    salesDir = mock( RepositoryDirectoryInterface.class );
+    hrDir = mock( RepositoryDirectoryInterface.class );
+    doReturn( publicDir ).when( root ).findChild( "public" );
+    doReturn( salesDir ).when( publicDir ).findChild( "sales" );
+    doReturn( hrDir ).when( publicDir ).findChild( "hr" );
+
+    repository = mock( Repository.class );
+    doReturn( "pur" ).when( repository ).getName();
+    doReturn( root ).when( repository ).loadRepositoryDirectoryTree();
+  }
+
+  @Test
+  public void testOnlyMissingSegmentsAreResolved() throws Exception {
+    assertSame( salesDir, directoryIndex.findDirectory( repository, "/public/sales" ) );
+    assertSame( hrDir, directoryIndex.findDirectory( repository, "public/hr/" ) );
+    assertSame( salesDir, directoryIndex.findDirectory( repository, "/public/sales" ) );
+
+    verify( repository, times( 1 ) ).loadRepositoryDirectoryTree();
+    verify( root, times( 1 ) ).findChild( "public" );
+    verify( publicDir, times( 1 ) ).findChild( "sales" );
+    assertEquals( 3, directoryIndex.size( repository ) );
+  }
+
+  @Test
+  public void testUnknownDirectory() throws Exception {
+    assertNull( directoryIndex.findDirectory( repository, "/public/unknown" ) );
+    assertEquals( 1, directoryIndex.size( repository ) );
+  }
+
+  @Test
+  public void testInvalidateDropsOnlyTheChangedBranch() throws Exception {
+    directoryIndex.findDirectory( repository, "/public/sales" );
+    directoryIndex.findDirectory( repository, "/public/hr" );
+
+    directoryIndex.invalidate( repository, "/public/sales" );
+    assertEquals( 1, directoryIndex.size( repository ) );
+
+    // hr is still indexed
+    assertSame( hrDir, directoryIndex.findDirectory( repository, "/public/hr" ) );
+    verify( repository, times( 1 ) ).loadRepositoryDirectoryTree();
+
+    // sales is looked up again on its own, the tree is not loaded again
+    RepositoryDirectoryInterface movedSalesDir = mock( RepositoryDirectoryInterface.class );
+    RepositoryDirectoryInterface europeDir = mock( RepositoryDirectoryInterface.class );
+    doReturn( movedSalesDir ).when( repository ).findDirectory( "/public/sales" );
+    doReturn( europeDir ).when( movedSalesDir ).findChild( "europe" );
+    assertSame( europeDir, directoryIndex.findDirectory( repository, "/public/sales/europe" ) );
+    assertSame( movedSalesDir, directoryIndex.findDirectory( repository, "/public/sales" ) );
+    verify( repository, times( 1 ) ).loadRepositoryDirectoryTree();
+    verify( repository, times( 1 ) ).findDirectory( "/public/sales" );
+    verify( publicDir, times( 1 ) ).findChild( "sales" );
+  }
+
+  @Test
+  public void testFailureInvalidatesOnlyTheFailedPath() throws Exception {
+    directoryIndex.findDirectory( repository, "/public/hr" );
+    doThrow( new IllegalStateException( "closed" ) ).when( publicDir ).findChild( "sales" );
+    doReturn( salesDir ).when( repository ).findDirectory( "/public/sales" );
+
+    assertSame( salesDir, directoryIndex.findDirectory( repository, "/public/sales" ) );
+    assertSame( hrDir, directoryIndex.findDirectory( repository, "/public/hr" ) );
+    verify( repository, times( 1 ) ).loadRepositoryDirectoryTree();
+  }
+
+  @Test
+  public void testExpiredDirectoriesAreResolvedAgain() throws Exception {
+    directoryIndex.setTimeToLive( 50 );
+    directoryIndex.findDirectory( repository, "/public/sales" );
+    Thread.sleep( 100 );
+
+    // sales was moved out of the server, the plugin was not told
+    RepositoryDirectoryInterface newRoot = mock( RepositoryDirectoryInterface.class );
+    RepositoryDirectoryInterface newPublicDir = mock( RepositoryDirectoryInterface.class );
+    doReturn( newPublicDir ).when( newRoot ).findChild( "public" );
+    doReturn( newRoot ).when( repository ).loadRepositoryDirectoryTree();
+
+    assertNull( directoryIndex.findDirectory( repository, "/public/sales" ) );
+    verify( repository, times( 2 ) ).loadRepositoryDirectoryTree();
+    verify( newPublicDir ).findChild( "sales" );
+  }
+
+  @Test
+  public void testIndexesAreKeptPerUser() throws Exception {
+    IUser admin = mock( IUser.class );
+    doReturn( "admin" ).when( admin ).getLogin();
+    doReturn( admin ).when( repository ).getUserInfo();
+    directoryIndex.findDirectory( repository, "/public/sales" );
+
+    // same repository, another user: the directories this user can see are loaded with its own connection
+    Repository otherConnection = mock( Repository.class );
+    IUser suzy = mock( IUser.class );
+    doReturn( "pur" ).when( otherConnection ).getName();
+    doReturn( "suzy" ).when( suzy ).getLogin();
+    doReturn( suzy ).when( otherConnection ).getUserInfo();
+
+    assertNull( directoryIndex.findDirectory( otherConnection, "/public/sales" ) );
+    verify( otherConnection ).loadRepositoryDirectoryTree();
+    assertEquals( 2, directoryIndex.size( repository ) );
+    assertEquals( 0, directoryIndex.size( otherConnection ) );
+  }
+
+  @Test
+  public void testIndexesAreKeptPerRepository() throws Exception {
+    Repository otherRepository = mock( Repository.class );
+    doReturn( "other" ).when( otherRepository ).getName();
+
+    directoryIndex.findDirectory( repository, "/public" );
+
+    assertNull( directoryIndex.findDirectory( otherRepository, "/public" ) );
+    verify( otherRepository ).loadRepositoryDirectoryTree();
+    verify( root, never() ).findChild( "sales" );
+  }
+
+  @Test
+  public void testIndexIsFasterThanLoadingTheTree() throws Exception {
+    // what each load did before the index: load the whole tree to find one folder
+    Repository treeRepository = mock( Repository.class );
+    doReturn( "pur" ).when( treeRepository ).getName();
+    doAnswer( invocation -> newTree( 50, 50 ) ).when( treeRepository ).loadRepositoryDirectoryTree();
+    int lookups = 500;
+
+    long start = System.nanoTime();
+    for ( int i = 0; i < lookups; i++ ) {
+      assertNotNull( treeRepository.loadRepositoryDirectoryTree().findDirectory( getPath( i ) ) );
+    }
+    long treeNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for ( int i = 0; i < lookups; i++ ) {
+      assertNotNull( directoryIndex.findDirectory( treeRepository, getPath( i ) ) );
+    }
+    long indexNanos = System.nanoTime() - start;
+
+    System.out.println( "Directory tree: " + treeNanos / lookups / 1000 + " us per lookup" );
+    System.out.println( "Directory index: " + indexNanos / lookups / 1000 + " us per lookup" );
+    verify( treeRepository, times( lookups + 1 ) ).loadRepositoryDirectoryTree();
+    assertTrue( indexNanos < treeNanos );
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals( "/", RepositoryDirectoryIndex.normalize( null ) );
+    assertEquals( "/", RepositoryDirectoryIndex.normalize( "" ) );
+    assertEquals( "/public/sales", RepositoryDirectoryIndex.normalize( "public//sales/" ) );
+    assertEquals( "/public/sales", RepositoryDirectoryIndex.normalize( "\\public\\sales" ) );
+  }
+
+  private static String getPath( int i ) {
+    return "/public/folder" + i % 50 + "/folder" + i / 50 % 50;
+  }
+
+  private static RepositoryDirectoryInterface newTree( int folders, int subfolders ) {
+    RepositoryDirectory root = new RepositoryDirectory();
+    RepositoryDirectory publicDir = new RepositoryDirectory( root, "public" );
+    root.addSubdirectory( publicDir );
+    for ( int folder = 0; folder < folders; folder++ ) {
+      RepositoryDirectory folderDir = new RepositoryDirectory( publicDir, "folder" + folder );
+      publicDir.addSubdirectory( folderDir );
+      for ( int subfolder = 0; subfolder < subfolders; subfolder++ ) {
+        folderDir.addSubdirectory( new RepositoryDirectory( folderDir, "folder" + subfolder ) );
+      }
+    }
+    return root;
+  }
+}
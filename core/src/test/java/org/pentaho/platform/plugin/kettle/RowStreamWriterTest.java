@@ -0,0 +1,190 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RowStreamWriterTest {
+
+  private static final String[] FIELDS = { "id", "amount", "name", "valid" };
+
+  @Test
+  public void testCsv() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RowStreamWriter writer = new RowStreamWriter( out, RowStreamWriter.Format.CSV, 4 );
+    writer.start( FIELDS );
+    writer.write( newRowMeta(), new Object[] { 1L, 2.5d, "a, \"b\"", true } );
+    writer.write( newRowMeta(), new Object[] { 2L, null, "line\nbreak", null } );
+    writer.finish();
+
+    assertEquals( "id,amount,name,valid\r\n"
+      + "1,2.5,\"a, \"\"b\"\"\",true\r\n"
+      + "2,,\"line\nbreak\",\r\n", new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    assertEquals( 2, writer.getRowCount() );
+    assertEquals( 2, writer.getWrittenRowCount() );
+  }
+
+  @Test
+  public void testErrorRecordEndsTheStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RowStreamWriter writer = new RowStreamWriter( out, RowStreamWriter.Format.JSONL, 4 );
+    writer.start( FIELDS );
+    writer.write( newRowMeta(), new Object[] { 1L, 2.5d, "a", true } );
+    writer.fail( "failed \"here\"" );
+
+    assertEquals( "{\"id\":1,\"amount\":2.5,\"name\":\"a\",\"valid\":true}\n"
+      + "{\"$error\":\"failed \\\"here\\\"\"}\n", new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    assertEquals( 1, writer.getWrittenRowCount() );
+
+    out = new ByteArrayOutputStream();
+    writer = new RowStreamWriter( out, RowStreamWriter.Format.CSV, 4 );
+    writer.start( FIELDS );
+    writer.write( newRowMeta(), new Object[] { 1L, 2.5d, "a", true } );
+    writer.fail( "failed, here" );
+
+    assertEquals( "id,amount,name,valid\r\n"
+      + "1,2.5,a,true\r\n"
+      + "\"#ERROR failed, here\"\r\n", new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+  }
+
+  @Test
+  public void testNoErrorRecordWhenNothingWasStreamed() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RowStreamWriter writer = new RowStreamWriter( out, RowStreamWriter.Format.JSONL, 4 );
+    writer.fail( "failed" );
+
+    assertEquals( 0, out.size() );
+  }
+
+  @Test
+  public void testJsonLines() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RowStreamWriter writer = new RowStreamWriter( out, RowStreamWriter.Format.fromName( "ndjson" ), 4 );
+    writer.start( FIELDS );
+    writer.write( newRowMeta(), new Object[] { 1L, 2.5d, "say \"hi\"\t\\", true } );
+    writer.write( newRowMeta(), new Object[] { null, Double.NaN, "\u00e9\u0001", false } );
+    writer.finish();
+
+    assertEquals( "{\"id\":1,\"amount\":2.5,\"name\":\"say \\\"hi\\\"\\t\\\\\",\"valid\":true}\n"
+      + "{\"id\":null,\"amount\":\"NaN\",\"name\":\"\u00e9\\u0001\",\"valid\":false}\n",
+      new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+  }
+
+  @Test
+  public void testStepWaitsForASlowClient() throws Exception {
+    CountDownLatch released = new CountDownLatch( 1 );
+    OutputStream slowClient = new OutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        await( released );
+      }
+
+      @Override
+      public void write( byte[] b, int off, int len ) throws IOException {
+        await( released );
+      }
+    };
+    RowStreamWriter writer = new RowStreamWriter( slowClient, RowStreamWriter.Format.JSONL, 2 );
+    writer.start( FIELDS );
+
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread step = new Thread( () -> {
+      try {
+        for ( long i = 0; i < 1000; i++ ) {
+          writer.write( newRowMeta(), new Object[] { i, 1d, "name", true } );
+        }
+      } catch ( KettleStepException e ) {
+        failure.set( e );
+      }
+    } );
+    step.start();
+
+    step.join( 500 );
+    assertTrue( step.isAlive() );
+    // no more rows than the queue and the buffer of the stream hold, and none sent yet
+    assertTrue( writer.getRowCount() < 1000 );
+    assertEquals( 0, writer.getWrittenRowCount() );
+
+    released.countDown();
+    step.join( TimeUnit.SECONDS.toMillis( 30 ) );
+    assertEquals( 1000, writer.awaitWrittenRowCount() );
+    writer.finish();
+    assertNull( failure.get() );
+    assertEquals( 1000, writer.getRowCount() );
+  }
+
+  @Test
+  public void testStepFailsWhenTheClientIsGone() throws Exception {
+    OutputStream closed = new OutputStream() {
+      @Override
+      public void write( int b ) throws IOException {
+        throw new IOException( "Broken pipe" );
+      }
+    };
+    RowStreamWriter writer = new RowStreamWriter( closed, RowStreamWriter.Format.CSV, 2 );
+    writer.start( FIELDS );
+
+    try {
+      for ( long i = 0; i < 100000; i++ ) {
+        writer.write( newRowMeta(), new Object[] { i, 1d, "name", true } );
+      }
+      fail();
+    } catch ( KettleStepException e ) {
+      assertEquals( "Broken pipe", e.getCause().getMessage() );
+    }
+    try {
+      writer.finish();
+      fail();
+    } catch ( IOException e ) {
+      assertEquals( "Broken pipe", e.getMessage() );
+    }
+  }
+
+  private static void await( CountDownLatch latch ) throws IOException {
+    try {
+      latch.await();
+    } catch ( InterruptedException e ) {
+      throw new IOException( e );
+    }
+  }
+
+  private static RowMetaInterface newRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "valid" ) );
+    return rowMeta;
+  }
+}
@@ -0,0 +1,137 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingResultSetTest {
+
+  private static final String[][] COLUMNS = { { "id", "amount", "created", "valid", "name", "total" } };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReadsMemoryAndDiskRows() throws Exception {
+    RowMetaInterface rowMeta = newRowMeta();
+    SpillingResultSet rows = new SpillingResultSet( new MemoryMetaData( COLUMNS, null ), 100, folder.getRoot(), 4096 );
+
+    int rowCount = 5000;
+    for ( int i = 0; i < rowCount; i++ ) {
+      rows.addRow( rowMeta, newRow( i ) );
+    }
+    assertEquals( rowCount, rows.getRowCount() );
+    assertEquals( rowCount - 100, rows.getSpilledRowCount() );
+    assertTrue( rows.getSpillFiles().size() > 1 );
+
+    int row = 0;
+    Object[] values;
+    while ( ( values = rows.next() ) != null ) {
+      assertArrayEquals( newRow( row++ ), values );
+    }
+    assertEquals( rowCount, row );
+
+    // out of order
+    assertArrayEquals( newRow( 4321 ), rows.getDataRow( 4321 ) );
+    assertArrayEquals( newRow( 99 ), rows.getDataRow( 99 ) );
+    assertArrayEquals( newRow( 1234 ), rows.getDataRow( 1234 ) );
+    assertEquals( "name 2500", rows.getValueAt( 2500, 4 ) );
+    assertNull( rows.getValueAt( 2501, 4 ) );
+    assertNull( rows.getDataRow( rowCount ) );
+    assertEquals( 4999L, rows.getDataColumn( 0 )[ 4999 ] );
+  }
+
+  @Test
+  public void testRowLargerThanASegment() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "text" ) );
+    SpillingResultSet rows =
+      new SpillingResultSet( new MemoryMetaData( new String[][] { { "text" } }, null ), 0, folder.getRoot(), 1024 );
+
+    StringBuilder text = new StringBuilder();
+    for ( int i = 0; i < 1000; i++ ) {
+      text.append( "\u00e9t\u00e9 " );
+    }
+    rows.addRow( rowMeta, new Object[] { "short" } );
+    rows.addRow( rowMeta, new Object[] { text.toString() } );
+    rows.addRow( rowMeta, new Object[] { "short again" } );
+
+    assertEquals( "short", rows.getValueAt( 0, 0 ) );
+    assertEquals( text.toString(), rows.getValueAt( 1, 0 ) );
+    assertEquals( "short again", rows.getValueAt( 2, 0 ) );
+  }
+
+  @Test
+  public void testDeletesTheFilesOnceReleased() throws Exception {
+    RowMetaInterface rowMeta = newRowMeta();
+    SpillingResultSet rows = new SpillingResultSet( new MemoryMetaData( COLUMNS, null ), 10, folder.getRoot(), 4096 );
+    for ( int i = 0; i < 1000; i++ ) {
+      rows.addRow( rowMeta, newRow( i ) );
+    }
+    IPentahoResultSet copy = rows.memoryCopy();
+
+    rows.dispose();
+    // still used by the copy
+    for ( File file : folder.getRoot().listFiles() ) {
+      assertTrue( file.getName().startsWith( "pdi-rows-" ) );
+    }
+    assertTrue( folder.getRoot().listFiles().length > 0 );
+    assertArrayEquals( newRow( 999 ), copy.getDataRow( 999 ) );
+
+    copy.dispose();
+    assertEquals( 0, folder.getRoot().listFiles().length );
+  }
+
+  private static RowMetaInterface newRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "created" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "valid" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaBigNumber( "total" ) );
+    return rowMeta;
+  }
+
+  private static Object[] newRow( int i ) {
+    return new Object[] {
+      (long) i,
+      i % 7 == 0 ? null : i * 0.25d,
+      new Date( 1700000000000L + i * 1000L ),
+      i % 2 == 0,
+      i % 2 == 0 ? "name " + i : null,
+      new BigDecimal( i + ".125" ) };
+  }
+}
@@ -37,12 +37,17 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -163,6 +168,43 @@ public class UserParametersTest {
     assertFalse( protectedParameterNameExistsInKjb );
   }
 
+  @Test
+  public void testBulkUserParameters() throws Exception {
+    PdiContentProvider pdiContentProvider = spy( new PdiContentProvider( PentahoSystem.get( IUnifiedRepository.class ) ) );
+    List<String> readers = Collections.synchronizedList( new ArrayList<>() );
+    doAnswer( invocation -> {
+      readers.add( PentahoSessionHolder.getSession().getName() );
+      return invocation.callRealMethod();
+    } ).when( pdiContentProvider ).getUserParameters( anyString() );
+
+    String trans = SOLUTION_REPOSITORY + SAMPLE_TRANS;
+    String job = SOLUTION_REPOSITORY + SAMPLE_JOB;
+    String missing = SOLUTION_REPOSITORY + "/org/pentaho/platform/plugin/kettle/missing.ktr";
+    Map<String, Map<String, String>> userParams =
+      pdiContentProvider.getUserParameters( Arrays.asList( job, missing, trans, job ) );
+
+    // in the order of the paths, once each
+    assertEquals( Arrays.asList( job, missing, trans ), new ArrayList<>( userParams.keySet() ) );
+    assertEquals( pdiContentProvider.getUserParameters( trans ), userParams.get( trans ) );
+    assertTrue( userParams.get( job ).containsKey( "public" ) );
+    assertFalse( userParams.get( job ).containsKey( SAMPLE_PROTECTED_PARAMETER_NAME ) );
+    assertTrue( userParams.get( missing ).isEmpty() );
+
+    // read as the user of the request, on the shared threads
+    assertEquals( 4, readers.size() );
+    for ( String reader : readers ) {
+      assertEquals( TEST_USER, reader );
+    }
+  }
+
+  @Test
+  public void testBulkUserParametersWithoutPaths() throws Exception {
+    PdiContentProvider pdiContentProvider = new PdiContentProvider( PentahoSystem.get( IUnifiedRepository.class ) );
+
+    assertTrue( pdiContentProvider.getUserParameters( (List<String>) null ).isEmpty() );
+    assertTrue( pdiContentProvider.getUserParameters( Collections.<String>emptyList() ).isEmpty() );
+  }
+
   static class TestAuthorizationPolicy implements IAuthorizationPolicy {
     private static final String ACTION_READ = "org.pentaho.repository.read";
     private static final String ACTION_CREATE = "org.pentaho.repository.create";
@@ -0,0 +1,82 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.plugin.kettle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XMLHandlerCacheScopeTest {
+
+  private XMLHandlerCacheScope scope;
+
+  @Before
+  public void setUp() {
+    scope = new XMLHandlerCacheScope();
+  }
+
+  @Test
+  public void testClearedWhenLastExecutionFinishes() {
+    scope.enter();
+    scope.enter();
+
+    assertFalse( scope.exit() );
+    assertTrue( scope.exit() );
+    assertEquals( 0, scope.getActiveExecutions() );
+    assertEquals( 1, scope.getClearCount() );
+  }
+
+  @Test
+  public void testClearedAfterMaxExecutionsWhenBusy() {
+    scope.setMaxExecutions( 2 );
+    scope.enter();
+    scope.enter();
+    scope.enter();
+
+    assertFalse( scope.exit() );
+    assertTrue( scope.exit() );
+    assertTrue( scope.exit() );
+  }
+
+  @Test
+  public void testClearedWhenBusyByDefault() {
+    scope.enter();
+    int cleared = 0;
+    for ( int i = 0; i < 1000; i++ ) {
+      scope.enter();
+      if ( scope.exit() ) {
+        cleared++;
+      }
+    }
+
+    // never idle, yet cleared every DEFAULT_MAX_EXECUTIONS executions
+    assertEquals( 1000 / XMLHandlerCacheScope.DEFAULT_MAX_EXECUTIONS, cleared );
+    assertEquals( 1, scope.getActiveExecutions() );
+  }
+
+  @Test
+  public void testOnlyClearedWhenIdle() {
+    scope.setMaxExecutions( 0 );
+    scope.enter();
+    scope.enter();
+    scope.enter();
+
+    assertFalse( scope.exit() );
+    assertFalse( scope.exit() );
+    assertTrue( scope.exit() );
+  }
+}